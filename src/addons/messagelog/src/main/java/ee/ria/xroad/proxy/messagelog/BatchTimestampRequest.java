@@ -25,7 +25,7 @@
  */
 package ee.ria.xroad.proxy.messagelog;
 
-import ee.ria.xroad.common.hashchain.HashChainBuilder;
+import ee.ria.xroad.common.hashchain.ArrayHashChainBuilder;
 import ee.ria.xroad.common.messagelog.MessageLogProperties;
 
 import org.bouncycastle.tsp.TimeStampResponse;
@@ -52,7 +52,7 @@ class BatchTimestampRequest extends AbstractTimestampRequest {
 
     @Override
     byte[] getRequestData() throws Exception {
-        HashChainBuilder hcBuilder = buildHashChain(signatureHashes);
+        ArrayHashChainBuilder hcBuilder = buildHashChain(signatureHashes);
         hashChainResult = hcBuilder.getHashChainResult(TS_HASH_CHAIN);
         hashChains = hcBuilder.getHashChains(SIGNATURE);
         return hashChainResult.getBytes(UTF_8.name());
@@ -65,9 +65,9 @@ class BatchTimestampRequest extends AbstractTimestampRequest {
                 hashChainResult, hashChains, url);
     }
 
-    private HashChainBuilder buildHashChain(String[] hashes) throws Exception {
-        HashChainBuilder hcBuilder =
-                new HashChainBuilder(MessageLogProperties.getHashAlg());
+    private ArrayHashChainBuilder buildHashChain(String[] hashes) throws Exception {
+        ArrayHashChainBuilder hcBuilder =
+                new ArrayHashChainBuilder(MessageLogProperties.getHashAlg(), hashes.length);
 
         for (String signatureHashBase64 : hashes) {
             hcBuilder.addInputHash(decodeBase64(signatureHashBase64));
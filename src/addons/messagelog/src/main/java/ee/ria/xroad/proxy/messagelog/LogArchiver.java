@@ -87,6 +87,8 @@ public class LogArchiver extends UntypedAbstractActor {
                 if (maxTimestampId != null) {
                     while (handleArchive(maxTimestampId)) {
                     }
+
+                    LogRecordManager.clearQueryIdCache();
                 }
             } catch (Exception ex) {
                 log.error("Failed to archive log records", ex);
@@ -112,6 +112,9 @@ public class LogManager extends AbstractLogManager {
     final ActorRef logArchiver;
     final ActorRef logCleaner;
 
+    // Query id lookups only read the database, so they are run directly in the calling threads
+    private final QueryIdLookup queryIdLookup = LogRecordManager::getByQueryId;
+
     LogManager(JobManager jobManager) throws Exception {
         super(jobManager);
 
@@ -120,6 +123,17 @@ public class LogManager extends AbstractLogManager {
         timestamperJob = createTimestamperJob();
         logArchiver = createArchiver(jobManager);
         logCleaner = createCleaner(jobManager);
+
+        setQueryIdLookup(queryIdLookup);
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if (getQueryIdLookup() == queryIdLookup) {
+            setQueryIdLookup(null);
+        }
+
+        super.postStop();
     }
 
     private ActorRef createTaskQueue() {
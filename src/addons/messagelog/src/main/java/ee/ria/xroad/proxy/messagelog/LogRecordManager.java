@@ -32,7 +32,11 @@ import ee.ria.xroad.common.messagelog.LogRecord;
 import ee.ria.xroad.common.messagelog.MessageRecord;
 import ee.ria.xroad.common.messagelog.TimestampRecord;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.FlushMode;
 import org.hibernate.Session;
 import org.hibernate.query.Query;
 
@@ -45,9 +49,12 @@ import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
@@ -69,12 +76,26 @@ public final class LogRecordManager {
     private static final int INDEX_2 = 2;
     private static final int INDEX_3 = 3;
 
+    // Number of message records waiting for time-stamping, maintained in memory so that the task queue does not
+    // need to count them in the database.
+    private static final AtomicLong UNTIMESTAMPED_COUNT = new AtomicLong();
+
+    private static final int QUERY_ID_CACHE_MAX_SIZE = 1000;
+    private static final int QUERY_ID_CACHE_EXPIRE_SECONDS = 60;
+
+    // The IDs of recently found time-stamped message records. Only the IDs are cached, so every caller gets its
+    // own instance of the record and sees the current state of it. Only time-stamped records are cached.
+    private static final Cache<QueryIdKey, Long> QUERY_ID_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(QUERY_ID_CACHE_MAX_SIZE)
+            .expireAfterWrite(QUERY_ID_CACHE_EXPIRE_SECONDS, TimeUnit.SECONDS)
+            .build();
 
     private LogRecordManager() {
     }
 
     /**
-     * Returns a log record for a given message Query Id, start and end time.
+     * Returns a log record for a given message Query Id, start and end time. The query is read-only, so it can be
+     * called directly from the request threads. Recently found time-stamped records are loaded by their ID.
      * @param queryId   the message query id.
      * @param startTime the start time.
      * @param endTime   the end time.
@@ -84,7 +105,34 @@ public final class LogRecordManager {
     static LogRecord getByQueryId(String queryId, Date startTime, Date endTime) throws Exception {
         log.trace(GET_BY_QUERY_ID_LOG_FORMAT, queryId, startTime, endTime);
 
-        return doInTransaction(session -> getMessageRecord(session, queryId, startTime, endTime));
+        QueryIdKey key = new QueryIdKey(queryId, startTime, endTime);
+        Long cachedId = QUERY_ID_CACHE.getIfPresent(key);
+
+        if (cachedId != null) {
+            MessageRecord cached = doInTransaction(session -> session.get(MessageRecord.class, cachedId));
+
+            if (cached != null) {
+                return cached;
+            }
+
+            // The record has been removed after archiving.
+            QUERY_ID_CACHE.invalidate(key);
+        }
+
+        MessageRecord record = doInTransaction(session -> getMessageRecord(session, queryId, startTime, endTime));
+
+        if (record != null && record.getTimestampRecord() != null) {
+            QUERY_ID_CACHE.put(key, record.getId());
+        }
+
+        return record;
+    }
+
+    /**
+     * Clears the cache of recently found log records. Called when the records are archived.
+     */
+    static void clearQueryIdCache() {
+        QUERY_ID_CACHE.invalidateAll();
     }
 
     /**
@@ -147,6 +195,10 @@ public final class LogRecordManager {
             save(session, messageRecord);
             return null;
         });
+
+        if (messageRecord.getSignatureHash() != null) {
+            UNTIMESTAMPED_COUNT.incrementAndGet();
+        }
     }
 
     /**
@@ -172,17 +224,50 @@ public final class LogRecordManager {
      * @param timestampRecord       the time-stamp record to be saved.
      * @param timestampedLogRecords the message records that were time-stamped.
      * @param hashChains            the time-stamp hash chains for each message record.
+     * @return the number of message records that were time-stamped by this record, message records that already
+     * had a time-stamp are not updated.
      * @throws Exception if an error occurs while communicating with database.
      */
-    static void saveTimestampRecord(TimestampRecord timestampRecord, Long[]
+    static int saveTimestampRecord(TimestampRecord timestampRecord, Long[]
             timestampedLogRecords, String[] hashChains)
             throws Exception {
-        doInTransaction(session -> {
+        int updated = doInTransaction(session -> {
             save(session, timestampRecord);
-            setMessageRecordsTimestamped(session, timestampedLogRecords, timestampRecord, hashChains);
 
-            return null;
+            return setMessageRecordsTimestamped(session, timestampedLogRecords, timestampRecord, hashChains);
         });
+
+        UNTIMESTAMPED_COUNT.updateAndGet(count -> Math.max(0, count - updated));
+
+        return updated;
+    }
+
+    /**
+     * @return the number of message records waiting for time-stamping. The number is kept in memory and updated
+     * when message records are saved or time-stamped, it can be corrected with
+     * {@link #resetUntimestampedCount(long)}.
+     */
+    static long getUntimestampedCount() {
+        return UNTIMESTAMPED_COUNT.get();
+    }
+
+    /**
+     * Sets the number of message records waiting for time-stamping, e.g. after counting them from the database.
+     * @param count the number of message records waiting for time-stamping.
+     */
+    static void resetUntimestampedCount(long count) {
+        UNTIMESTAMPED_COUNT.set(count);
+    }
+
+    /**
+     * Counts the message records waiting for time-stamping in the database.
+     * @return the number of message records waiting for time-stamping.
+     * @throws Exception if an error occurs while communicating with database.
+     */
+    static long countUntimestamped() throws Exception {
+        return doInTransaction(session -> session.createQuery(
+                "select count(*) from MessageRecord m where m.signatureHash is not null", Long.class)
+                .getSingleResult());
     }
 
     /**
@@ -202,9 +287,10 @@ public final class LogRecordManager {
      * @param messageRecords  the message records.
      * @param timestampRecord the time-stamp record.
      * @param hashChains      the time-stamp hash chains.
+     * @return the number of updated message records.
      * @throws Exception if an error occurs while communicating with database.
      */
-    private static void setMessageRecordsTimestamped(Session session, Long[] messageRecords,
+    private static int setMessageRecordsTimestamped(Session session, Long[] messageRecords,
             TimestampRecord timestampRecord, String[] hashChains) {
         if (log.isTraceEnabled()) {
             log.trace("setMessageRecordsTimestamped({}, {})", Arrays.toString(messageRecords),
@@ -218,17 +304,18 @@ public final class LogRecordManager {
         // Let's perform directly JDBC related work for bulk update.
         // Needs to flush the session to get access to previously saved timestamp record.
         session.flush();
-        session.doWork(connection -> setMessageRecordsTimestamped(messageRecords, timestampRecord,
+        return session.doReturningWork(connection -> setMessageRecordsTimestamped(messageRecords, timestampRecord,
                 hashChains,
                 connection, getConfiguredBatchSize(session)));
     }
 
-    private static void setMessageRecordsTimestamped(Long[] messageRecords, TimestampRecord
+    private static int setMessageRecordsTimestamped(Long[] messageRecords, TimestampRecord
             timestampRecord,
             String[] hashChains, Connection connection, int batchSize) throws SQLException {
         log.trace("setMessageRecordsTimestamped({})", messageRecords.length);
 
         int storedCount = 0;
+        int updatedCount = 0;
 
         try (PreparedStatement stmt = connection.prepareStatement(UPDATE_LOG_RECORD_STATEMENT)) {
             for (int i = 0; i < messageRecords.length; i++) {
@@ -242,7 +329,7 @@ public final class LogRecordManager {
                 if (++storedCount % batchSize == 0) {
                     log.trace("setMessageRecordsTimestamped(): execute batch({})", batchSize);
 
-                    stmt.executeBatch();
+                    updatedCount += getUpdateCount(stmt.executeBatch());
                     stmt.clearBatch();
                 }
             }
@@ -250,9 +337,22 @@ public final class LogRecordManager {
             if (storedCount % batchSize != 0) {
                 log.trace("setMessageRecordsTimestamped(): execute batch({})", storedCount % batchSize);
 
-                stmt.executeBatch();
+                updatedCount += getUpdateCount(stmt.executeBatch());
             }
         }
+
+        return updatedCount;
+    }
+
+    private static int getUpdateCount(int[] results) {
+        int count = 0;
+
+        for (int result : results) {
+            // Drivers may report a successful statement without the number of rows.
+            count += result == Statement.SUCCESS_NO_INFO ? 1 : Math.max(0, result);
+        }
+
+        return count;
     }
 
     private static LogRecord getLogRecord(Session session, Long number) {
@@ -269,7 +369,11 @@ public final class LogRecordManager {
                         cb.equal(m.get("queryId"), queryId),
                         cb.between(m.get("time"), startTime.getTime(), endTime.getTime())
                 ));
-        return session.createQuery(query).setMaxResults(1).uniqueResult();
+        return session.createQuery(query)
+                .setReadOnly(true)
+                .setHibernateFlushMode(FlushMode.MANUAL)
+                .setMaxResults(1)
+                .uniqueResult();
     }
 
     private static MessageRecord getMessageRecord(Session session, String queryId, ClientId clientId,
@@ -319,4 +423,10 @@ public final class LogRecordManager {
         return configuredBatchSize;
     }
 
+    @Value
+    private static class QueryIdKey {
+        final String queryId;
+        final Date startTime;
+        final Date endTime;
+    }
 }
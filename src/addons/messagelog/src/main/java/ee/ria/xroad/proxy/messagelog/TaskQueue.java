@@ -39,13 +39,21 @@ import lombok.extern.slf4j.Slf4j;
 import org.hibernate.Session;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static ee.ria.xroad.proxy.messagelog.LogManager.TIMESTAMPER_NAME;
 import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
 
 /**
  * Handles the TaskQueues -- adds tasks to the queue and sends the active queue for time-stamping.
+ *
+ * While there are records waiting for time-stamping, up to timestamper-max-concurrent-requests batches are
+ * time-stamped at the same time. The batches are taken in record number order, so that the batches in progress
+ * never overlap, and sized by {@link TimestampBatchController} from the measured time-stamping latency and the
+ * number of waiting records. The number of waiting records is tracked in memory by {@link LogRecordManager}.
  */
 @Slf4j
 @RequiredArgsConstructor(access = AccessLevel.PACKAGE)
@@ -56,6 +64,34 @@ public class TaskQueue extends UntypedAbstractActor {
     static final double TIMESTAMPED_RECORDS_RATIO_THRESHOLD = 0.7;
     static final int TIMESTAMP_RECORDS_LIMIT_RETRY_MODE = 1;
 
+    private static final long DEFAULT_TARGET_LATENCY_MILLIS = 15000;
+
+    private final TimestampBatchController controller = new TimestampBatchController(
+            MessageLogProperties.getTimestamperMaxConcurrentRequests(), getTargetLatencyMillis());
+
+    // Batches in progress by the number of their first message record.
+    private final Map<Long, Batch> batchesInProgress = new HashMap<>();
+
+    private int recordsInProgress;
+
+    // The highest message record number sent for time-stamping while batches are in progress.
+    private long sentUpTo;
+
+    @RequiredArgsConstructor
+    private static final class Batch {
+        private final int size;
+        private final long startNanos;
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        try {
+            LogRecordManager.resetUntimestampedCount(LogRecordManager.countUntimestamped());
+        } catch (Exception e) {
+            log.error("Could not count message records waiting for time-stamping", e);
+        }
+    }
+
     @Override
     public void onReceive(Object message) throws Exception {
         log.trace("onReceive({})", message);
@@ -80,6 +116,13 @@ public class TaskQueue extends UntypedAbstractActor {
             log.trace("Time-stamped message records {}", Arrays.toString(message.getMessageRecords()));
         }
 
+        Batch batch = batchCompleted(message.getMessageRecords());
+
+        if (batch != null) {
+            controller.onSuccess(batch.size, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batch.startNanos),
+                    MessageLogProperties.getTimestampRecordsLimit());
+        }
+
         boolean succeeded = true;
 
         try {
@@ -91,13 +134,10 @@ public class TaskQueue extends UntypedAbstractActor {
         } finally {
             if (succeeded) {
                 indicateSuccess();
-                // If time-stamped records count equals to time-stamp records limit, there are probably
-                // still records to be time-stamped. Init another another time-stamping round to prevent
-                // messagelog records to begin to bloat.
-                if (message.getMessageRecords().length == MessageLogProperties.getTimestampRecordsLimit()) {
-                    log.info("Time-stamped records count equaled to time-stamp records limit");
-                    handleStartTimestamping();
-                }
+                // Continue with the records that are still waiting, so that the messagelog records do not begin
+                // to bloat between the scheduled time-stamping rounds.
+                sendBatches(MessageLogProperties.getTimestampRecordsLimit(), controller.getConcurrencyLimit(),
+                        false);
             } else {
                 indicateFailure();
             }
@@ -135,6 +175,9 @@ public class TaskQueue extends UntypedAbstractActor {
     protected void handleTimestampFailed(TimestampFailed message) {
         log.trace("handleTimestampFailed");
 
+        batchCompleted(message.getMessageRecords());
+        controller.onFailure();
+
         indicateFailure();
     }
 
@@ -143,35 +186,99 @@ public class TaskQueue extends UntypedAbstractActor {
     }
 
     protected void handleStartTimestamping(int timestampRecordsLimit) {
-        List<Task> timestampTasks;
+        // In retry mode only one record is time-stamped at a time to probe the time-stamping services.
+        int maxBatches = timestampRecordsLimit == TIMESTAMP_RECORDS_LIMIT_RETRY_MODE
+                ? 1 : controller.getConcurrencyLimit();
 
-        try {
-            timestampTasks = doInTransaction(session -> getTimestampTasks(session, timestampRecordsLimit));
-        } catch (Exception e) {
-            log.error("Error getting time-stamp tasks", e);
+        sendBatches(timestampRecordsLimit, maxBatches, true);
+    }
 
-            return;
-        }
+    /**
+     * Sends batches for time-stamping until the given number of batches is in progress or there are no more records
+     * waiting. If forced, the database is queried for records even if no records are known to be waiting.
+     */
+    private void sendBatches(int timestampRecordsLimit, int maxBatches, boolean force) {
+        boolean query = force;
 
-        if (timestampTasks.isEmpty()) {
-            log.trace("Nothing to time-stamp, task queue is empty");
+        while (batchesInProgress.size() < maxBatches) {
+            long waiting = LogRecordManager.getUntimestampedCount() - recordsInProgress;
 
-            return;
+            if (!query && waiting <= 0) {
+                return;
+            }
+
+            query = false;
+
+            int batchSize = controller.nextBatchSize(waiting, maxBatches - batchesInProgress.size(),
+                    timestampRecordsLimit);
+            List<Task> timestampTasks;
+
+            try {
+                timestampTasks = doInTransaction(session -> getTimestampTasks(session, sentUpTo, batchSize));
+            } catch (Exception e) {
+                log.error("Error getting time-stamp tasks", e);
+
+                return;
+            }
+
+            if (timestampTasks.isEmpty()) {
+                log.trace("Nothing to time-stamp, task queue is empty");
+
+                if (batchesInProgress.isEmpty()) {
+                    LogRecordManager.resetUntimestampedCount(0);
+                }
+
+                return;
+            }
+
+            if (timestampTasks.size() < batchSize && batchesInProgress.isEmpty()) {
+                // All the waiting records were found, correct the count in case it has drifted.
+                LogRecordManager.resetUntimestampedCount(timestampTasks.size());
+            }
+
+            send(timestampTasks, timestampRecordsLimit);
+
+            if (timestampTasks.size() < batchSize) {
+                return;
+            }
         }
+    }
 
+    private void send(List<Task> timestampTasks, int timestampRecordsLimit) {
         int timestampTasksSize = timestampTasks.size();
 
         log.info("Start time-stamping {} message records", timestampTasksSize);
 
-        if (timestampTasksSize / (double) MessageLogProperties.getTimestampRecordsLimit()
-                >= TIMESTAMPED_RECORDS_RATIO_THRESHOLD) {
+        if (timestampTasksSize / (double) timestampRecordsLimit >= TIMESTAMPED_RECORDS_RATIO_THRESHOLD) {
             log.warn("Number of time-stamped records is over {} % of 'timestamp-records-limit' value",
                     TIMESTAMPED_RECORDS_RATIO_THRESHOLD * 100);
         }
 
+        batchesInProgress.put(timestampTasks.get(0).getMessageRecordNo(),
+                new Batch(timestampTasksSize, System.nanoTime()));
+        recordsInProgress += timestampTasksSize;
+        sentUpTo = timestampTasks.get(timestampTasksSize - 1).getMessageRecordNo();
+
         sendToTimestamper(createTimestampTask(timestampTasks));
     }
 
+    private Batch batchCompleted(Long[] messageRecords) {
+        Batch batch = messageRecords != null && messageRecords.length > 0
+                ? batchesInProgress.remove(messageRecords[0]) : null;
+
+        if (batch != null) {
+            recordsInProgress -= batch.size;
+        }
+
+        if (batchesInProgress.isEmpty()) {
+            // Start from the beginning again, so that the records of failed batches are retried.
+            recordsInProgress = 0;
+            sentUpTo = 0;
+        }
+
+        return batch;
+    }
+
     private void sendToTimestamper(TimestampTask timestampTask) {
         ActorSelection timestamper = getContext().actorSelection("../" + TIMESTAMPER_NAME);
         timestamper.tell(timestampTask, getSelf());
@@ -190,31 +297,26 @@ public class TaskQueue extends UntypedAbstractActor {
     }
 
     private static boolean isTaskQueueEmpty() {
-        try {
-            return doInTransaction(TaskQueue::getTasksQueueSize) == 0L;
-        } catch (Exception e) {
-            log.error("Could not read timestamp task queue status", e);
-
-            return false;
-        }
+        return LogRecordManager.getUntimestampedCount() == 0L;
     }
 
-    @SuppressWarnings("unchecked")
-    private List<Task> getTimestampTasks(Session session, int timestampRecordsLimit) {
-        return session.createQuery(getTaskQueueQuery()).setMaxResults(timestampRecordsLimit).list();
+    private static long getTargetLatencyMillis() {
+        int readTimeout = MessageLogProperties.getTimestamperClientReadTimeout();
+
+        // A batch taking a quarter of the read timeout is considered slow.
+        return readTimeout > 0 ? readTimeout / 4 : DEFAULT_TARGET_LATENCY_MILLIS;
     }
 
     @SuppressWarnings("unchecked")
-    private static Long getTasksQueueSize(Session session) {
-        return (Long) session.createQuery(getTaskQueueSizeQuery()).uniqueResult();
+    private List<Task> getTimestampTasks(Session session, long after, int timestampRecordsLimit) {
+        return session.createQuery(getTaskQueueQuery() + " and m.id > :after order by m.id")
+                .setParameter("after", after)
+                .setMaxResults(timestampRecordsLimit)
+                .list();
     }
 
     static String getTaskQueueQuery() {
         return "select new " + Task.class.getName() + "(m.id, m.signatureHash) "
                 + "from MessageRecord m where m.signatureHash is not null";
     }
-
-    private static String getTaskQueueSizeQuery() {
-        return "select COUNT(*) from MessageRecord m where m.signatureHash is not null";
-    }
 }
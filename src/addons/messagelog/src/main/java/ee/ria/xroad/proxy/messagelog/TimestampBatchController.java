@@ -0,0 +1,134 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chooses the size of the time-stamping batches and the number of batches time-stamped concurrently.
+ *
+ * The batches are sized so that the records waiting for time-stamping are shared between the concurrent
+ * requests. The maximum batch size is halved when a batch takes longer than the target latency and grown back
+ * towards the timestamp-records-limit while full batches are fast. The number of concurrent requests is increased
+ * by one after every successful batch and halved after a failure.
+ */
+@Slf4j
+class TimestampBatchController {
+
+    /**
+     * Backlogs smaller than this are not split between concurrent requests.
+     */
+    static final int MIN_BATCH_SIZE = 100;
+
+    private static final double LATENCY_SMOOTHING = 0.3;
+
+    private final int maxConcurrency;
+    private final long targetLatencyMillis;
+
+    private int concurrencyLimit;
+    private int batchSizeLimit = Integer.MAX_VALUE;
+    private double latencyMillis = -1;
+
+    /**
+     * Creates the controller.
+     * @param maxConcurrency maximum number of concurrent time-stamping requests
+     * @param targetLatencyMillis the time one time-stamping request should take at most
+     */
+    TimestampBatchController(int maxConcurrency, long targetLatencyMillis) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.concurrencyLimit = this.maxConcurrency;
+    }
+
+    /**
+     * @return the number of time-stamping requests that may currently be in progress at the same time
+     */
+    int getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * @return the smoothed latency of the time-stamping requests in milliseconds, or -1 if not measured yet
+     */
+    double getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * Returns the size of the next batch.
+     * @param backlog the number of records waiting for time-stamping that are not in progress already
+     * @param batches the number of batches that can still be started, the backlog is shared between them
+     * @param recordsLimit the configured maximum number of records in one batch
+     * @return the number of records to time-stamp in the next batch
+     */
+    int nextBatchSize(long backlog, int batches, int recordsLimit) {
+        int max = Math.max(1, Math.min(batchSizeLimit, recordsLimit));
+
+        if (backlog <= 0) {
+            return max;
+        }
+
+        int min = Math.min(MIN_BATCH_SIZE, max);
+        int parts = Math.max(1, batches);
+        long share = (backlog + parts - 1) / parts;
+
+        return (int) Math.max(min, Math.min(max, share));
+    }
+
+    /**
+     * Records a successfully time-stamped batch.
+     * @param batchSize the number of records in the batch
+     * @param elapsedMillis the time the batch took
+     * @param recordsLimit the configured maximum number of records in one batch
+     */
+    void onSuccess(int batchSize, long elapsedMillis, int recordsLimit) {
+        latencyMillis = latencyMillis < 0 ? elapsedMillis
+                : LATENCY_SMOOTHING * elapsedMillis + (1 - LATENCY_SMOOTHING) * latencyMillis;
+
+        int currentLimit = Math.min(batchSizeLimit, recordsLimit);
+
+        if (elapsedMillis > targetLatencyMillis) {
+            batchSizeLimit = Math.max(Math.min(MIN_BATCH_SIZE, recordsLimit), batchSize / 2);
+        } else if (batchSize >= currentLimit && elapsedMillis < targetLatencyMillis / 2) {
+            batchSizeLimit = currentLimit >= recordsLimit / 2 ? Integer.MAX_VALUE : currentLimit * 2;
+        }
+
+        concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1);
+
+        log.debug("Time-stamped {} records in {} ms (average {} ms), batch size limit {}, concurrency limit {}",
+                batchSize, elapsedMillis, Math.round(latencyMillis), Math.min(batchSizeLimit, recordsLimit),
+                concurrencyLimit);
+    }
+
+    /**
+     * Records a failed time-stamping request.
+     */
+    void onFailure() {
+        concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+
+        log.debug("Time-stamping failed, concurrency limit {}", concurrencyLimit);
+    }
+}
@@ -38,9 +38,15 @@ import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Timestamper is responsible for routing timestamping tasks to the timestamp worker.
+ *
+ * Concurrent tasks are spread over the time-stamping services: each worker starts from the service following the
+ * one used by the previous concurrent worker and falls back to the others in the configured order.
  */
 @Slf4j
 public class Timestamper extends UntypedAbstractActor {
@@ -97,7 +103,23 @@ public class Timestamper extends UntypedAbstractActor {
         }
 
         // Spawn a new temporary child actor that will do the actual time stamping, which is probably lengthy process.
-        ActorRef worker = getContext().actorOf(Props.create(getWorkerImpl(), ServerConf.getTspUrl()));
+        ActorRef worker = getContext().actorOf(Props.create(getWorkerImpl(), getTspUrls()));
         worker.tell(message, getSender());
     }
+
+    private List<String> getTspUrls() {
+        List<String> tspUrls = new ArrayList<>(ServerConf.getTspUrl());
+
+        if (tspUrls.size() > 1) {
+            int activeWorkers = 0;
+
+            for (ActorRef ignored : getContext().getChildren()) {
+                activeWorkers++;
+            }
+
+            Collections.rotate(tspUrls, -(activeWorkers % tspUrls.size()));
+        }
+
+        return tspUrls;
+    }
 }
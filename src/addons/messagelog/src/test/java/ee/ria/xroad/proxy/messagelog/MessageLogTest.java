@@ -60,6 +60,8 @@ import javax.persistence.criteria.Root;
 import java.io.File;
 import java.io.FileFilter;
 import java.nio.file.Paths;
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.util.Date;
@@ -76,6 +78,7 @@ import static ee.ria.xroad.proxy.messagelog.TestUtil.createSignature;
 import static ee.ria.xroad.proxy.messagelog.TestUtil.initForTest;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -399,6 +402,68 @@ public class MessageLogTest extends AbstractMessageLogTest {
         assertNull(findByQueryId("foo", "02-04-2014 12:34:56.100", "02-04-2014 12:34:59.100"));
     }
 
+    /**
+     * Get message by query id using the direct lookup, time-stamped records are returned from the cache.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void findByQueryIdCachesTimestampedRecords() throws Exception {
+        log.trace("findByQueryIdCachesTimestampedRecords()");
+
+        AbstractLogManager.QueryIdLookup lookup = AbstractLogManager.getQueryIdLookup();
+        assertNotNull(lookup);
+
+        log("02-04-2014 12:34:56.100", createMessage("cached"));
+
+        Date startTime = getDate("02-04-2014 12:34:50.100");
+        Date endTime = getDate("02-04-2014 12:34:59.100");
+
+        MessageRecord record = (MessageRecord) lookup.findByQueryId("cached", startTime, endTime);
+        assertMessageRecord(record, "cached");
+        assertNotSame(record, lookup.findByQueryId("cached", startTime, endTime));
+
+        TimestampRecord timestamp = timestamp(record);
+        assertNotNull(timestamp);
+
+        record = (MessageRecord) lookup.findByQueryId("cached", startTime, endTime);
+        assertEquals(timestamp, record.getTimestampRecord());
+
+        // Every lookup gets its own instance of the cached record.
+        MessageRecord cached = (MessageRecord) lookup.findByQueryId("cached", startTime, endTime);
+        assertNotSame(record, cached);
+        assertEquals(record.getId(), cached.getId());
+        assertEquals(timestamp, cached.getTimestampRecord());
+    }
+
+    /**
+     * The query id lookups must use the query id index instead of scanning the log record table.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void findByQueryIdUsesIndex() throws Exception {
+        log.trace("findByQueryIdUsesIndex()");
+
+        // Same index as in the messagelog database changelog
+        doInTransaction(session -> session.createNativeQuery("CREATE INDEX IF NOT EXISTS IX_LOGRECORD_QUERYID "
+                + "ON LOGRECORD (QUERYID, MEMBERCLASS, MEMBERCODE, SUBSYSTEMCODE, TIME)").executeUpdate());
+
+        String plan = doInTransaction(session -> session.doReturningWork(connection -> {
+            StringBuilder sb = new StringBuilder();
+
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("EXPLAIN PLAN FOR SELECT ID FROM LOGRECORD WHERE QUERYID = 'q' "
+                         + "AND MEMBERCLASS = 'c' AND MEMBERCODE = 'm' AND SUBSYSTEMCODE = 's'")) {
+                while (rs.next()) {
+                    sb.append(rs.getString(1)).append('\n');
+                }
+            }
+
+            return sb.toString();
+        }));
+
+        assertTrue(plan, plan.contains("IX_LOGRECORD_QUERYID"));
+    }
+
     /**
      * Wants to time-stamp, but no TSP urls configured.
      * @throws Exception in case of any unexpected errors
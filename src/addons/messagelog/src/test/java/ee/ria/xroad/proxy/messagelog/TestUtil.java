@@ -126,6 +126,8 @@ final class TestUtil {
             q.executeUpdate();
             return null;
         });
+
+        LogRecordManager.clearQueryIdCache();
     }
 
     static SoapMessageImpl createMessage() throws Exception {
@@ -0,0 +1,126 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import org.junit.Test;
+
+import static ee.ria.xroad.proxy.messagelog.TimestampBatchController.MIN_BATCH_SIZE;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the sizing of time-stamping batches.
+ */
+public class TimestampBatchControllerTest {
+
+    private static final int RECORDS_LIMIT = 10000;
+    private static final long TARGET_LATENCY_MILLIS = 1000;
+
+    @Test
+    public void sharesBacklogBetweenBatches() {
+        TimestampBatchController controller = new TimestampBatchController(4, TARGET_LATENCY_MILLIS);
+
+        assertEquals(1000, controller.nextBatchSize(4000, 4, RECORDS_LIMIT));
+        assertEquals(4000, controller.nextBatchSize(4000, 1, RECORDS_LIMIT));
+        assertEquals(RECORDS_LIMIT, controller.nextBatchSize(100000, 4, RECORDS_LIMIT));
+    }
+
+    @Test
+    public void doesNotSplitSmallBacklog() {
+        TimestampBatchController controller = new TimestampBatchController(4, TARGET_LATENCY_MILLIS);
+
+        assertEquals(MIN_BATCH_SIZE, controller.nextBatchSize(3, 4, RECORDS_LIMIT));
+        assertEquals(2, controller.nextBatchSize(3, 4, 2));
+    }
+
+    @Test
+    public void usesLimitWhenBacklogIsUnknown() {
+        TimestampBatchController controller = new TimestampBatchController(4, TARGET_LATENCY_MILLIS);
+
+        assertEquals(RECORDS_LIMIT, controller.nextBatchSize(0, 4, RECORDS_LIMIT));
+        assertEquals(1, controller.nextBatchSize(0, 1, 1));
+    }
+
+    @Test
+    public void shrinksBatchesWhenSlowAndGrowsWhenFast() {
+        TimestampBatchController controller = new TimestampBatchController(1, TARGET_LATENCY_MILLIS);
+
+        controller.onSuccess(RECORDS_LIMIT, 2 * TARGET_LATENCY_MILLIS, RECORDS_LIMIT);
+        assertEquals(RECORDS_LIMIT / 2, controller.nextBatchSize(100000, 1, RECORDS_LIMIT));
+
+        controller.onSuccess(RECORDS_LIMIT / 2, 2 * TARGET_LATENCY_MILLIS, RECORDS_LIMIT);
+        assertEquals(RECORDS_LIMIT / 4, controller.nextBatchSize(100000, 1, RECORDS_LIMIT));
+
+        // Batches that are not full do not grow the limit.
+        controller.onSuccess(MIN_BATCH_SIZE, 1, RECORDS_LIMIT);
+        assertEquals(RECORDS_LIMIT / 4, controller.nextBatchSize(100000, 1, RECORDS_LIMIT));
+
+        controller.onSuccess(RECORDS_LIMIT / 4, 1, RECORDS_LIMIT);
+        assertEquals(RECORDS_LIMIT / 2, controller.nextBatchSize(100000, 1, RECORDS_LIMIT));
+
+        controller.onSuccess(RECORDS_LIMIT / 2, 1, RECORDS_LIMIT);
+        assertEquals(RECORDS_LIMIT, controller.nextBatchSize(100000, 1, RECORDS_LIMIT));
+    }
+
+    @Test
+    public void neverShrinksBelowMinimumBatchSize() {
+        TimestampBatchController controller = new TimestampBatchController(1, TARGET_LATENCY_MILLIS);
+
+        for (int i = 0; i < 20; i++) {
+            controller.onSuccess(MIN_BATCH_SIZE, 2 * TARGET_LATENCY_MILLIS, RECORDS_LIMIT);
+        }
+
+        assertEquals(MIN_BATCH_SIZE, controller.nextBatchSize(100000, 1, RECORDS_LIMIT));
+    }
+
+    @Test
+    public void halvesConcurrencyOnFailure() {
+        TimestampBatchController controller = new TimestampBatchController(8, TARGET_LATENCY_MILLIS);
+
+        controller.onFailure();
+        assertEquals(4, controller.getConcurrencyLimit());
+
+        controller.onFailure();
+        controller.onFailure();
+        controller.onFailure();
+        assertEquals(1, controller.getConcurrencyLimit());
+
+        controller.onSuccess(MIN_BATCH_SIZE, 1, RECORDS_LIMIT);
+        assertEquals(2, controller.getConcurrencyLimit());
+    }
+
+    @Test
+    public void tracksAverageLatency() {
+        TimestampBatchController controller = new TimestampBatchController(1, TARGET_LATENCY_MILLIS);
+
+        assertEquals(-1, controller.getLatencyMillis(), 0);
+
+        controller.onSuccess(MIN_BATCH_SIZE, 100, RECORDS_LIMIT);
+        assertEquals(100, controller.getLatencyMillis(), 0);
+
+        controller.onSuccess(MIN_BATCH_SIZE, 200, RECORDS_LIMIT);
+        assertEquals(130, controller.getLatencyMillis(), 0.001);
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.conf.globalconf.EmptyGlobalConf;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.serverconf.ServerConf;
+import ee.ria.xroad.common.messagelog.AbstractLogManager;
+import ee.ria.xroad.common.messagelog.MessageLogProperties;
+import ee.ria.xroad.common.util.JobManager;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ee.ria.xroad.proxy.messagelog.TestUtil.assertTaskQueueSize;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.cleanUpDatabase;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.createMessage;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.createSignature;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.getTaskQueue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Time-stamps message records in batches against in-process time-stamping authorities.
+ */
+@Slf4j
+public class TimestampBatchingTest extends AbstractMessageLogTest {
+
+    private static final int RECORDS = 1000;
+    private static final long TSA_LATENCY_MILLIS = 300;
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    private final AtomicInteger concurrentRequests = new AtomicInteger();
+    private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+
+    private TestTSA tsa1;
+    private TestTSA tsa2;
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty(MessageLogProperties.TIMESTAMP_IMMEDIATELY, "false");
+        System.setProperty(MessageLogProperties.ARCHIVE_INTERVAL, "0 0 0 1 1 ? 2099");
+        System.setProperty(MessageLogProperties.CLEAN_INTERVAL, "0 0 0 1 1 ? 2099");
+        System.setProperty(MessageLogProperties.TIMESTAMPER_MAX_CONCURRENT_REQUESTS, "2");
+
+        tsa1 = new TestTSA("TSA 1", TSA_LATENCY_MILLIS, concurrentRequests, maxConcurrentRequests);
+        tsa2 = new TestTSA("TSA 2", TSA_LATENCY_MILLIS, concurrentRequests, maxConcurrentRequests);
+
+        TestUtil.initForTest();
+
+        List<String> tspUrls = Arrays.asList(tsa1.getUrl(), tsa2.getUrl());
+        List<X509Certificate> tspCertificates = Arrays.asList(tsa1.getCertificate(), tsa2.getCertificate());
+
+        ServerConf.reload(new EmptyServerConf() {
+            @Override
+            public List<String> getTspUrl() {
+                return tspUrls;
+            }
+        });
+
+        GlobalConf.reload(new EmptyGlobalConf() {
+            @Override
+            public List<X509Certificate> getTspCertificates() {
+                return tspCertificates;
+            }
+        });
+
+        testSetUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(MessageLogProperties.TIMESTAMPER_MAX_CONCURRENT_REQUESTS);
+
+        testTearDown();
+        cleanUpDatabase();
+
+        tsa1.close();
+        tsa2.close();
+    }
+
+    @Override
+    protected Class<? extends AbstractLogManager> getLogManagerImpl() throws Exception {
+        return BatchingTestLogManager.class;
+    }
+
+    /**
+     * A backlog is split into batches that are time-stamped concurrently by both time-stamping authorities.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void timestampsBacklogConcurrently() throws Exception {
+        logRecords(RECORDS);
+
+        long start = System.nanoTime();
+
+        startTimestamping();
+        waitForTaskQueueEmpty();
+
+        log.info("Time-stamped {} records in {} ms with {} requests", RECORDS,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                tsa1.getRequestCount().get() + tsa2.getRequestCount().get());
+
+        assertTrue(tsa1.getRequestCount().get() > 0);
+        assertTrue(tsa2.getRequestCount().get() > 0);
+        assertEquals(2, maxConcurrentRequests.get());
+        assertEquals(0, LogRecordManager.getUntimestampedCount());
+    }
+
+    /**
+     * The records are time-stamped by the other time-stamping authority when one of them fails.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void timestampsWhenOneTsaFails() throws Exception {
+        tsa2.setFailing(true);
+
+        logRecords(RECORDS);
+
+        startTimestamping();
+        waitForTaskQueueEmpty();
+
+        assertTrue(tsa2.getRequestCount().get() > 0);
+        assertEquals(0, LogRecordManager.getUntimestampedCount());
+    }
+
+    /**
+     * Records logged while batches are being time-stamped are time-stamped without waiting for the next scheduled
+     * time-stamping round.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void timestampsRecordsLoggedDuringTimestamping() throws Exception {
+        // Slow enough for the second set of records to be logged before the first batches are done.
+        tsa1.setLatencyMillis(5000);
+        tsa2.setLatencyMillis(5000);
+
+        logRecords(RECORDS);
+
+        startTimestamping();
+        logRecords(RECORDS);
+
+        waitForTaskQueueEmpty();
+
+        assertEquals(0, LogRecordManager.getUntimestampedCount());
+    }
+
+    private void logRecords(int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            log(createMessage(), createSignature());
+        }
+    }
+
+    private static void waitForTaskQueueEmpty() throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+        while (!getTaskQueue().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+
+        assertTaskQueueSize(0);
+    }
+
+    /**
+     * Log manager that uses the real task queue and timestamper, but does not start time-stamping by itself.
+     */
+    private static class BatchingTestLogManager extends LogManager {
+
+        BatchingTestLogManager(JobManager jobManager) throws Exception {
+            super(jobManager);
+        }
+
+        @Override
+        protected FiniteDuration getTimestamperJobInitialDelay() {
+            return Duration.create(1, TimeUnit.MINUTES);
+        }
+    }
+}
@@ -26,6 +26,7 @@
 package ee.ria.xroad.proxy.serverproxy;
 
 import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.conf.serverconf.ServerConf;
 import ee.ria.xroad.common.conf.serverconf.ServerConfDatabaseCtx;
 import ee.ria.xroad.common.conf.serverconf.dao.ServiceDescriptionDAOImpl;
@@ -51,6 +52,8 @@ import ee.ria.xroad.proxy.protocol.ProxyMessage;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
@@ -58,6 +61,7 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -99,6 +103,7 @@ import static ee.ria.xroad.common.metadata.MetadataRequests.GET_WSDL;
 import static ee.ria.xroad.common.metadata.MetadataRequests.LIST_METHODS;
 
 @Slf4j
+@HandledServices(serviceCodes = {LIST_METHODS, ALLOWED_METHODS, GET_WSDL})
 class MetadataServiceHandlerImpl implements ServiceHandler {
 
     static final JAXBContext JAXB_CTX = initJaxbCtx();
@@ -114,6 +119,9 @@ class MetadataServiceHandlerImpl implements ServiceHandler {
 
     private HttpClientCreator wsdlHttpClientCreator = new HttpClientCreator();
 
+    private static final WsdlCache WSDL_CACHE = new WsdlCache(SystemProperties.getMetaserviceWsdlCacheSize(),
+            SystemProperties.getMetaserviceWsdlCacheTtl());
+
     private static final SAXTransformerFactory TRANSFORMER_FACTORY = createSaxTransformerFactory();
 
     private static SAXTransformerFactory createSaxTransformerFactory() {
@@ -256,7 +264,8 @@ class MetadataServiceHandlerImpl implements ServiceHandler {
         }
 
         ServiceId serviceId = requestData.toServiceId(request.getService().getClientId());
-        String url = getWsdlUrl(serviceId);
+        ServiceDescriptionType description = getWsdlDescription(serviceId);
+        String url = description != null ? description.getUrl() : null;
         if (url == null) {
             throw new CodedException(X_UNKNOWN_SERVICE,
                     "Could not find wsdl URL for service %s",
@@ -264,8 +273,13 @@ class MetadataServiceHandlerImpl implements ServiceHandler {
                             request.getService().getClientId()));
         }
 
-        log.info("Downloading WSDL from URL: {}", url);
-        try (InputStream in = modifyWsdl(getWsdl(url, serviceId))) {
+        OverwriteAttributeFilter filter = getModifyWsdlFilter();
+        long refreshedTime = description.getRefreshedDate() != null ? description.getRefreshedDate().getTime() : 0;
+
+        byte[] wsdl = getWsdlCache().get(serviceId.getClientId(), url, filter.getNewValue(), refreshedTime,
+                (etag, lastModified) -> fetchWsdl(url, serviceId, filter, etag, lastModified));
+
+        try (InputStream in = new ByteArrayInputStream(wsdl)) {
             Map<String, String> additionalHeaders = new HashMap<>();
             additionalHeaders.put("Content-Transfer-Encoding", "binary");
             additionalHeaders.put("Content-ID", "<wsdl=" + UUID.randomUUID().toString() + "@x-road.eu>");
@@ -276,14 +290,14 @@ class MetadataServiceHandlerImpl implements ServiceHandler {
 
     // ------------------------------------------------------------------------
 
-    private String getWsdlUrl(ServiceId service) throws Exception {
+    private ServiceDescriptionType getWsdlDescription(ServiceId service) throws Exception {
         ServiceDescriptionType wsdl = ServerConfDatabaseCtx.doInTransaction(
                 session -> new ServiceDescriptionDAOImpl().getServiceDescription(session, service));
         if (wsdl != null && wsdl.getType() != DescriptionType.WSDL) {
             throw new CodedException(X_INVALID_SERVICE_TYPE,
                     "Service is a REST service and does not have a WSDL");
         }
-        return wsdl != null ? wsdl.getUrl() : null;
+        return wsdl;
     }
 
     private static SoapMessageImpl createMethodListResponse(
@@ -336,19 +350,19 @@ class MetadataServiceHandlerImpl implements ServiceHandler {
     }
 
     /**
-     * reads a WSDL from input stream, modifies it and returns input stream to the result
+     * reads a WSDL from input stream, modifies it and returns the result
      *
      * @param wsdl
+     * @param filter
      * @return
      */
-    private InputStream modifyWsdl(InputStream wsdl) {
+    private byte[] modifyWsdl(InputStream wsdl, OverwriteAttributeFilter filter) {
         try {
             TransformerHandler serializer = TRANSFORMER_FACTORY.newTransformerHandler();
             StringWriter writer = new StringWriter();
             StreamResult result = new StreamResult(writer);
             serializer.setResult(result);
 
-            OverwriteAttributeFilter filter = getModifyWsdlFilter();
             filter.setContentHandler(serializer);
 
             XMLReader xmlreader = XmlUtils.createXmlReader();
@@ -362,8 +376,7 @@ class MetadataServiceHandlerImpl implements ServiceHandler {
             String resultString = writer.toString();
             log.debug("result of WSDL cleanup: {}", resultString);
 
-            // offer InputStream into processed String
-            return new ByteArrayInputStream(resultString.getBytes(StandardCharsets.UTF_8));
+            return resultString.getBytes(StandardCharsets.UTF_8);
         } catch (IOException | SAXException | TransformerConfigurationException e) {
             throw new RuntimeException(e);
         }
@@ -373,7 +386,12 @@ class MetadataServiceHandlerImpl implements ServiceHandler {
         return OverwriteAttributeFilter.createOverwriteSoapAddressFilter(WSDL_ENDPOINT_ADDRESS);
     }
 
-    private InputStream getWsdl(String url, ServiceId serviceId)
+    WsdlCache getWsdlCache() {
+        return WSDL_CACHE;
+    }
+
+    private WsdlCache.FetchResult fetchWsdl(String url, ServiceId serviceId, OverwriteAttributeFilter filter,
+            String etag, String lastModified)
             throws HttpClientCreator.HttpClientCreatorException, URISyntaxException, IOException {
 
         HttpClient client = wsdlHttpClientCreator.getHttpClient();
@@ -383,15 +401,46 @@ class MetadataServiceHandlerImpl implements ServiceHandler {
         // ServerMessageProcessor uses the same method to pass the ServiceId to CustomSSLSocketFactory
         httpContext.setAttribute(ServiceId.class.getName(), serviceId);
 
-        HttpResponse response = client.execute(new HttpGet(new URI(url)), httpContext);
+        HttpGet request = new HttpGet(new URI(url));
+
+        if (etag != null) {
+            request.setHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        }
+
+        if (lastModified != null) {
+            request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+        }
+
+        log.info("Downloading WSDL from URL: {}", url);
+
+        HttpResponse response = client.execute(request, httpContext);
 
         StatusLine statusLine = response.getStatusLine();
 
+        if (HttpStatus.SC_NOT_MODIFIED == statusLine.getStatusCode() && (etag != null || lastModified != null)) {
+            log.debug("WSDL at {} has not been modified", url);
+            EntityUtils.consumeQuietly(response.getEntity());
+
+            return WsdlCache.FetchResult.notModified();
+        }
+
         if (HttpStatus.SC_OK != statusLine.getStatusCode()) {
+            EntityUtils.consumeQuietly(response.getEntity());
+
             throw new RuntimeException("Received HTTP error: "
                     + statusLine.getStatusCode() + " - " + statusLine.getReasonPhrase());
         }
 
-        return response.getEntity().getContent();
+        try (InputStream in = response.getEntity().getContent()) {
+            return new WsdlCache.FetchResult(modifyWsdl(in, filter),
+                    getHeaderValue(response, HttpHeaders.ETAG),
+                    getHeaderValue(response, HttpHeaders.LAST_MODIFIED));
+        }
+    }
+
+    private static String getHeaderValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+
+        return header != null ? header.getValue() : null;
     }
 }
@@ -69,6 +69,13 @@ public class OverwriteAttributeFilter extends XMLFilterImpl {
                 WSDL_SOAP_ADDRESS_LOCATION_ATTRIBUTE, newValue);
     }
 
+    /**
+     * @return the value written to the overwritten attribute
+     */
+    public String getNewValue() {
+        return newValue;
+    }
+
 
     @Override
     public void startElement(String uri, String localName, String qName,
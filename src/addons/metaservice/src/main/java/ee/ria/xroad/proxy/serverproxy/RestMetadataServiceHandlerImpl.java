@@ -77,6 +77,7 @@ import static ee.ria.xroad.common.util.MimeUtils.HEADER_REQUEST_ID;
  * Handler for REST metadata services
  */
 @Slf4j
+@HandledServices(serviceCodes = {LIST_METHODS, ALLOWED_METHODS, GET_OPENAPI})
 public class RestMetadataServiceHandlerImpl implements RestServiceHandler {
 
     private static final String QUERY_PARAM_SERVICECODE = "serviceCode";
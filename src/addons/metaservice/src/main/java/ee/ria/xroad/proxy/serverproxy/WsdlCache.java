@@ -0,0 +1,248 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.serverproxy;
+
+import ee.ria.xroad.common.identifier.ClientId;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of rewritten WSDL documents keyed by the service provider and the service description URL.
+ * The provider is part of the key because the document is fetched with the provider's TLS configuration.
+ *
+ * A cached document is served as is until the TTL expires. After that it is revalidated with the
+ * HTTP validators (ETag, Last-Modified) received from the service provider. Entries are discarded
+ * when the refresh time of the service description in serverconf changes. Concurrent requests for
+ * the same document share a single backend fetch.
+ */
+@Slf4j
+class WsdlCache {
+
+    /**
+     * Fetches and rewrites a WSDL document.
+     */
+    @FunctionalInterface
+    interface Fetcher {
+        /**
+         * @param etag ETag of the cached document or null
+         * @param lastModified Last-Modified of the cached document or null
+         * @return the fetched document or {@link FetchResult#notModified()} if the cached document is
+         * still valid
+         * @throws Exception in case of any errors
+         */
+        FetchResult fetch(String etag, String lastModified) throws Exception;
+    }
+
+    /**
+     * Result of a WSDL fetch.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    static final class FetchResult {
+        private static final FetchResult NOT_MODIFIED = new FetchResult(null, null, null);
+
+        private final byte[] content;
+        private final String etag;
+        private final String lastModified;
+
+        static FetchResult notModified() {
+            return NOT_MODIFIED;
+        }
+
+        boolean isNotModified() {
+            return content == null;
+        }
+    }
+
+    private final Map<Key, Entry> entries;
+    private final ConcurrentMap<Key, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LongSupplier currentTimeMillis;
+
+    WsdlCache(int maxSize, long ttlSeconds) {
+        this(maxSize, ttlSeconds, System::currentTimeMillis);
+    }
+
+    WsdlCache(int maxSize, long ttlSeconds, LongSupplier currentTimeMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.currentTimeMillis = currentTimeMillis;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > WsdlCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the rewritten WSDL document, fetching it if it is not cached or is no longer valid.
+     *
+     * @param provider service provider whose credentials are used to fetch the document
+     * @param url service description URL
+     * @param variant identifies the rewriting applied to the document
+     * @param refreshedTime refresh time of the service description in serverconf
+     * @param fetcher fetches and rewrites the document
+     * @return the rewritten document
+     * @throws Exception in case of any errors
+     */
+    byte[] get(ClientId provider, String url, String variant, long refreshedTime, Fetcher fetcher)
+            throws Exception {
+        if (maxSize <= 0) {
+            return fetcher.fetch(null, null).getContent();
+        }
+
+        Key key = new Key(provider, url, variant);
+        Entry cached = getValidEntry(key, refreshedTime);
+
+        if (cached != null && currentTimeMillis.getAsLong() - cached.validatedAt < ttlMillis) {
+            return cached.content;
+        }
+
+        CompletableFuture<Entry> future = new CompletableFuture<>();
+        CompletableFuture<Entry> inProgress = loading.putIfAbsent(key, future);
+
+        if (inProgress != null) {
+            log.trace("Waiting for WSDL {} to be fetched", url);
+
+            return await(inProgress).content;
+        }
+
+        try {
+            Entry entry = load(cached, refreshedTime, fetcher);
+
+            synchronized (entries) {
+                entries.put(key, entry);
+            }
+
+            future.complete(entry);
+
+            return entry.content;
+        } catch (Exception | Error e) {
+            future.completeExceptionally(e);
+
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    /**
+     * Removes all cached documents.
+     */
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private Entry getValidEntry(Key key, long refreshedTime) {
+        synchronized (entries) {
+            Entry cached = entries.get(key);
+
+            if (cached != null && cached.refreshedTime != refreshedTime) {
+                log.trace("Service description {} has been refreshed, discarding cached WSDL", key.url);
+
+                entries.remove(key);
+
+                return null;
+            }
+
+            return cached;
+        }
+    }
+
+    private Entry load(Entry cached, long refreshedTime, Fetcher fetcher) throws Exception {
+        FetchResult result = cached != null
+                ? fetcher.fetch(cached.etag, cached.lastModified)
+                : fetcher.fetch(null, null);
+
+        long now = currentTimeMillis.getAsLong();
+
+        if (result.isNotModified()) {
+            if (cached == null) {
+                throw new IllegalStateException("Received not modified response without a cached WSDL");
+            }
+
+            return new Entry(cached.content, cached.etag, cached.lastModified, refreshedTime, now);
+        }
+
+        return new Entry(result.getContent(), result.getEtag(), result.getLastModified(), refreshedTime, now);
+    }
+
+    private static Entry await(CompletableFuture<Entry> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw e;
+        }
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static final class Key {
+        private final ClientId provider;
+        private final String url;
+        private final String variant;
+    }
+
+    @RequiredArgsConstructor
+    private static final class Entry {
+        private final byte[] content;
+        private final String etag;
+        private final String lastModified;
+        private final long refreshedTime;
+        private final long validatedAt;
+    }
+}
@@ -0,0 +1,335 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.serverproxy;
+
+import ee.ria.xroad.common.identifier.ClientId;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link WsdlCache} against an embedded Jetty backend.
+ */
+public class WsdlCacheTest {
+
+    private static final String VARIANT = "http://example.org/xroad-endpoint";
+
+    private static final ClientId PROVIDER = ClientId.create("EE", "BUSINESS", "producer");
+    private static final ClientId OTHER_PROVIDER = ClientId.create("EE", "BUSINESS", "other");
+
+    private Server server;
+    private String baseUrl;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger notModifiedResponses = new AtomicInteger();
+    private final AtomicLong now = new AtomicLong(1000000L);
+
+    private volatile String wsdlVersion = "1";
+    private volatile int statusCode = HttpServletResponse.SC_OK;
+    private volatile CountDownLatch requestLatch;
+
+    /**
+     * Starts the backend.
+     */
+    @Before
+    public void setUp() throws Exception {
+        server = new Server(0);
+
+        ServletContextHandler context = new ServletContextHandler();
+        context.addServlet(new ServletHolder(new WsdlServlet()), "/*");
+        server.setHandler(context);
+        server.start();
+
+        baseUrl = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    }
+
+    /**
+     * Stops the backend.
+     */
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void servesCachedWsdlWithinTtl() throws Exception {
+        WsdlCache cache = new WsdlCache(10, 60, now::get);
+
+        byte[] first = cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch);
+        byte[] second = cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch);
+
+        assertArrayEquals(first, second);
+        assertEquals(1, hits.get());
+    }
+
+    @Test
+    public void revalidatesWithValidatorsAfterTtl() throws Exception {
+        WsdlCache cache = new WsdlCache(10, 60, now::get);
+
+        byte[] first = cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch);
+
+        now.addAndGet(TimeUnit.SECONDS.toMillis(61));
+        byte[] second = cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch);
+
+        assertArrayEquals(first, second);
+        assertEquals(2, hits.get());
+        assertEquals(1, notModifiedResponses.get());
+
+        // revalidated entry is fresh again
+        cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch);
+        assertEquals(2, hits.get());
+
+        wsdlVersion = "2";
+        now.addAndGet(TimeUnit.SECONDS.toMillis(61));
+
+        assertEquals(wsdl("2"),
+                new String(cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch), StandardCharsets.UTF_8));
+        assertEquals(3, hits.get());
+        assertEquals(1, notModifiedResponses.get());
+    }
+
+    @Test
+    public void discardsWsdlWhenServiceDescriptionIsRefreshed() throws Exception {
+        WsdlCache cache = new WsdlCache(10, 60, now::get);
+
+        cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch);
+        cache.get(PROVIDER, url("a"), VARIANT, 1, this::fetch);
+
+        assertEquals(2, hits.get());
+        // refetched without validators
+        assertEquals(0, notModifiedResponses.get());
+    }
+
+    @Test
+    public void cachesVariantsSeparately() throws Exception {
+        WsdlCache cache = new WsdlCache(10, 60, now::get);
+
+        cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch);
+        cache.get(PROVIDER, url("a"), "http://example.org/other-endpoint", 0, this::fetch);
+
+        assertEquals(2, hits.get());
+    }
+
+    @Test
+    public void cachesProvidersSeparately() throws Exception {
+        WsdlCache cache = new WsdlCache(10, 60, now::get);
+
+        cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch);
+        cache.get(OTHER_PROVIDER, url("a"), VARIANT, 0, this::fetch);
+        cache.get(OTHER_PROVIDER, url("a"), VARIANT, 0, this::fetch);
+
+        assertEquals(2, hits.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWsdl() throws Exception {
+        WsdlCache cache = new WsdlCache(2, 60, now::get);
+
+        cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch);
+        cache.get(PROVIDER, url("b"), VARIANT, 0, this::fetch);
+        cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch);
+        cache.get(PROVIDER, url("c"), VARIANT, 0, this::fetch);
+
+        assertEquals(2, cache.size());
+        assertEquals(3, hits.get());
+
+        cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch);
+        assertEquals(3, hits.get());
+
+        cache.get(PROVIDER, url("b"), VARIANT, 0, this::fetch);
+        assertEquals(4, hits.get());
+    }
+
+    @Test
+    public void fetchesEveryTimeWhenDisabled() throws Exception {
+        WsdlCache cache = new WsdlCache(0, 60, now::get);
+
+        cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch);
+        cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch);
+
+        assertEquals(2, hits.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void concurrentRequestsShareOneFetch() throws Exception {
+        WsdlCache cache = new WsdlCache(10, 60, now::get);
+        requestLatch = new CountDownLatch(1);
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch)));
+            }
+
+            // let the requests pile up behind the first fetch
+            waitForHits(1);
+            Thread.sleep(200);
+            requestLatch.countDown();
+
+            for (Future<byte[]> result : results) {
+                assertEquals(wsdl("1"), new String(result.get(10, TimeUnit.SECONDS), StandardCharsets.UTF_8));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, hits.get());
+    }
+
+    @Test
+    public void doesNotCacheFailures() throws Exception {
+        WsdlCache cache = new WsdlCache(10, 60, now::get);
+        statusCode = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+
+        try {
+            cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch);
+            fail("Expected fetch to fail");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("500"));
+        }
+
+        statusCode = HttpServletResponse.SC_OK;
+
+        cache.get(PROVIDER, url("a"), VARIANT, 0, this::fetch);
+        assertEquals(2, hits.get());
+        assertEquals(1, cache.size());
+    }
+
+    private void waitForHits(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+
+        while (hits.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private String url(String name) {
+        return baseUrl + "/" + name + ".wsdl";
+    }
+
+    private WsdlCache.FetchResult fetch(String etag, String lastModified) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "/wsdl").openConnection();
+
+        if (etag != null) {
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+
+        if (lastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+
+        try {
+            int status = connection.getResponseCode();
+
+            if (status == HttpServletResponse.SC_NOT_MODIFIED) {
+                return WsdlCache.FetchResult.notModified();
+            } else if (status != HttpServletResponse.SC_OK) {
+                throw new IOException("Received HTTP error: " + status);
+            }
+
+            try (InputStream in = connection.getInputStream()) {
+                return new WsdlCache.FetchResult(IOUtils.toByteArray(in), connection.getHeaderField("ETag"),
+                        connection.getHeaderField("Last-Modified"));
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String wsdl(String version) {
+        return "<definitions xmlns=\"http://schemas.xmlsoap.org/wsdl/\" name=\"v" + version + "\"/>";
+    }
+
+    private class WsdlServlet extends HttpServlet {
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+            hits.incrementAndGet();
+
+            CountDownLatch latch = requestLatch;
+
+            if (latch != null) {
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            if (statusCode != HttpServletResponse.SC_OK) {
+                resp.sendError(statusCode);
+                return;
+            }
+
+            String etag = "\"" + wsdlVersion + "\"";
+
+            if (etag.equals(req.getHeader("If-None-Match"))) {
+                notModifiedResponses.incrementAndGet();
+                resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            resp.setHeader("ETag", etag);
+            resp.setContentType("text/xml");
+            resp.getOutputStream().write(wsdl(wsdlVersion).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
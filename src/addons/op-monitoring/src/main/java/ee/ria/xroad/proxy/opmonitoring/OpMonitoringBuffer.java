@@ -27,17 +27,15 @@ package ee.ria.xroad.proxy.opmonitoring;
 
 import ee.ria.xroad.common.conf.serverconf.ServerConf;
 import ee.ria.xroad.common.opmonitoring.AbstractOpMonitoringBuffer;
+import ee.ria.xroad.common.opmonitoring.OpMonitoringDaemonFramedClient;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringDaemonHttpClient;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
-import ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataRequest;
-import ee.ria.xroad.common.util.JsonUtils;
 import ee.ria.xroad.common.util.TimeUtils;
 
 import akka.actor.ActorRef;
 import akka.actor.Cancellable;
 import akka.actor.Props;
-import com.google.gson.Gson;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
@@ -45,11 +43,13 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import scala.concurrent.duration.FiniteDuration;
 
 import java.net.NetworkInterface;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.net.NetworkInterface.getNetworkInterfaces;
 import static java.util.Collections.list;
@@ -58,6 +58,15 @@ import static java.util.Collections.list;
  * Operational monitoring buffer. This buffer is used for gathering
  * operational data and for periodically sending the data to the operational
  * monitoring daemon (using OpMonitoringDaemonSender).
+ *
+ * The request threads write the data directly to a sharded ring buffer (see
+ * {@link OpMonitoring#setDirectStore}) and only wake up the actor when there is
+ * something to send. The actor takes batches from the ring buffer and sends
+ * up to max-concurrent-messages of them in parallel, each by its own sender.
+ * The buffer space is reclaimed when the daemon acknowledges the batches.
+ *
+ * If the framed transport is enabled, the senders share one persistent
+ * connection to the daemon instead of sending HTTP requests.
  */
 @Slf4j
 public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
@@ -70,6 +79,8 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
 
     private static final int MAX_RECORDS_IN_MESSAGE =
             OpMonitoringSystemProperties.getOpMonitorBufferMaxRecordsInMessage();
+    private static final int MAX_CONCURRENT_MESSAGES =
+            Math.max(1, OpMonitoringSystemProperties.getOpMonitorBufferMaxConcurrentMessages());
     private static final long SENDING_INTERVAL_SECONDS =
             OpMonitoringSystemProperties.getOpMonitorBufferSendingIntervalSeconds();
 
@@ -79,126 +90,158 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
     private static final int CLIENT_SOCKET_TIMEOUT_MILLISECONDS = TimeUtils.secondsToMillis(
             OpMonitoringSystemProperties.getOpMonitorBufferSocketTimeoutSeconds());
 
-    private static final Gson GSON = JsonUtils.getSerializer();
-
     private Cancellable tick;
 
-    final Map<Long, OpMonitoringData> buffer =
-            new LinkedHashMap<Long, OpMonitoringData>() {
-                @Override
-                protected boolean removeEldestEntry(Map.Entry eldest) {
-                    boolean overflow = size() > MAX_BUFFER_SIZE;
+    final OpMonitoringRingBuffer buffer;
 
-                    if (overflow) {
-                        log.warn("Operational monitoring buffer overflow, removing eldest record: {}", eldest.getKey());
-                    }
+    private final AtomicBoolean sendRequested = new AtomicBoolean();
 
-                    return overflow;
-                }
-            };
-
-    private long bufferIndex = 0;
+    private final ArrayDeque<ActorRef> idleSenders = new ArrayDeque<>();
 
-    private final Set<Long> processedBufferIndices = new HashSet<>();
+    private final Map<ActorRef, OpMonitoringRingBuffer.Batch> busySenders = new HashMap<>();
 
     private final CloseableHttpClient httpClient;
 
-    private final ActorRef sender;
+    private final OpMonitoringDaemonFramedClient framedClient;
+
+    private final ActorRef self;
 
-    private static String ipAddress;
+    private static volatile String ipAddress;
 
     /**
      * Constructor.
      * @throws Exception if an error occurs
      */
     public OpMonitoringBuffer() throws Exception {
+        self = getSelf();
+
         if (ignoreOpMonitoringData()) {
             log.info("Operational monitoring buffer is switched off, no operational monitoring data is stored");
 
+            buffer = null;
             httpClient = null;
-            sender = null;
+            framedClient = null;
         } else {
+            buffer = createBuffer();
             httpClient = createHttpClient();
-            sender = createSender();
+            framedClient = createFramedClient();
+            idleSenders.addAll(createSenders());
         }
     }
 
+    OpMonitoringRingBuffer createBuffer() {
+        return new OpMonitoringRingBuffer((int) Math.min(MAX_BUFFER_SIZE, Integer.MAX_VALUE), MAX_RECORDS_IN_MESSAGE);
+    }
+
     CloseableHttpClient createHttpClient() throws Exception {
-        return OpMonitoringDaemonHttpClient.createHttpClient(ServerConf.getSSLKey(), 1, 1,
-                CLIENT_CONNECTION_TIMEOUT_MILLISECONDS, CLIENT_SOCKET_TIMEOUT_MILLISECONDS);
+        return OpMonitoringDaemonHttpClient.createHttpClient(ServerConf.getSSLKey(), MAX_CONCURRENT_MESSAGES,
+                MAX_CONCURRENT_MESSAGES, CLIENT_CONNECTION_TIMEOUT_MILLISECONDS, CLIENT_SOCKET_TIMEOUT_MILLISECONDS);
+    }
+
+    OpMonitoringDaemonFramedClient createFramedClient() {
+        if (!OpMonitoringSystemProperties.isOpMonitorFramedTransportEnabled()) {
+            return null;
+        }
+
+        log.info("Sending operational monitoring data over framed transport (port {})",
+                OpMonitoringSystemProperties.getOpMonitorFramedPort());
+
+        return new OpMonitoringDaemonFramedClient(ServerConf.getSSLKey(), MAX_CONCURRENT_MESSAGES,
+                CLIENT_CONNECTION_TIMEOUT_MILLISECONDS);
     }
 
-    ActorRef createSender() {
-        return getContext().system().actorOf(Props.create(OpMonitoringDaemonSender.class, httpClient),
-                OP_MONITORING_DAEMON_SENDER);
+    List<ActorRef> createSenders() {
+        List<ActorRef> senders = new ArrayList<>(MAX_CONCURRENT_MESSAGES);
+
+        for (int i = 0; i < MAX_CONCURRENT_MESSAGES; i++) {
+            Props props = framedClient != null
+                    ? Props.create(OpMonitoringDaemonSender.class, framedClient)
+                    : Props.create(OpMonitoringDaemonSender.class, httpClient);
+
+            senders.add(getContext().actorOf(props, OP_MONITORING_DAEMON_SENDER + i));
+        }
+
+        return senders;
     }
 
     @Override
     protected void store(OpMonitoringData data) throws Exception {
+        offer(data);
+    }
+
+    /**
+     * Stores the data in the buffer. Called by the request threads.
+     * @param data the operational monitoring data
+     */
+    void offer(OpMonitoringData data) {
         if (ignoreOpMonitoringData()) {
             return;
         }
 
         data.setSecurityServerInternalIp(getIpAddress());
 
-        buffer.put(getNextBufferIndex(), data);
-
-        send();
+        if (buffer.offer(data) && sendRequested.compareAndSet(false, true)) {
+            self.tell(SEND_MONITORING_DATA, ActorRef.noSender());
+        }
     }
 
     @Override
     protected void send() throws Exception {
-        if (!canSend()) {
+        sendRequested.set(false);
+
+        if (ignoreOpMonitoringData()) {
             return;
         }
 
-        String json = prepareMonitoringMessage();
-
-        sender.tell(json, getSelf());
-    }
+        long dropped = buffer.takeDroppedCount();
 
-    private boolean canSend() {
-        return !buffer.isEmpty() && processedBufferIndices.isEmpty();
-    }
-
-    private String prepareMonitoringMessage() {
-        StoreOpMonitoringDataRequest request = new StoreOpMonitoringDataRequest();
+        if (dropped > 0) {
+            log.warn("Operational monitoring buffer overflow, dropped {} records", dropped);
+        }
 
-        for (Map.Entry<Long, OpMonitoringData> entry : buffer.entrySet()) {
-            processedBufferIndices.add(entry.getKey());
-            request.addRecord(entry.getValue().getData());
+        while (!idleSenders.isEmpty()) {
+            OpMonitoringRingBuffer.Batch batch = buffer.poll();
 
-            if (request.getRecords().size() == MAX_RECORDS_IN_MESSAGE) {
+            if (batch == null) {
                 break;
             }
+
+            ActorRef sender = idleSenders.pop();
+            busySenders.put(sender, batch);
+            sender.tell(batch, getSelf());
         }
 
         log.debug("Op monitoring buffer records count: {}", buffer.size());
-
-        return GSON.toJson(request);
     }
 
     @Override
     protected void sendingSuccess() throws Exception {
-        processedBufferIndices.forEach(buffer::remove);
-        processedBufferIndices.clear();
-
-        if (canSend()) {
+        if (acknowledge(true)) {
             send();
         }
     }
 
     @Override
     protected void sendingFailure() throws Exception {
-        processedBufferIndices.clear();
+        acknowledge(false);
 
         // Do not worry, scheduled sending retries..
     }
 
-    long getNextBufferIndex() {
-        bufferIndex = bufferIndex == Long.MAX_VALUE ? 0 : bufferIndex + 1;
+    private boolean acknowledge(boolean success) {
+        ActorRef sender = getSender();
+        OpMonitoringRingBuffer.Batch batch = busySenders.remove(sender);
+
+        if (batch == null) {
+            log.warn("Received sending result from unknown sender {}", sender);
+
+            return false;
+        }
+
+        idleSenders.push(sender);
+        buffer.acknowledge(batch, success);
 
-        return bufferIndex;
+        return true;
     }
 
     private void scheduleSendMonitoringData() {
@@ -215,10 +258,16 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
         }
 
         scheduleSendMonitoringData();
+
+        OpMonitoring.setDirectStore(this::offer);
     }
 
     @Override
     public void postStop() throws Exception {
+        if (!ignoreOpMonitoringData()) {
+            OpMonitoring.setDirectStore(null);
+        }
+
         if (tick != null) {
             tick.cancel();
         }
@@ -226,6 +275,10 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
         if (httpClient != null) {
             IOUtils.closeQuietly(httpClient);
         }
+
+        if (framedClient != null) {
+            framedClient.close();
+        }
     }
 
     private boolean ignoreOpMonitoringData() {
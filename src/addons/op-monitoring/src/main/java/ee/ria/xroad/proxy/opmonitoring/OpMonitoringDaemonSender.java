@@ -27,6 +27,8 @@ package ee.ria.xroad.proxy.opmonitoring;
 
 import ee.ria.xroad.common.opmonitoring.AbstractOpMonitoringBuffer;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringDaemonEndpoints;
+import ee.ria.xroad.common.opmonitoring.OpMonitoringDaemonFramedClient;
+import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
 import ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse;
 import ee.ria.xroad.common.util.HttpSender;
@@ -35,16 +37,28 @@ import ee.ria.xroad.common.util.MimeTypes;
 import ee.ria.xroad.common.util.MimeUtils;
 import ee.ria.xroad.common.util.TimeUtils;
 
-import akka.actor.ActorRef;
 import akka.actor.UntypedAbstractActor;
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse.STATUS_ERROR;
 import static ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse.STATUS_OK;
@@ -52,6 +66,11 @@ import static ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse.STA
 /**
  * Actor for sending operational data to the operational monitoring daemon. This actor is used by the
  * OpMonitoringBuffer class for periodically forwarding operational data gathered in the buffer.
+ *
+ * The records of a batch are serialized with a streaming JSON writer into a buffer that is reused
+ * between the batches. The batch is sent either as a HTTP request or, if the framed transport is enabled, over
+ * the persistent connection shared by all the senders. The result is replied to the buffer with this actor as the
+ * sender.
  */
 @Slf4j
 public class OpMonitoringDaemonSender extends UntypedAbstractActor {
@@ -64,21 +83,34 @@ public class OpMonitoringDaemonSender extends UntypedAbstractActor {
     private static final int SOCKET_TIMEOUT_MILLISECONDS = TimeUtils.secondsToMillis(
             OpMonitoringSystemProperties.getOpMonitorBufferSocketTimeoutSeconds());
 
+    private static final ContentType CONTENT_TYPE = ContentType.create(MimeTypes.JSON, StandardCharsets.UTF_8);
+
+    private static final String RECORDS = "records";
+
+    private final ReusableByteArrayOutputStream buffer = new ReusableByteArrayOutputStream();
+
     private CloseableHttpClient httpClient;
 
+    private OpMonitoringDaemonFramedClient framedClient;
+
     OpMonitoringDaemonSender(CloseableHttpClient httpClient) {
         this.httpClient = httpClient;
     }
 
+    OpMonitoringDaemonSender(OpMonitoringDaemonFramedClient framedClient) {
+        this.framedClient = framedClient;
+    }
+
     @Override
     public void onReceive(Object message) throws Exception {
-        if (message instanceof String) {
-            String json = (String) message;
+        if (message instanceof OpMonitoringRingBuffer.Batch) {
+            List<OpMonitoringData> records = ((OpMonitoringRingBuffer.Batch) message).getRecords();
 
-            log.trace("onReceive: {}", json);
+            log.trace("onReceive: {} records", records.size());
 
             try {
-                send(json);
+                serialize(records);
+                send();
                 success();
             } catch (Exception e) {
                 log.error("Sending operational monitoring data failed", e);
@@ -91,19 +123,66 @@ public class OpMonitoringDaemonSender extends UntypedAbstractActor {
     }
 
     private void success() {
-        getSender().tell(AbstractOpMonitoringBuffer.SENDING_SUCCESS, ActorRef.noSender());
+        getSender().tell(AbstractOpMonitoringBuffer.SENDING_SUCCESS, getSelf());
     }
 
     private void failure() {
-        getSender().tell(AbstractOpMonitoringBuffer.SENDING_FAILURE, ActorRef.noSender());
+        getSender().tell(AbstractOpMonitoringBuffer.SENDING_FAILURE, getSelf());
+    }
+
+    // Writes the request {"records": [...]} in the same form as Gson would for StoreOpMonitoringDataRequest.
+    private void serialize(List<OpMonitoringData> records) throws IOException {
+        buffer.reset();
+
+        Writer out = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+        JsonWriter writer = GSON.newJsonWriter(out);
+
+        writer.beginObject();
+        writer.name(RECORDS);
+        writer.beginArray();
+
+        for (OpMonitoringData record : records) {
+            writer.beginObject();
+
+            for (Map.Entry<String, Object> entry : record.getData().entrySet()) {
+                writer.name(entry.getKey());
+                writeValue(writer, entry.getValue());
+            }
+
+            writer.endObject();
+        }
+
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
     }
 
-    private void send(String json) throws Exception {
+    private static void writeValue(JsonWriter writer, Object value) throws IOException {
+        if (value == null) {
+            writer.nullValue();
+        } else if (value instanceof String) {
+            writer.value((String) value);
+        } else if (value instanceof Boolean) {
+            writer.value((Boolean) value);
+        } else if (value instanceof Number) {
+            writer.value((Number) value);
+        } else {
+            GSON.toJson(value, value.getClass(), writer);
+        }
+    }
+
+    private void send() throws Exception {
+        if (framedClient != null) {
+            sendFramed();
+
+            return;
+        }
+
         try (HttpSender sender = new HttpSender(httpClient)) {
             sender.setConnectionTimeout(CONNECTION_TIMEOUT_MILLISECONDS);
             sender.setSocketTimeout(SOCKET_TIMEOUT_MILLISECONDS);
 
-            sender.doPost(getAddress(), json, MimeTypes.JSON);
+            sender.doPost(getAddress(), new ByteArrayEntity(buffer.getBuffer(), 0, buffer.size(), CONTENT_TYPE));
 
             String responseJson = IOUtils.toString(sender.getResponseContent(), MimeUtils.UTF8);
             StoreOpMonitoringDataResponse response;
@@ -129,9 +208,33 @@ public class OpMonitoringDaemonSender extends UntypedAbstractActor {
         }
     }
 
+    private void sendFramed() throws Exception {
+        CompletableFuture<Void> result = framedClient.send(buffer.getBuffer(), 0, buffer.size());
+
+        try {
+            result.get(SOCKET_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+
+            log.trace("Received OK acknowledgement");
+        } catch (TimeoutException e) {
+            // Frees the window of the framed client, a late acknowledgement is ignored.
+            result.cancel(false);
+
+            throw e;
+        }
+    }
+
     private URI getAddress() throws URISyntaxException {
         return new URI(OpMonitoringSystemProperties.getOpMonitorDaemonScheme(), null,
                 OpMonitoringSystemProperties.getOpMonitorHost(), OpMonitoringSystemProperties.getOpMonitorPort(),
                 OpMonitoringDaemonEndpoints.STORE_DATA_PATH, null, null);
     }
+
+    /**
+     * Byte array output stream that gives access to its internal buffer.
+     */
+    private static final class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
 }
@@ -0,0 +1,309 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.opmonitoring;
+
+import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded buffer of operational monitoring data. The buffer is split into shards, each of which is a
+ * ring that request threads write to without locking. The records are read in batches by a single
+ * consumer and the space is reclaimed when the batches are acknowledged, in the order the batches
+ * were taken. Batches that could not be sent are kept aside and handed out again before new records.
+ *
+ * The offer method may be called by any thread; all the other methods must be called by the
+ * consumer only.
+ */
+final class OpMonitoringRingBuffer {
+
+    private static final int MAX_SHARDS = 16;
+    private static final int MIN_SHARD_CAPACITY = 1000;
+
+    private final Shard[] shards;
+    private final int maxRecordsInBatch;
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    // consumer state
+    private final ArrayDeque<Batch> inFlight = new ArrayDeque<>();
+    private final ArrayDeque<Batch> failed = new ArrayDeque<>();
+    private final ArrayDeque<Batch> freeBatches = new ArrayDeque<>();
+    private int nextShard;
+
+    /**
+     * @param capacity the maximum number of buffered records
+     * @param maxRecordsInBatch the maximum number of records in a batch
+     */
+    OpMonitoringRingBuffer(int capacity, int maxRecordsInBatch) {
+        this(capacity, maxRecordsInBatch, Math.min(Math.min(MAX_SHARDS, capacity / MIN_SHARD_CAPACITY),
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param capacity the maximum number of buffered records
+     * @param maxRecordsInBatch the maximum number of records in a batch
+     * @param shardCount the number of shards the capacity is split into
+     */
+    OpMonitoringRingBuffer(int capacity, int maxRecordsInBatch, int shardCount) {
+        int count = Math.max(1, shardCount);
+        int shardCapacity = Math.max(1, (capacity + count - 1) / count);
+
+        this.shards = new Shard[count];
+        this.maxRecordsInBatch = maxRecordsInBatch;
+
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(shardCapacity);
+        }
+    }
+
+    /**
+     * Adds the record to the shard of the calling thread.
+     * @param data the record
+     * @return false if the shard is full and the record was dropped
+     */
+    boolean offer(OpMonitoringData data) {
+        Shard shard = shards[(int) (Thread.currentThread().getId() % shards.length)];
+
+        if (shard.offer(data)) {
+            return true;
+        }
+
+        droppedCount.incrementAndGet();
+
+        return false;
+    }
+
+    /**
+     * @return the number of records dropped because of a full buffer since the previous call
+     */
+    long takeDroppedCount() {
+        return droppedCount.getAndSet(0);
+    }
+
+    /**
+     * @return the number of records waiting to be sent or acknowledged
+     */
+    int size() {
+        long size = 0;
+
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+
+        for (Batch batch : failed) {
+            size += batch.records.size();
+        }
+
+        return (int) size;
+    }
+
+    /**
+     * @return the number of batches taken but not yet acknowledged
+     */
+    int getInFlightCount() {
+        int count = 0;
+
+        for (Batch batch : inFlight) {
+            if (!batch.done) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Takes the next batch of records. Previously failed batches are returned first.
+     * @return the batch or null if there are no records to send
+     */
+    Batch poll() {
+        Batch batch = failed.poll();
+
+        if (batch == null) {
+            batch = takeRecords();
+        }
+
+        if (batch != null) {
+            batch.done = false;
+            batch.succeeded = false;
+            inFlight.add(batch);
+        }
+
+        return batch;
+    }
+
+    /**
+     * Acknowledges a batch. The records of a successfully sent batch are released; the records of a
+     * failed batch are returned by a later {@link #poll()}.
+     * @param batch the batch
+     * @param success whether the batch was sent successfully
+     */
+    void acknowledge(Batch batch, boolean success) {
+        batch.done = true;
+        batch.succeeded = success;
+
+        while (!inFlight.isEmpty() && inFlight.peek().done) {
+            reclaim(inFlight.poll());
+        }
+    }
+
+    private void reclaim(Batch batch) {
+        if (batch.shardEnds != null) {
+            for (int i = 0; i < shards.length; i++) {
+                shards[i].release(batch.shardEnds[i]);
+            }
+
+            // the records are now owned by the batch only
+            batch.shardEnds = null;
+        }
+
+        if (batch.succeeded) {
+            batch.records.clear();
+            freeBatches.push(batch);
+        } else {
+            failed.add(batch);
+        }
+    }
+
+    private Batch takeRecords() {
+        Batch batch = freeBatches.isEmpty() ? new Batch(maxRecordsInBatch) : freeBatches.pop();
+        long[] shardEnds = new long[shards.length];
+
+        // start from a different shard every time so that no shard gets starved
+        int start = nextShard;
+        nextShard = (nextShard + 1) % shards.length;
+
+        for (int i = 0; i < shards.length; i++) {
+            int index = (start + i) % shards.length;
+            shardEnds[index] = shards[index].drainTo(batch.records, maxRecordsInBatch);
+        }
+
+        if (batch.records.isEmpty()) {
+            freeBatches.push(batch);
+
+            return null;
+        }
+
+        batch.shardEnds = shardEnds;
+
+        return batch;
+    }
+
+    /**
+     * A batch of records taken from the buffer.
+     */
+    static final class Batch {
+        private final List<OpMonitoringData> records;
+
+        // the positions in the shards up to which the records of this batch reach, null if the records
+        // have already been released from the shards
+        private long[] shardEnds;
+
+        private boolean done;
+        private boolean succeeded;
+
+        Batch(int capacity) {
+            this.records = new ArrayList<>(capacity);
+        }
+
+        List<OpMonitoringData> getRecords() {
+            return records;
+        }
+    }
+
+    /**
+     * Single ring buffer with multiple producers and a single consumer. A slot is published by writing
+     * a non-null record to it and freed by the consumer by writing null to it before moving the head.
+     */
+    private static final class Shard {
+        private final AtomicReferenceArray<OpMonitoringData> slots;
+        private final int capacity;
+
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head;
+
+        // consumer only: the position of the next record to take
+        private long readPosition;
+
+        Shard(int capacity) {
+            this.capacity = capacity;
+            this.slots = new AtomicReferenceArray<>(capacity);
+        }
+
+        boolean offer(OpMonitoringData data) {
+            while (true) {
+                long position = tail.get();
+
+                if (position - head >= capacity) {
+                    return false;
+                }
+
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.set((int) (position % capacity), data);
+
+                    return true;
+                }
+            }
+        }
+
+        long drainTo(List<OpMonitoringData> records, int maxRecords) {
+            long end = tail.get();
+
+            while (readPosition < end && records.size() < maxRecords) {
+                OpMonitoringData data = slots.get((int) (readPosition % capacity));
+
+                if (data == null) {
+                    // claimed by a producer but not yet published
+                    break;
+                }
+
+                records.add(data);
+                readPosition++;
+            }
+
+            return readPosition;
+        }
+
+        void release(long end) {
+            for (long position = head; position < end; position++) {
+                slots.set((int) (position % capacity), null);
+            }
+
+            if (end > head) {
+                head = end;
+            }
+        }
+
+        long size() {
+            return tail.get() - head;
+        }
+    }
+}
@@ -57,6 +57,7 @@ import static ee.ria.xroad.common.util.TimeUtils.getEpochMillisecond;
  * Service handler for operational monitoring.
  */
 @Slf4j
+@HandledServices(serviceCodes = {GET_SECURITY_SERVER_HEALTH_DATA, GET_SECURITY_SERVER_OPERATIONAL_DATA})
 public class OpMonitoringServiceHandlerImpl implements ServiceHandler {
 
     private static final int CONNECTION_TIMEOUT_MILLISECONDS = TimeUtils.secondsToMillis(
@@ -25,48 +25,100 @@
  */
 package ee.ria.xroad.proxy.opmonitoring;
 
+import ee.ria.xroad.common.opmonitoring.OpMonitoringDaemonEndpoints;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
 import akka.testkit.TestActorRef;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.AfterClass;
 import org.junit.Test;
 
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import static org.junit.Assert.assertEquals;
 
 /**
  * Tests operational monitoring buffer.
  */
+@Slf4j
 public class OpMonitoringBufferTest {
     private static final ActorSystem ACTOR_SYSTEM = ActorSystem.create();
 
+    private static final int PRODUCERS = 8;
+    private static final int RECORDS_PER_PRODUCER = 25000;
+
     private static class TestOpMonitoringBuffer extends OpMonitoringBuffer {
         TestOpMonitoringBuffer() throws Exception {
             super();
         }
 
+        @Override
+        OpMonitoringRingBuffer createBuffer() {
+            return new OpMonitoringRingBuffer(2, 100, 1);
+        }
+
         @Override
         CloseableHttpClient createHttpClient() throws Exception {
             return null;
         }
 
         @Override
-        ActorRef createSender() {
-            return null;
+        List<ActorRef> createSenders() {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Buffer that sends the data over plain HTTP to the stub daemon.
+     */
+    public static class ThroughputTestOpMonitoringBuffer extends OpMonitoringBuffer {
+        /**
+         * Constructor.
+         * @throws Exception if an error occurs
+         */
+        public ThroughputTestOpMonitoringBuffer() throws Exception {
+            super();
         }
 
         @Override
-        protected void store(OpMonitoringData data) throws Exception {
-            buffer.put(getNextBufferIndex(), data);
+        OpMonitoringRingBuffer createBuffer() {
+            return new OpMonitoringRingBuffer(PRODUCERS * RECORDS_PER_PRODUCER, 100);
         }
+
+        @Override
+        CloseableHttpClient createHttpClient() throws Exception {
+            return HttpClients.custom().setMaxConnTotal(PRODUCERS).setMaxConnPerRoute(PRODUCERS).build();
+        }
+    }
+
+    /**
+     * Shut down the actor system.
+     */
+    @AfterClass
+    public static void tearDown() {
+        OpMonitoring.setDirectStore(null);
+        ACTOR_SYSTEM.terminate();
     }
 
     @Test
     public void bufferOverflow() throws Exception {
-        System.setProperty("xroad.op-monitor-buffer.size", "2");
-
         final Props props = Props.create(TestOpMonitoringBuffer.class);
         final TestActorRef<TestOpMonitoringBuffer> testActorRef =
                 TestActorRef.create(ACTOR_SYSTEM, props, "testActorRef");
@@ -82,7 +134,85 @@ public class OpMonitoringBufferTest {
         opMonitoringBuffer.store(opMonitoringData);
 
         assertEquals(2, opMonitoringBuffer.buffer.size());
-        assertEquals(true, opMonitoringBuffer.buffer.containsKey(2L));
-        assertEquals(true, opMonitoringBuffer.buffer.containsKey(3L));
+        assertEquals(1, opMonitoringBuffer.buffer.takeDroppedCount());
+
+        ACTOR_SYSTEM.stop(testActorRef);
+    }
+
+    @Test
+    public void sendsRecordsFromConcurrentThreadsToDaemon() throws Exception {
+        AtomicLong receivedRecords = new AtomicLong();
+        AtomicLong receivedMessages = new AtomicLong();
+
+        HttpServer daemon = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        daemon.createContext(OpMonitoringDaemonEndpoints.STORE_DATA_PATH, exchange -> {
+            int records = JsonParser.parseReader(new InputStreamReader(exchange.getRequestBody(),
+                    StandardCharsets.UTF_8)).getAsJsonObject().getAsJsonArray("records").size();
+
+            receivedRecords.addAndGet(records);
+            receivedMessages.incrementAndGet();
+
+            byte[] response = "{\"status\":\"OK\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        daemon.setExecutor(Executors.newFixedThreadPool(PRODUCERS));
+        daemon.start();
+
+        System.setProperty("xroad.op-monitor.scheme", "http");
+        System.setProperty("xroad.op-monitor.host", "localhost");
+        System.setProperty("xroad.op-monitor.port", String.valueOf(daemon.getAddress().getPort()));
+        System.setProperty(OpMonitoring.OP_MONITORING_BUFFER_IMPL_CLASS,
+                ThroughputTestOpMonitoringBuffer.class.getName());
+
+        ExecutorService producers = Executors.newFixedThreadPool(PRODUCERS);
+
+        try {
+            OpMonitoring.init(ACTOR_SYSTEM);
+
+            long start = System.nanoTime();
+            List<Runnable> tasks = new ArrayList<>();
+
+            for (int p = 0; p < PRODUCERS; p++) {
+                tasks.add(() -> {
+                    for (int i = 0; i < RECORDS_PER_PRODUCER; i++) {
+                        OpMonitoringData data = new OpMonitoringData(
+                                OpMonitoringData.SecurityServerType.CLIENT, System.currentTimeMillis());
+                        data.setServiceType("WSDL");
+                        data.setSucceeded(true);
+
+                        OpMonitoring.store(data);
+                    }
+                });
+            }
+
+            tasks.forEach(producers::execute);
+
+            long expected = (long) PRODUCERS * RECORDS_PER_PRODUCER;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+
+            while (receivedRecords.get() < expected && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            log.info("Sent {} records in {} messages in {} ms ({} records/s)", receivedRecords.get(),
+                    receivedMessages.get(), elapsedMillis, receivedRecords.get() * 1000 / Math.max(1, elapsedMillis));
+
+            assertEquals(expected, receivedRecords.get());
+        } finally {
+            producers.shutdownNow();
+            daemon.stop(0);
+
+            System.clearProperty(OpMonitoring.OP_MONITORING_BUFFER_IMPL_CLASS);
+            System.clearProperty("xroad.op-monitor.scheme");
+            System.clearProperty("xroad.op-monitor.host");
+            System.clearProperty("xroad.op-monitor.port");
+        }
     }
 }
@@ -0,0 +1,206 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.opmonitoring;
+
+import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests operational monitoring ring buffer.
+ */
+public class OpMonitoringRingBufferTest {
+
+    @Test
+    public void dropsRecordsWhenFull() {
+        OpMonitoringRingBuffer buffer = new OpMonitoringRingBuffer(2, 10, 1);
+
+        OpMonitoringData first = createData(1);
+        OpMonitoringData second = createData(2);
+
+        assertTrue(buffer.offer(first));
+        assertTrue(buffer.offer(second));
+        assertFalse(buffer.offer(createData(3)));
+
+        assertEquals(2, buffer.size());
+        assertEquals(1, buffer.takeDroppedCount());
+        assertEquals(0, buffer.takeDroppedCount());
+
+        OpMonitoringRingBuffer.Batch batch = buffer.poll();
+        assertEquals(2, batch.getRecords().size());
+        assertSame(first, batch.getRecords().get(0));
+        assertSame(second, batch.getRecords().get(1));
+
+        // space is reclaimed only after acknowledgement
+        assertFalse(buffer.offer(createData(4)));
+
+        buffer.acknowledge(batch, true);
+
+        assertEquals(0, buffer.size());
+        assertTrue(buffer.offer(createData(5)));
+    }
+
+    @Test
+    public void splitsRecordsIntoBatches() {
+        OpMonitoringRingBuffer buffer = new OpMonitoringRingBuffer(100, 3, 1);
+
+        for (int i = 0; i < 7; i++) {
+            buffer.offer(createData(i));
+        }
+
+        OpMonitoringRingBuffer.Batch first = buffer.poll();
+        OpMonitoringRingBuffer.Batch second = buffer.poll();
+        OpMonitoringRingBuffer.Batch third = buffer.poll();
+
+        assertEquals(3, first.getRecords().size());
+        assertEquals(3, second.getRecords().size());
+        assertEquals(1, third.getRecords().size());
+        assertNull(buffer.poll());
+        assertEquals(3, buffer.getInFlightCount());
+
+        // acknowledging out of order reclaims the space only when the earlier batches are done
+        buffer.acknowledge(second, true);
+        assertEquals(7, buffer.size());
+        assertEquals(2, buffer.getInFlightCount());
+
+        buffer.acknowledge(first, true);
+        assertEquals(1, buffer.size());
+
+        buffer.acknowledge(third, true);
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.getInFlightCount());
+    }
+
+    @Test
+    public void resendsFailedBatchesFirst() {
+        OpMonitoringRingBuffer buffer = new OpMonitoringRingBuffer(100, 2, 1);
+
+        for (int i = 0; i < 4; i++) {
+            buffer.offer(createData(i));
+        }
+
+        OpMonitoringRingBuffer.Batch first = buffer.poll();
+        List<OpMonitoringData> firstRecords = new ArrayList<>(first.getRecords());
+
+        buffer.acknowledge(first, false);
+
+        // the failed records no longer occupy the ring
+        assertEquals(4, buffer.size());
+        assertTrue(buffer.offer(createData(4)));
+
+        OpMonitoringRingBuffer.Batch retry = buffer.poll();
+        assertEquals(firstRecords, retry.getRecords());
+
+        buffer.acknowledge(retry, true);
+
+        OpMonitoringRingBuffer.Batch next = buffer.poll();
+        assertEquals(2, next.getRecords().size());
+        assertEquals(2L, getRequestInTs(next.getRecords().get(0)));
+    }
+
+    @Test
+    public void deliversEveryRecordOnceWithConcurrentProducers() throws Exception {
+        final int producers = 8;
+        final int recordsPerProducer = 50000;
+
+        OpMonitoringRingBuffer buffer = new OpMonitoringRingBuffer(10000, 100, 4);
+
+        CountDownLatch done = new CountDownLatch(producers);
+        AtomicBoolean failed = new AtomicBoolean();
+
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < recordsPerProducer; i++) {
+                        OpMonitoringData data = createData((long) producer * recordsPerProducer + i);
+
+                        while (!buffer.offer(data)) {
+                            Thread.yield();
+                        }
+                    }
+                } catch (Throwable t) {
+                    failed.set(true);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        Set<Long> received = new HashSet<>();
+        int batchCount = 0;
+
+        while (received.size() < producers * recordsPerProducer) {
+            OpMonitoringRingBuffer.Batch batch = buffer.poll();
+
+            if (batch == null) {
+                Thread.yield();
+                continue;
+            }
+
+            List<OpMonitoringData> records = new ArrayList<>(batch.getRecords());
+
+            // fail every tenth batch to exercise resending
+            boolean fail = ++batchCount % 10 == 0;
+
+            if (!fail) {
+                for (OpMonitoringData data : records) {
+                    assertTrue("Duplicate record", received.add(getRequestInTs(data)));
+                }
+            }
+
+            buffer.acknowledge(batch, !fail);
+        }
+
+        done.await();
+
+        assertFalse(failed.get());
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.size());
+    }
+
+    private static OpMonitoringData createData(long requestInTs) {
+        return new OpMonitoringData(OpMonitoringData.SecurityServerType.CLIENT, requestInTs);
+    }
+
+    private static long getRequestInTs(OpMonitoringData data) {
+        return data.getRequestInTs();
+    }
+}
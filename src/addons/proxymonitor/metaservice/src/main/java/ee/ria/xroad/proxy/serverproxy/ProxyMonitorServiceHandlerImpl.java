@@ -70,6 +70,7 @@ import java.util.List;
  * Service handler for proxy monitoring
  */
 @Slf4j
+@HandledServices(serviceCodes = ProxyMonitorServiceHandlerImpl.SERVICE_CODE)
 public class ProxyMonitorServiceHandlerImpl implements ServiceHandler {
 
     public static final String SERVICE_CODE = "getSecurityServerMetrics";
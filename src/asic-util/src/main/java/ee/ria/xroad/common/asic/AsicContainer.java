@@ -36,6 +36,7 @@ import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.LongSupplier;
 import java.util.zip.ZipOutputStream;
 
 import static ee.ria.xroad.common.ErrorCodes.translateException;
@@ -64,6 +65,9 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
  */
 public class AsicContainer {
 
+    /** Digest algorithm of the time-stamp hash chain result in the ASiC manifest. */
+    static final String ASIC_MANIFEST_DIGEST_ID = SHA512_ID;
+
     /** Holds the entries in the container. */
     private final Map<String, String> entries = new HashMap<>();
     private final InputStream attachment;
@@ -227,8 +231,12 @@ public class AsicContainer {
      * @throws Exception if errors occurred when writing ZIP entries
      */
     public void write(OutputStream out) throws Exception {
+        write(out, System::currentTimeMillis);
+    }
+
+    void write(OutputStream out, LongSupplier clock) throws Exception {
         try (ZipOutputStream zip = new ZipOutputStream(out)) {
-            AsicHelper.write(this, zip);
+            AsicHelper.write(this, zip, clock);
         }
     }
 
@@ -238,8 +246,24 @@ public class AsicContainer {
     }
 
     private void createOpenDocumentManifest() {
+        put(ENTRY_MANIFEST, buildOpenDocumentManifest(entries.keySet()));
+    }
+
+    private void createAsicManifest() throws Exception {
+        String tsHashChainResult = get(ENTRY_TS_HASH_CHAIN_RESULT);
+        if (tsHashChainResult == null) {
+            return;
+        }
+
+        byte[] digest = calculateDigest(getAlgorithmIdentifier(ASIC_MANIFEST_DIGEST_ID),
+                tsHashChainResult.getBytes(StandardCharsets.UTF_8));
+
+        put(ENTRY_ASIC_MANIFEST, buildAsicManifest(encodeBase64(digest)));
+    }
+
+    static String buildOpenDocumentManifest(Iterable<String> entryNames) {
         OpenDocumentManifestBuilder b = new OpenDocumentManifestBuilder();
-        for (String entryName : entries.keySet()) {
+        for (String entryName : entryNames) {
             // ignore mimetype and files in META-INF
             if (entryName.equalsIgnoreCase(ENTRY_MIMETYPE)
                     || entryName.startsWith("META-INF")) {
@@ -249,26 +273,17 @@ public class AsicContainer {
             b.addFile(entryName, MimeTypes.TEXT_XML); // assume files are XML
         }
 
-        put(ENTRY_MANIFEST, b.build());
+        return b.build();
     }
 
-    private void createAsicManifest() throws Exception {
-        String tsHashChainResult = get(ENTRY_TS_HASH_CHAIN_RESULT);
-        if (tsHashChainResult == null) {
-            return;
-        }
-
+    static String buildAsicManifest(String tsHashChainResultDigest) {
         AsicManifestBuilder b = new AsicManifestBuilder();
         b.setSigReference(ENTRY_TIMESTAMP, "vnd.etsi.timestamp-token");
-
-        String algoId = SHA512_ID;
-        byte[] digest = calculateDigest(getAlgorithmIdentifier(algoId),
-                tsHashChainResult.getBytes(StandardCharsets.UTF_8));
         b.addDataObjectReference(ENTRY_TS_HASH_CHAIN_RESULT,
-                MimeTypes.TEXT_XML, getDigestAlgorithmURI(algoId),
-                encodeBase64(digest));
+                MimeTypes.TEXT_XML, getDigestAlgorithmURI(ASIC_MANIFEST_DIGEST_ID),
+                tsHashChainResultDigest);
 
-        put(ENTRY_ASIC_MANIFEST, b.build());
+        return b.build();
     }
 
     private void verifyContents() throws Exception {
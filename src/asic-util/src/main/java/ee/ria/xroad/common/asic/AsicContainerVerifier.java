@@ -26,7 +26,6 @@
 package ee.ria.xroad.common.asic;
 
 import ee.ria.xroad.common.CodedException;
-import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.hashchain.DigestValue;
 import ee.ria.xroad.common.hashchain.HashChainReferenceResolver;
 import ee.ria.xroad.common.hashchain.HashChainVerifier;
@@ -40,7 +39,6 @@ import ee.ria.xroad.common.signature.MessagePart;
 import ee.ria.xroad.common.signature.Signature;
 import ee.ria.xroad.common.signature.SignatureData;
 import ee.ria.xroad.common.signature.SignatureVerifier;
-import ee.ria.xroad.common.signature.TimestampVerifier;
 import ee.ria.xroad.common.util.MessageFileNames;
 import ee.ria.xroad.common.util.MimeTypes;
 
@@ -110,6 +108,9 @@ public class AsicContainerVerifier {
 
     private byte[] attachmentDigest;
 
+    @Getter(AccessLevel.NONE)
+    private AsicVerificationCache cache;
+
     /**
      * Constructs a new ASiC container verifier for the ZIP file with the
      * given filename. Attempts to verify it's contents.
@@ -122,6 +123,17 @@ public class AsicContainerVerifier {
         }
     }
 
+    /**
+     * Constructs a new ASiC container verifier that shares the results of repeating verifications with other
+     * verifiers using the same cache.
+     * @param asic the ASiC container
+     * @param cache the verification cache
+     */
+    public AsicContainerVerifier(AsicContainer asic, AsicVerificationCache cache) {
+        this.asic = asic;
+        this.cache = cache;
+    }
+
     /**
      * Attempts to verify the ASiC container's signature and timestamp.
      * @throws Exception if verification was unsuccessful
@@ -136,9 +148,14 @@ public class AsicContainerVerifier {
                 new SignatureVerifier(signature,
                         signatureData.getHashChainResult(),
                         signatureData.getHashChain());
+
+        if (cache != null) {
+            signatureVerifier.setVerifiedCertChainCache(cache.getCertChains());
+        }
+
         verifyRequiredReferencesExist();
 
-        Date atDate = verifyTimestamp();
+        Date atDate = addTimestamp(signatureVerifier);
 
         configureResourceResolvers(signatureVerifier);
 
@@ -150,6 +167,7 @@ public class AsicContainerVerifier {
         signatureVerifier.addPart(new MessagePart(MESSAGE, null, null, null));
 
         signatureVerifier.verify(signerName, atDate);
+        timestampCert = signatureVerifier.getTimestampCertificates().get(0);
         signerCert = signatureVerifier.getSigningCertificate();
 
         OCSPResp ocsp = signatureVerifier.getSigningOcspResponse(
@@ -193,17 +211,15 @@ public class AsicContainerVerifier {
                 encodeHex(digestValue)) + (verified ? " (verified)" : " (unverified)"));
     }
 
-    private Date verifyTimestamp() throws Exception {
+    private Date addTimestamp(SignatureVerifier signatureVerifier) throws Exception {
         TimeStampToken tsToken = getTimeStampToken();
 
-        TimestampVerifier.verify(tsToken, getTimestampedData(),
-                GlobalConf.getTspCertificates());
-
+        // The time-stamp is verified with the signature. Containers time-stamped
+        // in the same batch share the token, which is verified only once.
+        signatureVerifier.addTimestamp(tsToken, getTimestampedData());
         timestampDate = tsToken.getTimeStampInfo().getGenTime();
-        timestampCert = TimestampVerifier.getSignerCertificate(
-                tsToken, GlobalConf.getTspCertificates());
 
-        return tsToken.getTimeStampInfo().getGenTime();
+        return timestampDate;
     }
 
     private void verifyTimestampHashChain(byte[] tsHashChainResultBytes) {
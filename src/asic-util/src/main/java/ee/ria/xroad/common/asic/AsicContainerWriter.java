@@ -0,0 +1,462 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.asic;
+
+import ee.ria.xroad.common.signature.SignatureData;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static ee.ria.xroad.common.asic.AsicContainer.ASIC_MANIFEST_DIGEST_ID;
+import static ee.ria.xroad.common.asic.AsicContainerEntries.ENTRY_ASIC_MANIFEST;
+import static ee.ria.xroad.common.asic.AsicContainerEntries.ENTRY_ATTACHMENT;
+import static ee.ria.xroad.common.asic.AsicContainerEntries.ENTRY_MANIFEST;
+import static ee.ria.xroad.common.asic.AsicContainerEntries.ENTRY_MESSAGE;
+import static ee.ria.xroad.common.asic.AsicContainerEntries.ENTRY_MIMETYPE;
+import static ee.ria.xroad.common.asic.AsicContainerEntries.ENTRY_SIGNATURE;
+import static ee.ria.xroad.common.asic.AsicContainerEntries.ENTRY_SIG_HASH_CHAIN;
+import static ee.ria.xroad.common.asic.AsicContainerEntries.ENTRY_SIG_HASH_CHAIN_RESULT;
+import static ee.ria.xroad.common.asic.AsicContainerEntries.ENTRY_TIMESTAMP;
+import static ee.ria.xroad.common.asic.AsicContainerEntries.ENTRY_TS_HASH_CHAIN;
+import static ee.ria.xroad.common.asic.AsicContainerEntries.ENTRY_TS_HASH_CHAIN_RESULT;
+import static ee.ria.xroad.common.asic.AsicContainerEntries.MIMETYPE;
+import static ee.ria.xroad.common.util.CryptoUtils.decodeBase64;
+import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Writes ASiC containers directly from the contents of message log records,
+ * without building an {@link AsicContainer} first. Used by the archiver: the
+ * records were verified when they were logged, so the contents are not verified
+ * again, the manifests are filled in from precomputed templates and all the
+ * entries are compressed with one reusable {@link Deflater}.
+ *
+ * The output is byte-for-byte identical to {@link AsicContainer#write(OutputStream)}
+ * for the same contents and entry time, i.e. the ZIP layout produced by
+ * {@link ZipOutputStream} for deflated entries with UTF-8 names and data
+ * descriptors. ZIP64 is not supported.
+ *
+ * The writer is not thread-safe. It must be closed to release the deflater.
+ */
+public class AsicContainerWriter implements Closeable {
+
+    private static final int LOCSIG = 0x04034b50;
+    private static final int EXTSIG = 0x08074b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int ENDSIG = 0x06054b50;
+
+    private static final int VERSION = 20;
+    private static final int FLAGS = 0x0808; // data descriptor, UTF-8 names
+    private static final int METHOD = ZipOutputStream.DEFLATED;
+
+    private static final int DOSTIME_BEFORE_1980 = (1 << 21) | (1 << 16);
+    private static final long ZIP32_MAX = 0xFFFFFFFFL;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final byte[] MIMETYPE_BYTES = utf8(MIMETYPE);
+    private static final byte[] COMMENT_BYTES = utf8("mimetype=" + MIMETYPE);
+    private static final byte[] ATTACHMENT_NAME = utf8(ENTRY_ATTACHMENT + "1");
+
+    // Bits of the optional entries that affect the OpenDocument manifest
+    private static final int SIG_HASH_CHAIN_RESULT = 1;
+    private static final int SIG_HASH_CHAIN = 2;
+    private static final int TS_HASH_CHAIN_RESULT = 4;
+    private static final int TS_HASH_CHAIN = 8;
+
+    private static final byte[][] OPEN_DOCUMENT_MANIFESTS = createOpenDocumentManifests();
+
+    private static final String DIGEST_PLACEHOLDER = "\u0000";
+    private static final String ASIC_MANIFEST_TEMPLATE = AsicContainer.buildAsicManifest(DIGEST_PLACEHOLDER);
+    private static final byte[] ASIC_MANIFEST_PREFIX = utf8(ASIC_MANIFEST_TEMPLATE.substring(0,
+            ASIC_MANIFEST_TEMPLATE.indexOf(DIGEST_PLACEHOLDER)));
+    private static final byte[] ASIC_MANIFEST_SUFFIX = utf8(ASIC_MANIFEST_TEMPLATE.substring(
+            ASIC_MANIFEST_TEMPLATE.indexOf(DIGEST_PLACEHOLDER) + DIGEST_PLACEHOLDER.length()));
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private final byte[] header = new byte[64];
+    private final List<Entry> entries = new ArrayList<>();
+    private final MessageDigest asicManifestDigest;
+    private final LongSupplier clock;
+
+    private OutputStream out;
+    private long written;
+    private int dosTime;
+
+    /**
+     * Creates a writer that stamps the entries with the current time.
+     * @throws Exception if the ASiC manifest digest algorithm is not available
+     */
+    public AsicContainerWriter() throws Exception {
+        this(System::currentTimeMillis);
+    }
+
+    AsicContainerWriter(LongSupplier clock) throws Exception {
+        this.clock = clock;
+        this.asicManifestDigest = MessageDigest.getInstance(ASIC_MANIFEST_DIGEST_ID);
+    }
+
+    /**
+     * Writes an ASiC container with the given contents to the output stream.
+     * The output stream is not closed, the attachment stream is.
+     * @param output the stream for writing the container
+     * @param message content of the signed message
+     * @param signature signature of the message
+     * @param timestamp timestamp data of the message or null
+     * @param attachment the attachment or null
+     * @throws IOException if writing fails
+     */
+    public void write(OutputStream output, String message, SignatureData signature, TimestampData timestamp,
+            InputStream attachment) throws IOException {
+        write(output, utf8(message), signature, timestamp, attachment);
+    }
+
+    /**
+     * Writes an ASiC container with the given contents to the output stream.
+     * The output stream is not closed, the attachment stream is.
+     * @param output the stream for writing the container
+     * @param message UTF-8 encoded content of the signed message
+     * @param signature signature of the message
+     * @param timestamp timestamp data of the message or null
+     * @param attachment the attachment or null
+     * @throws IOException if writing fails
+     */
+    public void write(OutputStream output, byte[] message, SignatureData signature, TimestampData timestamp,
+            InputStream attachment) throws IOException {
+        try {
+            start(output);
+
+            String sigHashChainResult = nonBlank(signature.getHashChainResult());
+            String sigHashChain = nonBlank(signature.getHashChain());
+            String tsHashChainResult = null;
+            String tsHashChain = null;
+            String tsToken = null;
+
+            if (timestamp != null) {
+                if (isNotBlank(timestamp.getHashChainResult())) { // batch ts
+                    tsToken = nonBlank(timestamp.getTimestampBase64());
+                }
+
+                tsHashChain = nonBlank(timestamp.getHashChain());
+                tsHashChainResult = nonBlank(timestamp.getHashChainResult());
+            }
+
+            // The entries in the order of AsicContainerEntries.ALL_ENTRIES
+            addEntry(ENTRY_MIMETYPE, MIMETYPE_BYTES);
+            addEntry(ENTRY_MESSAGE, message);
+            addEntry(ENTRY_SIGNATURE, utf8(signature.getSignatureXml()));
+            addEntry(ENTRY_SIG_HASH_CHAIN_RESULT, utf8(sigHashChainResult));
+            addEntry(ENTRY_SIG_HASH_CHAIN, utf8(sigHashChain));
+            addEntry(ENTRY_TS_HASH_CHAIN_RESULT, utf8(tsHashChainResult));
+            addEntry(ENTRY_TS_HASH_CHAIN, utf8(tsHashChain));
+            addEntry(ENTRY_MANIFEST, OPEN_DOCUMENT_MANIFESTS[(sigHashChainResult != null ? SIG_HASH_CHAIN_RESULT : 0)
+                    | (sigHashChain != null ? SIG_HASH_CHAIN : 0)
+                    | (tsHashChainResult != null ? TS_HASH_CHAIN_RESULT : 0)
+                    | (tsHashChain != null ? TS_HASH_CHAIN : 0)]);
+
+            if (tsHashChainResult != null) {
+                addAsicManifest(tsHashChainResult);
+            }
+
+            if (tsToken != null && tsHashChainResult != null && tsHashChain != null) {
+                addEntry(ENTRY_TIMESTAMP, decodeBase64(tsToken));
+            }
+
+            if (attachment != null) {
+                addAttachment(attachment);
+            }
+
+            finish();
+        } finally {
+            if (attachment != null) {
+                attachment.close();
+            }
+
+            out = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        deflater.end();
+    }
+
+    private void start(OutputStream output) {
+        out = output;
+        written = 0;
+        dosTime = toDosTime(clock.getAsLong());
+        entries.clear();
+        deflater.reset();
+    }
+
+    private void addEntry(String name, byte[] data) throws IOException {
+        if (data == null) {
+            return;
+        }
+
+        Entry entry = beginEntry(utf8(name));
+        deflate(data, 0, data.length);
+        endEntry(entry);
+    }
+
+    private void addAsicManifest(String tsHashChainResult) throws IOException {
+        byte[] digest = asicManifestDigest.digest(utf8(tsHashChainResult));
+
+        Entry entry = beginEntry(utf8(ENTRY_ASIC_MANIFEST));
+        deflate(ASIC_MANIFEST_PREFIX, 0, ASIC_MANIFEST_PREFIX.length);
+
+        byte[] digestValue = utf8(encodeBase64(digest));
+        deflate(digestValue, 0, digestValue.length);
+
+        deflate(ASIC_MANIFEST_SUFFIX, 0, ASIC_MANIFEST_SUFFIX.length);
+        endEntry(entry);
+    }
+
+    private void addAttachment(InputStream attachment) throws IOException {
+        Entry entry = beginEntry(ATTACHMENT_NAME);
+
+        // Read into a separate buffer, buf holds the compressed output
+        byte[] in = new byte[BUFFER_SIZE];
+        int len;
+
+        while ((len = attachment.read(in)) != -1) {
+            deflate(in, 0, len);
+        }
+
+        endEntry(entry);
+    }
+
+    private Entry beginEntry(byte[] name) throws IOException {
+        Entry entry = new Entry(name, written);
+
+        putInt(0, LOCSIG);
+        putShort(4, VERSION);
+        putShort(6, FLAGS);
+        putShort(8, METHOD);
+        putInt(10, dosTime);
+        putInt(14, 0); // crc, sizes are in the data descriptor
+        putInt(18, 0);
+        putInt(22, 0);
+        putShort(26, name.length);
+        putShort(28, 0); // extra field length
+        writeHeader(30);
+        writeBytes(name, 0, name.length);
+
+        crc.reset();
+
+        return entry;
+    }
+
+    private void deflate(byte[] data, int off, int len) throws IOException {
+        deflater.setInput(data, off, len);
+
+        while (!deflater.needsInput()) {
+            writeDeflated();
+        }
+
+        crc.update(data, off, len);
+    }
+
+    private void endEntry(Entry entry) throws IOException {
+        deflater.finish();
+
+        while (!deflater.finished()) {
+            writeDeflated();
+        }
+
+        entry.crc = crc.getValue();
+        entry.size = deflater.getBytesRead();
+        entry.compressedSize = deflater.getBytesWritten();
+        deflater.reset();
+
+        if (entry.size >= ZIP32_MAX || entry.compressedSize >= ZIP32_MAX) {
+            throw new ZipException("ASiC container entry too large: " + new String(entry.name,
+                    StandardCharsets.UTF_8));
+        }
+
+        putInt(0, EXTSIG);
+        putInt(4, (int) entry.crc);
+        putInt(8, (int) entry.compressedSize);
+        putInt(12, (int) entry.size);
+        writeHeader(16);
+
+        entries.add(entry);
+    }
+
+    private void writeDeflated() throws IOException {
+        int len = deflater.deflate(buf, 0, buf.length);
+
+        if (len > 0) {
+            writeBytes(buf, 0, len);
+        }
+    }
+
+    private void finish() throws IOException {
+        long centralDirectoryOffset = written;
+
+        for (Entry entry : entries) {
+            putInt(0, CENSIG);
+            putShort(4, VERSION); // version made by
+            putShort(6, VERSION); // version needed to extract
+            putShort(8, FLAGS);
+            putShort(10, METHOD);
+            putInt(12, dosTime);
+            putInt(16, (int) entry.crc);
+            putInt(20, (int) entry.compressedSize);
+            putInt(24, (int) entry.size);
+            putShort(28, entry.name.length);
+            putShort(30, 0); // extra field length
+            putShort(32, 0); // comment length
+            putShort(34, 0); // disk number
+            putShort(36, 0); // internal file attributes
+            putInt(38, 0); // external file attributes
+            putInt(42, (int) entry.offset);
+            writeHeader(46);
+            writeBytes(entry.name, 0, entry.name.length);
+        }
+
+        long centralDirectoryLength = written - centralDirectoryOffset;
+
+        if (written >= ZIP32_MAX) {
+            throw new ZipException("ASiC container too large");
+        }
+
+        putInt(0, ENDSIG);
+        putShort(4, 0); // number of this disk
+        putShort(6, 0); // disk with the central directory
+        putShort(8, entries.size());
+        putShort(10, entries.size());
+        putInt(12, (int) centralDirectoryLength);
+        putInt(16, (int) centralDirectoryOffset);
+        putShort(20, COMMENT_BYTES.length);
+        writeHeader(22);
+        writeBytes(COMMENT_BYTES, 0, COMMENT_BYTES.length);
+    }
+
+    private void putShort(int off, int value) {
+        header[off] = (byte) value;
+        header[off + 1] = (byte) (value >>> 8);
+    }
+
+    private void putInt(int off, int value) {
+        putShort(off, value);
+        putShort(off + 2, value >>> 16);
+    }
+
+    private void writeHeader(int len) throws IOException {
+        writeBytes(header, 0, len);
+    }
+
+    private void writeBytes(byte[] data, int off, int len) throws IOException {
+        out.write(data, off, len);
+        written += len;
+    }
+
+    /**
+     * Converts the Java time to the MS-DOS date and time in the local time
+     * zone, like {@link java.util.zip.ZipEntry#setTime(long)} does.
+     */
+    static int toDosTime(long time) {
+        LocalDateTime d = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+
+        if (d.getYear() < 1980) {
+            return DOSTIME_BEFORE_1980;
+        }
+
+        return (d.getYear() - 1980) << 25 | d.getMonthValue() << 21 | d.getDayOfMonth() << 16
+                | d.getHour() << 11 | d.getMinute() << 5 | d.getSecond() >> 1;
+    }
+
+    /**
+     * Creates the OpenDocument manifests for all combinations of the optional
+     * entries. The manifest lists the entries in the iteration order of the
+     * container's entry map, so the map is filled in like the AsicContainer
+     * constructor does it.
+     */
+    private static byte[][] createOpenDocumentManifests() {
+        byte[][] manifests = new byte[16][];
+
+        for (int mask = 0; mask < manifests.length; mask++) {
+            Map<String, String> names = new HashMap<>();
+            names.put(ENTRY_MIMETYPE, "");
+            names.put(ENTRY_MESSAGE, "");
+            names.put(ENTRY_SIGNATURE, "");
+            putIf(names, mask, SIG_HASH_CHAIN_RESULT, ENTRY_SIG_HASH_CHAIN_RESULT);
+            putIf(names, mask, SIG_HASH_CHAIN, ENTRY_SIG_HASH_CHAIN);
+            putIf(names, mask, TS_HASH_CHAIN, ENTRY_TS_HASH_CHAIN);
+            putIf(names, mask, TS_HASH_CHAIN_RESULT, ENTRY_TS_HASH_CHAIN_RESULT);
+
+            manifests[mask] = utf8(AsicContainer.buildOpenDocumentManifest(names.keySet()));
+        }
+
+        return manifests;
+    }
+
+    private static void putIf(Map<String, String> names, int mask, int bit, String name) {
+        if ((mask & bit) != 0) {
+            names.put(name, "");
+        }
+    }
+
+    private static String nonBlank(String value) {
+        return isNotBlank(value) ? value : null;
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static final class Entry {
+        private final byte[] name;
+        private final long offset;
+        private long crc;
+        private long size;
+        private long compressedSize;
+
+        Entry(byte[] name, long offset) {
+            this.name = name;
+            this.offset = offset;
+        }
+    }
+}
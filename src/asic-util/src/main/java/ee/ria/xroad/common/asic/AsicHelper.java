@@ -37,6 +37,7 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.LongSupplier;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -107,7 +108,7 @@ final class AsicHelper {
         return new AsicContainer(entries, attachmentDigest);
     }
 
-    static void write(AsicContainer asic, ZipOutputStream zip) throws Exception {
+    static void write(AsicContainer asic, ZipOutputStream zip, LongSupplier clock) throws Exception {
         zip.setComment("mimetype=" + MIMETYPE);
 
         for (Object expectedEntry : AsicContainerEntries.getALL_ENTRIES()) {
@@ -129,17 +130,19 @@ final class AsicHelper {
                     // to the container, else the timestamp is in the signature
                     if (asic.getTimestamp() != null) {
                         byte[] binary = decodeBase64(data);
-                        addEntry(zip, name, binary);
+                        addEntry(zip, name, binary, clock.getAsLong());
                     }
                 } else {
-                    addEntry(zip, name, data);
+                    addEntry(zip, name, data, clock.getAsLong());
                 }
             }
         }
 
         if (asic.getAttachment() != null) {
             try (InputStream is = asic.getAttachment()) {
-                zip.putNextEntry(new ZipEntry(ENTRY_ATTACHMENT + "1"));
+                ZipEntry entry = new ZipEntry(ENTRY_ATTACHMENT + "1");
+                entry.setTime(clock.getAsLong());
+                zip.putNextEntry(entry);
                 IOUtils.copy(is, zip);
                 zip.closeEntry();
             }
@@ -223,12 +226,14 @@ final class AsicHelper {
         return IOUtils.toByteArray(zip);
     }
 
-    private static void addEntry(ZipOutputStream zip, String name, String data) throws IOException {
-        addEntry(zip, name, data.getBytes(StandardCharsets.UTF_8));
+    private static void addEntry(ZipOutputStream zip, String name, String data, long time) throws IOException {
+        addEntry(zip, name, data.getBytes(StandardCharsets.UTF_8), time);
     }
 
-    private static void addEntry(ZipOutputStream zip, String name, byte[] data) throws IOException {
-        zip.putNextEntry(new ZipEntry(name));
+    private static void addEntry(ZipOutputStream zip, String name, byte[] data, long time) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(time);
+        zip.putNextEntry(entry);
         zip.write(data);
     }
 
@@ -99,7 +99,12 @@ public final class AsicUtils {
         builder.append("        Valid until: " + cert.getNotAfter() + "\n");
     }
 
-    private static String getMessageFromCause(Throwable cause) {
+    /**
+     * Returns the message describing a failed verification.
+     * @param cause throwable that caused the failure
+     * @return the fault string of a coded exception or the message of another throwable
+     */
+    public static String getMessageFromCause(Throwable cause) {
         if (cause instanceof CodedException) {
             return ((CodedException) cause).getFaultString();
         }
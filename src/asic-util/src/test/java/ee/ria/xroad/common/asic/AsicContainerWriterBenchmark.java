@@ -0,0 +1,140 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.asic;
+
+import ee.ria.xroad.common.signature.SignatureData;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
+
+/**
+ * Compares building and writing an {@link AsicContainer} with writing the
+ * same container with {@link AsicContainerWriter}, for time-stamped and
+ * batch time-stamped messages.
+ *
+ * Run with: gradle :asic-util:runAsicContainerWriterBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AsicContainerWriterBenchmark {
+
+    @Param({"false", "true"})
+    private boolean batchTimestamp;
+
+    private final OutputStream out = NullOutputStream.NULL_OUTPUT_STREAM;
+
+    private String message;
+    private SignatureData signature;
+    private TimestampData timestamp;
+    private AsicContainerWriter writer;
+
+    /**
+     * Reads the message and signature from the test container.
+     * @throws Exception in case of errors
+     */
+    @Setup
+    public void setup() throws Exception {
+        try (InputStream in = new FileInputStream("src/test/resources/valid-signed-message.asice")) {
+            AsicContainer container = AsicContainer.read(in);
+
+            message = container.getMessage();
+
+            if (batchTimestamp) {
+                signature = new SignatureData(container.getSignature().getSignatureXml(),
+                        "<hashChainResult>sig</hashChainResult>", "<hashChain>sig</hashChain>");
+                timestamp = new TimestampData(encodeBase64(new byte[2048]),
+                        "<hashChainResult>ts</hashChainResult>", "<hashChain>ts</hashChain>");
+            } else {
+                signature = container.getSignature();
+                timestamp = null;
+            }
+        }
+
+        writer = new AsicContainerWriter();
+    }
+
+    /**
+     * Releases the writer.
+     */
+    @TearDown
+    public void tearDown() {
+        writer.close();
+    }
+
+    /**
+     * Builds and writes the container with {@link AsicContainer}.
+     * @throws Exception in case of errors
+     */
+    @Benchmark
+    public void asicContainer() throws Exception {
+        new AsicContainer(message, signature, timestamp, null).write(out);
+    }
+
+    /**
+     * Writes the container with {@link AsicContainerWriter}.
+     * @throws Exception in case of errors
+     */
+    @Benchmark
+    public void asicContainerWriter() throws Exception {
+        writer.write(out, message.getBytes(StandardCharsets.UTF_8), signature, timestamp, null);
+    }
+
+    /**
+     * Runs the benchmark.
+     * @param args command line arguments, not used
+     * @throws Exception in case of errors
+     */
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(AsicContainerWriterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.asic;
+
+import ee.ria.xroad.common.signature.SignatureData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Tests that {@link AsicContainerWriter} produces the same containers as
+ * {@link AsicContainer#write(java.io.OutputStream)}, which serves as the
+ * golden reference.
+ */
+public class AsicContainerWriterTest {
+
+    private static final long ENTRY_TIME = 1590000000000L;
+
+    private static final String SIG_HASH_CHAIN_RESULT = "<hashChainResult>sig</hashChainResult>";
+    private static final String SIG_HASH_CHAIN = "<hashChain>sig</hashChain>";
+    private static final String TS_HASH_CHAIN_RESULT = "<hashChainResult>ts</hashChainResult>";
+    private static final String TS_HASH_CHAIN = "<hashChain>ts</hashChain>";
+    private static final String TIMESTAMP = encodeBase64("timestamp token".getBytes(StandardCharsets.UTF_8));
+
+    private String message;
+    private String signatureXml;
+    private AsicContainerWriter writer;
+
+    /**
+     * Reads the message and signature from the test container.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Before
+    public void setUp() throws Exception {
+        try (InputStream in = new FileInputStream("src/test/resources/valid-signed-message.asice")) {
+            AsicContainer container = AsicContainer.read(in);
+
+            message = container.getMessage();
+            signatureXml = container.getSignature().getSignatureXml();
+        }
+
+        writer = new AsicContainerWriter(() -> ENTRY_TIME);
+    }
+
+    @After
+    public void tearDown() {
+        writer.close();
+    }
+
+    @Test
+    public void writesSignedMessage() throws Exception {
+        assertSameContainer(message, new SignatureData(signatureXml, null, null), null, null);
+    }
+
+    @Test
+    public void writesBatchSignedAndTimestampedMessage() throws Exception {
+        assertSameContainer(message, new SignatureData(signatureXml, SIG_HASH_CHAIN_RESULT, SIG_HASH_CHAIN),
+                new TimestampData(TIMESTAMP, TS_HASH_CHAIN_RESULT, TS_HASH_CHAIN), null);
+    }
+
+    @Test
+    public void writesSingleTimestampedMessage() throws Exception {
+        assertSameContainer(message, new SignatureData(signatureXml, SIG_HASH_CHAIN_RESULT, SIG_HASH_CHAIN),
+                new TimestampData(null, null, null), null);
+    }
+
+    @Test
+    public void writesNonAsciiMessage() throws Exception {
+        assertSameContainer(message.replace("<", "\u00f5\u00e4\u00f6\u00fc<"),
+                new SignatureData(signatureXml, null, null), null, null);
+    }
+
+    @Test
+    public void writesAttachment() throws Exception {
+        // Larger than the writer's buffers and compressible, so that the
+        // deflated data spans several output chunks
+        byte[] attachment = new byte[100_000];
+        Random random = new Random(42);
+
+        for (int i = 0; i < attachment.length; i++) {
+            attachment[i] = (byte) ('a' + random.nextInt(4));
+        }
+
+        assertSameContainer(message, new SignatureData(signatureXml, SIG_HASH_CHAIN_RESULT, SIG_HASH_CHAIN),
+                new TimestampData(TIMESTAMP, TS_HASH_CHAIN_RESULT, TS_HASH_CHAIN), attachment);
+    }
+
+    @Test
+    public void reusesWriterForSubsequentContainers() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            writesBatchSignedAndTimestampedMessage();
+            writesSignedMessage();
+        }
+    }
+
+    @Test
+    public void writtenContainerCanBeRead() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(out, message, new SignatureData(signatureXml, SIG_HASH_CHAIN_RESULT, SIG_HASH_CHAIN),
+                new TimestampData(TIMESTAMP, TS_HASH_CHAIN_RESULT, TS_HASH_CHAIN), null);
+
+        AsicContainer container = AsicContainer.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(message, container.getMessage());
+        assertEquals(SIG_HASH_CHAIN, container.getSignature().getHashChain());
+        assertEquals(TS_HASH_CHAIN_RESULT, container.getTimestamp().getHashChainResult());
+        assertEquals(TIMESTAMP, container.getTimestamp().getTimestampBase64());
+        assertNotNull(container.getAsicManifest());
+    }
+
+    private void assertSameContainer(String msg, SignatureData signature, TimestampData timestamp,
+            byte[] attachment) throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new AsicContainer(msg, signature, timestamp, attachment != null ? new ByteArrayInputStream(attachment) : null)
+                .write(expected, () -> ENTRY_TIME);
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        writer.write(actual, msg, signature, timestamp,
+                attachment != null ? new ByteArrayInputStream(attachment) : null);
+
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+}
@@ -35,20 +35,34 @@ import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 
 import org.apache.commons.io.IOUtils;
 
+import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 /**
  * ASiC container verifier utility program.
+ *
+ * In bulk mode, verifies all the ASiC containers in message log archive files and writes a JSON Lines report.
  */
 public final class AsicVerifierMain {
 
+    private static final String BULK = "--bulk";
+    private static final String THREADS = "--threads";
+    private static final String REPORT = "--report";
+    private static final String DEFAULT_REPORT = "asicverifier-report.jsonl";
+    private static final String ARCHIVE_SUFFIX = ".zip";
+
     private AsicVerifierMain() {
     }
 
@@ -60,6 +74,8 @@ public final class AsicVerifierMain {
     public static void main(String[] args) {
         if (args.length == 1 && "--version".equals(args[0])) {
             showVersion();
+        } else if (args.length > 0 && BULK.equals(args[0])) {
+            System.exit(verifyArchives(args) ? 0 : 1);
         } else if (args.length != 2) {
             showUsage();
         } else {
@@ -104,6 +120,81 @@ public final class AsicVerifierMain {
         extractMessage(fileName);
     }
 
+    private static boolean verifyArchives(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String reportFile = DEFAULT_REPORT;
+        int i = 1;
+
+        try {
+            for (; i < args.length && args[i].startsWith("--"); i += 2) {
+                if (THREADS.equals(args[i]) && i + 1 < args.length) {
+                    threads = Integer.parseInt(args[i + 1]);
+                } else if (REPORT.equals(args[i]) && i + 1 < args.length) {
+                    reportFile = args[i + 1];
+                } else {
+                    showUsage();
+
+                    return false;
+                }
+            }
+        } catch (NumberFormatException e) {
+            showUsage();
+
+            return false;
+        }
+
+        if (threads < 1 || args.length - i < 2) {
+            showUsage();
+
+            return false;
+        }
+
+        loadConf(args[i]);
+
+        try {
+            List<Path> archiveFiles = getArchiveFiles(args, i + 1);
+
+            System.out.println("Verifying " + archiveFiles.size() + " archive files using " + threads
+                    + " threads, writing report to " + reportFile + " ...");
+
+            try (VerificationReport report = new VerificationReport(
+                    new BufferedOutputStream(new FileOutputStream(reportFile)));
+                 BulkArchiveVerifier verifier = new BulkArchiveVerifier(threads, report)) {
+                boolean success = verifier.verify(archiveFiles);
+
+                System.out.println(success ? "Verification successful." : "Verification failed, see the report.");
+
+                return success;
+            }
+        } catch (Exception e) {
+            onVerificationFailed(e);
+
+            return false;
+        }
+    }
+
+    // Archive files are named by their creation time, so they are verified in file name order
+    private static List<Path> getArchiveFiles(String[] args, int from) throws IOException {
+        List<Path> archiveFiles = new ArrayList<>();
+
+        for (int i = from; i < args.length; i++) {
+            Path path = Paths.get(args[i]);
+
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    archiveFiles.addAll(files
+                            .filter(f -> f.getFileName().toString().endsWith(ARCHIVE_SUFFIX))
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else {
+                archiveFiles.add(path);
+            }
+        }
+
+        return archiveFiles;
+    }
+
     @SuppressWarnings("resource")
     private static void onVerificationSucceeded(AsicContainerVerifier verifier) {
         System.out.println(AsicUtils.buildSuccessOutput(verifier));
@@ -145,6 +236,8 @@ public final class AsicVerifierMain {
 
     private static void showUsage() {
         System.out.println("Usage: java -jar asicverifier.jar ( --version | <configuration path> <asic container> )");
+        System.out.println("       java -jar asicverifier.jar --bulk [--threads <count>] [--report <report file>] "
+                + "<configuration path> <archive file or directory>...");
     }
 
     private static void showVersion() {
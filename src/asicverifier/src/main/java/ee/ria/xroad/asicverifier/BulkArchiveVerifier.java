@@ -0,0 +1,385 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.asicverifier;
+
+import ee.ria.xroad.common.asic.AsicContainer;
+import ee.ria.xroad.common.asic.AsicContainerVerifier;
+import ee.ria.xroad.common.asic.AsicUtils;
+import ee.ria.xroad.common.asic.AsicVerificationCache;
+import ee.ria.xroad.common.signature.TimestampVerifier;
+import ee.ria.xroad.common.util.CryptoUtils;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static ee.ria.xroad.asicverifier.VerificationReport.STATUS_FAILED;
+import static ee.ria.xroad.asicverifier.VerificationReport.STATUS_OK;
+import static ee.ria.xroad.asicverifier.VerificationReport.TYPE_ARCHIVE;
+import static ee.ria.xroad.asicverifier.VerificationReport.TYPE_CONTAINER;
+import static ee.ria.xroad.asicverifier.VerificationReport.TYPE_SUMMARY;
+
+/**
+ * Verifies the ASiC containers in message log archive files without extracting them.
+ *
+ * The containers are read from the archive files one by one and verified on a pool of worker threads, sharing
+ * an {@link AsicVerificationCache} so that batch time-stamps and certificate chains are verified only once.
+ * While reading, the digest chain of the containers is recalculated and compared with the linking information of
+ * the archive, and every archive is checked to link to the archive verified before it. The archives must therefore
+ * be given in the order they were created.
+ */
+@Slf4j
+class BulkArchiveVerifier implements Closeable {
+
+    static final String LINKING_INFO = "linkinginfo";
+
+    private static final String EMPTY_LINK = "-";
+    private static final int PENDING_CONTAINERS_PER_THREAD = 4;
+
+    private final ExecutorService executor;
+    private final int maxPendingContainers;
+    private final Semaphore pendingContainers;
+
+    private final AsicVerificationCache cache = new AsicVerificationCache();
+    private final VerificationReport report;
+
+    private final AtomicLong containers = new AtomicLong();
+    private final AtomicLong failedContainers = new AtomicLong();
+    private long archives;
+    private long failedArchives;
+
+    // Last digest and file name of the previous archive, the next archive must link to them
+    private String previousDigest;
+    private String previousArchive;
+
+    /**
+     * Creates the verifier.
+     * @param threads number of threads verifying the containers
+     * @param report the report the results are written to
+     */
+    BulkArchiveVerifier(int threads, VerificationReport report) {
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.maxPendingContainers = threads * PENDING_CONTAINERS_PER_THREAD;
+        this.pendingContainers = new Semaphore(maxPendingContainers);
+        this.report = report;
+    }
+
+    /**
+     * Verifies the archive files and writes the results to the report.
+     * @param archiveFiles the archive files in the order they were created
+     * @return true if all the containers and the linking information of all the archives are valid
+     * @throws InterruptedException if interrupted while waiting for the verification to finish
+     */
+    boolean verify(List<Path> archiveFiles) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long timestampCacheHits = TimestampVerifier.getCacheHitCount();
+
+        for (Path archiveFile : archiveFiles) {
+            verifyArchive(archiveFile);
+        }
+
+        // Wait for the pending containers
+        pendingContainers.acquire(maxPendingContainers);
+        pendingContainers.release(maxPendingContainers);
+
+        Map<String, Object> summary = VerificationReport.entry(TYPE_SUMMARY);
+        summary.put("archives", archives);
+        summary.put("failedArchives", failedArchives);
+        summary.put("containers", containers.get());
+        summary.put("failedContainers", failedContainers.get());
+        summary.put("timestampCacheHits", TimestampVerifier.getCacheHitCount() - timestampCacheHits);
+        summary.put("certChainCacheHits", cache.getCertChainHits());
+        summary.put("elapsedMillis", System.currentTimeMillis() - start);
+        report.write(summary);
+
+        return failedArchives == 0 && failedContainers.get() == 0;
+    }
+
+    /**
+     * Verifies a single ASiC container.
+     * @param container the container bytes
+     * @return the verifier containing the details of the verified container
+     * @throws Exception if verification fails
+     */
+    AsicContainerVerifier verifyContainer(byte[] container) throws Exception {
+        AsicContainerVerifier verifier =
+                new AsicContainerVerifier(AsicContainer.read(new ByteArrayInputStream(container)), cache);
+        verifier.verify();
+
+        return verifier;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void verifyArchive(Path archiveFile) throws InterruptedException {
+        String archiveName = archiveFile.getFileName().toString();
+        List<String> errors = new ArrayList<>();
+        LinkingInfo linkingInfo = null;
+        int containerCount = 0;
+
+        log.debug("Verifying archive {}", archiveFile);
+
+        try (ZipFile zip = new ZipFile(archiveFile.toFile())) {
+            linkingInfo = readLinkingInfo(zip);
+
+            if (linkingInfo == null) {
+                errors.add("Archive does not contain linking information");
+            } else {
+                verifyLinkToPreviousArchive(linkingInfo, errors);
+            }
+
+            String lastDigest = linkingInfo != null ? linkingInfo.getPreviousDigest() : null;
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+
+                if (entry.isDirectory() || LINKING_INFO.equals(entry.getName())) {
+                    continue;
+                }
+
+                byte[] container;
+
+                try (InputStream in = zip.getInputStream(entry)) {
+                    container = IOUtils.toByteArray(in);
+                }
+
+                if (linkingInfo != null) {
+                    lastDigest = chainDigest(linkingInfo.getHashAlgoId(), lastDigest, container);
+                    verifyLink(linkingInfo, containerCount, entry.getName(), lastDigest, errors);
+                }
+
+                containerCount++;
+                submit(archiveName, entry.getName(), container);
+            }
+
+            if (linkingInfo != null && containerCount != linkingInfo.getEntries().size()) {
+                errors.add(String.format("Linking information lists %d containers, but archive contains %d",
+                        linkingInfo.getEntries().size(), containerCount));
+            }
+        } catch (IOException e) {
+            errors.add("Cannot read archive: " + e.getMessage());
+        } catch (Exception e) {
+            errors.add("Cannot verify linking information: " + AsicUtils.getMessageFromCause(e));
+        }
+
+        archives++;
+
+        if (!errors.isEmpty()) {
+            failedArchives++;
+        }
+
+        Map<String, Object> entry = VerificationReport.entry(TYPE_ARCHIVE);
+        entry.put("archive", archiveName);
+        entry.put("status", errors.isEmpty() ? STATUS_OK : STATUS_FAILED);
+        entry.put("containers", containerCount);
+
+        if (linkingInfo != null) {
+            entry.put("previousArchive", linkingInfo.getPreviousArchive());
+        }
+
+        if (!errors.isEmpty()) {
+            entry.put("errors", errors);
+        }
+
+        report.write(entry);
+
+        previousArchive = archiveName;
+        previousDigest = linkingInfo != null ? linkingInfo.getLastDigest() : null;
+    }
+
+    private void verifyLinkToPreviousArchive(LinkingInfo linkingInfo, List<String> errors) {
+        // The first archive links to an archive that is not verified
+        if (previousArchive == null) {
+            return;
+        }
+
+        if (!previousArchive.equals(linkingInfo.getPreviousArchive())
+                || !Objects.equals(previousDigest, linkingInfo.getPreviousDigest())) {
+            errors.add(String.format("Archive does not link to the previous archive %s (links to %s)",
+                    previousArchive, linkingInfo.getPreviousArchive()));
+        }
+    }
+
+    private static void verifyLink(LinkingInfo linkingInfo, int index, String containerName, String digest,
+            List<String> errors) {
+        if (index >= linkingInfo.getEntries().size()) {
+            errors.add("Container " + containerName + " is missing from linking information");
+
+            return;
+        }
+
+        LinkEntry expected = linkingInfo.getEntries().get(index);
+
+        if (!expected.getFileName().equals(containerName)) {
+            errors.add(String.format("Container %s is in place of %s in linking information", containerName,
+                    expected.getFileName()));
+        } else if (!expected.getDigest().equals(digest)) {
+            errors.add("Digest of container " + containerName + " does not match linking information");
+        }
+    }
+
+    private void submit(String archiveName, String containerName, byte[] container) throws InterruptedException {
+        pendingContainers.acquire();
+
+        try {
+            executor.execute(() -> {
+                try {
+                    verifyContainer(archiveName, containerName, container);
+                } finally {
+                    pendingContainers.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingContainers.release();
+
+            throw e;
+        }
+    }
+
+    private void verifyContainer(String archiveName, String containerName, byte[] container) {
+        Map<String, Object> entry = VerificationReport.entry(TYPE_CONTAINER);
+        entry.put("archive", archiveName);
+        entry.put("container", containerName);
+
+        containers.incrementAndGet();
+
+        try {
+            AsicContainerVerifier verifier = verifyContainer(container);
+
+            entry.put("status", STATUS_OK);
+
+            if (verifier != null) {
+                entry.put("signer", String.valueOf(verifier.getSignerName()));
+                entry.put("timestampDate", toInstant(verifier.getTimestampDate()));
+                entry.put("ocspDate", toInstant(verifier.getOcspDate()));
+            }
+        } catch (Exception e) {
+            log.debug("Verification of {} in {} failed", containerName, archiveName, e);
+
+            failedContainers.incrementAndGet();
+
+            entry.put("status", STATUS_FAILED);
+            entry.put("error", AsicUtils.getMessageFromCause(e));
+        }
+
+        report.write(entry);
+    }
+
+    private static String toInstant(Date date) {
+        return date != null ? date.toInstant().toString() : null;
+    }
+
+    private static String chainDigest(String hashAlgoId, String lastDigest, byte[] container) throws Exception {
+        String combinedDigests = lastDigest + CryptoUtils.hexDigest(hashAlgoId, container);
+
+        return CryptoUtils.hexDigest(hashAlgoId, combinedDigests.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static LinkingInfo readLinkingInfo(ZipFile zip) throws IOException {
+        ZipEntry entry = zip.getEntry(LINKING_INFO);
+
+        if (entry == null) {
+            return null;
+        }
+
+        String content;
+
+        try (InputStream in = zip.getInputStream(entry)) {
+            content = IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+
+        String[] lines = content.split("\n");
+        String[] header = lines[0].trim().split("\\s+");
+
+        if (header.length != 3) {
+            throw new IOException("Malformed linking information header: " + lines[0]);
+        }
+
+        List<LinkEntry> entries = new ArrayList<>();
+
+        for (int i = 1; i < lines.length; i++) {
+            if (lines[i].trim().isEmpty()) {
+                continue;
+            }
+
+            String[] fields = lines[i].trim().split("\\s+", 2);
+
+            if (fields.length != 2) {
+                throw new IOException("Malformed linking information entry: " + lines[i]);
+            }
+
+            entries.add(new LinkEntry(fields[0], fields[1]));
+        }
+
+        return new LinkingInfo(fromLink(header[0]), fromLink(header[1]), header[2], entries);
+    }
+
+    private static String fromLink(String value) {
+        return EMPTY_LINK.equals(value) ? "" : value;
+    }
+
+    @Value
+    private static class LinkEntry {
+        String digest;
+        String fileName;
+    }
+
+    @Value
+    private static class LinkingInfo {
+        String previousDigest;
+        String previousArchive;
+        String hashAlgoId;
+        List<LinkEntry> entries;
+
+        String getLastDigest() {
+            return entries.isEmpty() ? previousDigest : entries.get(entries.size() - 1).getDigest();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.asicverifier;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the results of a bulk verification as JSON Lines, one JSON object per line. Every object has a
+ * "type" field: "container" for the verification result of a single ASiC container, "archive" for the linking
+ * information check of an archive file and "summary" for the totals. The report can be written from several
+ * threads.
+ */
+class VerificationReport implements Closeable {
+
+    static final String TYPE_CONTAINER = "container";
+    static final String TYPE_ARCHIVE = "archive";
+    static final String TYPE_SUMMARY = "summary";
+
+    static final String STATUS_OK = "OK";
+    static final String STATUS_FAILED = "FAILED";
+
+    private final OutputStream out;
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+    VerificationReport(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Creates a new report entry.
+     * @param type the type of the entry
+     * @return the entry, fields are written in insertion order
+     */
+    static Map<String, Object> entry(String type) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("type", type);
+
+        return entry;
+    }
+
+    /**
+     * Writes an entry to the report.
+     * @param entry the entry
+     */
+    synchronized void write(Map<String, Object> entry) {
+        try {
+            out.write(mapper.writeValueAsBytes(entry));
+            out.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,301 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.asicverifier;
+
+import ee.ria.xroad.common.asic.AsicContainerVerifier;
+import ee.ria.xroad.common.util.CryptoUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static ee.ria.xroad.asicverifier.BulkArchiveVerifier.LINKING_INFO;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the bulk verification of message log archives. The archives are created like the message log archiver
+ * creates them, the ASiC container verification itself is covered by {@link AsicContainerVerifierTest}.
+ */
+public class BulkArchiveVerifierTest {
+
+    private static final String HASH_ALGO_ID = CryptoUtils.SHA512_ID;
+    private static final String[] CONTAINERS = {
+        "valid-signed-message.asice", "valid-signed-hashchain.asice", "valid-batch-ts.asice", "attachments.asice"
+    };
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private ByteArrayOutputStream reportOut;
+    private List<Map<String, byte[]>> archiveContents;
+
+    // Last digest and file name of the previously created archive
+    private String lastDigest;
+    private String lastArchive;
+
+    /**
+     * Resets the archive chain.
+     */
+    @Before
+    public void setUp() {
+        reportOut = new ByteArrayOutputStream();
+        archiveContents = new ArrayList<>();
+        lastDigest = "";
+        lastArchive = "";
+    }
+
+    /**
+     * Verifies archives linked to each other.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void verifiesLinkedArchives() throws Exception {
+        List<Path> archives = Arrays.asList(
+                createArchive("mlog-20200101000000-20200101010000-a.zip", containers(0, 2)),
+                createArchive("mlog-20200101010000-20200101020000-b.zip", containers(2, 4)));
+
+        assertTrue(verify(archives));
+
+        List<Map<String, Object>> report = readReport();
+
+        assertEquals(4, entries(report, VerificationReport.TYPE_CONTAINER).size());
+        assertEquals(2, entries(report, VerificationReport.TYPE_ARCHIVE).size());
+
+        for (Map<String, Object> entry : report) {
+            if (!VerificationReport.TYPE_SUMMARY.equals(entry.get("type"))) {
+                assertEquals(entry.toString(), VerificationReport.STATUS_OK, entry.get("status"));
+            }
+        }
+
+        Map<String, Object> summary = entries(report, VerificationReport.TYPE_SUMMARY).get(0);
+        assertEquals(2, summary.get("archives"));
+        assertEquals(4, summary.get("containers"));
+        assertEquals(0, summary.get("failedContainers"));
+    }
+
+    /**
+     * Detects a container that was modified after the archive was created.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void detectsModifiedContainer() throws Exception {
+        Map<String, byte[]> containers = containers(0, 3);
+        Path archive = createArchive("mlog-20200101000000-20200101010000-a.zip", containers);
+
+        byte[] tampered = containers.get(CONTAINERS[1]).clone();
+        tampered[tampered.length / 2] ^= 1;
+        containers.put(CONTAINERS[1], tampered);
+        rewriteArchive(archive, containers, readLinkingInfo(archive));
+
+        assertFalse(verify(Arrays.asList(archive)));
+        assertArchiveFailed("Digest of container " + CONTAINERS[1]);
+    }
+
+    /**
+     * Detects a container that was removed after the archive was created.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void detectsRemovedContainer() throws Exception {
+        Map<String, byte[]> containers = containers(0, 3);
+        Path archive = createArchive("mlog-20200101000000-20200101010000-a.zip", containers);
+
+        containers.remove(CONTAINERS[2]);
+        rewriteArchive(archive, containers, readLinkingInfo(archive));
+
+        assertFalse(verify(Arrays.asList(archive)));
+        assertArchiveFailed("Linking information lists 3 containers, but archive contains 2");
+    }
+
+    /**
+     * Detects an archive missing from the sequence.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void detectsMissingArchive() throws Exception {
+        Path first = createArchive("mlog-20200101000000-20200101010000-a.zip", containers(0, 1));
+        createArchive("mlog-20200101010000-20200101020000-b.zip", containers(1, 2));
+        Path third = createArchive("mlog-20200101020000-20200101030000-c.zip", containers(2, 3));
+
+        assertFalse(verify(Arrays.asList(first, third)));
+        assertArchiveFailed("Archive does not link to the previous archive mlog-20200101000000-20200101010000-a.zip");
+    }
+
+    /**
+     * Reports containers that fail verification.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void reportsFailedContainers() throws Exception {
+        Path archive = createArchive("mlog-20200101000000-20200101010000-a.zip", containers(0, 4));
+
+        try (VerificationReport report = new VerificationReport(reportOut);
+             BulkArchiveVerifier verifier = new BulkArchiveVerifier(2, report) {
+                 @Override
+                 AsicContainerVerifier verifyContainer(byte[] container) throws Exception {
+                     if (Arrays.equals(container, archiveContents.get(0).get(CONTAINERS[3]))) {
+                         throw new Exception("Signature is not valid");
+                     }
+
+                     return null;
+                 }
+             }) {
+            assertFalse(verifier.verify(Arrays.asList(archive)));
+        }
+
+        List<Map<String, Object>> failed = entries(readReport(), VerificationReport.TYPE_CONTAINER).stream()
+                .filter(e -> VerificationReport.STATUS_FAILED.equals(e.get("status")))
+                .collect(Collectors.toList());
+
+        assertEquals(1, failed.size());
+        assertEquals(CONTAINERS[3], failed.get(0).get("container"));
+        assertEquals("Signature is not valid", failed.get(0).get("error"));
+    }
+
+    private boolean verify(List<Path> archives) throws Exception {
+        try (VerificationReport report = new VerificationReport(reportOut);
+             BulkArchiveVerifier verifier = new BulkArchiveVerifier(2, report) {
+                 @Override
+                 AsicContainerVerifier verifyContainer(byte[] container) {
+                     // Only the archive structure is verified here
+                     return null;
+                 }
+             }) {
+            return verifier.verify(archives);
+        }
+    }
+
+    private void assertArchiveFailed(String error) throws IOException {
+        List<Map<String, Object>> failed = entries(readReport(), VerificationReport.TYPE_ARCHIVE).stream()
+                .filter(e -> VerificationReport.STATUS_FAILED.equals(e.get("status")))
+                .collect(Collectors.toList());
+
+        assertEquals(1, failed.size());
+
+        Object errors = failed.get(0).get("errors");
+        assertTrue(errors.toString(), errors.toString().contains(error));
+    }
+
+    private List<Map<String, Object>> readReport() throws IOException {
+        List<Map<String, Object>> entries = new ArrayList<>();
+
+        for (String line : new String(reportOut.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> entry = mapper.readValue(line, Map.class);
+            entries.add(entry);
+        }
+
+        return entries;
+    }
+
+    private static List<Map<String, Object>> entries(List<Map<String, Object>> report, String type) {
+        return report.stream().filter(e -> type.equals(e.get("type"))).collect(Collectors.toList());
+    }
+
+    private static Map<String, byte[]> containers(int from, int to) throws IOException {
+        Map<String, byte[]> containers = new LinkedHashMap<>();
+
+        for (int i = from; i < to; i++) {
+            containers.put(CONTAINERS[i], Files.readAllBytes(Paths.get("src/test/resources", CONTAINERS[i])));
+        }
+
+        return containers;
+    }
+
+    // Creates the archive and its linking information the same way as the message log archiver
+    private Path createArchive(String name, Map<String, byte[]> containers) throws Exception {
+        StringBuilder linkingInfo = new StringBuilder();
+        linkingInfo.append(lastDigest.isEmpty() ? "-" : lastDigest).append(' ')
+                .append(lastArchive.isEmpty() ? "-" : lastArchive).append(' ')
+                .append(HASH_ALGO_ID).append('\n');
+
+        String digest = lastDigest;
+
+        for (Map.Entry<String, byte[]> container : containers.entrySet()) {
+            String combinedDigests = digest + CryptoUtils.hexDigest(HASH_ALGO_ID, container.getValue());
+            digest = CryptoUtils.hexDigest(HASH_ALGO_ID, combinedDigests.getBytes(StandardCharsets.UTF_8));
+
+            linkingInfo.append(digest).append(' ').append(container.getKey()).append('\n');
+        }
+
+        Path archive = tempFolder.getRoot().toPath().resolve(name);
+        rewriteArchive(archive, containers, linkingInfo.toString().getBytes(StandardCharsets.UTF_8));
+
+        archiveContents.add(containers);
+        lastDigest = digest;
+        lastArchive = name;
+
+        return archive;
+    }
+
+    private static void rewriteArchive(Path archive, Map<String, byte[]> containers, byte[] linkingInfo)
+            throws IOException {
+        try (OutputStream out = Files.newOutputStream(archive);
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.setLevel(0);
+
+            for (Map.Entry<String, byte[]> container : containers.entrySet()) {
+                zip.putNextEntry(new ZipEntry(container.getKey()));
+                zip.write(container.getValue());
+                zip.closeEntry();
+            }
+
+            zip.putNextEntry(new ZipEntry(LINKING_INFO));
+            zip.write(linkingInfo);
+            zip.closeEntry();
+        }
+    }
+
+    private static byte[] readLinkingInfo(Path archive) throws IOException {
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            return IOUtils.toByteArray(zip.getInputStream(zip.getEntry(LINKING_INFO)));
+        }
+    }
+}
@@ -28,27 +28,22 @@ package ee.ria.xroad.common.request;
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.certificateprofile.impl.SignCertificateProfileInfoParameters;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
-import ee.ria.xroad.common.conf.globalconfextension.GlobalConfExtensions;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.message.SoapFault;
 import ee.ria.xroad.common.message.SoapMessage;
 import ee.ria.xroad.common.message.SoapMessageDecoder;
 import ee.ria.xroad.common.message.SoapMessageImpl;
-import ee.ria.xroad.common.ocsp.OcspVerifier;
-import ee.ria.xroad.common.ocsp.OcspVerifierOptions;
 import ee.ria.xroad.common.util.MimeUtils;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
-import org.bouncycastle.cert.ocsp.OCSPResp;
 
 import java.io.InputStream;
-import java.security.Signature;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.Map;
 
-import static ee.ria.xroad.common.ErrorCodes.X_CERT_VALIDATION;
 import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
 import static ee.ria.xroad.common.ErrorCodes.X_INVALID_REQUEST;
 import static ee.ria.xroad.common.ErrorCodes.X_INVALID_SIGNATURE_VALUE;
@@ -113,26 +108,36 @@ public final class ManagementRequestHandler {
         SoapMessageImpl soap = cb.getSoapMessage();
         byte[] dataToVerify = soap.getBytes();
 
-        log.info("Verifying auth signature");
-
         X509Certificate authCert = readCertificate(cb.getAuthCert());
+        X509Certificate ownerCert = readCertificate(cb.getOwnerCert());
 
-        if (!verifySignature(authCert, cb.getAuthSignature(), cb.getAuthSignatureAlgoId(), dataToVerify)) {
-            throw new CodedException(X_INVALID_SIGNATURE_VALUE, "Auth signature verification failed");
-        }
+        ManagementRequestVerifier.INSTANCE.verify(Arrays.asList(
+            () -> {
+                log.info("Verifying auth signature");
 
-        log.info("Verifying owner signature");
+                if (!verifySignature(authCert, cb.getAuthSignature(), cb.getAuthSignatureAlgoId(), dataToVerify)) {
+                    throw new CodedException(X_INVALID_SIGNATURE_VALUE, "Auth signature verification failed");
+                }
 
-        X509Certificate ownerCert = readCertificate(cb.getOwnerCert());
+                return null;
+            },
+            () -> {
+                log.info("Verifying owner signature");
 
-        if (!verifySignature(ownerCert, cb.getOwnerSignature(), cb.getOwnerSignatureAlgoId(), dataToVerify)) {
-            throw new CodedException(X_INVALID_SIGNATURE_VALUE, "Owner signature verification failed");
-        }
+                if (!verifySignature(ownerCert, cb.getOwnerSignature(), cb.getOwnerSignatureAlgoId(),
+                        dataToVerify)) {
+                    throw new CodedException(X_INVALID_SIGNATURE_VALUE, "Owner signature verification failed");
+                }
+
+                return null;
+            },
+            () -> {
+                log.info("Verifying owner certificate");
 
-        log.info("Verifying owner certificate");
+                ManagementRequestVerifier.INSTANCE.verifyCertificate(ownerCert, cb.getOwnerCertOcsp());
 
-        OCSPResp ownerCertOcsp = new OCSPResp(cb.getOwnerCertOcsp());
-        verifyCertificate(ownerCert, ownerCertOcsp);
+                return null;
+            }));
 
         // verify that the subject id from the certificate matches the one
         // in the request (server id)
@@ -165,18 +170,26 @@ public final class ManagementRequestHandler {
         SoapMessageImpl soap = cb.getSoapMessage();
         byte[] dataToVerify = soap.getBytes();
 
-        log.info("Verifying client signature");
-
         X509Certificate clientCert = readCertificate(cb.getClientCert());
 
-        if (!verifySignature(clientCert, cb.getClientSignature(), cb.getClientSignatureAlgoId(), dataToVerify)) {
-            throw new CodedException(X_INVALID_SIGNATURE_VALUE, "Client signature verification failed");
-        }
+        ManagementRequestVerifier.INSTANCE.verify(Arrays.asList(
+            () -> {
+                log.info("Verifying client signature");
 
-        log.info("Verifying client certificate");
+                if (!verifySignature(clientCert, cb.getClientSignature(), cb.getClientSignatureAlgoId(),
+                        dataToVerify)) {
+                    throw new CodedException(X_INVALID_SIGNATURE_VALUE, "Client signature verification failed");
+                }
+
+                return null;
+            },
+            () -> {
+                log.info("Verifying client certificate");
+
+                ManagementRequestVerifier.INSTANCE.verifyCertificate(clientCert, cb.getClientCertOcsp());
 
-        OCSPResp clientCertOcsp = new OCSPResp(cb.getClientCertOcsp());
-        verifyCertificate(clientCert, clientCertOcsp);
+                return null;
+            }));
 
         // Verify that the subject id from the certificate matches the one
         // in the request (client). The certificate must belong to the member
@@ -216,29 +229,12 @@ public final class ManagementRequestHandler {
         );
     }
 
-    private static void verifyCertificate(X509Certificate memberCert, OCSPResp memberCertOcsp) throws Exception {
-        try {
-            memberCert.checkValidity();
-        } catch (Exception e) {
-            throw new CodedException(X_CERT_VALIDATION, "Member (owner/client) sign certificate is invalid: %s",
-                    e.getMessage());
-        }
-
-        X509Certificate issuer = GlobalConf.getCaCert(GlobalConf.getInstanceIdentifier(), memberCert);
-        new OcspVerifier(GlobalConf.getOcspFreshnessSeconds(false),
-                new OcspVerifierOptions(GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate()))
-                .verifyValidityAndStatus(memberCertOcsp, memberCert, issuer);
-    }
-
     private static boolean verifySignature(X509Certificate cert,
                                            byte[] signatureData, String signatureAlgorithmId, byte[] dataToVerify)
             throws Exception {
         try {
-            Signature signature = Signature.getInstance(signatureAlgorithmId, "BC");
-            signature.initVerify(cert.getPublicKey());
-            signature.update(dataToVerify);
-
-            return signature.verify(signatureData);
+            return ManagementRequestVerifier.INSTANCE.verifySignature(cert, signatureData, signatureAlgorithmId,
+                    dataToVerify);
         } catch (Exception e) {
             log.error("Failed to verify signature", e);
 
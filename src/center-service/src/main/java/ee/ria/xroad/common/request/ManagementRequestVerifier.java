@@ -0,0 +1,253 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.request;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.globalconfextension.GlobalConfExtensions;
+import ee.ria.xroad.common.ocsp.OcspVerifier;
+import ee.ria.xroad.common.ocsp.OcspVerifierOptions;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ee.ria.xroad.common.ErrorCodes.X_CERT_VALIDATION;
+import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA256_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.encodeHex;
+
+/**
+ * Verifies the signatures and certificates of management requests.
+ * Independent checks of a request run in parallel, Signature objects
+ * are pooled per algorithm and OCSP responses that have been verified
+ * once are not verified again for the same certificate. The number of
+ * requests being verified at once is bounded; further request threads
+ * wait for a free slot.
+ */
+@Slf4j
+final class ManagementRequestVerifier {
+
+    static final ManagementRequestVerifier INSTANCE = new ManagementRequestVerifier(
+            SystemProperties.getCenterManagementRequestVerifierThreads(),
+            SystemProperties.getCenterManagementRequestMaxConcurrentVerifications(),
+            SystemProperties.getOcspVerifierCachePeriod());
+
+    private static final int MAX_POOLED_SIGNATURES_PER_ALGORITHM = 64;
+
+    private static final int MAX_CACHED_OCSP_RESPONSES = 10000;
+
+    private static final long PERMIT_TIMEOUT_SECONDS = 60;
+
+    private final ExecutorService executor;
+
+    private final Semaphore permits;
+
+    private final ConcurrentHashMap<String, Queue<Signature>> signaturePool = new ConcurrentHashMap<>();
+
+    private final Cache<String, VerifiedOcsp> verifiedOcspResponses;
+
+    ManagementRequestVerifier(int threads, int maxConcurrentVerifications, int ocspCachePeriodSeconds) {
+        AtomicInteger threadCount = new AtomicInteger();
+
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "management-request-verifier-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        this.permits = new Semaphore(maxConcurrentVerifications, true);
+        this.verifiedOcspResponses = CacheBuilder.newBuilder()
+                .expireAfterWrite(ocspCachePeriodSeconds, TimeUnit.SECONDS)
+                .maximumSize(MAX_CACHED_OCSP_RESPONSES)
+                .build();
+    }
+
+    /**
+     * Runs the given independent checks of one request in parallel. Blocks while the maximum number
+     * of requests is already being verified. If several checks fail, the error of the first one
+     * in the given order is thrown.
+     * @param checks the checks to run
+     * @throws Exception the error of the first failed check
+     */
+    void verify(List<Callable<Void>> checks) throws Exception {
+        if (!permits.tryAcquire(PERMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new CodedException(X_INTERNAL_ERROR,
+                    "Too many management requests are being verified, try again later");
+        }
+
+        List<Future<Void>> futures = new ArrayList<>(checks.size());
+
+        try {
+            for (Callable<Void> check : checks.subList(1, checks.size())) {
+                futures.add(executor.submit(check));
+            }
+
+            checks.get(0).call();
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+
+                    throw e;
+                }
+            }
+        } finally {
+            futures.forEach(f -> f.cancel(true));
+            permits.release();
+        }
+    }
+
+    /**
+     * Verifies the signature using a pooled Signature object of the given algorithm.
+     * @param cert the certificate of the signer
+     * @param signatureData the signature
+     * @param signatureAlgorithmId the signature algorithm
+     * @param dataToVerify the signed data
+     * @return true if the signature is valid
+     * @throws Exception in case of any errors
+     */
+    boolean verifySignature(X509Certificate cert, byte[] signatureData, String signatureAlgorithmId,
+            byte[] dataToVerify) throws Exception {
+        Queue<Signature> pool = signaturePool.get(signatureAlgorithmId);
+        Signature signature = pool != null ? pool.poll() : null;
+
+        if (signature == null) {
+            signature = Signature.getInstance(signatureAlgorithmId, "BC");
+        }
+
+        signature.initVerify(cert.getPublicKey());
+        signature.update(dataToVerify);
+
+        boolean result = signature.verify(signatureData);
+
+        // verify() resets the object, so it can be reused after a successful call
+        pool = signaturePool.computeIfAbsent(signatureAlgorithmId, k -> new ConcurrentLinkedQueue<>());
+
+        if (pool.size() < MAX_POOLED_SIGNATURES_PER_ALGORITHM) {
+            pool.offer(signature);
+        }
+
+        return result;
+    }
+
+    /**
+     * Verifies that the member certificate is valid and has a good OCSP status.
+     * @param memberCert the member (owner/client) sign certificate
+     * @param memberCertOcsp the encoded OCSP response of the certificate
+     * @throws Exception CodedException with appropriate error code if verification fails
+     */
+    void verifyCertificate(X509Certificate memberCert, byte[] memberCertOcsp) throws Exception {
+        try {
+            memberCert.checkValidity();
+        } catch (Exception e) {
+            throw new CodedException(X_CERT_VALIDATION, "Member (owner/client) sign certificate is invalid: %s",
+                    e.getMessage());
+        }
+
+        verifyOcsp(memberCert, memberCertOcsp);
+    }
+
+    /**
+     * Verifies the OCSP response of the certificate. The validity period of a cached response is
+     * checked on every call, its signature, responder and status only the first time.
+     */
+    void verifyOcsp(X509Certificate memberCert, byte[] memberCertOcsp) throws Exception {
+        OcspVerifier verifier = new OcspVerifier(GlobalConf.getOcspFreshnessSeconds(false),
+                new OcspVerifierOptions(GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate()));
+
+        String key = getOcspCacheKey(memberCert, memberCertOcsp);
+        VerifiedOcsp verified = verifiedOcspResponses.getIfPresent(key);
+
+        if (verified != null) {
+            verifier.verifyValidity(verified.getResponse(), memberCert, verified.getIssuer());
+
+            return;
+        }
+
+        OCSPResp response = new OCSPResp(memberCertOcsp);
+        X509Certificate issuer = GlobalConf.getCaCert(GlobalConf.getInstanceIdentifier(), memberCert);
+
+        verifier.verifyValidityAndStatus(response, memberCert, issuer);
+
+        verifiedOcspResponses.put(key, new VerifiedOcsp(response, issuer));
+    }
+
+    long getCachedOcspResponseCount() {
+        return verifiedOcspResponses.size();
+    }
+
+    int getPooledSignatureCount(String signatureAlgorithmId) {
+        Queue<Signature> pool = signaturePool.get(signatureAlgorithmId);
+
+        return pool != null ? pool.size() : 0;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static String getOcspCacheKey(X509Certificate cert, byte[] ocsp) throws Exception {
+        MessageDigest md = MessageDigest.getInstance(SHA256_ID);
+        md.update(cert.getEncoded());
+
+        return encodeHex(md.digest(ocsp));
+    }
+
+    @Value
+    private static class VerifiedOcsp {
+        private final OCSPResp response;
+        private final X509Certificate issuer;
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.request;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.ExpectedCodedException;
+import ee.ria.xroad.common.OcspTestUtils;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.TestSecurityUtil;
+import ee.ria.xroad.common.conf.globalconf.EmptyGlobalConf;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ee.ria.xroad.common.ErrorCodes.X_CERT_VALIDATION;
+import static ee.ria.xroad.common.ErrorCodes.X_INVALID_SIGNATURE_VALUE;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA256WITHRSA_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the management request verifier.
+ */
+public class ManagementRequestVerifierTest {
+
+    static {
+        TestSecurityUtil.initSecurity();
+    }
+
+    @Rule
+    public ExpectedCodedException thrown = ExpectedCodedException.none();
+
+    private static final byte[] DATA = "management request".getBytes();
+
+    private final AtomicInteger caCertLookups = new AtomicInteger();
+
+    private X509Certificate subject;
+    private X509Certificate issuer;
+    private PrivateKey issuerKey;
+
+    private ManagementRequestVerifier verifier;
+
+    /**
+     * Loads the test certificates and creates the verifier.
+     */
+    @Before
+    public void setUp() {
+        GlobalConf.reload(new TestGlobalConf());
+
+        issuer = TestCertUtil.getCertChainCert("root_ca.p12");
+        issuerKey = TestCertUtil.getCertChainKey("root_ca.p12");
+        subject = TestCertUtil.getCertChainCert("user_0.p12");
+
+        verifier = new ManagementRequestVerifier(2, 1, 60);
+    }
+
+    /**
+     * Stops the verifier threads.
+     */
+    @After
+    public void tearDown() {
+        verifier.shutdown();
+    }
+
+    /**
+     * Tests that signatures are verified and the Signature objects reused.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void verifySignatureWithPooledSignature() throws Exception {
+        TestCertUtil.PKCS12 consumer = TestCertUtil.getConsumer();
+        byte[] signature = sign(consumer.key);
+
+        assertTrue(verifier.verifySignature(consumer.certChain[0], signature, SHA256WITHRSA_ID, DATA));
+        assertTrue(verifier.verifySignature(consumer.certChain[0], signature, SHA256WITHRSA_ID, DATA));
+        assertFalse(verifier.verifySignature(consumer.certChain[0], signature, SHA256WITHRSA_ID,
+                "tampered".getBytes()));
+
+        assertEquals(1, verifier.getPooledSignatureCount(SHA256WITHRSA_ID));
+    }
+
+    /**
+     * Tests that a verified OCSP response is cached and the issuer not looked up again.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void verifiedOcspResponseIsCached() throws Exception {
+        byte[] ocsp = OcspTestUtils.createOCSPResponse(subject, issuer, issuer, issuerKey,
+                CertificateStatus.GOOD, new Date(), null).getEncoded();
+
+        verifier.verifyOcsp(subject, ocsp);
+        verifier.verifyOcsp(subject, ocsp);
+
+        assertEquals(1, verifier.getCachedOcspResponseCount());
+        assertEquals(1, caCertLookups.get());
+    }
+
+    /**
+     * Tests that an OCSP response with revoked status is not cached.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void revokedOcspResponseIsNotCached() throws Exception {
+        byte[] ocsp = OcspTestUtils.createOCSPResponse(subject, issuer, issuer, issuerKey,
+                new RevokedStatus(new Date(), CRLReason.unspecified), new Date(), null).getEncoded();
+
+        try {
+            verifier.verifyOcsp(subject, ocsp);
+        } catch (CodedException expected) {
+            assertEquals(0, verifier.getCachedOcspResponseCount());
+        }
+
+        thrown.expectError(X_CERT_VALIDATION);
+        verifier.verifyOcsp(subject, ocsp);
+    }
+
+    /**
+     * Tests that the error of the first failed check is thrown, regardless of which check fails first.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void firstCheckErrorIsReported() throws Exception {
+        CountDownLatch secondFailed = new CountDownLatch(1);
+
+        thrown.expectError(X_INVALID_SIGNATURE_VALUE);
+        verifier.verify(Arrays.asList(
+            () -> {
+                secondFailed.await(5, TimeUnit.SECONDS);
+                throw new CodedException(X_INVALID_SIGNATURE_VALUE, "first");
+            },
+            () -> {
+                secondFailed.countDown();
+                throw new CodedException(X_CERT_VALIDATION, "second");
+            }));
+    }
+
+    /**
+     * Tests that an error thrown by a parallel check is rethrown as is.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test(expected = AssertionError.class)
+    public void parallelCheckErrorIsRethrown() throws Exception {
+        verifier.verify(Arrays.asList(
+            () -> null,
+            () -> {
+                throw new AssertionError("second");
+            }));
+    }
+
+    /**
+     * Tests that a request waits while the maximum number of requests is being verified.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void concurrentVerificationsAreBounded() throws Exception {
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        AtomicBoolean secondRan = new AtomicBoolean();
+
+        Thread first = new Thread(() -> runVerify(Collections.singletonList(() -> {
+            firstStarted.countDown();
+            releaseFirst.await();
+            return null;
+        })));
+        Thread second = new Thread(() -> runVerify(Collections.singletonList(() -> {
+            secondRan.set(true);
+            return null;
+        })));
+
+        first.start();
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+
+        second.start();
+        second.join(200);
+        assertFalse(secondRan.get());
+
+        releaseFirst.countDown();
+        first.join();
+        second.join();
+        assertTrue(secondRan.get());
+    }
+
+    private void runVerify(List<Callable<Void>> checks) {
+        try {
+            verifier.verify(checks);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] sign(PrivateKey key) throws Exception {
+        Signature signature = Signature.getInstance(SHA256WITHRSA_ID, "BC");
+        signature.initSign(key);
+        signature.update(DATA);
+
+        return signature.sign();
+    }
+
+    private class TestGlobalConf extends EmptyGlobalConf {
+        @Override
+        public List<X509Certificate> getOcspResponderCertificates() {
+            return Collections.singletonList(issuer);
+        }
+
+        @Override
+        public X509Certificate getCaCert(String instanceIdentifier, X509Certificate orgCert) {
+            caCertLookups.incrementAndGet();
+
+            return issuer;
+        }
+    }
+}
@@ -45,6 +45,9 @@ public abstract class AbstractLogManager extends UntypedAbstractActor {
     @Getter
     protected static Map<String, DiagnosticsStatus> statusMap = new HashMap<>();
 
+    // Lookup that the request threads call directly instead of asking the log manager actor
+    private static volatile QueryIdLookup queryIdLookup;
+
     protected AbstractLogManager(JobManager jobManager) {
         if (jobManager == null) {
             throw new IllegalArgumentException("jobManager cannot be null");
@@ -90,4 +93,36 @@ public abstract class AbstractLogManager extends UntypedAbstractActor {
     protected abstract LogRecord findByQueryId(String queryId, Date startTime, Date endTime) throws Exception;
 
     protected abstract TimestampRecord timestamp(Long messageRecordId) throws Exception;
+
+    /**
+     * @return the lookup for finding log records by query id without going through the log manager actor,
+     * or null if the log manager does not support it.
+     */
+    public static QueryIdLookup getQueryIdLookup() {
+        return queryIdLookup;
+    }
+
+    /**
+     * Sets the lookup for finding log records by query id without going through the log manager actor.
+     * @param lookup the lookup or null to send the queries to the log manager actor.
+     */
+    protected static void setQueryIdLookup(QueryIdLookup lookup) {
+        queryIdLookup = lookup;
+    }
+
+    /**
+     * Finds log records by query id. The implementation must be thread-safe.
+     */
+    @FunctionalInterface
+    public interface QueryIdLookup {
+        /**
+         * Returns a log record for a given message query id, start and end time.
+         * @param queryId the message query id
+         * @param startTime the start time
+         * @param endTime the end time
+         * @return the log record or null, if log record is not found
+         * @throws Exception if an error occurs
+         */
+        LogRecord findByQueryId(String queryId, Date startTime, Date endTime) throws Exception;
+    }
 }
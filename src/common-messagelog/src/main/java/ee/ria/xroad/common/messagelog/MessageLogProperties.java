@@ -54,6 +54,8 @@ public final class MessageLogProperties {
 
     private static final int DEFAULT_TIMESTAMP_RETRY_DELAY = 60;
 
+    private static final int DEFAULT_TIMESTAMPER_MAX_CONCURRENT_REQUESTS = 2;
+
     private static final int DEFAULT_ARCHIVE_TRANSACTION_BATCH_SIZE = 10000;
     private static final int DEFAULT_CLEAN_TRANSACTION_BATCH_SIZE = 10000;
 
@@ -72,6 +74,9 @@ public final class MessageLogProperties {
 
     public static final String TIMESTAMP_RECORDS_LIMIT = PREFIX + "timestamp-records-limit";
 
+    /** Property name of the maximum number of concurrent batch time-stamping requests. */
+    public static final String TIMESTAMPER_MAX_CONCURRENT_REQUESTS = PREFIX + "timestamper-max-concurrent-requests";
+
     /** Property name of the timestamp retry delay (seconds). */
     public static final String TIMESTAMP_RETRY_DELAY = PREFIX + "timestamp-retry-delay";
 
@@ -173,6 +178,16 @@ public final class MessageLogProperties {
         return getInt(System.getProperty(TIMESTAMP_RECORDS_LIMIT), DEFAULT_TIMESTAMP_RECORDS_LIMIT);
     }
 
+    /**
+     * @return the maximum number of batch time-stamping requests that are sent concurrently when there is a
+     * backlog of records to time-stamp. The requests are spread over the configured time-stamping services.
+     * '2' by default.
+     */
+    public static int getTimestamperMaxConcurrentRequests() {
+        return getInt(System.getProperty(TIMESTAMPER_MAX_CONCURRENT_REQUESTS),
+                DEFAULT_TIMESTAMPER_MAX_CONCURRENT_REQUESTS);
+    }
+
     /**
      * @return the time period in seconds, how long is time-stamping allowed to be failed before message log stops
      * accepting any more messages.
@@ -26,6 +26,7 @@
 package ee.ria.xroad.common.messagelog;
 
 import ee.ria.xroad.common.asic.AsicContainer;
+import ee.ria.xroad.common.asic.AsicContainerWriter;
 import ee.ria.xroad.common.asic.TimestampData;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.message.SoapMessageImpl;
@@ -41,6 +42,7 @@ import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.sql.Blob;
 
 import static ee.ria.xroad.common.util.CryptoUtils.MD5_ID;
@@ -163,20 +165,33 @@ public class MessageRecord extends AbstractLogRecord {
      * @throws Exception in case of any errors
      */
     public AsicContainer toAsicContainer() throws Exception {
-        SignatureData signatureData =
-                new SignatureData(signature, hashChainResult, hashChain);
+        return new AsicContainer(message, getSignatureData(), getTimestampData(),
+                (attachment != null) ? attachment.getBinaryStream() : null);
+    }
+
+    /**
+     * Writes this message record as an ASiC container. Unlike
+     * {@link #toAsicContainer()}, the container contents are not verified again.
+     * @param writer the container writer
+     * @param out the stream for writing the container
+     * @throws Exception in case of any errors
+     */
+    public void writeAsicContainer(AsicContainerWriter writer, OutputStream out) throws Exception {
+        writer.write(out, message, getSignatureData(), getTimestampData(),
+                (attachment != null) ? attachment.getBinaryStream() : null);
+    }
 
-        TimestampData timestamp = null;
+    private SignatureData getSignatureData() {
+        return new SignatureData(signature, hashChainResult, hashChain);
+    }
 
-        if (timestampRecord != null) {
-            timestamp = new TimestampData(
-                    timestampRecord.getTimestamp(),
-                    timestampRecord.getHashChainResult(),
-                    timestampHashChain);
+    private TimestampData getTimestampData() {
+        if (timestampRecord == null) {
+            return null;
         }
 
-        return new AsicContainer(message, signatureData, timestamp,
-                (attachment != null) ? attachment.getBinaryStream() : null);
+        return new TimestampData(timestampRecord.getTimestamp(), timestampRecord.getHashChainResult(),
+                timestampHashChain);
     }
 
     public void setAttachmentStream(InputStream stream, long size) {
@@ -27,6 +27,7 @@ package ee.ria.xroad.common.messagelog.archive;
 
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.asic.AsicContainerNameGenerator;
+import ee.ria.xroad.common.asic.AsicContainerWriter;
 import ee.ria.xroad.common.messagelog.MessageLogProperties;
 import ee.ria.xroad.common.messagelog.MessageRecord;
 
@@ -49,6 +50,7 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import static ee.ria.xroad.common.ErrorCodes.X_IO_ERROR;
+import static ee.ria.xroad.common.ErrorCodes.translateException;
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getArchiveMaxFilesize;
 import static ee.ria.xroad.common.messagelog.archive.LogArchiveWriter.MAX_RANDOM_GEN_ATTEMPTS;
 
@@ -67,6 +69,7 @@ class LogArchiveCache implements Closeable {
     private final Supplier<String> randomGenerator;
     private final LinkingInfoBuilder linkingInfoBuilder;
     private final Path workingDir;
+    private final AsicContainerWriter containerWriter;
 
     private AsicContainerNameGenerator nameGenerator;
     private State state = State.NEW;
@@ -84,6 +87,7 @@ class LogArchiveCache implements Closeable {
         this.randomGenerator = randomGenerator;
         this.linkingInfoBuilder = linkingInfoBuilder;
         this.workingDir = workingDir;
+        this.containerWriter = createContainerWriter();
         reset();
     }
 
@@ -149,6 +153,7 @@ class LogArchiveCache implements Closeable {
     @Override
     public void close() {
         deleteArchiveArtifacts();
+        containerWriter.close();
     }
 
     private void validateMessageRecord(MessageRecord record) {
@@ -202,13 +207,21 @@ class LogArchiveCache implements Closeable {
             // ZipOutputStream writing directly to a DigestOutputStream is extremely inefficient, hence the additional
             // buffering. Digesting a stream instead of an in-memory buffer because the archive can be
             // large (over 1GiB)
-            record.toAsicContainer().write(bos);
+            record.writeAsicContainer(containerWriter, bos);
             archivesTotalSize += cos.getCount();
         }
         archiveTmp.closeEntry();
         linkingInfoBuilder.addNextFile(archiveFilename, digest.digest());
     }
 
+    private static AsicContainerWriter createContainerWriter() {
+        try {
+            return new AsicContainerWriter();
+        } catch (Exception e) {
+            throw translateException(e);
+        }
+    }
+
     private void reset() {
         try {
             resetArchive();
@@ -0,0 +1,261 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.opmonitoring;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.conf.InternalSSLKey;
+import ee.ria.xroad.common.util.CryptoUtils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.net.ssl.SSLSocket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Client for sending store requests to the operational monitoring daemon over one persistent connection
+ * (see {@link OpMonitoringFrames} for the frame format).
+ *
+ * The requests are compressed by the calling threads and written to the connection without waiting for the
+ * acknowledgements of the previous requests. The number of unacknowledged requests is limited by a window, so
+ * a slow daemon slows down the senders instead of piling up data in the connection. The connection is opened
+ * on the first request and reopened after errors, the requests in flight on a failed connection are failed.
+ */
+@Slf4j
+public final class OpMonitoringDaemonFramedClient implements Closeable {
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final InternalSSLKey authKey;
+    private final int connectionTimeoutMilliseconds;
+    private final Semaphore window;
+
+    private Connection connection;
+    private long sequence;
+    private boolean closed;
+
+    /**
+     * Creates the client. The connection is opened when the first request is sent.
+     * @param authKey the client's authentication key, used if the daemon scheme is https
+     * @param maxRequestsInFlight maximum number of unacknowledged requests
+     * @param connectionTimeoutMilliseconds connection timeout in milliseconds
+     */
+    public OpMonitoringDaemonFramedClient(InternalSSLKey authKey, int maxRequestsInFlight,
+            int connectionTimeoutMilliseconds) {
+        this.authKey = authKey;
+        this.connectionTimeoutMilliseconds = connectionTimeoutMilliseconds;
+        this.window = new Semaphore(Math.max(1, maxRequestsInFlight));
+    }
+
+    /**
+     * Sends a store request ({"records": [...]}) to the daemon. Blocks while the window is full.
+     * @param data the JSON request
+     * @param offset offset of the request in the array
+     * @param length length of the request
+     * @return future that is completed when the daemon has stored the records or failed with the error
+     * @throws InterruptedException if interrupted while waiting for the window
+     */
+    public CompletableFuture<Void> send(byte[] data, int offset, int length) throws InterruptedException {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+
+        window.acquire();
+        result.whenComplete((r, e) -> window.release());
+
+        try {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4 + 64);
+            OpMonitoringFrames.compress(data, offset, length, compressed);
+
+            write(result, compressed);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+    private synchronized void write(CompletableFuture<Void> result, ByteArrayOutputStream compressed)
+            throws Exception {
+        if (closed) {
+            throw new IOException("Operational monitoring daemon client is closed");
+        }
+
+        if (connection == null || connection.isFailed()) {
+            connection = new Connection(openSocket());
+        }
+
+        connection.write(++sequence, result, compressed);
+    }
+
+    private Socket openSocket() throws Exception {
+        InetSocketAddress address = new InetSocketAddress(OpMonitoringSystemProperties.getOpMonitorHost(),
+                OpMonitoringSystemProperties.getOpMonitorFramedPort());
+
+        log.debug("Connecting to operational monitoring daemon at {}", address);
+
+        Socket socket;
+
+        if ("https".equalsIgnoreCase(OpMonitoringSystemProperties.getOpMonitorDaemonScheme())) {
+            SSLSocket sslSocket = (SSLSocket) OpMonitoringDaemonHttpClient.createSSLContext(authKey)
+                    .getSocketFactory().createSocket();
+            sslSocket.setEnabledProtocols(new String[] {CryptoUtils.SSL_PROTOCOL});
+            sslSocket.setEnabledCipherSuites(SystemProperties.getXroadTLSCipherSuites());
+
+            socket = sslSocket;
+        } else {
+            socket = new Socket();
+        }
+
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(address, connectionTimeoutMilliseconds);
+
+            if (socket instanceof SSLSocket) {
+                ((SSLSocket) socket).startHandshake();
+            }
+        } catch (Exception e) {
+            socket.close();
+
+            throw e;
+        }
+
+        return socket;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+
+        if (connection != null) {
+            connection.fail(new IOException("Operational monitoring daemon client is closed"));
+            connection = null;
+        }
+    }
+
+    /**
+     * One connection to the daemon with its unacknowledged requests. The acknowledgements are read by a
+     * dedicated thread.
+     */
+    private static final class Connection {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final Map<Long, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+
+        private volatile boolean failed;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), STREAM_BUFFER_SIZE));
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            Thread reader = new Thread(() -> readAcks(in), "OpMonitoringDaemonFramedClient-" + socket.getLocalPort());
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        boolean isFailed() {
+            return failed;
+        }
+
+        // Called while holding the client lock, so the frames are not interleaved.
+        void write(long seq, CompletableFuture<Void> result, ByteArrayOutputStream compressed) throws IOException {
+            pending.put(seq, result);
+
+            try {
+                writeFrame(seq, compressed);
+            } catch (IOException e) {
+                fail(e);
+
+                throw e;
+            }
+        }
+
+        private void writeFrame(long seq, ByteArrayOutputStream compressed) throws IOException {
+            out.writeInt(OpMonitoringFrames.HEADER_LENGTH + compressed.size());
+            out.writeLong(seq);
+            out.writeByte(OpMonitoringFrames.RECORDS);
+            compressed.writeTo(out);
+            out.flush();
+        }
+
+        private void readAcks(DataInputStream in) {
+            try {
+                while (!failed) {
+                    OpMonitoringFrames.Frame frame = OpMonitoringFrames.readFrame(in);
+                    CompletableFuture<Void> result = pending.remove(frame.getSequence());
+
+                    if (result == null) {
+                        log.warn("Received acknowledgement for unknown request {}", frame.getSequence());
+                    } else if (frame.getType() == OpMonitoringFrames.ACK_OK) {
+                        result.complete(null);
+                    } else if (frame.getType() == OpMonitoringFrames.ACK_ERROR) {
+                        result.completeExceptionally(new Exception("Received error response: "
+                                + new String(frame.getPayload(), StandardCharsets.UTF_8)));
+                    } else {
+                        throw new IOException("Received invalid frame type " + frame.getType());
+                    }
+                }
+            } catch (IOException e) {
+                if (!failed) {
+                    log.warn("Connection to operational monitoring daemon failed", e);
+                }
+
+                fail(e);
+            }
+        }
+
+        void fail(IOException cause) {
+            failed = true;
+
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("Error closing connection to operational monitoring daemon", e);
+            }
+
+            pending.keySet().forEach(seq -> {
+                CompletableFuture<Void> result = pending.remove(seq);
+
+                if (result != null) {
+                    result.completeExceptionally(cause);
+                }
+            });
+        }
+    }
+}
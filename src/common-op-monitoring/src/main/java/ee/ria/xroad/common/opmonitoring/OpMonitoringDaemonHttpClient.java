@@ -131,10 +131,23 @@ public final class OpMonitoringDaemonHttpClient {
         return cb.build();
     }
 
-    private static SSLConnectionSocketFactory createSSLSocketFactory(InternalSSLKey authKey) throws Exception {
+    /**
+     * Creates the SSL context used for connecting to the operational monitoring daemon. The context authenticates
+     * the client with the given internal TLS key and only trusts the configured daemon certificate.
+     * @param authKey the client's authentication key
+     * @return SSL context
+     * @throws Exception if SSLContext initialization fails
+     */
+    static SSLContext createSSLContext(InternalSSLKey authKey) throws Exception {
         SSLContext ctx = SSLContext.getInstance(CryptoUtils.SSL_PROTOCOL);
         ctx.init(getKeyManager(authKey), new TrustManager[] {new OpMonitorTrustManager()}, new SecureRandom());
 
+        return ctx;
+    }
+
+    private static SSLConnectionSocketFactory createSSLSocketFactory(InternalSSLKey authKey) throws Exception {
+        SSLContext ctx = createSSLContext(authKey);
+
         return new SSLConnectionSocketFactory(ctx.getSocketFactory(), new String[] {CryptoUtils.SSL_PROTOCOL},
                 SystemProperties.getXroadTLSCipherSuites(), NoopHostnameVerifier.INSTANCE);
         // We don't need hostname verification
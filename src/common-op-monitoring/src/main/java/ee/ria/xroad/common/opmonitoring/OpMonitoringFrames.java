@@ -0,0 +1,168 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.opmonitoring;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Frame format of the persistent connection between the proxy and the operational monitoring daemon.
+ *
+ * Each frame consists of a 4-byte length of the rest of the frame, an 8-byte sequence number, a 1-byte frame type
+ * and the payload. A RECORDS frame carries a deflate-compressed store request ({"records": [...]}), the daemon
+ * answers every RECORDS frame with an ACK_OK or ACK_ERROR frame with the same sequence number. The daemon may
+ * process the frames of one connection in parallel, so the acknowledgements can arrive in any order and the client
+ * can pipeline several frames on one connection.
+ */
+public final class OpMonitoringFrames {
+
+    public static final byte RECORDS = 1;
+    public static final byte ACK_OK = 2;
+    public static final byte ACK_ERROR = 3;
+
+    /**
+     * Length of the sequence number and the frame type following the length field.
+     */
+    public static final int HEADER_LENGTH = Long.BYTES + 1;
+
+    /**
+     * Length of the length field.
+     */
+    public static final int LENGTH_FIELD_LENGTH = Integer.BYTES;
+
+    /**
+     * Maximum value of the length field, frames that are longer are rejected.
+     */
+    public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * Maximum length of the decompressed payload of a RECORDS frame, frames whose payload is longer are rejected.
+     */
+    public static final int MAX_DECOMPRESSED_PAYLOAD_LENGTH = 256 * 1024 * 1024;
+
+    private OpMonitoringFrames() {
+    }
+
+    /**
+     * Frame read from a stream.
+     */
+    public static final class Frame {
+        private final long sequence;
+        private final byte type;
+        private final byte[] payload;
+
+        Frame(long sequence, byte type, byte[] payload) {
+            this.sequence = sequence;
+            this.type = type;
+            this.payload = payload;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+
+    /**
+     * Reads a frame from the given stream.
+     * @param in the input stream
+     * @return the frame
+     * @throws IOException if reading fails, the stream ends or the frame length is invalid
+     */
+    public static Frame readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+
+        checkFrameLength(length);
+
+        long sequence = in.readLong();
+        byte type = in.readByte();
+        byte[] payload = new byte[length - HEADER_LENGTH];
+
+        in.readFully(payload);
+
+        return new Frame(sequence, type, payload);
+    }
+
+    /**
+     * Creates an acknowledgement frame.
+     * @param sequence sequence number of the acknowledged frame
+     * @param errorMessage error message or null if the frame was processed successfully
+     * @return the frame as a buffer ready for reading
+     */
+    public static ByteBuffer createAck(long sequence, String errorMessage) {
+        byte[] payload = errorMessage == null ? new byte[0] : errorMessage.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(LENGTH_FIELD_LENGTH + HEADER_LENGTH + payload.length);
+
+        frame.putInt(HEADER_LENGTH + payload.length);
+        frame.putLong(sequence);
+        frame.put(errorMessage == null ? ACK_OK : ACK_ERROR);
+        frame.put(payload);
+        frame.flip();
+
+        return frame;
+    }
+
+    /**
+     * Checks the value of the length field.
+     * @param length the value of the length field
+     * @throws IOException if the length is invalid
+     */
+    public static void checkFrameLength(int length) throws IOException {
+        if (length < HEADER_LENGTH || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+    }
+
+    /**
+     * Compresses the given data for a RECORDS frame.
+     * @param data the data
+     * @param offset offset of the data in the array
+     * @param length length of the data
+     * @param out the stream the compressed data is written to
+     * @throws IOException if writing fails
+     */
+    public static void compress(byte[] data, int offset, int length, ByteArrayOutputStream out) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater)) {
+            deflaterOut.write(data, offset, length);
+        } finally {
+            deflater.end();
+        }
+    }
+}
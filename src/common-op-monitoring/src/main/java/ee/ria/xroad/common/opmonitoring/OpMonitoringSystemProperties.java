@@ -55,6 +55,13 @@ public final class OpMonitoringSystemProperties {
     private static final String OP_MONITOR_BUFFER_MAX_RECORDS_IN_MESSAGE =
             PREFIX + "op-monitor-buffer.max-records-in-message";
 
+    /**
+     * Property name of the maximum number of messages the operational monitoring
+     * buffer sends concurrently to the operational monitoring daemon.
+     */
+    private static final String OP_MONITOR_BUFFER_MAX_CONCURRENT_MESSAGES =
+            PREFIX + "op-monitor-buffer.max-concurrent-messages";
+
     /**
      * Property name of the operational monitoring buffer sending interval seconds.
      */
@@ -108,6 +115,19 @@ public final class OpMonitoringSystemProperties {
     private static final String OP_MONITOR_PORT =
             PREFIX + "op-monitor.port";
 
+    /**
+     * Property name of the flag that enables sending operational data to the operational monitoring daemon over a
+     * persistent framed connection instead of HTTP requests.
+     */
+    private static final String OP_MONITOR_FRAMED_TRANSPORT_ENABLED =
+            PREFIX + "op-monitor.framed-transport-enabled";
+
+    /**
+     * Property name of the port on which the operational monitoring daemon listens for framed connections.
+     */
+    private static final String OP_MONITOR_FRAMED_PORT =
+            PREFIX + "op-monitor.framed-port";
+
     /**
      * Property name of the path to the location of the operational monitoring daemon TLS certificate.
      */
@@ -147,6 +167,26 @@ public final class OpMonitoringSystemProperties {
     private static final String OP_MONITOR_CLEAN_INTERVAL =
             PREFIX + "op-monitor.clean-interval";
 
+    /**
+     * Property name of the maximum number of operational data records removed in a single transaction by the
+     * cleanup operation.
+     */
+    private static final String OP_MONITOR_CLEAN_BATCH_SIZE =
+            PREFIX + "op-monitor.clean-batch-size";
+
+    /**
+     * Property name of the pause in milliseconds between the transactions of the cleanup operation.
+     */
+    private static final String OP_MONITOR_CLEAN_BATCH_PAUSE_MILLIS =
+            PREFIX + "op-monitor.clean-batch-pause-millis";
+
+    /**
+     * Property name of the flag that enables dropping expired partitions of a partitioned operational data table
+     * on PostgreSQL.
+     */
+    private static final String OP_MONITOR_CLEAN_DROP_PARTITIONS =
+            PREFIX + "op-monitor.clean-drop-partitions";
+
     /**
      * Property name of the maximum records in the get operational data response payload.
      */
@@ -171,6 +211,13 @@ public final class OpMonitoringSystemProperties {
         return Integer.parseInt(System.getProperty(OP_MONITOR_BUFFER_MAX_RECORDS_IN_MESSAGE, "100"));
     }
 
+    /**
+     * @return max messages sent concurrently to the operational monitoring daemon, '4' by default.
+     */
+    public static int getOpMonitorBufferMaxConcurrentMessages() {
+        return Integer.parseInt(System.getProperty(OP_MONITOR_BUFFER_MAX_CONCURRENT_MESSAGES, "4"));
+    }
+
     /**
      * @return the interval in seconds at which operational monitoring buffer additionally tries to send records to the
      * operational monitoring daemon, '5' by default.
@@ -229,6 +276,23 @@ public final class OpMonitoringSystemProperties {
                 Integer.toString(PortNumbers.OP_MONITOR_DAEMON_PORT)));
     }
 
+    /**
+     * @return whether operational data is sent to the operational monitoring daemon over a persistent framed
+     * connection, 'false' by default.
+     */
+    public static boolean isOpMonitorFramedTransportEnabled() {
+        return "true".equalsIgnoreCase(System.getProperty(OP_MONITOR_FRAMED_TRANSPORT_ENABLED, "false"));
+    }
+
+    /**
+     * @return the port on which the operational monitoring daemon listens for framed connections, by default the
+     * port for JSON/SOAP requests plus two.
+     */
+    public static int getOpMonitorFramedPort() {
+        return Integer.parseInt(System.getProperty(OP_MONITOR_FRAMED_PORT,
+                Integer.toString(getOpMonitorPort() + 2)));
+    }
+
     /**
      * @return the path to the location of the operational monitoring daemon TLS certificate,
      * '/etc/xroad/ssl/opmonitor.crt' by default.
@@ -267,6 +331,29 @@ public final class OpMonitoringSystemProperties {
         return System.getProperty(OP_MONITOR_CLEAN_INTERVAL, "0 0 0/12 1/1 * ? *");
     }
 
+    /**
+     * @return the maximum number of operational data records removed in a single transaction by the cleanup
+     * operation, '10000' by default.
+     */
+    public static int getOpMonitorCleanBatchSize() {
+        return Integer.parseInt(System.getProperty(OP_MONITOR_CLEAN_BATCH_SIZE, "10000"));
+    }
+
+    /**
+     * @return the pause in milliseconds between the transactions of the cleanup operation, '100' by default.
+     */
+    public static long getOpMonitorCleanBatchPauseMillis() {
+        return Long.parseLong(System.getProperty(OP_MONITOR_CLEAN_BATCH_PAUSE_MILLIS, "100"));
+    }
+
+    /**
+     * @return whether the cleanup operation drops the expired partitions of a partitioned operational data table
+     * on PostgreSQL, 'false' by default.
+     */
+    public static boolean isOpMonitorCleanDropPartitionsEnabled() {
+        return "true".equalsIgnoreCase(System.getProperty(OP_MONITOR_CLEAN_DROP_PARTITIONS, "false"));
+    }
+
     /**
      * @return the maximum records in the get operational data response payload, 10000 by default.
      */
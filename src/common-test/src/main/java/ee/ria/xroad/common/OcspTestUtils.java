@@ -103,6 +103,40 @@ public final class OcspTestUtils {
         return resp;
     }
 
+    /**
+     * Creates a batched OCSP response containing a single response for each
+     * of the subjects' certificates, in the given order.
+     * @param subjects the subject certificates
+     * @param issuer certificate of the subject certificates issuer
+     * @param signer certificate of the OCSP response signer
+     * @param signerKey key of the OCSP response signer
+     * @param certStatuses OCSP response status of each subject
+     * @param thisUpdates date each single response was valid on
+     * @return OCSPResp
+     * @throws Exception in case of any errors
+     */
+    public static OCSPResp createOCSPResponse(X509Certificate[] subjects,
+            X509Certificate issuer, X509Certificate signer, PrivateKey signerKey,
+            CertificateStatus[] certStatuses, Date[] thisUpdates)
+                    throws Exception {
+        BasicOCSPRespBuilder builder = new BasicOCSPRespBuilder(
+                new RespID(new X500Name(
+                        signer.getSubjectX500Principal().getName())));
+
+        for (int i = 0; i < subjects.length; i++) {
+            CertificateID cid = CryptoUtils.createCertId(subjects[i], issuer);
+            builder.addResponse(cid, certStatuses[i], thisUpdates[i], null, null);
+        }
+
+        ContentSigner contentSigner = CryptoUtils.createContentSigner(
+                subjects[0].getSigAlgName(), signerKey);
+
+        Object responseObject = builder.build(contentSigner, null, new Date());
+
+        return new OCSPRespBuilder().build(
+                OCSPRespBuilder.SUCCESSFUL, responseObject);
+    }
+
     /**
      * Creates a "signature required" OCSP response.
      * @return OCSPResp
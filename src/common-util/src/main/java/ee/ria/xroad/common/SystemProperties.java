@@ -194,6 +194,8 @@ public final class SystemProperties {
 
     public static final String SERVER_CONF_ACL_CACHE_SIZE = PREFIX + "proxy.server-conf-acl-cache-size";
 
+    public static final String SERVER_CONF_CACHE_WARM_UP = PREFIX + "proxy.server-conf-cache-warm-up";
+
 
     /** Property name of the idle time that connections to the ServerProxy Connector are allowed, in milliseconds */
     private static final String SERVERPROXY_CONNECTOR_MAX_IDLE_TIME =
@@ -213,6 +215,18 @@ public final class SystemProperties {
     private static final String SERVERPROXY_SUPPORT_CLIENTS_POOLED_CONNECTIONS =
             PREFIX + "proxy.server-support-clients-pooled-connections";
 
+    /** Property name of the lifetime of resumable TLS sessions of the serverproxy connector, in seconds */
+    private static final String SERVERPROXY_SSL_SESSION_TIMEOUT =
+            PREFIX + "proxy.server-ssl-session-timeout";
+
+    /** Property name of the maximum number of resumable TLS sessions of the serverproxy connector */
+    private static final String SERVERPROXY_SSL_SESSION_CACHE_SIZE =
+            PREFIX + "proxy.server-ssl-session-cache-size";
+
+    /** Property name of the maximum number of TLS sessions with a cached client certificate verification result */
+    private static final String SERVERPROXY_SSL_CLIENT_CERT_CACHE_SIZE =
+            PREFIX + "proxy.server-ssl-client-cert-cache-size";
+
     /**
      * Property name of the idle time that connections to the clientproxy connector are initially allowed,
      * in milliseconds
@@ -260,6 +274,26 @@ public final class SystemProperties {
     public static final String CLIENTPROXY_FASTEST_CONNECTING_SSL_URI_CACHE_PERIOD =
             PREFIX + "proxy.client-fastest-connecting-ssl-uri-cache-period";
 
+    /** Property name of the time after which OCSP responses of peers that are not contacted are dropped, in seconds */
+    private static final String CLIENTPROXY_PEER_OCSP_IDLE_TIME =
+            PREFIX + "proxy.client-peer-ocsp-idle-time";
+
+    /** Property name of the interval of refreshing OCSP responses of recently contacted peers, in seconds */
+    private static final String CLIENTPROXY_PEER_OCSP_PREFETCH_INTERVAL =
+            PREFIX + "proxy.client-peer-ocsp-prefetch-interval";
+
+    /** Property name of the delay between starting connections to alternative server proxy addresses, in ms */
+    private static final String CLIENTPROXY_CONNECT_STAGGER_DELAY =
+            PREFIX + "proxy.client-connect-stagger-delay";
+
+    /** Property name of the time a server proxy address is skipped after repeated connection failures, in seconds */
+    private static final String CLIENTPROXY_ENDPOINT_CIRCUIT_OPEN_TIME =
+            PREFIX + "proxy.client-endpoint-circuit-open-time";
+
+    /** Property name of the file where server proxy address latency scores are saved over restarts */
+    private static final String CLIENTPROXY_ENDPOINT_SCORES_FILE =
+            PREFIX + "proxy.client-endpoint-scores-file";
+
     private static final String CLIENTPROXY_POOL_VALIDATE_CONNECTIONS_AFTER_INACTIVITY_OF_MS =
             PREFIX + "proxy.pool-validate-connections-after-inactivity-of-millis";
 
@@ -275,6 +309,30 @@ public final class SystemProperties {
     private static final String ENFORCE_CLIENT_IS_CERT_VALIDITY_PERIOD_CHECK =
             PREFIX + "proxy.enforce-client-is-cert-validity-period-check";
 
+    private static final String PROXY_BATCH_SIGNER_ASYNC_ENABLED =
+            PREFIX + "proxy.batch-signer-async-enabled";
+
+    private static final String PROXY_BATCH_SIGNER_MAX_BATCH_SIZE =
+            PREFIX + "proxy.batch-signer-max-batch-size";
+
+    private static final String PROXY_BATCH_SIGNER_LINGER_MICROS =
+            PREFIX + "proxy.batch-signer-linger-micros";
+
+    private static final String PROXY_BATCH_SIGNER_MAX_IN_FLIGHT_BATCHES =
+            PREFIX + "proxy.batch-signer-max-in-flight-batches";
+
+    private static final String PROXY_CLIENT_RESPONSE_SPILL_BUFFER_ENABLED =
+            PREFIX + "proxy.client-response-spill-buffer-enabled";
+
+    private static final String PROXY_CLIENT_RESPONSE_SPILL_THRESHOLD =
+            PREFIX + "proxy.client-response-spill-threshold";
+
+    private static final String PROXY_METASERVICE_WSDL_CACHE_SIZE =
+            PREFIX + "proxy.metaservice-wsdl-cache-size";
+
+    private static final String PROXY_METASERVICE_WSDL_CACHE_TTL =
+            PREFIX + "proxy.metaservice-wsdl-cache-ttl";
+
     private static final String DEFAULT_CENTER_TRUSTED_ANCHORS_ALLOWED = "false";
 
     private static final String DEFAULT_CENTER_AUTO_APPROVE_AUTH_CERT_REG_REQUESTS = "false";
@@ -283,6 +341,10 @@ public final class SystemProperties {
 
     private static final String DEFAULT_CENTER_AUTO_APPROVE_OWNER_CHANGE_REQUESTS = "false";
 
+    private static final String DEFAULT_CENTER_MANAGEMENT_REQUEST_VERIFIER_THREADS = "4";
+
+    private static final String DEFAULT_CENTER_MANAGEMENT_REQUEST_MAX_CONCURRENT_VERIFICATIONS = "16";
+
     private static final String DEFAULT_SERVERPROXY_CONNECTOR_MAX_IDLE_TIME = "0";
 
     private static final String DEFAULT_PROXY_CONNECTOR_INITIAL_IDLE_TIME = "30000";
@@ -291,6 +353,12 @@ public final class SystemProperties {
 
     private static final String DEFAULT_SERVERPROXY_SUPPORT_CLIENTS_POOLED_CONNECTIONS = "false";
 
+    private static final String DEFAULT_SERVERPROXY_SSL_SESSION_TIMEOUT = "600";
+
+    private static final String DEFAULT_SERVERPROXY_SSL_SESSION_CACHE_SIZE = "10000";
+
+    private static final String DEFAULT_SERVERPROXY_SSL_CLIENT_CERT_CACHE_SIZE = "10000";
+
     private static final String DEFAULT_CLIENTPROXY_CONNECTOR_MAX_IDLE_TIME = "0";
 
     private static final String DEFAULT_CLIENTPROXY_CONNECTOR_SO_LINGER = "-1";
@@ -317,6 +385,16 @@ public final class SystemProperties {
 
     private static final String DEFAULT_CLIENTPROXY_FASTEST_CONNECTING_SSL_URI_CACHE_PERIOD = "3600";
 
+    private static final String DEFAULT_CLIENTPROXY_PEER_OCSP_IDLE_TIME = "3600";
+
+    private static final String DEFAULT_CLIENTPROXY_PEER_OCSP_PREFETCH_INTERVAL = "60";
+
+    private static final String DEFAULT_CLIENTPROXY_CONNECT_STAGGER_DELAY = "250";
+
+    private static final String DEFAULT_CLIENTPROXY_ENDPOINT_CIRCUIT_OPEN_TIME = "30";
+
+    private static final String DEFAULT_CLIENTPROXY_ENDPOINT_SCORES_FILE = "";
+
     private static final String DEFAULT_ENV_MONITOR_LIMIT_REMOTE_DATA_SET = "false";
 
     private static final String DEFAULT_CLIENTPROXY_POOL_VALIDATE_CONNECTIONS_AFTER_INACTIVITY_OF_MS = "2000";
@@ -340,6 +418,12 @@ public final class SystemProperties {
 
     private static final int OCSP_VERIFIER_CACHE_PERIOD_MAX = 180;
 
+    private static final String TIMESTAMP_VERIFIER_CACHE_SIZE =
+            PREFIX + "common.timestamp-verifier-cache-size";
+
+    private static final String TIMESTAMP_VERIFIER_THREADS =
+            PREFIX + "common.timestamp-verifier-threads";
+
 
     // Signer -----------------------------------------------------------------
 
@@ -385,6 +469,19 @@ public final class SystemProperties {
 
     private static final String DEFAULT_SIGNER_OCSP_RETRY_DELAY = "60";
 
+    public static final String SIGNER_OCSP_BATCH_REQUESTS_ENABLED =
+            PREFIX + "signer.ocsp-batch-requests-enabled";
+
+    public static final String SIGNER_OCSP_MAX_BATCH_SIZE =
+            PREFIX + "signer.ocsp-max-batch-size";
+
+    private static final String DEFAULT_SIGNER_OCSP_MAX_BATCH_SIZE = "16";
+
+    public static final String SIGNER_OCSP_MAX_CONCURRENT_REQUESTS =
+            PREFIX + "signer.ocsp-max-concurrent-requests";
+
+    private static final String DEFAULT_SIGNER_OCSP_MAX_CONCURRENT_REQUESTS = "4";
+
     public static final String SIGNER_MODULE_MANAGER_UPDATE_INTERVAL =
             PREFIX + "signer.module-manager-update-interval";
 
@@ -468,6 +565,14 @@ public final class SystemProperties {
     public static final String CENTER_AUTO_APPROVE_OWNER_CHANGE_REQUESTS =
             PREFIX + "center.auto-approve-owner-change-requests";
 
+    /** Property name of the number of threads verifying management request signatures and certificates. */
+    public static final String CENTER_MANAGEMENT_REQUEST_VERIFIER_THREADS =
+            PREFIX + "center.management-request-verifier-threads";
+
+    /** Property name of the maximum number of management requests verified at the same time. */
+    public static final String CENTER_MANAGEMENT_REQUEST_MAX_CONCURRENT_VERIFICATIONS =
+            PREFIX + "center.management-request-max-concurrent-verifications";
+
     // Misc -------------------------------------------------------------------
 
     /** Property name of the configuration files path. */
@@ -585,6 +690,10 @@ public final class SystemProperties {
     public static final String ENV_MONITOR_CERTIFICATE_INFO_SENSOR_INTERVAL =
             PREFIX + "env-monitor.certificate-info-sensor-interval";
 
+    /** Property name of the flag for listing processes by reading the proc file system. */
+    public static final String ENV_MONITOR_PROCFS_PROCESS_LISTING_ENABLED =
+            PREFIX + "env-monitor.procfs-process-listing-enabled";
+
     public static final String ONE_DAY_AS_SECONDS = String.valueOf(24 * 60 * 60);
 
     // Cluster node configuration ------------------------------------------ //
@@ -917,6 +1026,30 @@ public final class SystemProperties {
                 DEFAULT_SIGNER_OCSP_RETRY_DELAY));
     }
 
+    /**
+     * @return whether the signer should query the status of several certificates of the same issuer with one
+     * OCSP request, false by default
+     */
+    public static boolean isOcspBatchRequestsEnabled() {
+        return "true".equalsIgnoreCase(System.getProperty(SIGNER_OCSP_BATCH_REQUESTS_ENABLED, "false"));
+    }
+
+    /**
+     * @return the maximum number of certificates included in one batched OCSP request, 16 by default
+     */
+    public static int getOcspMaxBatchSize() {
+        return Integer.parseInt(System.getProperty(SIGNER_OCSP_MAX_BATCH_SIZE,
+                DEFAULT_SIGNER_OCSP_MAX_BATCH_SIZE));
+    }
+
+    /**
+     * @return the maximum number of OCSP requests the signer executes concurrently, 4 by default
+     */
+    public static int getOcspMaxConcurrentRequests() {
+        return Integer.parseInt(System.getProperty(SIGNER_OCSP_MAX_CONCURRENT_REQUESTS,
+                DEFAULT_SIGNER_OCSP_MAX_CONCURRENT_REQUESTS));
+    }
+
     /**
      * @return the module manager update interval in seconds that should be set for signer, 60 by default
      */
@@ -1054,6 +1187,22 @@ public final class SystemProperties {
                 DEFAULT_CENTER_AUTO_APPROVE_OWNER_CHANGE_REQUESTS));
     }
 
+    /**
+     * @return the number of threads verifying management requests, '4' by default.
+     */
+    public static int getCenterManagementRequestVerifierThreads() {
+        return Integer.parseInt(System.getProperty(CENTER_MANAGEMENT_REQUEST_VERIFIER_THREADS,
+                DEFAULT_CENTER_MANAGEMENT_REQUEST_VERIFIER_THREADS));
+    }
+
+    /**
+     * @return the maximum number of management requests verified at the same time, '16' by default.
+     */
+    public static int getCenterManagementRequestMaxConcurrentVerifications() {
+        return Integer.parseInt(System.getProperty(CENTER_MANAGEMENT_REQUEST_MAX_CONCURRENT_VERIFICATIONS,
+                DEFAULT_CENTER_MANAGEMENT_REQUEST_MAX_CONCURRENT_VERIFICATIONS));
+    }
+
     /**
      * @return the HTTP port on which the monitor agent listens for administrative commands, '5588' by default.
      */
@@ -1192,6 +1341,13 @@ public final class SystemProperties {
         return Integer.parseInt(System.getProperty(ENV_MONITOR_CERTIFICATE_INFO_SENSOR_INTERVAL, ONE_DAY_AS_SECONDS));
     }
 
+    /**
+     * @return whether the process lists are read from the proc file system instead of running ps, 'true' by default.
+     */
+    public static boolean isEnvMonitorProcFsProcessListingEnabled() {
+        return "true".equalsIgnoreCase(System.getProperty(ENV_MONITOR_PROCFS_PROCESS_LISTING_ENABLED, "true"));
+    }
+
 
     /**
      * @return path to the file containing network statistics,
@@ -1329,6 +1485,24 @@ public final class SystemProperties {
         return period < OCSP_VERIFIER_CACHE_PERIOD_MAX ? period : OCSP_VERIFIER_CACHE_PERIOD_MAX;
     }
 
+    /**
+     * @return the maximum number of verified time-stamp tokens the time-stamp
+     * verifier caches, 10000 by default
+     */
+    public static long getTimestampVerifierCacheSize() {
+        return Long.parseLong(System.getProperty(TIMESTAMP_VERIFIER_CACHE_SIZE, "10000"));
+    }
+
+    /**
+     * @return the number of threads the time-stamp verifier uses for verifying
+     * a number of time-stamp tokens at once, the number of available
+     * processors by default
+     */
+    public static int getTimestampVerifierThreads() {
+        return Integer.parseInt(System.getProperty(TIMESTAMP_VERIFIER_THREADS,
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+    }
+
     /**
      * @return serverproxy initial idle time (used until the request processing starts)
      */
@@ -1434,6 +1608,31 @@ public final class SystemProperties {
                 DEFAULT_SERVERPROXY_SUPPORT_CLIENTS_POOLED_CONNECTIONS));
     }
 
+    /**
+     * @return the lifetime of resumable TLS sessions of the server proxy connector in seconds, 600 by default
+     */
+    public static int getServerProxySslSessionTimeout() {
+        return Integer.parseInt(System.getProperty(SERVERPROXY_SSL_SESSION_TIMEOUT,
+                DEFAULT_SERVERPROXY_SSL_SESSION_TIMEOUT));
+    }
+
+    /**
+     * @return the maximum number of resumable TLS sessions of the server proxy connector, 10000 by default
+     */
+    public static int getServerProxySslSessionCacheSize() {
+        return Integer.parseInt(System.getProperty(SERVERPROXY_SSL_SESSION_CACHE_SIZE,
+                DEFAULT_SERVERPROXY_SSL_SESSION_CACHE_SIZE));
+    }
+
+    /**
+     * @return the maximum number of TLS sessions whose client certificate verification result the server proxy
+     * caches, 10000 by default
+     */
+    public static long getServerProxySslClientCertCacheSize() {
+        return Long.parseLong(System.getProperty(SERVERPROXY_SSL_CLIENT_CERT_CACHE_SIZE,
+                DEFAULT_SERVERPROXY_SSL_CLIENT_CERT_CACHE_SIZE));
+    }
+
     public static int getClientProxyPoolTotalMaxConnections() {
         return Integer.parseInt(System.getProperty(CLIENTPROXY_POOL_TOTAL_MAX_CONNECTIONS,
                 DEFAULT_CLIENTPROXY_POOL_TOTAL_MAX_CONNECTIONS));
@@ -1460,6 +1659,50 @@ public final class SystemProperties {
                 DEFAULT_CLIENTPROXY_FASTEST_CONNECTING_SSL_URI_CACHE_PERIOD));
     }
 
+    /**
+     * @return time in seconds after which the client proxy drops the OCSP responses of peer security servers it has
+     * not contacted, 3600 by default
+     */
+    public static int getClientProxyPeerOcspIdleTime() {
+        return Integer.parseInt(System.getProperty(CLIENTPROXY_PEER_OCSP_IDLE_TIME,
+                DEFAULT_CLIENTPROXY_PEER_OCSP_IDLE_TIME));
+    }
+
+    /**
+     * @return interval in seconds at which the client proxy refreshes the OCSP responses of recently contacted peer
+     * security servers, or 0 to refresh them only when connecting, 60 by default
+     */
+    public static int getClientProxyPeerOcspPrefetchInterval() {
+        return Integer.parseInt(System.getProperty(CLIENTPROXY_PEER_OCSP_PREFETCH_INTERVAL,
+                DEFAULT_CLIENTPROXY_PEER_OCSP_PREFETCH_INTERVAL));
+    }
+
+    /**
+     * @return delay in milliseconds after which the client proxy starts connecting to the next server proxy address
+     * if the previous ones have not connected yet, or 0 to connect to all addresses at once, 250 by default
+     */
+    public static int getClientProxyConnectStaggerDelay() {
+        return Integer.parseInt(System.getProperty(CLIENTPROXY_CONNECT_STAGGER_DELAY,
+                DEFAULT_CLIENTPROXY_CONNECT_STAGGER_DELAY));
+    }
+
+    /**
+     * @return time in seconds the client proxy tries a server proxy address only as a last resort after repeated
+     * connection failures, doubled on each further failure, 30 by default
+     */
+    public static int getClientProxyEndpointCircuitOpenTime() {
+        return Integer.parseInt(System.getProperty(CLIENTPROXY_ENDPOINT_CIRCUIT_OPEN_TIME,
+                DEFAULT_CLIENTPROXY_ENDPOINT_CIRCUIT_OPEN_TIME));
+    }
+
+    /**
+     * @return path of the file where the client proxy saves the latency scores of server proxy addresses, so that
+     * they survive restarts, or an empty string to keep them only in memory, empty by default
+     */
+    public static String getClientProxyEndpointScoresFile() {
+        return System.getProperty(CLIENTPROXY_ENDPOINT_SCORES_FILE, DEFAULT_CLIENTPROXY_ENDPOINT_SCORES_FILE);
+    }
+
     /**
      * @return the time in milliseconds, after which connections in a pool should be check for validity, ie.
      * after this time, check if pooled connections are still alive, don't just assume they are.
@@ -1548,6 +1791,13 @@ public final class SystemProperties {
         return Long.getLong(SERVER_CONF_ACL_CACHE_SIZE, 100_000);
     }
 
+    /**
+     * @return whether the serverconf caches are loaded before the proxy starts accepting requests, true by default
+     */
+    public static boolean isServerConfCacheWarmUpEnabled() {
+        return Boolean.parseBoolean(System.getProperty(SERVER_CONF_CACHE_WARM_UP, "true"));
+    }
+
     private static void checkVersionValidity(int version, int current, String defaultVersion) {
         if (version > current || version < 1) {
             throw new IllegalArgumentException("Illegal minimum global configuration version in system parameters");
@@ -1560,4 +1810,70 @@ public final class SystemProperties {
         return "true".equalsIgnoreCase(System.getProperty(ENFORCE_CLIENT_IS_CERT_VALIDITY_PERIOD_CHECK,
                 DEFAULT_ENFORCE_CLIENT_IS_CERT_VALIDITY_PERIOD_CHECK));
     }
+
+    /**
+     * @return whether messages are signed using the non-blocking batch signer, 'false' by default
+     */
+    public static boolean isBatchSignerAsyncEnabled() {
+        return "true".equalsIgnoreCase(System.getProperty(PROXY_BATCH_SIGNER_ASYNC_ENABLED, "false"));
+    }
+
+    /**
+     * @return the maximum number of signing requests in one signature batch, 64 by default
+     */
+    @SuppressWarnings("checkstyle:MagicNumber")
+    public static int getBatchSignerMaxBatchSize() {
+        return Integer.getInteger(PROXY_BATCH_SIGNER_MAX_BATCH_SIZE, 64);
+    }
+
+    /**
+     * @return the time in microseconds a partial signature batch waits for more requests while the token
+     * is busy, 500 by default
+     */
+    @SuppressWarnings("checkstyle:MagicNumber")
+    public static long getBatchSignerLingerMicros() {
+        return Long.getLong(PROXY_BATCH_SIGNER_LINGER_MICROS, 500);
+    }
+
+    /**
+     * @return the maximum number of signature batches per key that are sent to a token supporting batch
+     * signing before the previous ones complete, 2 by default
+     */
+    public static int getBatchSignerMaxInFlightBatches() {
+        return Integer.getInteger(PROXY_BATCH_SIGNER_MAX_IN_FLIGHT_BATCHES, 2);
+    }
+
+    /**
+     * @return whether the client proxy keeps response attachments and REST bodies in memory up to the spill
+     * threshold, spilling only larger ones to a temporary file, 'false' by default
+     */
+    public static boolean isClientResponseSpillBufferEnabled() {
+        return "true".equalsIgnoreCase(System.getProperty(PROXY_CLIENT_RESPONSE_SPILL_BUFFER_ENABLED, "false"));
+    }
+
+    /**
+     * @return the number of bytes of response attachments or REST body the client proxy keeps in memory
+     * before spilling them to a temporary file, 1048576 (1 MiB) by default
+     */
+    @SuppressWarnings("checkstyle:MagicNumber")
+    public static int getClientResponseSpillThreshold() {
+        return Integer.getInteger(PROXY_CLIENT_RESPONSE_SPILL_THRESHOLD, 1024 * 1024);
+    }
+
+    /**
+     * @return the maximum number of rewritten WSDL documents the metaservice keeps in memory, 0 disables the
+     * cache, 100 by default
+     */
+    @SuppressWarnings("checkstyle:MagicNumber")
+    public static int getMetaserviceWsdlCacheSize() {
+        return Integer.getInteger(PROXY_METASERVICE_WSDL_CACHE_SIZE, 100);
+    }
+
+    /**
+     * @return the time in seconds a cached WSDL document is served without revalidating it against the service
+     * provider, 0 (always revalidate) by default
+     */
+    public static int getMetaserviceWsdlCacheTtl() {
+        return Integer.getInteger(PROXY_METASERVICE_WSDL_CACHE_TTL, 0);
+    }
 }
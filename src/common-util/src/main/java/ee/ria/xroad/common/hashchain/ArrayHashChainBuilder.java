@@ -0,0 +1,458 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.hashchain;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static ee.ria.xroad.common.hashchain.DigestList.concatDigests;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
+import static ee.ria.xroad.common.util.CryptoUtils.getDigestAlgorithmURI;
+import static ee.ria.xroad.common.util.MessageFileNames.attachment;
+import static java.lang.Integer.numberOfLeadingZeros;
+
+/**
+ * Builds Merkle tree from a set of hashes and constructs hash chains for all
+ * the input hashes. Produces exactly the same tree and XML documents as
+ * {@link HashChainBuilder}, but is intended for large batches:
+ * - the non-leaf nodes and inputs are stored in a single flat array, so
+ *   no index translation or boxing is needed when walking the tree;
+ * - the hash chains are written directly to XML with {@link HashChainWriter}
+ *   instead of building and marshalling JAXB object graphs.
+ *
+ * Usage is the same as for HashChainBuilder: add inputs, call finishBuilding
+ * and then fetch the results.
+ */
+@Slf4j
+public final class ArrayHashChainBuilder {
+
+    private static final int INTEGER_BITS = 32;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /** Approximate size of a single hash step in the XML-encoded hash chain. */
+    private static final int HASH_STEP_XML_SIZE = 256;
+
+    private static final int ROOT_IDX = 0;
+
+    private static final String STEP = "STEP";
+
+    /** Hash algorithm used to hash tree nodes and inputs. */
+    private final String hashAlgorithm;
+
+    /** Hash algorithm URI used in XML. */
+    private final String hashAlgorithmUri;
+
+    /** Input hashes, in the order they were added. */
+    private byte[][] inputs;
+
+    private int inputCount;
+
+    /**
+     * If an input consisted of multipart (message + attachments),
+     * then this map contains all the parts.
+     */
+    private final Map<Integer, byte[][]> multiparts = new HashMap<>();
+
+    /**
+     * The tree: non-leaf nodes at indexes [0, nodesCount), followed by
+     * the inputs. Null until the tree is finished.
+     */
+    private byte[][] tree;
+
+    /** Number of non-leaf nodes in the tree. */
+    private int nodesCount;
+
+    /**
+     * Constructs a hash chain builder.
+     * @param hashAlgorithm Identifier (not URL) of the hash algorithm
+     *                      used in the hash chain. We assume that the
+     *                      input data items were created with the same
+     *                      algorithm. Example: SHA-256.
+     * @throws Exception if the hash algorithm is not supported
+     */
+    public ArrayHashChainBuilder(String hashAlgorithm) throws Exception {
+        this(hashAlgorithm, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a hash chain builder.
+     * @param hashAlgorithm Identifier (not URL) of the hash algorithm
+     *                      used in the hash chain. Example: SHA-256.
+     * @param expectedInputs expected number of inputs, used to size the
+     *                       internal storage
+     * @throws Exception if the hash algorithm is not supported
+     */
+    public ArrayHashChainBuilder(String hashAlgorithm, int expectedInputs) throws Exception {
+        this.hashAlgorithm = hashAlgorithm;
+        this.hashAlgorithmUri = getDigestAlgorithmURI(hashAlgorithm);
+        this.inputs = new byte[Math.max(1, expectedInputs)][];
+    }
+
+    /**
+     * Adds new input hash to the tree.
+     * @param hash input hash to add
+     */
+    public void addInputHash(byte[] hash) {
+        checkNotFinished();
+        addInput(hash);
+    }
+
+    /**
+     * Adds a set of input hashes to the tree.
+     * It is assumed that all the hashes come from the same message,
+     * the first one being SOAP message and the rest being attachments.
+     * @param hashes set of input hashes to add
+     * @throws Exception in case of errors
+     */
+    public void addInputHash(byte[][] hashes) throws Exception {
+        checkNotFinished();
+
+        if (hashes.length == 1) {
+            addInput(hashes[0]);
+        } else {
+            // Digest the attachments and add a single input.
+            addInput(digestHashStep(hashes));
+            // Record the original inputs in separate map.
+            multiparts.put(inputCount - 1, hashes);
+        }
+    }
+
+    /**
+     * Finalizes the tree and computes the intermediate nodes and top hash.
+     * @throws Exception in case of errors
+     */
+    public void finishBuilding() throws Exception {
+        checkNotFinished();
+
+        nodesCount = pow2(ceilingLog2(inputCount)) - 1;
+
+        tree = new byte[nodesCount + inputCount][];
+        System.arraycopy(inputs, 0, tree, nodesCount, inputCount);
+        inputs = null;
+
+        // For special cases of 0 or 1 inputs, we behave differently.
+        if (inputCount < 2) {
+            return;
+        }
+
+        // Hash the pairs of inputs and then the non-leaf levels, bottom-up.
+        // The level starting at levelStart ends at 2 * levelStart + 1 and the
+        // level starting at 1 is hashed into the root.
+        hashLevel(nodesCount, nodesCount + inputCount);
+
+        for (int levelStart = nodesCount / 2; levelStart > 0; levelStart /= 2) {
+            hashLevel(levelStart, 2 * levelStart + 1);
+        }
+
+        // If the tree is an incomplete binary tree, the nodes above the first
+        // incomplete pair of each level are still missing. Add them to take
+        // care of the "orphans".
+        fixTree(ROOT_IDX);
+    }
+
+    /**
+     * Returns the top hash of the Merkle tree, encoded as the HashChainResult
+     * XML element. This data can be signed or time-stamped.
+     * @param hashChainFileName name of the file containing the hash chain
+     * @return top hash of the Merkle tree, encoded as the HashChainResult
+     * XML element
+     * @throws Exception in case of errors
+     */
+    public String getHashChainResult(String hashChainFileName) throws Exception {
+        if (!checkHashChainsAvailable()) {
+            return null;
+        }
+
+        StringWriter out = new StringWriter(HASH_STEP_XML_SIZE);
+
+        new HashChainWriter(out).writeHashChainResult(hashChainFileName + "#" + STEP + "0",
+                hashAlgorithmUri, getTreeTop());
+
+        return out.toString();
+    }
+
+    /**
+     * Returns XML-encoded hash chain for every input data item.
+     * @param dataFileName name of the file containing data input items
+     * @return XML-encoded hash chain for every input data item
+     * @throws Exception in case of any errors
+     */
+    public String[] getHashChains(String dataFileName) throws Exception {
+        if (!checkHashChainsAvailable()) {
+            return null;
+        }
+
+        if (dataFileName == null) {
+            throw new IllegalArgumentException("dataRefFileName must not be null");
+        }
+
+        String[] ret = new String[inputCount];
+
+        if (inputCount > 1) {
+            int initialSize = (ceilingLog2(inputCount) + 2) * HASH_STEP_XML_SIZE;
+
+            for (int i = 0; i < inputCount; ++i) {
+                StringWriter out = new StringWriter(initialSize);
+                writeHashChain(i, dataFileName, new HashChainWriter(out));
+                ret[i] = out.toString();
+            }
+        } else {
+            // Special case for one input: single step for all the input parts.
+            StringWriter out = new StringWriter(HASH_STEP_XML_SIZE);
+            HashChainWriter writer = new HashChainWriter(out);
+
+            writer.startHashChain(hashAlgorithmUri);
+            writeMultipartStep(writer, multiparts.get(0), 0, dataFileName);
+            writer.endHashChain();
+
+            ret[0] = out.toString();
+        }
+
+        return ret;
+    }
+
+    /**
+     * Returns the topmost hash of the Merkle tree.
+     */
+    byte[] getTreeTop() {
+        // For single input, there are no non-leaf nodes and the
+        // input itself is at the root index.
+        return tree[ROOT_IDX];
+    }
+
+    private void checkNotFinished() {
+        if (tree != null) {
+            throw new IllegalStateException("Cannot add inputs to finished tree");
+        }
+    }
+
+    private boolean checkHashChainsAvailable() {
+        if (tree == null) {
+            throw new IllegalStateException("Tree must be finished");
+        }
+
+        if (inputCount == 0) {
+            // Nothing to do for empty tree.
+            return false;
+        }
+
+        if (inputCount == 1 && multiparts.isEmpty()) {
+            throw new IllegalStateException(
+                    "Hash chains cannot be constructed for single input without attachments.");
+        }
+
+        return true;
+    }
+
+    private void addInput(byte[] hash) {
+        if (inputCount == inputs.length) {
+            inputs = Arrays.copyOf(inputs, inputs.length * 2);
+        }
+
+        inputs[inputCount++] = hash;
+    }
+
+    /**
+     * Combines the pairs of nodes in [levelStart, levelEnd) and stores the
+     * results in their parents. Stops at the first incomplete pair, the
+     * missing nodes are created later by fixTree.
+     */
+    private void hashLevel(int levelStart, int levelEnd) throws Exception {
+        for (int i = levelStart; i + 1 < levelEnd && tree[i] != null && tree[i + 1] != null; i += 2) {
+            tree[parentIdx(i)] = digestHashStep(tree[i], tree[i + 1]);
+        }
+    }
+
+    /**
+     * For incomplete trees, the level hashing did not create the necessary
+     * intermediate nodes. This method walks the tree, discovers the missing
+     * nodes and, if necessary, creates them.
+     * @return the hash of the fixed tree node.
+     */
+    private byte[] fixTree(int nodeIdx) throws Exception {
+        if (nodeIdx >= tree.length) {
+            return null;
+        }
+
+        if (tree[nodeIdx] != null) {
+            return tree[nodeIdx];
+        }
+
+        byte[] leftValue = get(leftIdx(nodeIdx));
+
+        if (leftValue == null) {
+            // No left child, go down to the left subtree until we find something.
+            return fixTree(leftIdx(nodeIdx));
+        }
+
+        byte[] rightValue = fixTree(rightIdx(nodeIdx));
+
+        if (rightValue == null) {
+            return leftValue;
+        }
+
+        byte[] stepDigest = digestHashStep(leftValue, rightValue);
+        log.trace("Fixing: {} + {} -> {}", leftIdx(nodeIdx), rightIdx(nodeIdx), nodeIdx);
+
+        tree[nodeIdx] = stepDigest;
+
+        return stepDigest;
+    }
+
+    private byte[] get(int index) {
+        return index < tree.length ? tree[index] : null;
+    }
+
+    /**
+     * Similar to get(index), but if the data is null then goes down the tree
+     * until data is found.
+     */
+    private byte[] getDeep(int index) {
+        byte[] ret = get(index);
+
+        while (ret == null && index < tree.length) {
+            index = leftIdx(index);
+            ret = get(index);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Writes the hash chain for the n-th input data item.
+     */
+    private void writeHashChain(int itemIndex, String dataFileName, HashChainWriter writer) throws Exception {
+        writer.startHashChain(hashAlgorithmUri);
+
+        byte[][] parts = multiparts.get(itemIndex);
+
+        // Hash step count is used to generate references.
+        int stepCount = 0;
+
+        int currentNodeIdx = ROOT_IDX;
+        // Current level will be height of non-leaf part of the tree.
+        int currentLevel = ceilingLog2(inputCount) - 1;
+
+        // Walk the tree downwards from the root node.
+        while (currentNodeIdx < nodesCount) {
+            // Indicates whether we are interested in left (0) or right (1) child.
+            int myDirection = (itemIndex & (1 << currentLevel)) >> currentLevel;
+
+            int myChildIdx = childIdx(currentNodeIdx, myDirection);
+            int otherChildIdx = childIdx(currentNodeIdx, 1 - myDirection);
+
+            // Ignore the missing nodes and walk down the tree until we find some data.
+            while (get(myChildIdx) == null) {
+                myChildIdx = leftIdx(myChildIdx);
+                --currentLevel;
+            }
+
+            writer.startHashStep(STEP + stepCount);
+
+            if (myDirection == 0) {
+                writeOwnData(writer, myChildIdx, parts, stepCount, dataFileName);
+                writer.writeHashValue(getDeep(otherChildIdx));
+            } else {
+                writer.writeHashValue(getDeep(otherChildIdx));
+                writeOwnData(writer, myChildIdx, parts, stepCount, dataFileName);
+            }
+
+            writer.endHashStep();
+
+            ++stepCount;
+            currentNodeIdx = myChildIdx;
+            --currentLevel;
+        }
+
+        // If the input was a multipart, we need to add final hash
+        // step that references all the individual parts.
+        if (parts != null) {
+            writeMultipartStep(writer, parts, stepCount, dataFileName);
+        }
+
+        writer.endHashChain();
+    }
+
+    /**
+     * Leaf nodes without attachments are referenced directly, other nodes
+     * refer to the next hash step.
+     */
+    private void writeOwnData(HashChainWriter writer, int childIdx, byte[][] parts, int stepCount,
+            String dataFileName) throws Exception {
+        if (childIdx >= nodesCount && parts == null) {
+            writer.writeDataRef(dataFileName, tree[childIdx]);
+        } else {
+            writer.writeStepRef("#" + STEP + (stepCount + 1));
+        }
+    }
+
+    private static void writeMultipartStep(HashChainWriter writer, byte[][] parts, int stepCount,
+            String dataFileName) throws Exception {
+        writer.startHashStep(STEP + stepCount);
+
+        // The first input is message, all the other inputs are attachments, starting from 1.
+        writer.writeDataRef(dataFileName, parts[0]);
+
+        for (int i = 1; i < parts.length; ++i) {
+            writer.writeDataRef(attachment(i), parts[i]);
+        }
+
+        writer.endHashStep();
+    }
+
+    private byte[] digestHashStep(byte[]... items) throws Exception {
+        return calculateDigest(hashAlgorithm, concatDigests(hashAlgorithmUri, items));
+    }
+
+    private static int parentIdx(int childIdx) {
+        return (childIdx - 1) / 2;
+    }
+
+    private static int leftIdx(int parentIdx) {
+        return childIdx(parentIdx, 0);
+    }
+
+    private static int rightIdx(int parentIdx) {
+        return childIdx(parentIdx, 1);
+    }
+
+    private static int childIdx(int parentIdx, int n) {
+        return 2 * parentIdx + 1 + n;
+    }
+
+    private static int ceilingLog2(int n) {
+        return INTEGER_BITS - numberOfLeadingZeros(n - 1);
+    }
+
+    private static int pow2(int n) {
+        return 1 << n;
+    }
+}
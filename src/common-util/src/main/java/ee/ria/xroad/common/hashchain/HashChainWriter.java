@@ -0,0 +1,207 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.hashchain;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
+
+/**
+ * Streaming serializer for the HashChainResult and HashChain XML documents.
+ * The output is identical to the formatted output of the JAXB marshaller used by
+ * {@link HashChainBuilder}, but no intermediate object graph is created.
+ *
+ * A writer produces one document: either call
+ * {@link #writeHashChainResult(String, String, byte[])}, or call
+ * {@link #startHashChain(String)}, then write the hash steps and finish with
+ * {@link #endHashChain()}.
+ */
+public final class HashChainWriter {
+
+    static final String HASHCHAIN_NS = "http://cyber.ee/hashchain";
+    static final String XMLDSIG_NS = "http://www.w3.org/2000/09/xmldsig#";
+
+    private static final String PREFIX = "ns2";
+
+    private static final String XML_DECLARATION =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+
+    private static final String[] INDENTS = {"\n", "\n    ", "\n        ", "\n            "};
+
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private final Writer out;
+    private final XMLStreamWriter xml;
+
+    /**
+     * Creates a writer that writes the document to the given character stream.
+     * @param out the character stream
+     * @throws XMLStreamException if the XML writer cannot be created
+     */
+    public HashChainWriter(Writer out) throws XMLStreamException {
+        this.out = out;
+        this.xml = XML_OUTPUT_FACTORY.createXMLStreamWriter(out);
+    }
+
+    /**
+     * Writes the HashChainResult document.
+     * @param uri reference to the last hash step of the hash chain
+     * @param digestMethodUri URI of the digest algorithm
+     * @param digestValue the top hash of the Merkle tree
+     * @throws XMLStreamException if writing the XML fails
+     * @throws IOException if writing to the stream fails
+     */
+    public void writeHashChainResult(String uri, String digestMethodUri, byte[] digestValue)
+            throws XMLStreamException, IOException {
+        startDocument("HashChainResult");
+        xml.writeAttribute("URI", uri);
+        writeNamespaces();
+
+        xml.writeCharacters(INDENTS[1]);
+        xml.writeEmptyElement("", "DigestMethod", XMLDSIG_NS);
+        xml.writeAttribute("Algorithm", digestMethodUri);
+
+        writeDigestValue(1, digestValue);
+
+        endDocument();
+    }
+
+    /**
+     * Starts the HashChain document.
+     * @param defaultDigestMethodUri URI of the default digest algorithm of the hash steps
+     * @throws XMLStreamException if writing the XML fails
+     * @throws IOException if writing to the stream fails
+     */
+    public void startHashChain(String defaultDigestMethodUri) throws XMLStreamException, IOException {
+        startDocument("HashChain");
+        writeNamespaces();
+
+        xml.writeCharacters(INDENTS[1]);
+        xml.writeEmptyElement(PREFIX, "DefaultDigestMethod", HASHCHAIN_NS);
+        xml.writeAttribute("Algorithm", defaultDigestMethodUri);
+    }
+
+    /**
+     * Starts a hash step of the hash chain.
+     * @param id identifier of the hash step
+     * @throws XMLStreamException if writing the XML fails
+     */
+    public void startHashStep(String id) throws XMLStreamException {
+        xml.writeCharacters(INDENTS[1]);
+        xml.writeStartElement(PREFIX, "HashStep", HASHCHAIN_NS);
+        xml.writeAttribute("id", id);
+    }
+
+    /**
+     * Writes a hash value into the current hash step.
+     * @param digestValue the hash value
+     * @throws XMLStreamException if writing the XML fails
+     */
+    public void writeHashValue(byte[] digestValue) throws XMLStreamException {
+        xml.writeCharacters(INDENTS[2]);
+        xml.writeStartElement(PREFIX, "HashValue", HASHCHAIN_NS);
+        writeDigestValue(3, digestValue);
+        xml.writeCharacters(INDENTS[2]);
+        xml.writeEndElement();
+    }
+
+    /**
+     * Writes a reference to another hash step into the current hash step.
+     * @param uri reference to the hash step
+     * @throws XMLStreamException if writing the XML fails
+     */
+    public void writeStepRef(String uri) throws XMLStreamException {
+        xml.writeCharacters(INDENTS[2]);
+        xml.writeEmptyElement(PREFIX, "StepRef", HASHCHAIN_NS);
+        xml.writeAttribute("URI", uri);
+    }
+
+    /**
+     * Writes a reference to input data into the current hash step.
+     * @param uri reference to the data
+     * @param digestValue hash of the data
+     * @throws XMLStreamException if writing the XML fails
+     */
+    public void writeDataRef(String uri, byte[] digestValue) throws XMLStreamException {
+        xml.writeCharacters(INDENTS[2]);
+        xml.writeStartElement(PREFIX, "DataRef", HASHCHAIN_NS);
+        xml.writeAttribute("URI", uri);
+        writeDigestValue(3, digestValue);
+        xml.writeCharacters(INDENTS[2]);
+        xml.writeEndElement();
+    }
+
+    /**
+     * Ends the current hash step.
+     * @throws XMLStreamException if writing the XML fails
+     */
+    public void endHashStep() throws XMLStreamException {
+        xml.writeCharacters(INDENTS[1]);
+        xml.writeEndElement();
+    }
+
+    /**
+     * Ends the HashChain document.
+     * @throws XMLStreamException if writing the XML fails
+     * @throws IOException if writing to the stream fails
+     */
+    public void endHashChain() throws XMLStreamException, IOException {
+        endDocument();
+    }
+
+    private void startDocument(String rootElement) throws XMLStreamException, IOException {
+        // The XML stream writer cannot produce the standalone declaration written by JAXB
+        out.write(XML_DECLARATION);
+
+        xml.writeStartElement(PREFIX, rootElement, HASHCHAIN_NS);
+    }
+
+    private void writeNamespaces() throws XMLStreamException {
+        xml.writeNamespace(PREFIX, HASHCHAIN_NS);
+        xml.writeDefaultNamespace(XMLDSIG_NS);
+    }
+
+    private void writeDigestValue(int depth, byte[] digestValue) throws XMLStreamException {
+        xml.writeCharacters(INDENTS[depth]);
+        xml.writeStartElement("", "DigestValue", XMLDSIG_NS);
+        xml.writeCharacters(encodeBase64(digestValue));
+        xml.writeEndElement();
+    }
+
+    private void endDocument() throws XMLStreamException, IOException {
+        xml.writeCharacters(INDENTS[0]);
+        xml.writeEndElement();
+        xml.flush();
+
+        out.write('\n');
+        out.flush();
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.message;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the bytes of a message in chunks. The chunks grow up to
+ * {@link #MAX_CHUNK_SIZE}, so unlike a doubling buffer the unused space is
+ * bounded and buffering a large message allocates little more than the
+ * message itself. A released buffer drops its contents and ignores further
+ * writes.
+ */
+final class MessageBuffer extends OutputStream {
+
+    private static final int MIN_CHUNK_SIZE = 8 * 1024;
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+
+    private List<byte[]> chunks = new ArrayList<>();
+    private byte[] current;
+    private int currentCount;
+    private int size;
+
+    @Override
+    public void write(int b) {
+        if (chunks == null) {
+            return;
+        }
+
+        if (current == null || currentCount == current.length) {
+            addChunk();
+        }
+
+        current[currentCount++] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (chunks == null) {
+            return;
+        }
+
+        int offset = off;
+        int remaining = len;
+
+        while (remaining > 0) {
+            if (current == null || currentCount == current.length) {
+                addChunk();
+            }
+
+            int count = Math.min(remaining, current.length - currentCount);
+            System.arraycopy(b, offset, current, currentCount, count);
+
+            currentCount += count;
+            size += count;
+            offset += count;
+            remaining -= count;
+        }
+    }
+
+    /**
+     * Drops the contents of the buffer. Bytes written after this are ignored.
+     */
+    void release() {
+        chunks = null;
+        current = null;
+        currentCount = 0;
+        size = 0;
+    }
+
+    /**
+     * @return true if the buffer has been released
+     */
+    boolean isReleased() {
+        return chunks == null;
+    }
+
+    /**
+     * @return the contents of the buffer as a new array
+     */
+    byte[] toByteArray() {
+        byte[] result = new byte[size];
+
+        if (chunks != null) {
+            int pos = 0;
+
+            for (byte[] chunk : chunks) {
+                int count = Math.min(chunk.length, size - pos);
+                System.arraycopy(chunk, 0, result, pos, count);
+                pos += count;
+            }
+        }
+
+        return result;
+    }
+
+    private void addChunk() {
+        int chunkSize = current == null ? MIN_CHUNK_SIZE : Math.min(current.length * 2, MAX_CHUNK_SIZE);
+
+        current = new byte[chunkSize];
+        currentCount = 0;
+        chunks.add(current);
+    }
+}
@@ -55,7 +55,6 @@ import javax.xml.parsers.SAXParserFactory;
 import javax.xml.soap.SOAPException;
 
 import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
@@ -194,27 +193,35 @@ public class SaxSoapParserImpl implements SoapParser {
     private Soap parseMessage(InputStream is, String mimeType, String contentType, String charset) throws Exception {
         log.trace("parseMessage({}, {})", mimeType, charset);
 
-        ByteArrayOutputStream rawXml = new ByteArrayOutputStream();
-        ByteArrayOutputStream processedXml = new ByteArrayOutputStream();
+        // Once the header has been parsed, only the buffer that is used keeps the
+        // rest of the message, so the message is buffered once besides getBytes()
+        MessageBuffer rawXml = new MessageBuffer();
+        MessageBuffer processedXml = new MessageBuffer();
 
         InputStream proxyStream = excludeUtf8Bom(contentType, new TeeInputStream(is, rawXml));
         Writer outputWriter = new OutputStreamWriter(processedXml, charset);
-        XRoadSoapHandler handler = handleSoap(outputWriter, proxyStream);
+        XRoadSoapHandler handler = handleSoap(outputWriter, proxyStream, rawXml, processedXml);
 
         CodedException fault = handler.getFault();
         if (fault != null) {
-            return createSoapFault(charset, rawXml, fault);
+            return createSoapFault(charset, selectXml(false, rawXml, processedXml), fault);
         }
 
-        byte[] xmlBytes = isProcessedXmlRequired() ? processedXml.toByteArray() : rawXml.toByteArray();
+        byte[] xmlBytes = selectXml(isProcessedXmlRequired(), rawXml, processedXml);
 
         return createSoapMessage(contentType, charset, handler, xmlBytes);
     }
 
-    private XRoadSoapHandler handleSoap(Writer writer, InputStream inputStream)
-            throws Exception {
+    private static byte[] selectXml(boolean processed, MessageBuffer rawXml, MessageBuffer processedXml) {
+        boolean useProcessed = processed ? !processedXml.isReleased() : rawXml.isReleased();
+
+        return useProcessed ? processedXml.toByteArray() : rawXml.toByteArray();
+    }
+
+    private XRoadSoapHandler handleSoap(Writer writer, InputStream inputStream, MessageBuffer rawXml,
+            MessageBuffer processedXml) throws Exception {
         try (BufferedWriter out = new BufferedWriter(writer)) {
-            XRoadSoapHandler handler = new XRoadSoapHandler(out);
+            XRoadSoapHandler handler = new XRoadSoapHandler(out, rawXml, processedXml);
             SAXParser saxParser = PARSER_FACTORY.newSAXParser();
             XMLReader xmlReader = saxParser.getXMLReader();
             xmlReader.setProperty(LEXICAL_HANDLER_PROPERTY, handler);
@@ -231,15 +238,19 @@ public class SaxSoapParserImpl implements SoapParser {
 
     private static Soap createSoapMessage(String contentType, String charset,
             XRoadSoapHandler handler, byte[] xmlBytes) throws Exception {
+        // Header and body can be located in the message bytes only for ASCII compatible encoding
+        SoapElementLocator elementLocator = UTF8.equalsIgnoreCase(charset) && handler.getBodyQName() != null
+                ? new SoapElementLocator(handler.getHeaderQName(), handler.getBodyQName()) : null;
+
         return new SoapMessageImpl(xmlBytes, charset, handler.getHeader(),
-                null, handler.getServiceName(), handler.isRpc(), contentType);
+                null, handler.getServiceName(), handler.isRpc(), contentType, elementLocator);
     }
 
     private static Soap createSoapFault(String charset,
-            ByteArrayOutputStream rawXml, CodedException fault) {
+            byte[] xmlBytes, CodedException fault) {
         return new SoapFault(fault.getFaultCode(), fault.getFaultString(),
                 fault.getFaultActor(), fault.getFaultDetail(),
-                rawXml.toByteArray(), charset);
+                xmlBytes, charset);
     }
 
     @SneakyThrows
@@ -307,6 +318,10 @@ public class SaxSoapParserImpl implements SoapParser {
 
         private final BufferedWriter out;
 
+        private final MessageBuffer rawXml;
+
+        private final MessageBuffer processedXml;
+
         private char[] xmlEntity;
 
         private Stack<XmlElementHandler> elementHandlers = new Stack<>();
@@ -316,6 +331,12 @@ public class SaxSoapParserImpl implements SoapParser {
         @Getter
         private SoapHeader header;
 
+        @Getter
+        private String headerQName;
+
+        @Getter
+        private String bodyQName;
+
         public String getServiceName() {
             return envelopeHandler != null ? envelopeHandler.getServiceName() : null;
         }
@@ -332,6 +353,8 @@ public class SaxSoapParserImpl implements SoapParser {
             envelopeHandler = null;
 
             header = new SoapHeader();
+            headerQName = null;
+            bodyQName = null;
 
             elementHandlers.clear();
         }
@@ -353,6 +376,10 @@ public class SaxSoapParserImpl implements SoapParser {
             if (elementHandlers.isEmpty()) {
                 handleRootElement(attributes, element);
             } else {
+                if (elementHandlers.size() == 1) {
+                    recordEnvelopeChild(element, qName);
+                }
+
                 handleElement(attributes, element);
             }
 
@@ -362,6 +389,14 @@ public class SaxSoapParserImpl implements SoapParser {
             }
         }
 
+        private void recordEnvelopeChild(QName element, String qName) {
+            if (headerQName == null && element.equals(QNAME_SOAP_HEADER)) {
+                headerQName = qName;
+            } else if (bodyQName == null && element.equals(QNAME_SOAP_BODY)) {
+                bodyQName = qName;
+            }
+        }
+
         private void handleElement(Attributes attributes, QName element) {
             XmlElementHandler elementHandler = elementHandlers.peek().getChildElementHandler(element);
             elementHandler.setAttributes(attributes);
@@ -436,11 +471,17 @@ public class SaxSoapParserImpl implements SoapParser {
             elementHandler.valueInternal();
             elementHandler.closeTag();
 
+            QName element = new QName(uri, localName);
+
             if (isProcessedXmlRequired()) {
-                QName element = new QName(uri, localName);
                 String prefix = findNamespacePrefix(qName);
                 writeEndElementXml(prefix, element, attributes, out);
             }
+
+            // The header decides whether the processed XML is used, release the other buffer
+            if (elementHandlers.size() == 1 && element.equals(QNAME_SOAP_HEADER)) {
+                (isProcessedXmlRequired() ? rawXml : processedXml).release();
+            }
         }
 
         @Override
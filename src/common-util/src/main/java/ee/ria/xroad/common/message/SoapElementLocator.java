@@ -0,0 +1,204 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.message;
+
+import ee.ria.xroad.common.util.ByteSlice;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Locates the SOAP header and body elements in the bytes of an already
+ * parsed SOAP message. SAX does not report byte offsets, so the offsets are
+ * found by a lightweight scan over the markup that skips comments, CDATA
+ * sections, processing instructions and attribute values. The scan assumes
+ * an ASCII-compatible encoding and well-formed XML, both of which are checked
+ * before the locator is used.
+ */
+final class SoapElementLocator {
+
+    private static final int ENVELOPE_CHILD_DEPTH = 1;
+
+    private final byte[] headerName;
+    private final byte[] bodyName;
+
+    private int headerStart = -1;
+    private int headerEnd = -1;
+    private int bodyStart = -1;
+    private int bodyEnd = -1;
+
+    /**
+     * @param headerQName qualified name of the SOAP header element, null if the message has no header
+     * @param bodyQName qualified name of the SOAP body element
+     */
+    SoapElementLocator(String headerQName, String bodyQName) {
+        this.headerName = headerQName != null ? headerQName.getBytes(StandardCharsets.UTF_8) : null;
+        this.bodyName = bodyQName.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Scans the message and returns the header and body elements, including
+     * their start and end tags.
+     * @param xml the message bytes
+     * @return array of two slices: the header (null if missing) and the body (null if not found)
+     */
+    ByteSlice[] locate(ByteSlice xml) {
+        int depth = 0;
+        int pos = 0;
+
+        while (bodyEnd < 0) {
+            int tagStart = indexOf(xml, '<', pos);
+
+            if (tagStart < 0) {
+                break;
+            }
+
+            if (startsWith(xml, tagStart, "<!--")) {
+                pos = skipPast(xml, tagStart, "-->");
+            } else if (startsWith(xml, tagStart, "<![CDATA[")) {
+                pos = skipPast(xml, tagStart, "]]>");
+            } else if (startsWith(xml, tagStart, "<?")) {
+                pos = skipPast(xml, tagStart, "?>");
+            } else if (startsWith(xml, tagStart, "</")) {
+                pos = skipPast(xml, tagStart, ">");
+                depth--;
+
+                if (depth == ENVELOPE_CHILD_DEPTH) {
+                    onEndTag(xml, tagStart + 2, pos);
+                }
+            } else {
+                pos = skipTag(xml, tagStart + 1);
+                boolean empty = xml.get(pos - 2) == '/';
+
+                if (depth == ENVELOPE_CHILD_DEPTH) {
+                    onStartTag(xml, tagStart, pos, empty);
+                }
+
+                if (!empty) {
+                    depth++;
+                }
+            }
+        }
+
+        return new ByteSlice[] {
+            headerEnd >= 0 ? xml.slice(headerStart, headerEnd) : null,
+            bodyEnd >= 0 ? xml.slice(bodyStart, bodyEnd) : null
+        };
+    }
+
+    private void onStartTag(ByteSlice xml, int tagStart, int tagEnd, boolean empty) {
+        if (bodyStart < 0 && isName(xml, tagStart + 1, bodyName)) {
+            bodyStart = tagStart;
+            bodyEnd = empty ? tagEnd : -1;
+        } else if (headerStart < 0 && headerName != null && isName(xml, tagStart + 1, headerName)) {
+            headerStart = tagStart;
+            headerEnd = empty ? tagEnd : -1;
+        }
+    }
+
+    private void onEndTag(ByteSlice xml, int nameStart, int tagEnd) {
+        if (bodyStart >= 0 && isName(xml, nameStart, bodyName)) {
+            bodyEnd = tagEnd;
+        } else if (headerStart >= 0 && headerEnd < 0 && isName(xml, nameStart, headerName)) {
+            headerEnd = tagEnd;
+        }
+    }
+
+    /**
+     * Returns the position after the start tag beginning at pos, taking
+     * quoted attribute values into account.
+     */
+    private static int skipTag(ByteSlice xml, int pos) {
+        byte quote = 0;
+
+        for (int i = pos; i < xml.length(); i++) {
+            byte b = xml.get(i);
+
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i + 1;
+            }
+        }
+
+        throw new IllegalArgumentException("Unterminated start tag");
+    }
+
+    private static boolean isName(ByteSlice xml, int pos, byte[] name) {
+        int end = pos + name.length;
+
+        if (end >= xml.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < name.length; i++) {
+            if (xml.get(pos + i) != name[i]) {
+                return false;
+            }
+        }
+
+        byte next = xml.get(end);
+
+        return next == '>' || next == '/' || next == ' ' || next == '\t' || next == '\r' || next == '\n';
+    }
+
+    private static boolean startsWith(ByteSlice xml, int pos, String prefix) {
+        if (pos + prefix.length() > xml.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (xml.get(pos + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int skipPast(ByteSlice xml, int pos, String terminator) {
+        for (int i = pos; i <= xml.length() - terminator.length(); i++) {
+            if (startsWith(xml, i, terminator)) {
+                return i + terminator.length();
+            }
+        }
+
+        throw new IllegalArgumentException("Missing " + terminator);
+    }
+
+    private static int indexOf(ByteSlice xml, char c, int from) {
+        for (int i = from; i < xml.length(); i++) {
+            if (xml.get(i) == c) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
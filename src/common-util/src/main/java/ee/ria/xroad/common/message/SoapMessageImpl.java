@@ -29,11 +29,15 @@ import ee.ria.xroad.common.identifier.CentralServiceId;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
 import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.util.ByteSlice;
 
 import lombok.SneakyThrows;
 
 import javax.xml.soap.SOAPMessage;
 
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+
 import static ee.ria.xroad.common.message.SoapUtils.isResponseMessage;
 import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
 
@@ -44,11 +48,65 @@ public class SoapMessageImpl extends AbstractSoapMessage<SoapHeader> {
 
     private byte[] hash;
 
+    private final SoapElementLocator elementLocator;
+
+    private ByteSlice[] elementSlices;
+
     SoapMessageImpl(byte[] rawXml, String charset, SoapHeader header,
             SOAPMessage soap, String serviceName, boolean isRpcEncoded,
             String originalContentType) throws Exception {
+        this(rawXml, charset, header, soap, serviceName, isRpcEncoded,
+                originalContentType, null);
+    }
+
+    SoapMessageImpl(byte[] rawXml, String charset, SoapHeader header,
+            SOAPMessage soap, String serviceName, boolean isRpcEncoded,
+            String originalContentType, SoapElementLocator elementLocator)
+            throws Exception {
         super(rawXml, charset, header, soap, isResponseMessage(serviceName),
                 isRpcEncoded, originalContentType);
+
+        this.elementLocator = elementLocator;
+    }
+
+    /**
+     * Returns the SOAP header element of the message as a slice of the
+     * message bytes. The slice shares the array returned by getBytes().
+     * @return the SOAP header element, or null if the location of the
+     * header is not known
+     */
+    public ByteSlice getHeaderSlice() {
+        ByteSlice[] slices = getElementSlices();
+        return slices != null ? slices[0] : null;
+    }
+
+    /**
+     * Returns the SOAP body element of the message as a slice of the
+     * message bytes. The slice shares the array returned by getBytes().
+     * @return the SOAP body element, or null if the location of the
+     * body is not known
+     */
+    public ByteSlice getBodySlice() {
+        ByteSlice[] slices = getElementSlices();
+        return slices != null ? slices[1] : null;
+    }
+
+    /**
+     * Returns the XML of the message for logging. Only the SOAP header is
+     * returned if its location is known, so that a large body is not decoded.
+     * @return the SOAP header element, or the whole message
+     * @throws UnsupportedEncodingException if the charset is not supported
+     */
+    public String getLoggableXml() throws UnsupportedEncodingException {
+        ByteSlice header = getHeaderSlice();
+        return header != null ? header.toString(StandardCharsets.UTF_8) : getXml();
+    }
+
+    private ByteSlice[] getElementSlices() {
+        if (elementSlices == null && elementLocator != null) {
+            elementSlices = elementLocator.locate(ByteSlice.wrap(getBytes()));
+        }
+        return elementSlices;
     }
 
     /**
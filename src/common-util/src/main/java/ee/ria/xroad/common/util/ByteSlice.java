@@ -0,0 +1,145 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Read-only view of a region of a byte array. Slices share the underlying
+ * array, so creating a slice or reading it as a stream does not copy the data.
+ * Callers must not modify the underlying array while the slices are in use.
+ */
+public final class ByteSlice {
+
+    private final byte[] array;
+    private final int offset;
+    private final int length;
+
+    private ByteSlice(byte[] array, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > array.length) {
+            throw new IndexOutOfBoundsException(
+                    String.format("Slice [%d, %d) is out of bounds [0, %d)", offset, offset + length, array.length));
+        }
+
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Creates a slice covering the whole array.
+     * @param array the array
+     * @return the slice
+     */
+    public static ByteSlice wrap(byte[] array) {
+        return new ByteSlice(array, 0, array.length);
+    }
+
+    /**
+     * Creates a slice covering the given region of the array.
+     * @param array the array
+     * @param offset start of the region
+     * @param length length of the region
+     * @return the slice
+     */
+    public static ByteSlice wrap(byte[] array, int offset, int length) {
+        return new ByteSlice(array, offset, length);
+    }
+
+    /**
+     * Creates a sub-slice of this slice, sharing the underlying array.
+     * @param from start of the sub-slice, relative to this slice
+     * @param to end (exclusive) of the sub-slice, relative to this slice
+     * @return the sub-slice
+     */
+    public ByteSlice slice(int from, int to) {
+        if (from < 0 || to < from || to > length) {
+            throw new IndexOutOfBoundsException(
+                    String.format("Slice [%d, %d) is out of bounds [0, %d)", from, to, length));
+        }
+
+        return new ByteSlice(array, offset + from, to - from);
+    }
+
+    /**
+     * @return length of the slice in bytes
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns the byte at the given index.
+     * @param index index relative to the start of the slice
+     * @return the byte
+     */
+    public byte get(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(String.format("Index %d is out of bounds [0, %d)", index, length));
+        }
+
+        return array[offset + index];
+    }
+
+    /**
+     * @return input stream reading the contents of the slice
+     */
+    public InputStream newInputStream() {
+        return new ByteArrayInputStream(array, offset, length);
+    }
+
+    /**
+     * Writes the contents of the slice to the output stream.
+     * @param out the output stream
+     * @throws IOException if writing fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(array, offset, length);
+    }
+
+    /**
+     * Returns a copy of the contents of the slice, so that the underlying
+     * array cannot be modified through the result.
+     * @return the contents of the slice
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(array, offset, offset + length);
+    }
+
+    /**
+     * Decodes the contents of the slice.
+     * @param charset the charset
+     * @return the decoded string
+     */
+    public String toString(Charset charset) {
+        return new String(array, offset, length, charset);
+    }
+}
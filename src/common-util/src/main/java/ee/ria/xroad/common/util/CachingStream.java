@@ -30,6 +30,7 @@ import ee.ria.xroad.common.ErrorCodes;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.ByteArrayInputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.nio.channels.Channels;
@@ -37,12 +38,22 @@ import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 /**
- * Caches stuff in a temporary file.
+ * Caches stuff in a temporary file. Optionally, the first bytes are kept in
+ * memory and the temporary file is created only when the cached data does not
+ * fit into the memory buffer.
  */
 @Slf4j
 public class CachingStream extends FilterOutputStream {
+    private static final int INITIAL_MEMORY_BUFFER_SIZE = 8192;
+
+    private final int memoryLimit;
+
+    private byte[] memory;
+    private int memoryCount;
+
     private SeekableByteChannel channel;
     private Path tempFile;
 
@@ -55,14 +66,22 @@ public class CachingStream extends FilterOutputStream {
         // Construct the parent class with null stream and replace it later.
         super(null);
 
-        tempFile = DefaultFilepaths.createTempFile("tmpattach", null);
-        channel = Files.newByteChannel(tempFile, StandardOpenOption.CREATE,
-                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING,
-                StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+        this.memoryLimit = 0;
 
-        // Now that we are set up, we can set the output stream in the
-        // parent class.
-        out = Channels.newOutputStream(channel);
+        spill();
+    }
+
+    /**
+     * Constructs a new caching stream that keeps up to memoryLimit bytes in
+     * memory and spills the data to a temporary file if more is written.
+     *
+     * @param memoryLimit maximum number of bytes kept in memory
+     */
+    public CachingStream(int memoryLimit) {
+        super(null);
+
+        this.memoryLimit = memoryLimit;
+        this.memory = new byte[Math.min(memoryLimit, INITIAL_MEMORY_BUFFER_SIZE)];
     }
 
     @Override
@@ -71,18 +90,78 @@ public class CachingStream extends FilterOutputStream {
         flush();
     }
 
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
+        if (out == null) {
+            if (memoryCount + len <= memoryLimit) {
+                writeToMemory(b, off, len);
+                return;
+            }
+
+            spill();
+        }
+
         // prevent FilterOutputStream from writing inefficiently
         out.write(b, off, len);
     }
 
+    /**
+     * @return true if the cached data has been written to a temporary file
+     */
+    public boolean isSpilled() {
+        return channel != null;
+    }
+
+    private void writeToMemory(byte[] b, int off, int len) {
+        if (memoryCount + len > memory.length) {
+            int newSize = Math.max(memoryCount + len, Math.min(memory.length * 2, memoryLimit));
+            memory = Arrays.copyOf(memory, newSize);
+        }
+
+        System.arraycopy(b, off, memory, memoryCount, len);
+        memoryCount += len;
+    }
+
+    private void spill() throws IOException {
+        tempFile = DefaultFilepaths.createTempFile("tmpattach", null);
+        channel = Files.newByteChannel(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+
+        // Now that we are set up, we can set the output stream in the
+        // parent class.
+        out = Channels.newOutputStream(channel);
+
+        if (memoryCount > 0) {
+            out.write(memory, 0, memoryCount);
+        }
+
+        memory = null;
+        memoryCount = 0;
+    }
+
     /**
      * @return input stream that contains the encoded attachment contents.
      * The returned stream does not support mark, and closing the stream has no effect.
      * @see #consume() to free resources used by the cache.
      */
     public CacheInputStream getCachedContents() {
+        if (channel == null) {
+            return new CacheInputStream(new ByteArrayInputStream(memory, 0, memoryCount), memoryCount);
+        }
+
         try {
             return new CacheInputStream(channel);
         } catch (IOException ex) { // the position shouldn't really throw
@@ -94,6 +173,12 @@ public class CachingStream extends FilterOutputStream {
      * Finalize caching stream. Use to avoid file handle leaks.
      */
     public void consume() {
+        memory = null;
+
+        if (channel == null) {
+            return;
+        }
+
         try {
             channel.close();
         } catch (IOException e) {
@@ -0,0 +1,91 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.util;
+
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
+
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
+
+/**
+ * OCSP response utility methods.
+ */
+public final class OcspResponseUtils {
+
+    private OcspResponseUtils() {
+    }
+
+    /**
+     * Finds the single response for the given certificate. A response to a
+     * batched OCSP request contains one single response per requested
+     * certificate, so the first single response is not necessarily the one
+     * for the certificate. The single response is matched by the serial
+     * number and the issuer name hash of the certificate, so the issuer
+     * certificate is not needed.
+     * @param response the OCSP response
+     * @param subject the certificate
+     * @return the matching single response or null if the response does not
+     * apply to the certificate
+     * @throws Exception if the response cannot be parsed
+     */
+    public static SingleResp getSingleResp(OCSPResp response,
+            X509Certificate subject) throws Exception {
+        return getSingleResp((BasicOCSPResp) response.getResponseObject(),
+                subject);
+    }
+
+    /**
+     * Finds the single response for the given certificate.
+     * @param basicResp the basic OCSP response
+     * @param subject the certificate
+     * @return the matching single response or null if the response does not
+     * apply to the certificate
+     * @throws Exception if the issuer name hash cannot be calculated
+     * @see #getSingleResp(OCSPResp, X509Certificate)
+     */
+    public static SingleResp getSingleResp(BasicOCSPResp basicResp,
+            X509Certificate subject) throws Exception {
+        byte[] issuerName = subject.getIssuerX500Principal().getEncoded();
+
+        for (SingleResp singleResp : basicResp.getResponses()) {
+            CertificateID certId = singleResp.getCertID();
+
+            if (certId.getSerialNumber().equals(subject.getSerialNumber())
+                    && Arrays.equals(certId.getIssuerNameHash(), calculateDigest(
+                            new AlgorithmIdentifier(certId.getHashAlgOID()), issuerName))) {
+                return singleResp;
+            }
+        }
+
+        return null;
+    }
+}
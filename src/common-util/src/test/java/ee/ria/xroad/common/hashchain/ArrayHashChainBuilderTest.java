@@ -0,0 +1,208 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.hashchain;
+
+import org.junit.Test;
+
+import javax.xml.crypto.dsig.DigestMethod;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static ee.ria.xroad.common.util.CryptoUtils.SHA256_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA512_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
+import static ee.ria.xroad.common.util.MessageFileNames.MESSAGE;
+import static ee.ria.xroad.common.util.MessageFileNames.SIG_HASH_CHAIN;
+import static ee.ria.xroad.common.util.MessageFileNames.attachment;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests to verify that the array-backed hash chain builder produces the same
+ * output as {@link HashChainBuilder}.
+ */
+public class ArrayHashChainBuilderTest {
+
+    private final Random random = new Random(0);
+
+    /**
+     * Test to ensure the tree top, hash chain result and hash chains are
+     * identical to those of HashChainBuilder for varying input sizes.
+     * @throws Exception in case of unexpected errors
+     */
+    @Test
+    public void sameOutputAsHashChainBuilder() throws Exception {
+        for (int treeSize = 2; treeSize < 353; ++treeSize) {
+            assertSameOutput(SHA256_ID, createInputs(treeSize, false));
+        }
+
+        assertSameOutput(SHA256_ID, createInputs(1023, false));
+        assertSameOutput(SHA256_ID, createInputs(1025, false));
+    }
+
+    /**
+     * Test to ensure that inputs with attachments produce output identical
+     * to that of HashChainBuilder.
+     * @throws Exception in case of unexpected errors
+     */
+    @Test
+    public void sameOutputWithAttachments() throws Exception {
+        for (int treeSize = 1; treeSize < 70; ++treeSize) {
+            assertSameOutput(SHA256_ID, createInputs(treeSize, true));
+        }
+
+        assertSameOutput(SHA512_ID, createInputs(17, true));
+    }
+
+    /**
+     * Test to ensure that every hash chain verifies against the hash chain result.
+     * @throws Exception in case of unexpected errors
+     */
+    @Test
+    public void hashChainsVerify() throws Exception {
+        for (int treeSize = 1; treeSize < 40; ++treeSize) {
+            byte[][][] inputs = createInputs(treeSize, true);
+
+            ArrayHashChainBuilder builder = new ArrayHashChainBuilder(SHA256_ID);
+
+            for (byte[][] input : inputs) {
+                builder.addInputHash(input);
+            }
+
+            builder.finishBuilding();
+
+            String hashChainResult = builder.getHashChainResult(SIG_HASH_CHAIN);
+            String[] hashChains = builder.getHashChains(MESSAGE);
+
+            for (int i = 0; i < inputs.length; ++i) {
+                Map<String, DigestValue> verifierInputs = new HashMap<>();
+                verifierInputs.put(MESSAGE, new DigestValue(DigestMethod.SHA256, inputs[i][0]));
+
+                for (int j = 1; j < inputs[i].length; ++j) {
+                    verifierInputs.put(attachment(j), new DigestValue(DigestMethod.SHA256, inputs[i][j]));
+                }
+
+                HashChainVerifier.verify(toStream(hashChainResult), new Resolver(hashChains[i]), verifierInputs);
+            }
+        }
+    }
+
+    /**
+     * Test that ensures a hash chain without input is correct.
+     * @throws Exception in case of unexpected errors
+     */
+    @Test
+    public void noInputs() throws Exception {
+        ArrayHashChainBuilder builder = new ArrayHashChainBuilder(SHA256_ID);
+        builder.finishBuilding();
+
+        assertNull(builder.getHashChainResult("foo"));
+        assertNull(builder.getHashChains("bar"));
+    }
+
+    /**
+     * Test that ensures inputs cannot be added to a finished tree.
+     * @throws Exception in case of unexpected errors
+     */
+    @Test(expected = IllegalStateException.class)
+    public void addToFinishedTree() throws Exception {
+        ArrayHashChainBuilder builder = new ArrayHashChainBuilder(SHA256_ID);
+        builder.addInputHash(new byte[] {(byte) 1});
+        builder.finishBuilding();
+
+        builder.addInputHash(new byte[] {(byte) 2});
+    }
+
+    private static void assertSameOutput(String hashAlgorithm, byte[][][] inputs) throws Exception {
+        HashChainBuilder expected = new HashChainBuilder(hashAlgorithm);
+        ArrayHashChainBuilder actual = new ArrayHashChainBuilder(hashAlgorithm, 1);
+
+        for (byte[][] input : inputs) {
+            expected.addInputHash(input);
+            actual.addInputHash(input);
+        }
+
+        expected.finishBuilding();
+        actual.finishBuilding();
+
+        String message = "size = " + inputs.length;
+
+        assertArrayEquals(message, expected.getTreeTop(), actual.getTreeTop());
+        assertEquals(message, expected.getHashChainResult(SIG_HASH_CHAIN),
+                actual.getHashChainResult(SIG_HASH_CHAIN));
+        assertArrayEquals(message, expected.getHashChains(MESSAGE), actual.getHashChains(MESSAGE));
+    }
+
+    private byte[][][] createInputs(int count, boolean withAttachments) throws Exception {
+        byte[][][] inputs = new byte[count][][];
+
+        for (int i = 0; i < count; ++i) {
+            // Every third input has attachments
+            int parts = withAttachments && i % 3 == 0 ? 2 + random.nextInt(3) : 1;
+
+            inputs[i] = new byte[parts][];
+
+            for (int j = 0; j < parts; ++j) {
+                inputs[i][j] = calculateDigest(SHA256_ID,
+                        (i + "/" + j).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        return inputs;
+    }
+
+    private static InputStream toStream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Resolves the hash chain document, the data references are verified
+     * against the inputs.
+     */
+    private static final class Resolver implements HashChainReferenceResolver {
+        private final String hashChain;
+
+        Resolver(String hashChain) {
+            this.hashChain = hashChain;
+        }
+
+        @Override
+        public InputStream resolve(String uri) {
+            return SIG_HASH_CHAIN.equals(uri) ? toStream(hashChain) : null;
+        }
+
+        @Override
+        public boolean shouldResolve(String uri, byte[] digestValue) {
+            return SIG_HASH_CHAIN.equals(uri);
+        }
+    }
+}
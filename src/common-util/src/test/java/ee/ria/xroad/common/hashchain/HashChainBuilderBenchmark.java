@@ -0,0 +1,131 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.hashchain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.common.util.CryptoUtils.SHA256_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
+import static ee.ria.xroad.common.util.MessageFileNames.MESSAGE;
+import static ee.ria.xroad.common.util.MessageFileNames.SIG_HASH_CHAIN;
+
+/**
+ * Compares the JAXB-based {@link HashChainBuilder} with the array-backed
+ * {@link ArrayHashChainBuilder} for varying batch sizes. Builds the tree and
+ * serializes the hash chain result and all the hash chains.
+ *
+ * Run with: gradle :common-util:runHashChainBuilderBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashChainBuilderBenchmark {
+
+    @Param({"16", "256", "1024", "4096"})
+    private int batchSize;
+
+    private byte[][] inputs;
+
+    /**
+     * Creates the input hashes.
+     * @throws Exception in case of errors
+     */
+    @Setup
+    public void setup() throws Exception {
+        inputs = new byte[batchSize][];
+
+        for (int i = 0; i < batchSize; ++i) {
+            inputs[i] = calculateDigest(SHA256_ID, String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Builds the hash chains with the JAXB-based builder.
+     * @return the hash chains
+     * @throws Exception in case of errors
+     */
+    @Benchmark
+    public String[] jaxbBuilder() throws Exception {
+        HashChainBuilder builder = new HashChainBuilder(SHA256_ID);
+
+        for (byte[] input : inputs) {
+            builder.addInputHash(input);
+        }
+
+        builder.finishBuilding();
+        builder.getHashChainResult(SIG_HASH_CHAIN);
+
+        return builder.getHashChains(MESSAGE);
+    }
+
+    /**
+     * Builds the hash chains with the array-backed builder.
+     * @return the hash chains
+     * @throws Exception in case of errors
+     */
+    @Benchmark
+    public String[] arrayBuilder() throws Exception {
+        ArrayHashChainBuilder builder = new ArrayHashChainBuilder(SHA256_ID, inputs.length);
+
+        for (byte[] input : inputs) {
+            builder.addInputHash(input);
+        }
+
+        builder.finishBuilding();
+        builder.getHashChainResult(SIG_HASH_CHAIN);
+
+        return builder.getHashChains(MESSAGE);
+    }
+
+    /**
+     * Runs the benchmark.
+     * @param args command line arguments, not used
+     * @throws Exception in case of errors
+     */
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(HashChainBuilderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.message;
+
+import ee.ria.xroad.common.util.ByteSlice;
+import ee.ria.xroad.common.util.MimeTypes;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static ee.ria.xroad.common.message.SoapMessageTestUtil.QUERY_DIR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests the SAX based SOAP parser's shared message buffer and the header and
+ * body slices.
+ */
+public class SaxSoapParserImplTest {
+
+    private static final int MB = 1024 * 1024;
+
+    private static final String ENVELOPE_START = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+            + "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\"\n"
+            + "        xmlns:xroad=\"http://x-road.eu/xsd/xroad.xsd\"\n"
+            + "        xmlns:id=\"http://x-road.eu/xsd/identifiers\">\n";
+
+    private static final String HEADER = "<SOAP-ENV:Header>\n"
+            + "<xroad:client id:objectType=\"MEMBER\">\n"
+            + "<id:xRoadInstance>EE</id:xRoadInstance>\n"
+            + "<id:memberClass>BUSINESS</id:memberClass>\n"
+            + "<id:memberCode>consumer</id:memberCode>\n"
+            + "</xroad:client>\n"
+            + "<xroad:service id:objectType=\"SERVICE\">\n"
+            + "<id:xRoadInstance>EE</id:xRoadInstance>\n"
+            + "<id:memberClass>BUSINESS</id:memberClass>\n"
+            + "<id:memberCode>producer</id:memberCode>\n"
+            + "<id:serviceCode>testQuery</id:serviceCode>\n"
+            + "</xroad:service>\n"
+            + "<xroad:id>1234567890</xroad:id>\n"
+            + "<xroad:protocolVersion>4.0</xroad:protocolVersion>\n"
+            + "</SOAP-ENV:Header>";
+
+    private static final String BODY_START = "<SOAP-ENV:Body>\n"
+            + "<ns1:testQuery xmlns:ns1=\"http://consumer.x-road.ee\">\n";
+    private static final String BODY_END = "</ns1:testQuery>\n</SOAP-ENV:Body>";
+    private static final String ENVELOPE_END = "\n</SOAP-ENV:Envelope>\n";
+
+    /**
+     * Test that the header and body slices cover exactly the header and body elements.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void headerAndBodySlices() throws Exception {
+        SoapMessageImpl message;
+
+        try (FileInputStream in = new FileInputStream(QUERY_DIR + "simple.query")) {
+            message = parse(in);
+        }
+
+        String xml = message.getXml();
+
+        assertSlice(xml, "<SOAP-ENV:Header>", "</SOAP-ENV:Header>", message.getHeaderSlice());
+        assertSlice(xml, "<SOAP-ENV:Body>", "</SOAP-ENV:Body>", message.getBodySlice());
+    }
+
+    /**
+     * Test that markup inside comments, CDATA sections and attribute values
+     * does not confuse locating the body.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void bodySliceIgnoresMarkupInContent() throws Exception {
+        String body = BODY_START
+                + "<!-- </SOAP-ENV:Body> -->\n"
+                + "<data note=\"a/> b\"><![CDATA[</SOAP-ENV:Body>]]></data>\n"
+                + BODY_END;
+        String xml = ENVELOPE_START + HEADER + "\n<!-- <SOAP-ENV:Body> -->\n" + body + ENVELOPE_END;
+
+        SoapMessageImpl message = parse(IOUtils.toInputStream(xml, StandardCharsets.UTF_8));
+
+        assertEquals(HEADER, message.getHeaderSlice().toString(StandardCharsets.UTF_8));
+        assertEquals(body, message.getBodySlice().toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test that parsing a message with 1 MB body allocates at most about twice the message size.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void allocationWith1MbBody() throws Exception {
+        assertParseAllocation(MB);
+    }
+
+    /**
+     * Test that parsing a message with 10 MB body allocates at most about twice the message size.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void allocationWith10MbBody() throws Exception {
+        assertParseAllocation(10 * MB);
+    }
+
+    /**
+     * Test that parsing a message with 100 MB body allocates at most about twice the message size.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void allocationWith100MbBody() throws Exception {
+        assertParseAllocation(100 * MB);
+    }
+
+    /**
+     * Test that parsing a message with 10 MB body allocates at most about twice the message size
+     * when the processed XML is used.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void allocationWith10MbBodyAndProcessedXml() throws Exception {
+        com.sun.management.ThreadMXBean threadBean = getThreadBean();
+        long threadId = Thread.currentThread().getId();
+
+        LargeMessageInputStream in = new LargeMessageInputStream(10 * MB);
+        long messageSize = in.size();
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        Soap soap = new ProcessedXmlParser().parse(MimeTypes.TEXT_XML_UTF8, in);
+        long parseAllocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(soap instanceof SoapMessageImpl);
+        assertAllocationLimit(messageSize, parseAllocated);
+        assertNotNull(((SoapMessageImpl) soap).getBodySlice());
+    }
+
+    /**
+     * Test that a fault is read from the processed XML once the raw XML has been released.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void faultWithProcessedXml() throws Exception {
+        String xml = ENVELOPE_START + HEADER + "\n<SOAP-ENV:Body>\n<SOAP-ENV:Fault>\n"
+                + "<faultcode>Server.Test</faultcode>\n<faultstring>Test fault</faultstring>\n"
+                + "</SOAP-ENV:Fault>\n</SOAP-ENV:Body>" + ENVELOPE_END;
+
+        Soap soap = new ProcessedXmlParser().parse(MimeTypes.TEXT_XML_UTF8,
+                IOUtils.toInputStream(xml, StandardCharsets.UTF_8));
+
+        assertTrue(soap instanceof SoapFault);
+        assertEquals("Server.Test", ((SoapFault) soap).getCode());
+        assertTrue(((SoapFault) soap).getXml().contains("<faultstring>Test fault</faultstring>"));
+    }
+
+    private static void assertParseAllocation(int bodySize) throws Exception {
+        com.sun.management.ThreadMXBean threadBean = getThreadBean();
+        long threadId = Thread.currentThread().getId();
+
+        LargeMessageInputStream in = new LargeMessageInputStream(bodySize);
+        long messageSize = in.size();
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        SoapMessageImpl message = parse(in);
+        long parseAllocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(messageSize, message.getBytes().length);
+        assertAllocationLimit(messageSize, parseAllocated);
+
+        before = threadBean.getThreadAllocatedBytes(threadId);
+        ByteSlice header = message.getHeaderSlice();
+        ByteSlice body = message.getBodySlice();
+        long sliceAllocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(HEADER.length(), header.length());
+        assertEquals(messageSize - ENVELOPE_START.length() - HEADER.length() - ENVELOPE_END.length() - 1,
+                body.length());
+        assertTrue("Locating the slices allocated " + sliceAllocated + " bytes", sliceAllocated < MB);
+
+        // The whole message is not copied again
+        assertSame(message.getBytes(), message.getBytes());
+    }
+
+    private static void assertAllocationLimit(long messageSize, long parseAllocated) {
+        // One message buffer and the final message array, with room for the unused part of the
+        // last chunk and the parser's own allocations. Buffering the message twice would exceed this.
+        long limit = messageSize * 23 / 10 + 2 * MB;
+        assertTrue("Parsing allocated " + parseAllocated + " bytes for message of " + messageSize + " bytes",
+                parseAllocated < limit);
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+        return threadBean;
+    }
+
+    private static SoapMessageImpl parse(InputStream in) {
+        Soap soap = new SaxSoapParserImpl().parse(MimeTypes.TEXT_XML_UTF8, in);
+
+        assertTrue(soap instanceof SoapMessageImpl);
+
+        return (SoapMessageImpl) soap;
+    }
+
+    private static void assertSlice(String xml, String startTag, String endTag, ByteSlice slice) {
+        assertNotNull(slice);
+
+        int start = xml.indexOf(startTag);
+        int end = xml.indexOf(endTag) + endTag.length();
+
+        assertEquals(xml.substring(start, end), slice.toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parser that always uses the processed XML, like the server proxy.
+     */
+    private static final class ProcessedXmlParser extends SaxSoapParserImpl {
+        @Override
+        protected boolean isProcessedXmlRequired() {
+            return true;
+        }
+    }
+
+    /**
+     * Generates a SOAP request with a body of the given size without holding
+     * the message in memory.
+     */
+    private static final class LargeMessageInputStream extends InputStream {
+        private static final byte[] ITEM = ("<item>" + new String(new char[1000]).replace('\0', 'x') + "</item>\n")
+                .getBytes(StandardCharsets.UTF_8);
+
+        private final byte[] prefix = (ENVELOPE_START + HEADER + "\n" + BODY_START).getBytes(StandardCharsets.UTF_8);
+        private final byte[] suffix = (BODY_END + ENVELOPE_END).getBytes(StandardCharsets.UTF_8);
+        private final long items;
+
+        private long position;
+
+        LargeMessageInputStream(int bodySize) {
+            this.items = bodySize / ITEM.length;
+        }
+
+        long size() {
+            return prefix.length + items * ITEM.length + suffix.length;
+        }
+
+        @Override
+        public int read() {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            long itemsEnd = prefix.length + items * ITEM.length;
+
+            if (position >= size()) {
+                return -1;
+            }
+
+            int count;
+
+            if (position < prefix.length) {
+                count = copy(prefix, (int) position, b, off, len);
+            } else if (position < itemsEnd) {
+                count = copy(ITEM, (int) ((position - prefix.length) % ITEM.length), b, off, len);
+            } else {
+                count = copy(suffix, (int) (position - itemsEnd), b, off, len);
+            }
+
+            position += count;
+            return count;
+        }
+
+        private static int copy(byte[] source, int sourcePos, byte[] b, int off, int len) {
+            int count = Math.min(len, source.length - sourcePos);
+            System.arraycopy(source, sourcePos, b, off, count);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.util;
+
+import ee.ria.xroad.common.SystemProperties;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link CachingStream}.
+ */
+public class CachingStreamTest {
+
+    private static final int MEMORY_LIMIT = 1024;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private String originalTempFilesPath;
+
+    /**
+     * Point the temporary files to the test folder.
+     */
+    @Before
+    public void setUp() {
+        originalTempFilesPath = System.getProperty(SystemProperties.TEMP_FILES_PATH);
+        System.setProperty(SystemProperties.TEMP_FILES_PATH, tempFolder.getRoot().getAbsolutePath());
+    }
+
+    /**
+     * Restore the temporary files path.
+     */
+    @After
+    public void tearDown() {
+        if (originalTempFilesPath == null) {
+            System.clearProperty(SystemProperties.TEMP_FILES_PATH);
+        } else {
+            System.setProperty(SystemProperties.TEMP_FILES_PATH, originalTempFilesPath);
+        }
+    }
+
+    @Test
+    public void keepsSmallContentInMemory() throws Exception {
+        byte[] data = randomBytes(MEMORY_LIMIT);
+
+        CachingStream cache = new CachingStream(MEMORY_LIMIT);
+        cache.write(data, 0, 100);
+        cache.write(data[100]);
+        cache.write(data, 101, data.length - 101);
+        cache.close();
+
+        assertFalse(cache.isSpilled());
+        assertEquals(0, tempFolder.getRoot().list().length);
+        assertCachedContents(data, cache);
+
+        cache.consume();
+    }
+
+    @Test
+    public void spillsLargeContentToFile() throws Exception {
+        byte[] data = randomBytes(MEMORY_LIMIT * 10);
+
+        CachingStream cache = new CachingStream(MEMORY_LIMIT);
+        cache.write(data, 0, MEMORY_LIMIT / 2);
+        assertFalse(cache.isSpilled());
+
+        cache.write(data, MEMORY_LIMIT / 2, data.length - MEMORY_LIMIT / 2);
+        cache.close();
+
+        assertTrue(cache.isSpilled());
+        assertCachedContents(data, cache);
+
+        cache.consume();
+    }
+
+    @Test
+    public void defaultConstructorUsesFile() throws Exception {
+        byte[] data = randomBytes(10);
+
+        CachingStream cache = new CachingStream();
+        cache.write(data);
+        cache.close();
+
+        assertTrue(cache.isSpilled());
+        assertCachedContents(data, cache);
+
+        cache.consume();
+    }
+
+    private static void assertCachedContents(byte[] expected, CachingStream cache) throws Exception {
+        // contents can be read more than once
+        for (int i = 0; i < 2; i++) {
+            try (InputStream in = cache.getCachedContents()) {
+                assertArrayEquals(expected, IOUtils.toByteArray(in));
+            }
+
+            assertEquals(expected.length, cache.getCachedContents().size());
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+
+        return data;
+    }
+}
@@ -29,6 +29,7 @@ import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
+import ee.ria.xroad.common.ocsp.OcspVerifier;
 import ee.ria.xroad.common.util.CertUtils;
 import ee.ria.xroad.common.util.CryptoUtils;
 
@@ -36,7 +37,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.cert.ocsp.BasicOCSPResp;
 import org.bouncycastle.cert.ocsp.CertificateID;
 import org.bouncycastle.cert.ocsp.OCSPResp;
-import org.bouncycastle.cert.ocsp.SingleResp;
 
 import java.security.cert.X509Certificate;
 import java.util.Date;
@@ -140,8 +140,7 @@ public final class CertHelper {
         CertificateID certId = CryptoUtils.createCertId(cert, issuer);
         for (OCSPResp resp : ocspResponses) {
             BasicOCSPResp basicResp = (BasicOCSPResp) resp.getResponseObject();
-            SingleResp singleResp = basicResp.getResponses()[0];
-            if (certId.equals(singleResp.getCertID())) {
+            if (OcspVerifier.getSingleResp(basicResp, certId) != null) {
                 return resp;
             }
         }
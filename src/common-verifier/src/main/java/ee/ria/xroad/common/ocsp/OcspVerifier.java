@@ -28,6 +28,7 @@ package ee.ria.xroad.common.ocsp;
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.util.OcspResponseUtils;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
@@ -130,8 +131,13 @@ public final class OcspVerifier {
     public void verifyValidityAndStatus(OCSPResp response,
                                         X509Certificate subject, X509Certificate issuer, Date atDate)
             throws Exception {
-        verifyValidity(response, subject, issuer, atDate);
-        verifyStatus(response);
+        log.debug("verifyValidityAndStatus(subject: {}, issuer: {}, atDate: {})",
+                new Object[] {subject.getSubjectX500Principal().getName(),
+                        issuer.getSubjectX500Principal().getName(), atDate});
+
+        SingleResp singleResp = verifyResponseValidityCached(response, subject, issuer);
+        verifyValidityAt(atDate, singleResp);
+        verifyStatus(singleResp);
     }
 
     /**
@@ -207,7 +213,6 @@ public final class OcspVerifier {
     private SingleResp verifyResponseValidity(OCSPResp response, X509Certificate subject, X509Certificate issuer)
             throws Exception {
         BasicOCSPResp basicResp = (BasicOCSPResp) response.getResponseObject();
-        SingleResp singleResp = basicResp.getResponses()[0];
 
         CertificateID requestCertId = createCertId(subject, issuer);
 
@@ -217,7 +222,8 @@ public final class OcspVerifier {
 
         // 1. The certificate identified in a received response corresponds to
         // that which was identified in the corresponding request;
-        if (!singleResp.getCertID().equals(requestCertId)) {
+        SingleResp singleResp = getSingleResp(basicResp, requestCertId);
+        if (singleResp == null) {
             throw new CodedException(X_INCORRECT_VALIDATION_INFO,
                     "OCSP response does not apply to certificate (sn = %s)",
                     subject.getSerialNumber());
@@ -255,15 +261,24 @@ public final class OcspVerifier {
     }
 
     /**
-     * Verifies the status of the OCSP response.
+     * Verifies the status of the certificate in the OCSP response.
      * @param response the OCSP response
+     * @param subject the certificate
      * @throws Exception CodedException with error code X_CERT_VALIDATION
-     * if status is not good.
+     * if the response does not apply to the certificate or status is not good.
      */
-    public static void verifyStatus(OCSPResp response) throws Exception {
-        BasicOCSPResp basicResp = (BasicOCSPResp) response.getResponseObject();
-        SingleResp singleResp = basicResp.getResponses()[0];
+    public static void verifyStatus(OCSPResp response, X509Certificate subject) throws Exception {
+        SingleResp singleResp = OcspResponseUtils.getSingleResp(response, subject);
+        if (singleResp == null) {
+            throw new CodedException(X_CERT_VALIDATION,
+                    "OCSP response does not apply to certificate (sn = %s)",
+                    subject.getSerialNumber());
+        }
+
+        verifyStatus(singleResp);
+    }
 
+    private static void verifyStatus(SingleResp singleResp) {
         CertificateStatus status = singleResp.getCertStatus();
         if (status != null) { // null indicates GOOD.
             throw new CodedException(X_CERT_VALIDATION,
@@ -272,6 +287,24 @@ public final class OcspVerifier {
         }
     }
 
+    /**
+     * Finds the single response for the given certificate ID. A response to a
+     * batched OCSP request contains one single response per requested certificate.
+     * @param basicResp the basic OCSP response
+     * @param certId the certificate ID
+     * @return the matching single response or null if the response does not
+     * apply to the certificate
+     */
+    public static SingleResp getSingleResp(BasicOCSPResp basicResp, CertificateID certId) {
+        for (SingleResp singleResp : basicResp.getResponses()) {
+            if (certId.equals(singleResp.getCertID())) {
+                return singleResp;
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Returns true if the OCSP response is about to expire at the given date.
      * @param singleResp the response
@@ -292,16 +325,17 @@ public final class OcspVerifier {
      * @param response the response
      * @return true, if the OCSP response is expired
      * @throws Exception if an error occurs
+     * @see #isExpired(OCSPResp, Date)
      */
     public boolean isExpired(OCSPResp response) throws Exception {
-        BasicOCSPResp basicResp = (BasicOCSPResp) response.getResponseObject();
-        SingleResp singleResp = basicResp.getResponses()[0];
-        return isExpired(singleResp, new Date());
+        return isExpired(response, new Date());
     }
 
     /**
      * Returns true if the OCSP response is about to expire at the
-     * specified date.
+     * specified date. Used when the certificate of the response is not known
+     * (e.g. responses cached by certificate hash), so a batched response
+     * is considered expired as soon as any of its single responses is.
      * @param response the response
      * @param atDate the date
      * @return true, if the OCSP response is expired at the specified date.
@@ -309,8 +343,29 @@ public final class OcspVerifier {
      */
     public boolean isExpired(OCSPResp response, Date atDate) throws Exception {
         BasicOCSPResp basicResp = (BasicOCSPResp) response.getResponseObject();
-        SingleResp singleResp = basicResp.getResponses()[0];
-        return isExpired(singleResp, atDate);
+        SingleResp[] singleResps = basicResp.getResponses();
+        for (SingleResp singleResp : singleResps) {
+            if (isExpired(singleResp, atDate)) {
+                return true;
+            }
+        }
+
+        return singleResps.length == 0;
+    }
+
+    /**
+     * Returns true if the certificate's status in the OCSP response is about
+     * to expire at the specified date, or the response does not apply to the
+     * certificate.
+     * @param response the response
+     * @param subject the certificate
+     * @param atDate the date
+     * @return true, if the OCSP response is expired at the specified date.
+     * @throws Exception if an error occurs
+     */
+    public boolean isExpired(OCSPResp response, X509Certificate subject, Date atDate) throws Exception {
+        SingleResp singleResp = OcspResponseUtils.getSingleResp(response, subject);
+        return singleResp == null || isExpired(singleResp, atDate);
     }
 
     /**
@@ -35,9 +35,11 @@ import ee.ria.xroad.common.hashchain.DigestValue;
 import ee.ria.xroad.common.hashchain.HashChainReferenceResolver;
 import ee.ria.xroad.common.hashchain.HashChainVerifier;
 import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.signature.TimestampVerifier.TimestampedData;
 import ee.ria.xroad.common.util.CertUtils;
 import ee.ria.xroad.common.util.MessageFileNames;
 
+import com.google.common.cache.Cache;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.xml.security.signature.Manifest;
 import org.apache.xml.security.signature.MissingResourceFailureException;
@@ -47,6 +49,7 @@ import org.apache.xml.security.utils.resolver.ResourceResolverContext;
 import org.apache.xml.security.utils.resolver.ResourceResolverException;
 import org.apache.xml.security.utils.resolver.ResourceResolverSpi;
 import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.tsp.TimeStampToken;
 import org.w3c.dom.Node;
 
 import javax.xml.transform.dom.DOMSource;
@@ -55,8 +58,10 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -67,6 +72,8 @@ import static ee.ria.xroad.common.ErrorCodes.X_INVALID_REFERENCE;
 import static ee.ria.xroad.common.ErrorCodes.X_INVALID_SIGNATURE_VALUE;
 import static ee.ria.xroad.common.ErrorCodes.X_MALFORMED_SIGNATURE;
 import static ee.ria.xroad.common.ErrorCodes.translateException;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA256_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.encodeHex;
 import static ee.ria.xroad.common.util.MessageFileNames.SIG_HASH_CHAIN_RESULT;
 
 /**
@@ -98,6 +105,15 @@ public class SignatureVerifier {
     /** Indicates whether to verify against Xades schema or not. */
     private boolean verifySchema = true;
 
+    /** The keys of certificate chains that have already been verified, or null. */
+    private Cache<String, Boolean> verifiedCertChains;
+
+    /** The time-stamps to verify together with the signature. */
+    private final List<TimestampedData> timestamps = new ArrayList<>();
+
+    /** The TSP certificates of the verified time-stamps. */
+    private List<X509Certificate> timestampCertificates = Collections.emptyList();
+
     /**
      * Constructs a new signature verifier using the specified string
      * containing the signature xml.
@@ -177,6 +193,33 @@ public class SignatureVerifier {
         this.verifySchema = shouldVerifySchema;
     }
 
+    /**
+     * Sets the cache of verified certificate chains. A certificate chain with the same signer, certificates and
+     * OCSP responses that has already been verified at the same date is not verified again. The cache can be
+     * shared between verifiers.
+     * @param cache the cache of verified certificate chains
+     */
+    public void setVerifiedCertChainCache(Cache<String, Boolean> cache) {
+        this.verifiedCertChains = cache;
+    }
+
+    /**
+     * Adds a time-stamp of the signature to be verified together with the signature.
+     * @param token the time-stamp token
+     * @param stampedData the time-stamped data
+     */
+    public void addTimestamp(TimeStampToken token, byte[] stampedData) {
+        timestamps.add(new TimestampedData(token, stampedData));
+    }
+
+    /**
+     * @return the TSP certificates that signed the time-stamps, in the order
+     * the time-stamps were added, after the signature has been verified
+     */
+    public List<X509Certificate> getTimestampCertificates() {
+        return timestampCertificates;
+    }
+
     /**
      * @return the signing certificate
      * @throws Exception if an error occurs
@@ -216,6 +259,7 @@ public class SignatureVerifier {
      * <ol>
      * <li>Verify schema, if schema verification
      * is enabled.</li>
+     * <li>Verify the added time-stamps, if any.</li>
      * <li>If the signature contains hash chain, then the hash
      * chain is verified.</li>
      * <li>The signing certificate is retrieved from the signature and
@@ -239,6 +283,11 @@ public class SignatureVerifier {
             verifySchema();
         }
 
+        if (!timestamps.isEmpty()) {
+            timestampCertificates = TimestampVerifier.verify(timestamps,
+                    GlobalConf.getTspCertificates());
+        }
+
         // if this is a batch signature, verify the hash chain
         if (hashChainResult != null
                 && signature.references(SIG_HASH_CHAIN_RESULT)) {
@@ -326,12 +375,44 @@ public class SignatureVerifier {
         }
     }
 
-    private void verifyCertificateChain(Date atDate, ClientId signer, X509Certificate signingCert) {
+    private void verifyCertificateChain(Date atDate, ClientId signer, X509Certificate signingCert)
+            throws Exception {
+        List<X509Certificate> extraCertificates = signature.getExtraCertificates();
+        List<OCSPResp> ocspResponses = signature.getOcspResponses();
+
+        String key = verifiedCertChains != null
+                ? getCertChainKey(atDate, signer, signingCert, extraCertificates, ocspResponses) : null;
+
+        if (key != null && verifiedCertChains.getIfPresent(key) != null) {
+            return;
+        }
+
         CertChain certChain =
                 CertChain.create(signer.getXRoadInstance(), signingCert,
-                        signature.getExtraCertificates());
-        new CertChainVerifier(certChain).verify(signature.getOcspResponses(),
-                atDate);
+                        extraCertificates);
+        new CertChainVerifier(certChain).verify(ocspResponses, atDate);
+
+        if (key != null) {
+            verifiedCertChains.put(key, Boolean.TRUE);
+        }
+    }
+
+    private static String getCertChainKey(Date atDate, ClientId signer, X509Certificate signingCert,
+            List<X509Certificate> extraCertificates, List<OCSPResp> ocspResponses) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance(SHA256_ID);
+        digest.update(signer.getXRoadInstance().getBytes(StandardCharsets.UTF_8));
+        digest.update(Long.toString(atDate.getTime()).getBytes(StandardCharsets.UTF_8));
+        digest.update(signingCert.getEncoded());
+
+        for (X509Certificate cert : extraCertificates) {
+            digest.update(cert.getEncoded());
+        }
+
+        for (OCSPResp ocsp : ocspResponses) {
+            digest.update(ocsp.getEncoded());
+        }
+
+        return encodeHex(digest.digest());
     }
 
     private Map<String, DigestValue> getHashChainInputs() throws Exception {
@@ -26,7 +26,11 @@
 package ee.ria.xroad.common.signature;
 
 import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cms.SignerId;
@@ -36,22 +40,51 @@ import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
 import org.bouncycastle.operator.OperatorCreationException;
 import org.bouncycastle.tsp.TimeStampToken;
 
+import java.nio.charset.StandardCharsets;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
 import static ee.ria.xroad.common.ErrorCodes.X_MALFORMED_SIGNATURE;
 import static ee.ria.xroad.common.ErrorCodes.X_TIMESTAMP_VALIDATION;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA256_ID;
 import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
 import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
+import static ee.ria.xroad.common.util.CryptoUtils.hexDigest;
 
 /**
  * Contains methods for verifying various time-stamp characteristics.
+ *
+ * The verified time-stamp tokens are cached by the digest of the token and
+ * the digest of the TSP certificates they were verified against, because the
+ * containers of a time-stamping batch all share the same token. A token
+ * verified against other TSP certificates, e.g. before a global configuration
+ * reload, is verified again.
  */
 @Slf4j
 public final class TimestampVerifier {
 
+    private static final Cache<VerifiedTokenKey, X509Certificate> VERIFIED_TOKENS = CacheBuilder.newBuilder()
+            .maximumSize(SystemProperties.getTimestampVerifierCacheSize())
+            .recordStats()
+            .build();
+
+    // The TSP certificates last verified against and their digest. The TSP
+    // certificates rarely change, so the digest is usually not recalculated.
+    private static volatile TspCertsDigest lastTspCertsDigest;
+
     private TimestampVerifier() {
     }
 
@@ -61,21 +94,15 @@ public final class TimestampVerifier {
      * @param tsToken the time-stamp token
      * @param stampedData the allegedly time-stamped data
      * @param tspCerts list of TSP certificates
+     * @return the TSP certificate that signed the time-stamp
      * @throws Exception if the verification failed
      */
-    public static void verify(TimeStampToken tsToken,
+    public static X509Certificate verify(TimeStampToken tsToken,
             byte[] stampedData, List<X509Certificate> tspCerts)
                     throws Exception {
-        String thatHash = encodeBase64(calculateDigest(
-                tsToken.getTimeStampInfo().getHashAlgorithm(), stampedData));
-        String thisHash = encodeBase64(
-                tsToken.getTimeStampInfo().getMessageImprintDigest());
-        if (!thisHash.equals(thatHash)) {
-            throw new CodedException(X_MALFORMED_SIGNATURE,
-                    "Timestamp hashes do not match");
-        }
+        verifyMessageImprint(tsToken, stampedData);
 
-        verify(tsToken, tspCerts);
+        return verify(tsToken, tspCerts);
     }
 
     /**
@@ -83,16 +110,175 @@ public final class TimestampVerifier {
      * time-stamping authority.
      * @param tsToken the time-stamp token
      * @param tspCerts list of TSP certificates
+     * @return the TSP certificate that signed the time-stamp
      * @throws Exception if the verification failed
      */
-    public static void verify(TimeStampToken tsToken,
+    public static X509Certificate verify(TimeStampToken tsToken,
+            List<X509Certificate> tspCerts) throws Exception {
+        checkTspCerts(tspCerts);
+
+        return verifyCached(tsToken, tspCerts, getKey(tsToken, getTspCertsDigest(tspCerts)));
+    }
+
+    /**
+     * Verifies a number of time-stamp tokens and the data they time-stamp,
+     * e.g. the time-stamp hash chain results of archived messages. Each
+     * distinct token is verified only once and the distinct tokens that have
+     * not been verified before are verified in parallel.
+     * @param timestamps the time-stamp tokens with the time-stamped data
+     * @param tspCerts list of TSP certificates
+     * @return the TSP certificates that signed the time-stamps, in the order
+     * of the given time-stamps
+     * @throws Exception if the verification of any of the time-stamps failed
+     */
+    public static List<X509Certificate> verify(List<TimestampedData> timestamps,
             List<X509Certificate> tspCerts) throws Exception {
+        checkTspCerts(tspCerts);
+
+        String tspCertsDigest = getTspCertsDigest(tspCerts);
+        Map<VerifiedTokenKey, TimeStampToken> tokens = new LinkedHashMap<>();
+        List<VerifiedTokenKey> keys = new ArrayList<>(timestamps.size());
+
+        for (TimestampedData timestamp : timestamps) {
+            verifyMessageImprint(timestamp.getToken(), timestamp.getStampedData());
+
+            VerifiedTokenKey key = getKey(timestamp.getToken(), tspCertsDigest);
+            tokens.putIfAbsent(key, timestamp.getToken());
+            keys.add(key);
+        }
+
+        Map<VerifiedTokenKey, X509Certificate> certs = verifyTokens(tokens, tspCerts);
+        List<X509Certificate> result = new ArrayList<>(keys.size());
+
+        for (VerifiedTokenKey key : keys) {
+            result.add(certs.get(key));
+        }
+
+        return result;
+    }
+
+    /**
+     * @return number of time-stamp verifications that were skipped because
+     * the token had already been verified
+     */
+    public static long getCacheHitCount() {
+        return VERIFIED_TOKENS.stats().hitCount();
+    }
+
+    /**
+     * Clears the cache of verified time-stamp tokens.
+     */
+    public static void clearCache() {
+        VERIFIED_TOKENS.invalidateAll();
+    }
+
+    private static void verifyMessageImprint(TimeStampToken tsToken,
+            byte[] stampedData) throws Exception {
+        String thatHash = encodeBase64(calculateDigest(
+                tsToken.getTimeStampInfo().getHashAlgorithm(), stampedData));
+        String thisHash = encodeBase64(
+                tsToken.getTimeStampInfo().getMessageImprintDigest());
+        if (!thisHash.equals(thatHash)) {
+            throw new CodedException(X_MALFORMED_SIGNATURE,
+                    "Timestamp hashes do not match");
+        }
+    }
+
+    private static void checkTspCerts(List<X509Certificate> tspCerts) {
         if (tspCerts.isEmpty()) {
             throw new CodedException(
                     X_INTERNAL_ERROR,
                     "No TSP service providers are configured.");
         }
+    }
+
+    private static Map<VerifiedTokenKey, X509Certificate> verifyTokens(
+            Map<VerifiedTokenKey, TimeStampToken> tokens,
+            List<X509Certificate> tspCerts) throws Exception {
+        Map<VerifiedTokenKey, X509Certificate> certs = new HashMap<>();
+        List<Callable<X509Certificate>> tasks = new ArrayList<>();
+        List<VerifiedTokenKey> taskKeys = new ArrayList<>();
+
+        for (Map.Entry<VerifiedTokenKey, TimeStampToken> token : tokens.entrySet()) {
+            X509Certificate cert = VERIFIED_TOKENS.getIfPresent(token.getKey());
+
+            if (cert != null) {
+                certs.put(token.getKey(), cert);
+            } else {
+                tasks.add(() -> verifyCached(token.getValue(), tspCerts, token.getKey()));
+                taskKeys.add(token.getKey());
+            }
+        }
+
+        if (tasks.size() == 1) {
+            certs.put(taskKeys.get(0), tasks.get(0).call());
+        } else if (!tasks.isEmpty()) {
+            List<Future<X509Certificate>> results = ExecutorHolder.EXECUTOR.invokeAll(tasks);
+
+            for (int i = 0; i < results.size(); i++) {
+                certs.put(taskKeys.get(i), getResult(results.get(i)));
+            }
+        }
+
+        return certs;
+    }
+
+    private static X509Certificate getResult(Future<X509Certificate> result) throws Exception {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    private static X509Certificate verifyCached(TimeStampToken tsToken,
+            List<X509Certificate> tspCerts, VerifiedTokenKey key) throws Exception {
+        X509Certificate cert = VERIFIED_TOKENS.getIfPresent(key);
+        if (cert != null) {
+            return cert;
+        }
+
+        cert = verifySignature(tsToken, tspCerts);
+        VERIFIED_TOKENS.put(key, cert);
+
+        return cert;
+    }
+
+    private static VerifiedTokenKey getKey(TimeStampToken tsToken,
+            String tspCertsDigest) throws Exception {
+        return new VerifiedTokenKey(hexDigest(SHA256_ID, tsToken.getEncoded()), tspCertsDigest);
+    }
+
+    private static String getTspCertsDigest(List<X509Certificate> tspCerts) throws Exception {
+        TspCertsDigest last = lastTspCertsDigest;
+        if (last != null && last.getTspCerts().equals(tspCerts)) {
+            return last.getDigest();
+        }
+
+        // The digest does not depend on the order of the certificates
+        List<String> certDigests = new ArrayList<>(tspCerts.size());
+        for (X509Certificate cert : tspCerts) {
+            certDigests.add(hexDigest(SHA256_ID, cert.getEncoded()));
+        }
 
+        Collections.sort(certDigests);
+
+        String digest = hexDigest(SHA256_ID, String.join(",", certDigests).getBytes(StandardCharsets.UTF_8));
+        lastTspCertsDigest = new TspCertsDigest(new ArrayList<>(tspCerts), digest);
+
+        return digest;
+    }
+
+    private static X509Certificate verifySignature(TimeStampToken tsToken,
+            List<X509Certificate> tspCerts) throws Exception {
         SignerId signerId = tsToken.getSID();
 
         X509Certificate cert = getTspCertificate(signerId, tspCerts);
@@ -114,6 +300,8 @@ public final class TimestampVerifier {
             throw new CodedException(X_TIMESTAMP_VALIDATION,
                     "Failed to verify timestamp");
         }
+
+        return cert;
     }
 
     /**
@@ -147,6 +335,41 @@ public final class TimestampVerifier {
         return null;
     }
 
+    /**
+     * A time-stamp token with the data it time-stamps.
+     */
+    @Value
+    public static class TimestampedData {
+        private final TimeStampToken token;
+        private final byte[] stampedData;
+    }
+
+    @Value
+    private static class VerifiedTokenKey {
+        private final String tokenDigest;
+        private final String tspCertsDigest;
+    }
+
+    @Value
+    private static class TspCertsDigest {
+        private final List<X509Certificate> tspCerts;
+        private final String digest;
+    }
+
+    // The threads verifying the distinct tokens of verify(List, List), created
+    // when first needed.
+    private static final class ExecutorHolder {
+        private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+        private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Math.max(1, SystemProperties.getTimestampVerifierThreads()), r -> {
+                    Thread thread = new Thread(r, "timestamp-verifier-" + THREAD_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+
+                    return thread;
+                });
+    }
+
     private static SignerInformationVerifier createVerifier(
             X509Certificate cert) throws OperatorCreationException {
         JcaSimpleSignerInfoVerifierBuilder verifierBuilder =
@@ -31,6 +31,7 @@ import ee.ria.xroad.common.TestCertUtil;
 import ee.ria.xroad.common.TestSecurityUtil;
 import ee.ria.xroad.common.conf.globalconf.EmptyGlobalConf;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.util.OcspResponseUtils;
 
 import com.google.common.cache.Cache;
 import org.bouncycastle.asn1.x509.CRLReason;
@@ -54,6 +55,8 @@ import java.util.List;
 
 import static ee.ria.xroad.common.ErrorCodes.X_CERT_VALIDATION;
 import static ee.ria.xroad.common.ErrorCodes.X_INCORRECT_VALIDATION_INFO;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -244,6 +247,51 @@ public class OcspVerifierTest {
         verifier.verifyValidityAndStatus(ocsp, subject, issuer);
     }
 
+    /**
+     * Tests that the status of a certificate is read from its own single
+     * response in a batched OCSP response.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void batchedResponseStatus() throws Exception {
+        X509Certificate other = TestCertUtil.getCertChainCert("ca_1.p12");
+        Date thisUpdate = new Date();
+        OCSPResp ocsp = OcspTestUtils.createOCSPResponse(new X509Certificate[] {other, subject}, issuer,
+                signer, signerKey, new CertificateStatus[] {
+                    new RevokedStatus(new Date(), CRLReason.unspecified), CertificateStatus.GOOD},
+                new Date[] {thisUpdate, thisUpdate});
+
+        SingleResp singleResp = OcspResponseUtils.getSingleResp(ocsp, subject);
+        assertNotNull(singleResp);
+        assertEquals(subject.getSerialNumber(), singleResp.getCertID().getSerialNumber());
+
+        OcspVerifier.verifyStatus(ocsp, subject);
+
+        thrown.expectError(X_CERT_VALIDATION);
+        OcspVerifier.verifyStatus(ocsp, other);
+    }
+
+    /**
+     * Tests that the expiry of a certificate is read from its own single
+     * response in a batched OCSP response.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void batchedResponseExpiry() throws Exception {
+        X509Certificate other = TestCertUtil.getCertChainCert("ca_1.p12");
+        X509Certificate unrelated = TestCertUtil.getCertChainCert("user_1.p12");
+        Date now = new Date();
+        OCSPResp ocsp = OcspTestUtils.createOCSPResponse(new X509Certificate[] {other, subject}, issuer,
+                signer, signerKey, new CertificateStatus[] {CertificateStatus.GOOD, CertificateStatus.GOOD},
+                new Date[] {Date.from(now.toInstant().minus(2, ChronoUnit.HOURS)), now});
+
+        OcspVerifier verifier = new OcspVerifier(3600, new OcspVerifierOptions(true));
+        assertFalse(verifier.isExpired(ocsp, subject, now));
+        assertTrue(verifier.isExpired(ocsp, other, now));
+        assertTrue(verifier.isExpired(ocsp, unrelated, now));
+        assertTrue(verifier.isExpired(ocsp, now));
+    }
+
     @Test
     public void responseValidityCache() throws Exception {
         Date thisUpdate = Date.from(Instant.now().plus(1, ChronoUnit.DAYS));
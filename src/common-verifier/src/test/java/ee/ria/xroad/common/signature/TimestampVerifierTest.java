@@ -25,6 +25,7 @@
  */
 package ee.ria.xroad.common.signature;
 
+import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.ErrorCodes;
 import ee.ria.xroad.common.ExpectedCodedException;
 import ee.ria.xroad.common.SystemProperties;
@@ -32,22 +33,53 @@ import ee.ria.xroad.common.TestSecurityUtil;
 import ee.ria.xroad.common.conf.globalconf.ConfigurationDirectoryV2;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.globalconf.GlobalConfImpl;
+import ee.ria.xroad.common.signature.TimestampVerifier.TimestampedData;
 
 import org.apache.commons.io.IOUtils;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.cms.ContentInfo;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.tsp.TSPAlgorithms;
+import org.bouncycastle.tsp.TimeStampRequest;
+import org.bouncycastle.tsp.TimeStampRequestGenerator;
 import org.bouncycastle.tsp.TimeStampToken;
+import org.bouncycastle.tsp.TimeStampTokenGenerator;
 import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static ee.ria.xroad.common.SystemProperties.getConfigurationPath;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA256_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 
 /**
  * Tests timestamp verifier.
@@ -123,6 +155,144 @@ public class TimestampVerifierTest {
         TimestampVerifier.verify(token, stampedData, tspCerts);
     }
 
+    /**
+     * Tests that a verified token is not verified again.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void cachesVerifiedToken() throws Exception {
+        TimestampVerifier.clearCache();
+
+        TimeStampToken token = getTimestampFromFile("valid");
+        byte[] stampedData = getBytesFromFile("stamped-data");
+        List<X509Certificate> tspCerts = GlobalConf.getTspCertificates();
+
+        X509Certificate cert = TimestampVerifier.verify(token, stampedData, tspCerts);
+        long hits = TimestampVerifier.getCacheHitCount();
+
+        assertEquals(cert, TimestampVerifier.verify(getTimestampFromFile("valid"), stampedData,
+                GlobalConf.getTspCertificates()));
+        assertEquals(hits + 1, TimestampVerifier.getCacheHitCount());
+    }
+
+    /**
+     * Tests that the hashes are checked even if the token is cached.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void hashMismatchWithCachedToken() throws Exception {
+        TimeStampToken token = getTimestampFromFile("valid");
+        byte[] stampedData = getBytesFromFile("stamped-data");
+        TimestampVerifier.verify(token, stampedData, GlobalConf.getTspCertificates());
+
+        thrown.expectError(ErrorCodes.X_MALFORMED_SIGNATURE);
+        stampedData[42] = 0x01; // change a byte
+        TimestampVerifier.verify(token, stampedData, GlobalConf.getTspCertificates());
+    }
+
+    /**
+     * Tests that an invalid token is not cached.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void invalidSignatureIsNotCached() throws Exception {
+        TimeStampToken token = getTimestampFromFile("invalid-signature");
+        byte[] stampedData = getBytesFromFile("stamped-data");
+        List<X509Certificate> tspCerts = GlobalConf.getTspCertificates();
+
+        try {
+            TimestampVerifier.verify(token, stampedData, tspCerts);
+            fail("Invalid time-stamp was accepted");
+        } catch (CodedException expected) {
+            assertEquals(ErrorCodes.X_TIMESTAMP_VALIDATION, expected.getFaultCode());
+        }
+
+        thrown.expectError(ErrorCodes.X_TIMESTAMP_VALIDATION);
+        TimestampVerifier.verify(token, stampedData, tspCerts);
+    }
+
+    /**
+     * Tests verifying a number of time-stamps at once.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void verifyMany() throws Exception {
+        TestTsa tsa1 = new TestTsa("tsa1");
+        TestTsa tsa2 = new TestTsa("tsa2");
+        List<X509Certificate> tspCerts = Arrays.asList(tsa1.getCertificate(), tsa2.getCertificate());
+
+        List<TimestampedData> timestamps = new ArrayList<>();
+        List<TimeStampToken> tokens = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            byte[] data = ("batch" + i).getBytes(StandardCharsets.UTF_8);
+            tokens.add(i == 2 ? tsa2.stamp(data) : tsa1.stamp(data));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            // Containers of the same batch share the token
+            timestamps.add(new TimestampedData(tokens.get(i % 3),
+                    ("batch" + (i % 3)).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        List<X509Certificate> certs = TimestampVerifier.verify(timestamps, tspCerts);
+
+        assertEquals(timestamps.size(), certs.size());
+        for (int i = 0; i < certs.size(); i++) {
+            assertEquals(i % 3 == 2 ? tsa2.getCertificate() : tsa1.getCertificate(), certs.get(i));
+        }
+
+        List<TimestampedData> modified = new ArrayList<>(timestamps);
+        modified.set(5, new TimestampedData(timestamps.get(5).getToken(),
+                "modified".getBytes(StandardCharsets.UTF_8)));
+
+        thrown.expectError(ErrorCodes.X_MALFORMED_SIGNATURE);
+        TimestampVerifier.verify(modified, tspCerts);
+    }
+
+    /**
+     * Tests that the cached tokens are not accepted after their TSP
+     * certificate has been removed from the TSP certificates.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void invalidatesCacheWhenTspCertificatesChange() throws Exception {
+        TestTsa tsa1 = new TestTsa("tsa1");
+        TestTsa tsa2 = new TestTsa("tsa2");
+        byte[] data = "data".getBytes(StandardCharsets.UTF_8);
+        TimeStampToken token = tsa1.stamp(data);
+
+        TimestampVerifier.verify(token, data, Arrays.asList(tsa1.getCertificate(), tsa2.getCertificate()));
+        TimestampVerifier.verify(token, data, Arrays.asList(tsa1.getCertificate(), tsa2.getCertificate()));
+
+        thrown.expectError(ErrorCodes.X_INTERNAL_ERROR);
+        TimestampVerifier.verify(token, data, Collections.singletonList(tsa2.getCertificate()));
+    }
+
+    /**
+     * Tests that verifying a token against other TSP certificates does not
+     * drop the tokens verified against the previous ones.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void cachesTokensPerTspCertificates() throws Exception {
+        TestTsa tsa1 = new TestTsa("tsa1");
+        TestTsa tsa2 = new TestTsa("tsa2");
+        byte[] data = "data".getBytes(StandardCharsets.UTF_8);
+        TimeStampToken token1 = tsa1.stamp(data);
+        TimeStampToken token2 = tsa2.stamp(data);
+        List<X509Certificate> tspCerts = Arrays.asList(tsa1.getCertificate(), tsa2.getCertificate());
+
+        assertEquals(tsa1.getCertificate(), TimestampVerifier.verify(token1, data, tspCerts));
+        assertEquals(tsa2.getCertificate(), TimestampVerifier.verify(token2, data,
+                Collections.singletonList(tsa2.getCertificate())));
+
+        long hits = TimestampVerifier.getCacheHitCount();
+
+        assertEquals(tsa1.getCertificate(), TimestampVerifier.verify(token1, data,
+                Arrays.asList(tsa2.getCertificate(), tsa1.getCertificate())));
+        assertEquals(hits + 1, TimestampVerifier.getCacheHitCount());
+    }
+
     private static TimeStampToken getTimestampFromFile(String fileName)
             throws Exception {
         byte[] data = getBytesFromFile(fileName);
@@ -138,4 +308,51 @@ public class TimestampVerifierTest {
             return IOUtils.toByteArray(in);
         }
     }
+
+    /**
+     * Time-stamping authority that issues time-stamp tokens with its own
+     * self-signed certificate.
+     */
+    private static final class TestTsa {
+
+        private static final long VALIDITY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+        private final X509Certificate certificate;
+        private final TimeStampTokenGenerator generator;
+        private final AtomicLong serial = new AtomicLong();
+
+        TestTsa(String name) throws Exception {
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+            keyPairGenerator.initialize(2048);
+            KeyPair keyPair = keyPairGenerator.generateKeyPair();
+
+            X500Name subject = new X500Name("CN=" + name);
+            long now = System.currentTimeMillis();
+
+            certificate = new JcaX509CertificateConverter().getCertificate(new JcaX509v3CertificateBuilder(subject,
+                    BigInteger.valueOf(now), new Date(now - VALIDITY_MILLIS), new Date(now + VALIDITY_MILLIS),
+                    subject, keyPair.getPublic())
+                    .addExtension(Extension.extendedKeyUsage, true,
+                            new ExtendedKeyUsage(KeyPurposeId.id_kp_timeStamping))
+                    .build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+
+            generator = new TimeStampTokenGenerator(
+                    new JcaSimpleSignerInfoGeneratorBuilder().build("SHA256withRSA", keyPair.getPrivate(),
+                            certificate),
+                    new JcaDigestCalculatorProviderBuilder().build().get(
+                            new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1)),
+                    new ASN1ObjectIdentifier("1.2.3.4"));
+        }
+
+        X509Certificate getCertificate() {
+            return certificate;
+        }
+
+        TimeStampToken stamp(byte[] data) throws Exception {
+            TimeStampRequest request = new TimeStampRequestGenerator().generate(TSPAlgorithms.SHA256,
+                    calculateDigest(SHA256_ID, data));
+
+            return generator.generate(request, BigInteger.valueOf(serial.incrementAndGet()), new Date());
+        }
+    }
 }
@@ -27,8 +27,11 @@ package ee.ria.xroad.monitor;
 
 import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.monitor.common.SystemMetricNames;
+import ee.ria.xroad.monitor.executablelister.ExecListingFailedException;
 import ee.ria.xroad.monitor.executablelister.OsInfoLister;
 import ee.ria.xroad.monitor.executablelister.PackageLister;
+import ee.ria.xroad.monitor.executablelister.ProcFsProcessLister;
+import ee.ria.xroad.monitor.executablelister.ProcessInfo;
 import ee.ria.xroad.monitor.executablelister.ProcessLister;
 import ee.ria.xroad.monitor.executablelister.XroadProcessLister;
 
@@ -42,17 +45,29 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * Sensor which collects data by running external commands and
- * parsing output from those.
+ * parsing output from those. Process lists are read from the proc
+ * file system when it is available.
  */
 @Slf4j
 public class ExecListingSensor extends AbstractSensor {
 
     private MetricRegistryHolder registryHolder;
+
+    // the procfs listers keep the previous CPU times, so the same instances are reused
+    private ProcFsProcessLister procFsProcessLister;
+    private ProcFsProcessLister procFsXroadProcessLister;
+
     /**
      * Constructor
      */
     public <T extends Metric> ExecListingSensor() {
         log.info("Creating sensor, measurement interval: {}", getInterval());
+
+        if (SystemProperties.isEnvMonitorProcFsProcessListingEnabled() && ProcFsProcessLister.isAvailable()) {
+            procFsProcessLister = ProcFsProcessLister.allProcesses();
+            procFsXroadProcessLister = ProcFsProcessLister.xroadProcesses();
+        }
+
         updateMetrics();
         scheduleSingleMeasurement(getInterval(), new ProcessMeasure());
     }
@@ -84,13 +99,13 @@ public class ExecListingSensor extends AbstractSensor {
         createOrUpdateMetricPair(
                 SystemMetricNames.PROCESSES,
                 SystemMetricNames.PROCESS_STRINGS,
-                new ProcessLister().list()
+                listProcesses(procFsProcessLister, new ProcessLister())
         );
 
         createOrUpdateMetricPair(
                 SystemMetricNames.XROAD_PROCESSES,
                 SystemMetricNames.XROAD_PROCESS_STRINGS,
-                new XroadProcessLister().list()
+                listProcesses(procFsXroadProcessLister, new XroadProcessLister())
         );
 
         createOrUpdateMetricPair(
@@ -102,6 +117,18 @@ public class ExecListingSensor extends AbstractSensor {
         createOsStringMetric(SystemMetricNames.OS_INFO, new OsInfoLister().list());
     }
 
+    private JmxStringifiedData<ProcessInfo> listProcesses(ProcFsProcessLister procFsLister, ProcessLister execLister) {
+        if (procFsLister != null) {
+            try {
+                return procFsLister.list();
+            } catch (ExecListingFailedException e) {
+                log.warn("Reading processes from procfs failed, falling back to ps", e);
+            }
+        }
+
+        return execLister.list();
+    }
+
     @Override
     public void onReceive(Object o) throws Exception {
         if (o instanceof ProcessMeasure) {
@@ -0,0 +1,530 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.monitor.executablelister;
+
+import ee.ria.xroad.monitor.JmxStringifiedData;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.SystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Lists processes by reading the proc file system directly instead of forking ps. Produces the same
+ * DTOs and a ps-like JMX representation as {@link ProcessLister} and {@link XroadProcessLister}.
+ *
+ * CPU usage is calculated from the difference between two consecutive listings, so the same lister
+ * instance should be reused. On the first listing, the average usage over the process lifetime is
+ * reported (like ps does).
+ */
+@Slf4j
+public class ProcFsProcessLister {
+
+    private static final Path PROC_ROOT = Paths.get("/proc");
+    private static final Path PASSWD_FILE = Paths.get("/etc/passwd");
+
+    private static final String XROAD_USER = "xroad";
+    private static final String JAVA_COMMAND = "java";
+
+    // Clock ticks per second exposed to user space (USER_HZ), fixed by the Linux ABI
+    private static final long USER_HZ = 100;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int PERCENT = 100;
+
+    // Field indexes in /proc/[pid]/stat counted from the state field that follows the command name
+    private static final int STAT_UTIME = 11;
+    private static final int STAT_STIME = 12;
+    private static final int STAT_STARTTIME = 19;
+
+    private static final String JMX_FORMAT = "%-8s %5s %5s %4s %7s %s";
+    private static final String JMX_HEADER =
+            String.format(Locale.ROOT, JMX_FORMAT, "USER", "%CPU", "START", "%MEM", "PID", "COMMAND");
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm", Locale.ROOT);
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("MMMdd", Locale.ROOT);
+    private static final DateTimeFormatter YEAR_FORMAT = DateTimeFormatter.ofPattern("yyyy", Locale.ROOT);
+
+    private final Path procRoot;
+    private final Path passwdFile;
+    private final boolean xroadJavaOnly;
+    private final Clock clock;
+
+    private final long[] statFields = new long[STAT_STARTTIME + 1];
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    private Map<Integer, String> userNames = new HashMap<>();
+    private Map<Integer, Long> previousCpuTicks = new HashMap<>();
+    private long previousElapsedTicks = -1;
+
+    /**
+     * @return lister for all processes, the counterpart of {@link ProcessLister}
+     */
+    public static ProcFsProcessLister allProcesses() {
+        return new ProcFsProcessLister(PROC_ROOT, PASSWD_FILE, false, Clock.systemDefaultZone());
+    }
+
+    /**
+     * @return lister for the java processes of the xroad user, the counterpart of {@link XroadProcessLister}
+     */
+    public static ProcFsProcessLister xroadProcesses() {
+        return new ProcFsProcessLister(PROC_ROOT, PASSWD_FILE, true, Clock.systemDefaultZone());
+    }
+
+    /**
+     * @return true if the proc file system can be used for listing processes
+     */
+    public static boolean isAvailable() {
+        return SystemUtils.IS_OS_LINUX && Files.isReadable(PROC_ROOT.resolve("stat"));
+    }
+
+    ProcFsProcessLister(Path procRoot, Path passwdFile, boolean xroadJavaOnly, Clock clock) {
+        this.procRoot = procRoot;
+        this.passwdFile = passwdFile;
+        this.xroadJavaOnly = xroadJavaOnly;
+        this.clock = clock;
+    }
+
+    /**
+     * Lists the processes.
+     * @return process data
+     * @throws ExecListingFailedException if reading the proc file system fails
+     */
+    public synchronized JmxStringifiedData<ProcessInfo> list() throws ExecListingFailedException {
+        try {
+            SystemStat systemStat = readSystemStat();
+            long memTotalKb = readMemTotalKb();
+
+            ArrayList<ProcessInfo> processes = new ArrayList<>();
+            ArrayList<String> jmxRepresentation = new ArrayList<>();
+            jmxRepresentation.add(JMX_HEADER);
+
+            Map<Integer, Long> cpuTicks = new HashMap<>();
+
+            for (int pid : listPids()) {
+                ProcessInfo info = readProcess(pid, systemStat, memTotalKb, cpuTicks);
+
+                if (info != null) {
+                    processes.add(info);
+                    jmxRepresentation.add(String.format(Locale.ROOT, JMX_FORMAT, info.getUserId(), info.getCpuLoad(),
+                            info.getStartTime(), info.getMemUsed(), info.getProcessId(), info.getCommand()));
+                }
+            }
+
+            previousCpuTicks = cpuTicks;
+            previousElapsedTicks = systemStat.elapsedTicks;
+
+            JmxStringifiedData<ProcessInfo> data = new JmxStringifiedData<>();
+            data.setDtoData(processes);
+            data.setJmxStringData(jmxRepresentation);
+
+            return data;
+        } catch (IOException | RuntimeException e) {
+            throw new ExecListingFailedException("Failed to read processes from " + procRoot, e);
+        }
+    }
+
+    private ProcessInfo readProcess(int pid, SystemStat systemStat, long memTotalKb, Map<Integer, Long> cpuTicks)
+            throws IOException {
+        Path processDir = procRoot.resolve(Integer.toString(pid));
+
+        try {
+            String comm = readProcessStat(processDir.resolve("stat"));
+            long[] status = readProcessStatus(processDir.resolve("status"));
+            String user = getUserName((int) status[0]);
+
+            if (xroadJavaOnly && !(XROAD_USER.equals(user) && JAVA_COMMAND.equals(comm))) {
+                return null;
+            }
+
+            String command = xroadJavaOnly ? readCommandLine(processDir.resolve("cmdline"), comm) : comm;
+
+            long ticks = statFields[STAT_UTIME] + statFields[STAT_STIME];
+            long startTicks = statFields[STAT_STARTTIME];
+            cpuTicks.put(pid, ticks);
+
+            ProcessInfo info = new ProcessInfo();
+            info.setUserId(user);
+            info.setCpuLoad(formatPercent(cpuPercent(pid, ticks, startTicks, systemStat.elapsedTicks)));
+            info.setStartTime(formatStartTime(systemStat.bootTime + startTicks / USER_HZ));
+            info.setMemUsed(formatPercent(memTotalKb > 0 ? (double) status[1] * PERCENT / memTotalKb : 0));
+            info.setProcessId(Integer.toString(pid));
+            info.setCommand(command);
+
+            return info;
+        } catch (NoSuchFileException e) {
+            // the process exited while it was being listed
+            log.trace("Process {} disappeared", pid);
+
+            return null;
+        }
+    }
+
+    private double cpuPercent(int pid, long ticks, long startTicks, long elapsedTicks) {
+        Long previousTicks = previousCpuTicks.get(pid);
+
+        if (previousTicks != null && elapsedTicks > previousElapsedTicks) {
+            return (double) (ticks - previousTicks) * PERCENT / (elapsedTicks - previousElapsedTicks);
+        }
+
+        long lifetimeTicks = elapsedTicks - startTicks;
+
+        return lifetimeTicks > 0 ? (double) ticks * PERCENT / lifetimeTicks : 0;
+    }
+
+    private List<Integer> listPids() throws IOException {
+        List<Integer> pids = new ArrayList<>();
+
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(procRoot)) {
+            for (Path dir : dirs) {
+                int pid = parsePid(dir.getFileName().toString());
+
+                if (pid > 0) {
+                    pids.add(pid);
+                }
+            }
+        }
+
+        pids.sort(null);
+
+        return pids;
+    }
+
+    private static int parsePid(String name) {
+        int pid = 0;
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+
+            pid = pid * 10 + (c - '0');
+        }
+
+        return pid;
+    }
+
+    // Reads the first cpu line, the number of CPUs and the boot time from /proc/stat.
+    private SystemStat readSystemStat() throws IOException {
+        int len = readFile(procRoot.resolve("stat"));
+
+        long totalTicks = -1;
+        long bootTime = 0;
+        int cpus = 0;
+
+        for (int pos = 0; pos < len; pos = nextLine(pos, len)) {
+            if (startsWith(pos, len, "cpu ")) {
+                totalTicks = sumNumbers(pos + "cpu ".length(), len);
+            } else if (startsWith(pos, len, "cpu")) {
+                cpus++;
+            } else if (startsWith(pos, len, "btime ")) {
+                bootTime = parseNumber(pos + "btime ".length(), len);
+            }
+        }
+
+        if (totalTicks < 0 || cpus == 0) {
+            throw new IOException("Unexpected contents in " + procRoot.resolve("stat"));
+        }
+
+        return new SystemStat(totalTicks / cpus, bootTime);
+    }
+
+    private long readMemTotalKb() throws IOException {
+        int len = readFile(procRoot.resolve("meminfo"));
+
+        for (int pos = 0; pos < len; pos = nextLine(pos, len)) {
+            if (startsWith(pos, len, "MemTotal:")) {
+                return parseNumber(pos + "MemTotal:".length(), len);
+            }
+        }
+
+        return 0;
+    }
+
+    // Reads the process stat file into statFields and returns the command name.
+    private String readProcessStat(Path file) throws IOException {
+        int len = readFile(file);
+
+        // the command name is in parentheses and may itself contain spaces and parentheses
+        int commStart = indexOf((byte) '(', 0, len);
+        int commEnd = lastIndexOf((byte) ')', len);
+
+        if (commStart < 0 || commEnd < commStart) {
+            throw new IOException("Unexpected contents in " + file);
+        }
+
+        Arrays.fill(statFields, 0);
+
+        int field = 0;
+        int pos = commEnd + 1;
+
+        while (pos < len && field < statFields.length) {
+            while (pos < len && buffer[pos] == ' ') {
+                pos++;
+            }
+
+            statFields[field++] = parseNumber(pos, len);
+
+            while (pos < len && buffer[pos] != ' ') {
+                pos++;
+            }
+        }
+
+        return new String(buffer, commStart + 1, commEnd - commStart - 1, StandardCharsets.UTF_8);
+    }
+
+    // Returns the effective user id and the resident set size in kB.
+    private long[] readProcessStatus(Path file) throws IOException {
+        int len = readFile(file);
+        long[] result = new long[2];
+
+        for (int pos = 0; pos < len; pos = nextLine(pos, len)) {
+            if (startsWith(pos, len, "Uid:")) {
+                // real, effective, saved set and file system uids
+                int effective = skipNumber(skipWhitespace(pos + "Uid:".length(), len), len);
+                result[0] = parseNumber(effective, len);
+            } else if (startsWith(pos, len, "VmRSS:")) {
+                result[1] = parseNumber(pos + "VmRSS:".length(), len);
+            }
+        }
+
+        return result;
+    }
+
+    private String readCommandLine(Path file, String comm) throws IOException {
+        int len = readFile(file);
+
+        while (len > 0 && buffer[len - 1] == 0) {
+            len--;
+        }
+
+        if (len == 0) {
+            return "[" + comm + "]";
+        }
+
+        for (int i = 0; i < len; i++) {
+            if (buffer[i] == 0) {
+                buffer[i] = ' ';
+            }
+        }
+
+        return new String(buffer, 0, len, StandardCharsets.UTF_8);
+    }
+
+    private String getUserName(int uid) throws IOException {
+        String name = userNames.get(uid);
+
+        if (name == null) {
+            // reload the user names when an unknown uid is encountered
+            userNames = readUserNames();
+            name = userNames.get(uid);
+
+            if (name == null) {
+                name = Integer.toString(uid);
+                userNames.put(uid, name);
+            }
+        }
+
+        return name;
+    }
+
+    private Map<Integer, String> readUserNames() throws IOException {
+        Map<Integer, String> names = new HashMap<>();
+
+        if (!Files.isReadable(passwdFile)) {
+            return names;
+        }
+
+        for (String line : Files.readAllLines(passwdFile, StandardCharsets.UTF_8)) {
+            String[] fields = line.split(":", -1);
+
+            if (fields.length > 2) {
+                try {
+                    names.put(Integer.parseInt(fields[2]), fields[0]);
+                } catch (NumberFormatException e) {
+                    log.trace("Ignoring passwd entry {}", fields[0]);
+                }
+            }
+        }
+
+        return names;
+    }
+
+    private String formatStartTime(long startEpochSecond) {
+        ZonedDateTime start = Instant.ofEpochSecond(startEpochSecond).atZone(clock.getZone());
+        LocalDate today = LocalDate.now(clock);
+
+        if (start.toLocalDate().equals(today)) {
+            return TIME_FORMAT.format(start);
+        } else if (start.getYear() == today.getYear()) {
+            return DAY_FORMAT.format(start);
+        }
+
+        return YEAR_FORMAT.format(start);
+    }
+
+    private static String formatPercent(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    // Reads the whole file into the reusable buffer and returns the number of bytes read.
+    private int readFile(Path file) throws IOException {
+        int len = 0;
+
+        try (InputStream in = Files.newInputStream(file)) {
+            int count;
+
+            while ((count = in.read(buffer, len, buffer.length - len)) != -1) {
+                len += count;
+
+                if (len == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+        }
+
+        return len;
+    }
+
+    private boolean startsWith(int pos, int len, String prefix) {
+        if (pos + prefix.length() > len) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buffer[pos + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private int nextLine(int pos, int len) {
+        int newline = indexOf((byte) '\n', pos, len);
+
+        return newline < 0 ? len : newline + 1;
+    }
+
+    private int indexOf(byte b, int from, int len) {
+        for (int i = from; i < len; i++) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private int lastIndexOf(byte b, int len) {
+        for (int i = len - 1; i >= 0; i--) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private int skipWhitespace(int pos, int len) {
+        while (pos < len && (buffer[pos] == ' ' || buffer[pos] == '\t')) {
+            pos++;
+        }
+
+        return pos;
+    }
+
+    private int skipNumber(int pos, int len) {
+        while (pos < len && buffer[pos] >= '0' && buffer[pos] <= '9') {
+            pos++;
+        }
+
+        return pos;
+    }
+
+    // Parses the number starting at pos, skipping leading whitespace. Returns 0 if there is no number.
+    private long parseNumber(int pos, int len) {
+        long value = 0;
+
+        for (int i = skipWhitespace(pos, len); i < len && buffer[i] >= '0' && buffer[i] <= '9'; i++) {
+            value = value * 10 + (buffer[i] - '0');
+        }
+
+        return value;
+    }
+
+    // Sums the numbers on the line starting at pos.
+    private long sumNumbers(int pos, int len) {
+        long sum = 0;
+
+        while (true) {
+            pos = skipWhitespace(pos, len);
+
+            if (pos >= len || buffer[pos] == '\n') {
+                return sum;
+            }
+
+            sum += parseNumber(pos, len);
+            pos = skipNumber(pos, len);
+
+            if (pos < len && buffer[pos] != ' ' && buffer[pos] != '\t' && buffer[pos] != '\n') {
+                return sum;
+            }
+        }
+    }
+
+    private static final class SystemStat {
+        // clock ticks per CPU since boot
+        private final long elapsedTicks;
+        // boot time in seconds since the epoch
+        private final long bootTime;
+
+        SystemStat(long elapsedTicks, long bootTime) {
+            this.elapsedTicks = elapsedTicks;
+            this.bootTime = bootTime;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.monitor.executablelister;
+
+import ee.ria.xroad.monitor.JmxStringifiedData;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link ProcFsProcessLister} using a fake proc file system.
+ */
+public class ProcFsProcessListerTest {
+
+    // 2020-11-05T10:00:00Z
+    private static final long BOOT_TIME = 1604570400L;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path procRoot;
+    private Path passwdFile;
+    private Clock clock;
+
+    /**
+     * Creates the fake proc file system.
+     */
+    @Before
+    public void setup() throws Exception {
+        procRoot = tempFolder.newFolder("proc").toPath();
+        passwdFile = tempFolder.newFile("passwd").toPath();
+        clock = Clock.fixed(Instant.ofEpochSecond(BOOT_TIME + 2 * 60 * 60), ZoneOffset.UTC);
+
+        write(passwdFile, "root:x:0:0:root:/root:/bin/bash\nxroad:x:999:999::/var/lib/xroad:/bin/bash\n");
+        write(procRoot.resolve("meminfo"), "MemTotal:        1000000 kB\nMemFree:          500000 kB\n");
+        writeSystemStat(10000);
+
+        writeProcess(1, "init", 0, 150, 50, 1000, 25000, "/sbin/init\0");
+        writeProcess(1234, "java", 999, 3000, 1000, 360000, 100000,
+                "/usr/bin/java\0-Xmx512m\0-jar\0proxy.jar\0");
+        writeProcess(42, "kworker/0:1 (x)", 0, 0, 0, 10, -1, "");
+        writeProcess(77, "java", 0, 0, 0, 500, 1000, "/usr/bin/java\0Main\0");
+
+        Files.createDirectory(procRoot.resolve("self"));
+        Files.createDirectory(procRoot.resolve("sys"));
+    }
+
+    @Test
+    public void listsAllProcesses() {
+        ProcFsProcessLister lister = new ProcFsProcessLister(procRoot, passwdFile, false, clock);
+
+        JmxStringifiedData<ProcessInfo> data = lister.list();
+        assertEquals(4, data.getDtoData().size());
+        assertEquals(5, data.getJmxStringData().size()); // header row included
+
+        ProcessInfo info = data.getDtoData().get(0);
+        assertEquals("root", info.getUserId());
+        assertEquals("5.0", info.getCpuLoad()); // 200 ticks in 4000 ticks
+        assertEquals("10:00", info.getStartTime());
+        assertEquals("2.5", info.getMemUsed());
+        assertEquals("1", info.getProcessId());
+        assertEquals("init", info.getCommand());
+
+        ProcessInfo kernelThread = data.getDtoData().get(1);
+        assertEquals("42", kernelThread.getProcessId());
+        assertEquals("kworker/0:1 (x)", kernelThread.getCommand());
+        assertEquals("0.0", kernelThread.getMemUsed());
+
+        assertEquals("USER      %CPU START %MEM     PID COMMAND", data.getJmxStringData().get(0));
+        assertEquals("root       5.0 10:00  2.5       1 init", data.getJmxStringData().get(1));
+    }
+
+    @Test
+    public void listsXroadJavaProcesses() {
+        ProcFsProcessLister lister = new ProcFsProcessLister(procRoot, passwdFile, true, clock);
+
+        JmxStringifiedData<ProcessInfo> data = lister.list();
+        assertEquals(1, data.getDtoData().size());
+        assertEquals(2, data.getJmxStringData().size());
+
+        ProcessInfo info = data.getDtoData().get(0);
+        assertEquals("xroad", info.getUserId());
+        assertEquals("1234", info.getProcessId());
+        assertEquals("/usr/bin/java -Xmx512m -jar proxy.jar", info.getCommand());
+        assertEquals("11:00", info.getStartTime());
+        assertEquals("10.0", info.getMemUsed());
+    }
+
+    @Test
+    public void calculatesCpuLoadFromDeltas() throws Exception {
+        ProcFsProcessLister lister = new ProcFsProcessLister(procRoot, passwdFile, false, clock);
+        lister.list();
+
+        // 1000 ticks per CPU elapse, init uses 100 of them
+        writeSystemStat(12000);
+        writeProcess(1, "init", 0, 200, 100, 1000, 25000, "/sbin/init\0");
+        // a process that did not exist in the previous listing reports its lifetime average
+        writeProcess(500, "sshd", 0, 100, 0, 5000, 1000, "/usr/sbin/sshd\0");
+        deleteProcess(77);
+
+        JmxStringifiedData<ProcessInfo> data = lister.list();
+        assertEquals(4, data.getDtoData().size());
+        assertEquals("10.0", data.getDtoData().get(0).getCpuLoad());
+        assertEquals("0.0", data.getDtoData().get(1).getCpuLoad());
+        assertEquals("500", data.getDtoData().get(2).getProcessId());
+        assertEquals("10.0", data.getDtoData().get(2).getCpuLoad());
+    }
+
+    @Test
+    public void formatsStartTimeLikePs() {
+        Clock nextDay = Clock.offset(clock, java.time.Duration.ofDays(1));
+        ProcFsProcessLister lister = new ProcFsProcessLister(procRoot, passwdFile, false, nextDay);
+        assertEquals("Nov05", lister.list().getDtoData().get(0).getStartTime());
+
+        Clock nextYear = Clock.offset(clock, java.time.Duration.ofDays(365));
+        lister = new ProcFsProcessLister(procRoot, passwdFile, false, nextYear);
+        assertEquals("2020", lister.list().getDtoData().get(0).getStartTime());
+    }
+
+    @Test(expected = ExecListingFailedException.class)
+    public void failsWithoutProcFs() throws Exception {
+        Files.delete(procRoot.resolve("stat"));
+
+        new ProcFsProcessLister(procRoot, passwdFile, false, clock).list();
+    }
+
+    private void writeSystemStat(long totalTicks) throws IOException {
+        // two CPUs, the total is split between user and idle time
+        write(procRoot.resolve("stat"), "cpu  " + totalTicks / 4 + " 0 0 " + totalTicks * 3 / 4 + " 0 0 0 0 0 0\n"
+                + "cpu0 1 0 0 1 0 0 0 0 0 0\n"
+                + "cpu1 1 0 0 1 0 0 0 0 0 0\n"
+                + "intr 12345 0 0\n"
+                + "btime " + BOOT_TIME + "\n"
+                + "processes 1000\n");
+    }
+
+    private void writeProcess(int pid, String comm, int uid, long utime, long stime, long startTime, long rssKb,
+            String cmdline) throws IOException {
+        Path dir = procRoot.resolve(Integer.toString(pid));
+        Files.createDirectories(dir);
+
+        write(dir.resolve("stat"), pid + " (" + comm + ") S 0 1 1 0 -1 4194560 100 0 0 0 " + utime + " " + stime
+                + " 0 0 20 0 1 0 " + startTime + " 12345678 1234 18446744073709551615 1 1 0 0 0 0 0 0 0 0 0 0 17 0"
+                + " 0 0 0 0 0\n");
+        write(dir.resolve("status"), "Name:\t" + comm + "\nState:\tS (sleeping)\nUid:\t" + uid + "\t" + uid + "\t"
+                + uid + "\t" + uid + "\n" + (rssKb >= 0 ? "VmRSS:\t  " + rssKb + " kB\n" : "") + "Threads:\t1\n");
+        write(dir.resolve("cmdline"), cmdline);
+    }
+
+    private void deleteProcess(int pid) throws IOException {
+        File dir = procRoot.resolve(Integer.toString(pid)).toFile();
+
+        for (File file : dir.listFiles()) {
+            Files.delete(file.toPath());
+        }
+
+        Files.delete(dir.toPath());
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
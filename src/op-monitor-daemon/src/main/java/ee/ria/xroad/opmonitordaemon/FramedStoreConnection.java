@@ -0,0 +1,335 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import ee.ria.xroad.common.opmonitoring.OpMonitoringFrames;
+
+import com.codahale.metrics.MetricRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jetty.io.AbstractConnection;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Server side of a persistent framed connection from the proxy. The RECORDS frames are parsed from the input as
+ * they arrive and stored in parallel by the connector's executor, every frame is acknowledged with its sequence
+ * number once the records have been stored. The number of frames processed at a time per connection is limited,
+ * the connection is not read while the limit is reached. The acknowledgements are queued and written by the
+ * thread that finds the end point idle, so the storing threads never wait for the client.
+ */
+@Slf4j
+class FramedStoreConnection extends AbstractConnection {
+
+    private static final int MIN_READ_SPACE = 8 * 1024;
+
+    // Maximum number of frames of a connection that are being stored or whose acknowledgement has not been
+    // written yet. The limit is above the default window of the client, so it only stops clients that do not
+    // wait for the acknowledgements.
+    private static final int MAX_FRAMES_IN_FLIGHT = 16;
+
+    private final MetricRegistry healthMetricRegistry;
+
+    private ByteBuffer input;
+
+    // Length of the frame at the start of the input that has not been received completely, or 0.
+    private int incompleteFrameLength;
+
+    private final AtomicInteger framesInFlight = new AtomicInteger();
+
+    // Set when the reading has stopped because of the frames in flight, the reading is resumed by the thread
+    // that clears the flag.
+    private final AtomicBoolean readingPaused = new AtomicBoolean();
+
+    // The acknowledgements waiting to be written, guarded by the queue itself.
+    private final Queue<ByteBuffer> pendingAcks = new ArrayDeque<>();
+    private boolean writingAcks;
+
+    FramedStoreConnection(EndPoint endPoint, Executor executor, MetricRegistry healthMetricRegistry) {
+        super(endPoint, executor);
+
+        this.healthMetricRegistry = healthMetricRegistry;
+    }
+
+    @Override
+    public void onOpen() {
+        super.onOpen();
+
+        input = BufferUtil.allocate(getInputBufferSize());
+
+        log.debug("Framed store connection opened from {}", getEndPoint().getRemoteAddress());
+
+        fillInterested();
+    }
+
+    @Override
+    public void onFillable() {
+        try {
+            while (true) {
+                ensureReadSpace();
+
+                int filled = getEndPoint().fill(input);
+
+                if (filled < 0) {
+                    log.debug("Framed store connection closed by {}", getEndPoint().getRemoteAddress());
+
+                    getEndPoint().close();
+
+                    return;
+                }
+
+                if (!parseFrames()) {
+                    return;
+                }
+
+                if (filled == 0) {
+                    fillInterested();
+
+                    return;
+                }
+            }
+        } catch (Throwable t) { // We want to catch serious errors as well
+            log.error("Error while reading framed store connection", t);
+
+            getEndPoint().close();
+        }
+    }
+
+    // Continues with the frames already in the input before reading more.
+    private void resumeReading() {
+        try {
+            if (parseFrames()) {
+                fillInterested();
+            }
+        } catch (Throwable t) { // We want to catch serious errors as well
+            log.error("Error while reading framed store connection", t);
+
+            getEndPoint().close();
+        }
+    }
+
+    private void ensureReadSpace() {
+        int required = Math.max(MIN_READ_SPACE, incompleteFrameLength - input.remaining());
+
+        if (input.capacity() - input.limit() >= required) {
+            return;
+        }
+
+        BufferUtil.compact(input);
+
+        if (input.capacity() - input.limit() < required) {
+            ByteBuffer larger = BufferUtil.allocate(Math.max(input.capacity() * 2, input.remaining() + required));
+            BufferUtil.append(larger, input);
+
+            input = larger;
+        }
+    }
+
+    // Returns false if the reading was paused because too many frames are in flight.
+    private boolean parseFrames() throws IOException {
+        while (input.remaining() >= OpMonitoringFrames.LENGTH_FIELD_LENGTH) {
+            int length = input.getInt(input.position());
+
+            OpMonitoringFrames.checkFrameLength(length);
+
+            if (input.remaining() < OpMonitoringFrames.LENGTH_FIELD_LENGTH + length) {
+                incompleteFrameLength = OpMonitoringFrames.LENGTH_FIELD_LENGTH + length;
+
+                return true;
+            }
+
+            if (isTooManyFramesInFlight()) {
+                return false;
+            }
+
+            incompleteFrameLength = 0;
+
+            input.getInt();
+
+            long sequence = input.getLong();
+            byte type = input.get();
+            byte[] payload = new byte[length - OpMonitoringFrames.HEADER_LENGTH];
+
+            input.get(payload);
+
+            framesInFlight.incrementAndGet();
+
+            getExecutor().execute(() -> handleFrame(sequence, type, payload));
+        }
+
+        return true;
+    }
+
+    private boolean isTooManyFramesInFlight() {
+        if (framesInFlight.get() < MAX_FRAMES_IN_FLIGHT) {
+            return false;
+        }
+
+        readingPaused.set(true);
+
+        // A frame may have completed before the flag was set, in which case nobody would resume the reading.
+        return framesInFlight.get() >= MAX_FRAMES_IN_FLIGHT || !readingPaused.compareAndSet(true, false);
+    }
+
+    private void framesCompleted(int count) {
+        if (framesInFlight.addAndGet(-count) < MAX_FRAMES_IN_FLIGHT && readingPaused.compareAndSet(true, false)) {
+            getExecutor().execute(this::resumeReading);
+        }
+    }
+
+    private void handleFrame(long sequence, byte type, byte[] payload) {
+        String errorMessage = null;
+
+        try {
+            if (type != OpMonitoringFrames.RECORDS) {
+                throw new Exception("Unsupported frame type " + type);
+            }
+
+            log.trace("Received store frame {} from {}", sequence, getEndPoint().getRemoteAddress());
+
+            try (InputStream content = new LimitedInputStream(new InflaterInputStream(
+                    new ByteArrayInputStream(payload)), OpMonitoringFrames.MAX_DECOMPRESSED_PAYLOAD_LENGTH)) {
+                new StoreRequestProcessor(content, healthMetricRegistry).process();
+            }
+        } catch (Throwable t) { // We want to catch serious errors as well
+            log.error("Error while handling data store frame", t);
+
+            errorMessage = t.getMessage() != null ? t.getMessage() : t.getClass().getName();
+        }
+
+        acknowledge(sequence, errorMessage);
+    }
+
+    // Writes are serialized, the end point does not allow concurrent writes. The acknowledgements queued while
+    // a write is pending are written together when it completes.
+    private void acknowledge(long sequence, String errorMessage) {
+        synchronized (pendingAcks) {
+            pendingAcks.add(OpMonitoringFrames.createAck(sequence, errorMessage));
+
+            if (writingAcks) {
+                return;
+            }
+
+            writingAcks = true;
+        }
+
+        writeAcks();
+    }
+
+    private void writeAcks() {
+        ByteBuffer[] acks;
+
+        synchronized (pendingAcks) {
+            if (pendingAcks.isEmpty()) {
+                writingAcks = false;
+
+                return;
+            }
+
+            acks = pendingAcks.toArray(new ByteBuffer[0]);
+            pendingAcks.clear();
+        }
+
+        getEndPoint().write(new Callback() {
+            @Override
+            public void succeeded() {
+                framesCompleted(acks.length);
+
+                writeAcks();
+            }
+
+            @Override
+            public void failed(Throwable t) {
+                log.error("Error while acknowledging data store frames", t);
+
+                getEndPoint().close();
+            }
+        }, acks);
+    }
+
+    // Fails the reading of a decompressed payload that is longer than the limit.
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+
+            if (b >= 0) {
+                count(1);
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+
+            if (read > 0) {
+                count(read);
+            }
+
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+
+            count(skipped);
+
+            return skipped;
+        }
+
+        private void count(long bytes) throws IOException {
+            count += bytes;
+
+            if (count > limit) {
+                throw new IOException("Decompressed frame payload exceeds " + limit + " bytes");
+            }
+        }
+    }
+}
@@ -23,21 +23,33 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
  * THE SOFTWARE.
  */
-package ee.ria.xroad.proxy.serverproxy;
+package ee.ria.xroad.opmonitordaemon;
 
-final class ServiceHandlerLoader {
+import com.codahale.metrics.MetricRegistry;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.AbstractConnectionFactory;
+import org.eclipse.jetty.server.Connector;
 
-    private ServiceHandlerLoader() {
-    }
+/**
+ * Connection factory for the persistent framed connections used by the proxy for storing operational data
+ * (see {@link ee.ria.xroad.common.opmonitoring.OpMonitoringFrames}).
+ */
+class FramedStoreConnectionFactory extends AbstractConnectionFactory {
+
+    static final String PROTOCOL = "op-monitor-frames";
 
-    static ServiceHandler load(String className) {
-        try {
-            Class<?> clazz = Class.forName(className);
-            return (ServiceHandler) clazz.newInstance();
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to load service handler: "
-                    + className, e);
-        }
+    private final MetricRegistry healthMetricRegistry;
+
+    FramedStoreConnectionFactory(MetricRegistry healthMetricRegistry) {
+        super(PROTOCOL);
+
+        this.healthMetricRegistry = healthMetricRegistry;
     }
 
+    @Override
+    public Connection newConnection(Connector connector, EndPoint endPoint) {
+        return configure(new FramedStoreConnection(endPoint, connector.getExecutor(), healthMetricRegistry),
+                connector, endPoint);
+    }
 }
@@ -36,10 +36,16 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.SlidingTimeWindowReservoir;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.getLastRequestTimestampGaugeName;
@@ -52,6 +58,10 @@ import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.getServiceTypeN
 /**
  * Health data metrics forwarded over JMX. Also, these metrics are used when
  * health data is requested using the getSecurityServerHealthData SOAP request.
+ * The metrics of a service are resolved once, when the service is first
+ * encountered, and kept in a per-service holder, so processing a record does
+ * not involve looking up the metrics from the registry. Records may be
+ * processed concurrently.
  */
 @Slf4j
 final class HealthDataMetrics {
@@ -66,13 +76,11 @@ final class HealthDataMetrics {
     static final String MONITORING_STARTUP_TIMESTAMP =
             "monitoringStartupTimestamp";
 
-    // The timestamps of last successful and unsuccessful requests are stored
-    // for each service that is handled for, and are provided when the
-    // respective gauge is queried.
-    private static Map<String, Long> requestTimestamps = new HashMap<>();
-
-    // Stores the service types of the services
-    private static Map<String, String> serviceTypes = new HashMap<>();
+    // The metric holders of the services that have been handled for, per
+    // metric registry. The holders do not refer to the registry, so the
+    // entries of registries that are no longer used can be collected.
+    private static final Map<MetricRegistry, Map<ServiceId, ServiceMetrics>> SERVICE_METRICS =
+            Collections.synchronizedMap(new WeakHashMap<>());
 
     private HealthDataMetrics() {
     }
@@ -93,103 +101,46 @@ final class HealthDataMetrics {
     /**
      * Pick the required health data from all the records and update the
      * metrics registry. If necessary, new metrics are registered.
+     * The request counters of each service are incremented once per call.
      * @param registry the metric registry of the operational monitoring daemon
      * @param records  a list of operational data records that will be
      *                 analyzed for health metrics
      */
     static void processRecords(MetricRegistry registry,
             List<OperationalDataRecord> records) {
-        for (OperationalDataRecord rec : records) {
-            if (!rec.getSecurityServerType().equals(
-                    OpMonitoringData.SecurityServerType.PRODUCER)) {
-                // Health data is computed over the requests that are handled
-                // in the producer role only.
-                continue;
-            }
+        RecordsSummary summary = new RecordsSummary();
+        summary.add(records);
 
-            ServiceId serviceId = HealthDataMetricsUtil.getServiceId(rec);
-
-            if (serviceId == null) {
-                // Ignore records without service ID.
-                continue;
-            }
-
-            registerOrUpdateGauges(registry, serviceId, rec);
-            registerOrUpdateCounters(registry, serviceId, rec);
-
-            if (rec.getSucceeded()) {
-                // Statistics of request duration and the sizes of the request
-                // and response are computed over the successful requests only.
-                registerOrUpdateHistograms(registry, serviceId, rec);
-            }
-        }
+        processSummary(registry, summary);
     }
 
-    private static void registerOrUpdateGauges(MetricRegistry registry,
-            ServiceId serviceId, OperationalDataRecord rec) {
-        // last request timestamp
-        String expectedGaugeName = getLastRequestTimestampGaugeName(serviceId,
-                rec.getSucceeded());
-        requestTimestamps.put(expectedGaugeName, rec.getResponseOutTs());
-        Gauge gauge = HealthDataMetricsUtil.findGauge(registry,
-                expectedGaugeName);
-        if (gauge == null) {
-            registry.register(expectedGaugeName,
-                    (Gauge<Long>) () -> requestTimestamps.get(
-                            expectedGaugeName));
-        }
+    /**
+     * Update the metrics registry with the health data summarized from
+     * a number of records. If necessary, new metrics are registered.
+     * The request counters of each service are incremented once per call.
+     * @param registry the metric registry of the operational monitoring daemon
+     * @param summary  the health data of the records
+     */
+    static void processSummary(MetricRegistry registry, RecordsSummary summary) {
+        Map<ServiceId, ServiceMetrics> serviceMetrics = getServiceMetrics(registry);
 
-        // service type
-        String serviceTypeGaugeName = getServiceTypeName(serviceId);
-        serviceTypes.put(serviceTypeGaugeName, rec.getServiceType());
-        Gauge serviceTypeGauge = HealthDataMetricsUtil.findGauge(registry,
-                serviceTypeGaugeName);
-        if (serviceTypeGauge == null) {
-            registry.register(serviceTypeGaugeName,
-                    (Gauge<String>) () -> serviceTypes.get(serviceTypeGaugeName));
-        }
+        summary.services.forEach((serviceId, serviceSummary) ->
+                serviceMetrics.computeIfAbsent(serviceId, ServiceMetrics::new)
+                        .update(registry, serviceSummary));
     }
 
-    private static void registerOrUpdateCounters(MetricRegistry registry,
-            ServiceId serviceId, OperationalDataRecord rec) {
-        String expectedCounterName = getRequestCounterName(serviceId,
-                rec.getSucceeded());
-        Counter counter = HealthDataMetricsUtil.findCounter(registry,
-                expectedCounterName);
-
-        if (counter == null) {
-            // Register and increment a new counter.
-            counter = new SlidingTimeWindowCounter(
-                    OP_MONITOR_HEALTH_STATS_PERIOD_SECONDS, TimeUnit.SECONDS);
-            registry.register(expectedCounterName, counter);
-        }
-
-        counter.inc();
+    private static Map<ServiceId, ServiceMetrics> getServiceMetrics(MetricRegistry registry) {
+        return SERVICE_METRICS.computeIfAbsent(registry, r -> new ConcurrentHashMap<>());
     }
 
-    private static void registerOrUpdateHistograms(MetricRegistry registry,
-            ServiceId serviceId, OperationalDataRecord rec) {
-        registerOrUpdateHistogram(registry, getRequestDurationName(serviceId), getRequestDuration(rec));
-
-        registerOrUpdateHistogram(registry, getRequestSizeName(serviceId), rec.getRequestSize());
-        registerOrUpdateHistogram(registry, getResponseSizeName(serviceId), rec.getResponseSize());
+    private static Histogram createHistogram() {
+        return new Histogram(new SlidingTimeWindowReservoir(
+                OP_MONITOR_HEALTH_STATS_PERIOD_SECONDS, TimeUnit.SECONDS));
     }
 
-    private static void registerOrUpdateHistogram(MetricRegistry registry, String histogramName, Long newValue) {
-
-        if (newValue == null) return;
-
-        Histogram histogram = HealthDataMetricsUtil.findHistogram(registry, histogramName);
-
-        if (histogram == null) {
-            // Add a histogram corresponding to the service and update it.
-            histogram = registry.register(histogramName,
-                    new Histogram(new SlidingTimeWindowReservoir(
-                            OP_MONITOR_HEALTH_STATS_PERIOD_SECONDS,
-                            TimeUnit.SECONDS)));
-        }
-
-        histogram.update(newValue);
+    private static Counter createCounter() {
+        return new SlidingTimeWindowCounter(
+                OP_MONITOR_HEALTH_STATS_PERIOD_SECONDS, TimeUnit.SECONDS);
     }
 
     /**
@@ -224,4 +175,227 @@ final class HealthDataMetrics {
                 (Gauge<Long>) startupTimestampProvider::get);
     }
 
+    /**
+     * The health data of a number of records per service. The records can be
+     * added in chunks and the summary applied to the metrics later, without
+     * keeping the records. Only the samples of the histograms grow with the
+     * number of records.
+     */
+    static final class RecordsSummary {
+        private final Map<ServiceId, ServiceSummary> services = new HashMap<>();
+
+        /**
+         * Adds the health data of the given records to the summary.
+         * @param records operational data records
+         */
+        void add(List<OperationalDataRecord> records) {
+            for (OperationalDataRecord rec : records) {
+                if (!OpMonitoringData.SecurityServerType.PRODUCER.equals(
+                        rec.getSecurityServerType())) {
+                    // Health data is computed over the requests that are handled
+                    // in the producer role only.
+                    continue;
+                }
+
+                ServiceId serviceId = HealthDataMetricsUtil.getServiceId(rec);
+
+                if (serviceId == null) {
+                    // Ignore records without service ID.
+                    continue;
+                }
+
+                services.computeIfAbsent(serviceId, id -> new ServiceSummary()).add(rec);
+            }
+        }
+    }
+
+    // The health data of the records of a single service.
+    private static final class ServiceSummary {
+        private final RequestStatusSummary successful = new RequestStatusSummary();
+        private final RequestStatusSummary unsuccessful = new RequestStatusSummary();
+
+        private String serviceType;
+
+        private final Samples requestDurations = new Samples();
+        private final Samples requestSizes = new Samples();
+        private final Samples responseSizes = new Samples();
+
+        void add(OperationalDataRecord rec) {
+            (rec.getSucceeded() ? successful : unsuccessful).add(rec.getResponseOutTs());
+
+            serviceType = rec.getServiceType();
+
+            if (rec.getSucceeded()) {
+                // Statistics of request duration and the sizes of the request
+                // and response are computed over the successful requests only.
+                requestDurations.add(getRequestDuration(rec));
+
+                if (rec.getRequestSize() != null) {
+                    requestSizes.add(rec.getRequestSize());
+                }
+
+                if (rec.getResponseSize() != null) {
+                    responseSizes.add(rec.getResponseSize());
+                }
+            }
+        }
+    }
+
+    // The number and the last timestamp of either successful or unsuccessful
+    // requests of a service.
+    private static final class RequestStatusSummary {
+        private long count;
+        private Long lastRequestTimestamp;
+
+        void add(Long responseOutTs) {
+            count++;
+
+            if (responseOutTs != null && (lastRequestTimestamp == null || responseOutTs > lastRequestTimestamp)) {
+                lastRequestTimestamp = responseOutTs;
+            }
+        }
+    }
+
+    // Histogram samples collected from the records.
+    private static final class Samples {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private long[] values = new long[INITIAL_CAPACITY];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            values[size++] = value;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void updateHistogram(Histogram histogram) {
+            for (int i = 0; i < size; i++) {
+                histogram.update(values[i]);
+            }
+        }
+    }
+
+    // The metrics of a single service. The metrics are registered when they
+    // are first updated.
+    private static final class ServiceMetrics {
+        private final RequestStatusMetrics successful;
+        private final RequestStatusMetrics unsuccessful;
+
+        private final String serviceTypeGaugeName;
+        private final AtomicBoolean serviceTypeGaugeRegistered = new AtomicBoolean();
+        private volatile String serviceType;
+
+        private final String requestDurationName;
+        private final String requestSizeName;
+        private final String responseSizeName;
+
+        private volatile Histogram requestDuration;
+        private volatile Histogram requestSize;
+        private volatile Histogram responseSize;
+
+        ServiceMetrics(ServiceId serviceId) {
+            successful = new RequestStatusMetrics(serviceId, true);
+            unsuccessful = new RequestStatusMetrics(serviceId, false);
+            serviceTypeGaugeName = getServiceTypeName(serviceId);
+            requestDurationName = getRequestDurationName(serviceId);
+            requestSizeName = getRequestSizeName(serviceId);
+            responseSizeName = getResponseSizeName(serviceId);
+        }
+
+        void update(MetricRegistry registry, ServiceSummary summary) {
+            successful.update(registry, summary.successful);
+            unsuccessful.update(registry, summary.unsuccessful);
+
+            serviceType = summary.serviceType;
+
+            if (serviceTypeGaugeRegistered.compareAndSet(false, true)) {
+                // Get or create, the escaped names of distinct services may be
+                // the same.
+                registry.gauge(serviceTypeGaugeName, () -> (Gauge<String>) () -> serviceType);
+            }
+
+            updateHistograms(registry, summary);
+        }
+
+        private void updateHistograms(MetricRegistry registry, ServiceSummary summary) {
+            if (!summary.requestDurations.isEmpty()) {
+                if (requestDuration == null) {
+                    requestDuration = registry.histogram(requestDurationName, HealthDataMetrics::createHistogram);
+                }
+
+                summary.requestDurations.updateHistogram(requestDuration);
+            }
+
+            if (!summary.requestSizes.isEmpty()) {
+                if (requestSize == null) {
+                    requestSize = registry.histogram(requestSizeName, HealthDataMetrics::createHistogram);
+                }
+
+                summary.requestSizes.updateHistogram(requestSize);
+            }
+
+            if (!summary.responseSizes.isEmpty()) {
+                if (responseSize == null) {
+                    responseSize = registry.histogram(responseSizeName, HealthDataMetrics::createHistogram);
+                }
+
+                summary.responseSizes.updateHistogram(responseSize);
+            }
+        }
+    }
+
+    // The last request timestamp and the request counter of a service for
+    // either successful or unsuccessful requests.
+    private static final class RequestStatusMetrics {
+        private final String lastRequestTimestampGaugeName;
+        private final String requestCounterName;
+
+        private final AtomicBoolean lastRequestTimestampGaugeRegistered = new AtomicBoolean();
+        private final AtomicLong lastRequestTimestamp = new AtomicLong(Long.MIN_VALUE);
+
+        private volatile Counter requestCounter;
+
+        RequestStatusMetrics(ServiceId serviceId, boolean succeeded) {
+            lastRequestTimestampGaugeName = getLastRequestTimestampGaugeName(serviceId, succeeded);
+            requestCounterName = getRequestCounterName(serviceId, succeeded);
+        }
+
+        void update(MetricRegistry registry, RequestStatusSummary summary) {
+            if (summary.count == 0) {
+                return;
+            }
+
+            updateLastRequestTimestamp(registry, summary.lastRequestTimestamp);
+            incrementRequestCount(registry, summary.count);
+        }
+
+        private void updateLastRequestTimestamp(MetricRegistry registry, Long timestamp) {
+            if (timestamp != null) {
+                lastRequestTimestamp.accumulateAndGet(timestamp, Math::max);
+            }
+
+            if (lastRequestTimestampGaugeRegistered.compareAndSet(false, true)) {
+                registry.gauge(lastRequestTimestampGaugeName, () -> (Gauge<Long>) () -> {
+                    long value = lastRequestTimestamp.get();
+
+                    return value == Long.MIN_VALUE ? null : value;
+                });
+            }
+        }
+
+        private void incrementRequestCount(MetricRegistry registry, long count) {
+            if (requestCounter == null) {
+                requestCounter = registry.counter(requestCounterName, HealthDataMetrics::createCounter);
+            }
+
+            requestCounter.inc(count);
+        }
+    }
 }
@@ -39,6 +39,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 
 import javax.net.ssl.KeyManager;
@@ -53,11 +54,17 @@ import static ee.ria.xroad.common.util.TimeUtils.getEpochMillisecond;
  * The main HTTP(S) request handler of the operational monitoring daemon.
  * This class handles the requests for storing and querying operational data (JSON for storing, SOAP for querying).
  * SOAP requests for monitoring data are further processed by the QueryRequestProcessor class.
+ * If the framed transport is enabled, store requests are also accepted over persistent framed connections on a
+ * separate port (see FramedStoreConnection).
  */
 @Slf4j
 final class OpMonitorDaemon implements StartStop {
 
     private static final String CLIENT_CONNECTOR_NAME = "OpMonitorDaemonClientConnector";
+    private static final String FRAMED_CONNECTOR_NAME = "OpMonitorDaemonFramedConnector";
+
+    // The framed connections are kept open by the proxy even when there is no operational data to send.
+    private static final long FRAMED_CONNECTOR_IDLE_TIMEOUT_MILLISECONDS = 3_600_000;
 
     private static final int SSL_SESSION_TIMEOUT = 600;
 
@@ -77,6 +84,7 @@ final class OpMonitorDaemon implements StartStop {
      */
     OpMonitorDaemon() throws Exception {
         createConnector();
+        createFramedConnector();
         createHandler();
         registerHealthMetrics();
     }
@@ -122,12 +130,43 @@ final class OpMonitorDaemon implements StartStop {
         log.info("OpMonitorDaemon {} created ({}:{})", connector.getClass().getSimpleName(), listenAddress, port);
     }
 
+    private void createFramedConnector() {
+        if (!OpMonitoringSystemProperties.isOpMonitorFramedTransportEnabled()) {
+            return;
+        }
+
+        String listenAddress = OpMonitoringSystemProperties.getOpMonitorHost();
+        int port = OpMonitoringSystemProperties.getOpMonitorFramedPort();
+
+        FramedStoreConnectionFactory framedCf = new FramedStoreConnectionFactory(healthMetricRegistry);
+
+        String scheme = OpMonitoringSystemProperties.getOpMonitorDaemonScheme();
+        ServerConnector connector = "https".equalsIgnoreCase(scheme)
+                ? new ServerConnector(server, new SslConnectionFactory(createSslContextFactory(),
+                        FramedStoreConnectionFactory.PROTOCOL), framedCf)
+                : new ServerConnector(server, framedCf);
+
+        connector.setName(FRAMED_CONNECTOR_NAME);
+        connector.setHost(listenAddress);
+        connector.setPort(port);
+        connector.setIdleTimeout(FRAMED_CONNECTOR_IDLE_TIMEOUT_MILLISECONDS);
+
+        server.addConnector(connector);
+
+        log.info("OpMonitorDaemon framed {} created ({}:{})", connector.getClass().getSimpleName(), listenAddress,
+                port);
+    }
+
     private static ServerConnector createDaemonConnector(Server server) {
         return new ServerConnector(server);
     }
 
-    @SneakyThrows
     private static ServerConnector createDaemonSslConnector(Server server) {
+        return new ServerConnector(server, createSslContextFactory());
+    }
+
+    @SneakyThrows
+    private static SslContextFactory createSslContextFactory() {
         SslContextFactory cf = new SslContextFactory(false);
         cf.setNeedClientAuth(true);
         cf.setSessionCachingEnabled(true);
@@ -141,7 +180,7 @@ final class OpMonitorDaemon implements StartStop {
 
         cf.setSslContext(ctx);
 
-        return new ServerConnector(server, cf);
+        return cf;
     }
 
     private void createHandler() {
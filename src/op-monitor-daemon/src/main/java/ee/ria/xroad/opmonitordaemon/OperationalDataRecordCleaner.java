@@ -33,18 +33,37 @@ import akka.actor.ActorSelection;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
 import akka.actor.UntypedAbstractActor;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.jmx.JmxReporter;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
 import org.quartz.JobDataMap;
 import org.quartz.SchedulerException;
 
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
 
 /**
  * Deletes outdated operational data records from the database.
+ * The records are deleted in chunks of consecutive IDs, each in its own
+ * transaction, with a pause between the chunks, so that the cleanup does not
+ * hold locks for a long time or block storing new records. The chunks are
+ * selected by the record timestamp only, so an interrupted cleanup is simply
+ * continued by the next one.
  */
 @Slf4j
 final class OperationalDataRecordCleaner extends UntypedAbstractActor {
@@ -54,6 +73,35 @@ final class OperationalDataRecordCleaner extends UntypedAbstractActor {
     private static final String OPERATIONAL_DATA_RECORD_CLEANER =
             OperationalDataRecordCleaner.class.getSimpleName();
 
+    // The names of the cleanup progress metrics.
+    static final String REMOVED_RECORDS =
+            MetricRegistry.name(OPERATIONAL_DATA_RECORD_CLEANER, "removedRecords");
+    static final String REMOVED_PARTITIONS =
+            MetricRegistry.name(OPERATIONAL_DATA_RECORD_CLEANER, "removedPartitions");
+    static final String CURRENT_CLEANUP_REMOVED_RECORDS =
+            MetricRegistry.name(OPERATIONAL_DATA_RECORD_CLEANER, "currentCleanupRemovedRecords");
+    static final String LAST_CLEANUP_DURATION_MILLIS =
+            MetricRegistry.name(OPERATIONAL_DATA_RECORD_CLEANER, "lastCleanupDurationMillis");
+
+    // The upper bound of a range partition, as formatted by PostgreSQL,
+    // for example FOR VALUES FROM ('1600000000') TO ('1600086400').
+    private static final Pattern PARTITION_UPPER_BOUND = Pattern.compile("TO \\('?(-?\\d+)'?\\)");
+
+    private static final MetricRegistry METRICS = new MetricRegistry();
+
+    private static final Counter REMOVED_RECORDS_COUNTER = METRICS.counter(REMOVED_RECORDS);
+    private static final Counter REMOVED_PARTITIONS_COUNTER = METRICS.counter(REMOVED_PARTITIONS);
+
+    private static final AtomicLong CURRENT_CLEANUP_REMOVED = new AtomicLong();
+    private static final AtomicLong LAST_CLEANUP_DURATION = new AtomicLong();
+
+    static {
+        METRICS.register(CURRENT_CLEANUP_REMOVED_RECORDS, (Gauge<Long>) CURRENT_CLEANUP_REMOVED::get);
+        METRICS.register(LAST_CLEANUP_DURATION_MILLIS, (Gauge<Long>) LAST_CLEANUP_DURATION::get);
+    }
+
+    private final JmxReporter reporter = JmxReporter.forRegistry(METRICS).build();
+
     /**
      * Initializes the operational data recorder cleaner creating an operational
      * data records cleaner actor in the given actor system and scheduling a
@@ -69,6 +117,23 @@ final class OperationalDataRecordCleaner extends UntypedAbstractActor {
                 OpMonitoringSystemProperties.getOpMonitorCleanInterval());
     }
 
+    /**
+     * @return the registry of the cleanup progress metrics
+     */
+    static MetricRegistry getMetrics() {
+        return METRICS;
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        reporter.start();
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        reporter.stop();
+    }
+
     @Override
     public void onReceive(Object message) throws Exception {
         log.trace("onReceive({})", message);
@@ -91,25 +156,155 @@ final class OperationalDataRecordCleaner extends UntypedAbstractActor {
     }
 
     static int cleanRecords(Instant before) throws Exception {
-        log.trace("cleanRecords({})", before);
+        return cleanRecords(before, OpMonitoringSystemProperties.getOpMonitorCleanBatchSize(),
+                OpMonitoringSystemProperties.getOpMonitorCleanBatchPauseMillis());
+    }
+
+    /**
+     * Removes the records older than the given instant.
+     * @param before the instant before which the records are removed
+     * @param batchSize the maximum number of records removed in a transaction
+     * @param pauseMillis the pause between the transactions
+     * @return the number of removed records, not including the records of
+     * dropped partitions
+     * @throws Exception in case of any errors
+     */
+    static int cleanRecords(Instant before, int batchSize, long pauseMillis) throws Exception {
+        log.trace("cleanRecords({}, {}, {})", before, batchSize, pauseMillis);
+
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
 
-        return doInTransaction(session -> {
-            String hql =
-                    "delete OperationalDataRecord r where r.monitoringDataTs < "
-                            + TimeUnit.MILLISECONDS.toSeconds(before.toEpochMilli());
+        long beforeTs = TimeUnit.MILLISECONDS.toSeconds(before.toEpochMilli());
+        long start = System.currentTimeMillis();
+        int removed = 0;
 
-            int removed = session.createQuery(hql).executeUpdate();
+        CURRENT_CLEANUP_REMOVED.set(0);
 
-            if (removed == 0) {
-                log.info("No outdated operational data records to remove from"
-                        + " the database");
-            } else {
-                log.info("Removed {} outdated operational data records from"
-                        + " the database", removed);
+        try {
+            if (OpMonitoringSystemProperties.isOpMonitorCleanDropPartitionsEnabled()) {
+                dropExpiredPartitions(beforeTs);
             }
 
-            return removed;
-        });
+            // The highest ID of the removed records, each chunk is looked up
+            // after it instead of skipping over the removed index entries.
+            AtomicLong lastRemovedId = new AtomicLong(Long.MIN_VALUE);
+            int chunkRemoved;
+
+            do {
+                chunkRemoved = doInTransaction(session -> removeChunk(session, beforeTs, lastRemovedId, batchSize));
+
+                removed += chunkRemoved;
+                REMOVED_RECORDS_COUNTER.inc(chunkRemoved);
+                CURRENT_CLEANUP_REMOVED.addAndGet(chunkRemoved);
+
+                log.debug("Removed {} outdated operational data records, {} in total", chunkRemoved, removed);
+
+                if (chunkRemoved == batchSize && pauseMillis > 0) {
+                    Thread.sleep(pauseMillis);
+                }
+            } while (chunkRemoved == batchSize);
+        } finally {
+            LAST_CLEANUP_DURATION.set(System.currentTimeMillis() - start);
+        }
+
+        if (removed == 0) {
+            log.info("No outdated operational data records to remove from"
+                    + " the database");
+        } else {
+            log.info("Removed {} outdated operational data records from"
+                    + " the database", removed);
+        }
+
+        return removed;
+    }
+
+    // Removes the expired records with the lowest IDs after the last removed
+    // ID, at most batchSize of them. The expired records are the oldest ones,
+    // so the range of IDs is found from the start of the primary key index.
+    private static int removeChunk(Session session, long beforeTs, AtomicLong lastRemovedId, int batchSize) {
+        List<Long> ids = session.createQuery("SELECT r.id FROM OperationalDataRecord r"
+                + " WHERE r.id > :lastId AND r.monitoringDataTs < :before ORDER BY r.id", Long.class)
+                .setParameter("lastId", lastRemovedId.get())
+                .setParameter("before", beforeTs)
+                .setMaxResults(batchSize)
+                .getResultList();
+
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        long upperId = ids.get(ids.size() - 1);
+
+        int removed = session.createQuery("delete OperationalDataRecord r"
+                + " where r.id > :lastId and r.id <= :upperId and r.monitoringDataTs < :before")
+                .setParameter("lastId", lastRemovedId.get())
+                .setParameter("upperId", upperId)
+                .setParameter("before", beforeTs)
+                .executeUpdate();
+
+        lastRemovedId.set(upperId);
+
+        return removed;
+    }
+
+    // Drops the partitions of a range partitioned operational_data table on
+    // PostgreSQL whose upper bound is not later than the given timestamp.
+    private static void dropExpiredPartitions(long beforeTs) throws Exception {
+        List<String> partitions = doInTransaction(session -> session.doReturningWork(
+                connection -> findExpiredPartitions(connection, beforeTs)));
+
+        for (String partition : partitions) {
+            try {
+                doInTransaction(session -> {
+                    session.doWork(connection -> {
+                        try (Statement statement = connection.createStatement()) {
+                            statement.execute("DROP TABLE " + partition);
+                        }
+                    });
+
+                    return null;
+                });
+            } catch (Exception e) {
+                log.warn("Failed to drop operational data partition {}, removing its records instead", partition, e);
+
+                return;
+            }
+
+            REMOVED_PARTITIONS_COUNTER.inc();
+
+            log.info("Dropped outdated operational data partition {}", partition);
+        }
+    }
+
+    private static List<String> findExpiredPartitions(Connection connection, long beforeTs) throws SQLException {
+        List<String> partitions = new ArrayList<>();
+
+        if (!"PostgreSQL".equals(connection.getMetaData().getDatabaseProductName())) {
+            log.warn("Dropping operational data partitions is supported on PostgreSQL only");
+
+            return partitions;
+        }
+
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(
+                     "SELECT quote_ident(n.nspname) || '.' || quote_ident(c.relname),"
+                             + " pg_get_expr(c.relpartbound, c.oid)"
+                             + " FROM pg_inherits i"
+                             + " JOIN pg_class c ON c.oid = i.inhrelid"
+                             + " JOIN pg_namespace n ON n.oid = c.relnamespace"
+                             + " WHERE i.inhparent = to_regclass('operational_data')")) {
+            while (rs.next()) {
+                Matcher matcher = PARTITION_UPPER_BOUND.matcher(String.valueOf(rs.getString(2)));
+
+                if (matcher.find() && Long.parseLong(matcher.group(1)) <= beforeTs) {
+                    partitions.add(rs.getString(1));
+                }
+            }
+        }
+
+        return partitions;
     }
 
     private static void registerCronJob(JobManager jobManager,
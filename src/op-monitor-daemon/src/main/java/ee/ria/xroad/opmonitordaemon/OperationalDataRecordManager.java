@@ -34,10 +34,12 @@ import lombok.extern.slf4j.Slf4j;
 import org.hibernate.Session;
 import org.hibernate.query.Query;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataOutputSpecFields.MONITORING_DATA_TS;
@@ -63,6 +65,22 @@ final class OperationalDataRecordManager {
         doInTransaction(session -> storeInTransaction(session, records, timestamp));
     }
 
+    /**
+     * Stores the records of the given reader in a single transaction. The
+     * records are read and stored in chunks of the configured JDBC batch size,
+     * so that only one chunk is kept in memory at a time.
+     * @param reader the source of the records
+     * @param timestamp the monitoring data timestamp of the records
+     * @param chunkStored called with each chunk after it has been flushed to
+     * the database, before the transaction is committed
+     * @return the number of stored records
+     * @throws Exception in case of any errors
+     */
+    static int storeRecords(OperationalDataRecordReader reader, long timestamp,
+            Consumer<List<OperationalDataRecord>> chunkStored) throws Exception {
+        return doInTransaction(session -> storeInTransaction(session, reader, timestamp, chunkStored));
+    }
+
     static OperationalDataRecords queryAllRecords() throws Exception {
         return doInTransaction(OperationalDataRecordManager::queryAllOperationalDataInTransaction);
     }
@@ -81,7 +99,7 @@ final class OperationalDataRecordManager {
         OperationalDataRecords records = doInTransaction(session -> queryOperationalDataInTransaction(session,
                 recordsFrom, recordsTo, clientFilter, serviceProviderFilter, outputFields));
 
-        removeMonitoringDataTsIfNotSpecified(records, outputFields);
+        removeInternalFields(records, outputFields);
 
         return records;
     }
@@ -103,6 +121,30 @@ final class OperationalDataRecordManager {
         return null;
     }
 
+    private static int storeInTransaction(Session session, OperationalDataRecordReader reader, long timestamp,
+            Consumer<List<OperationalDataRecord>> chunkStored) {
+        int batchSize = getConfiguredBatchSize(session);
+        List<OperationalDataRecord> chunk = new ArrayList<>(batchSize);
+        int storedCount = 0;
+
+        while (reader.read(chunk, batchSize) > 0) {
+            for (OperationalDataRecord record : chunk) {
+                record.setMonitoringDataTs(timestamp);
+                session.save(record);
+            }
+
+            session.flush();
+            session.clear();
+
+            chunkStored.accept(chunk);
+
+            storedCount += chunk.size();
+            chunk.clear();
+        }
+
+        return storedCount;
+    }
+
     private static int getConfiguredBatchSize(Session session) {
         if (configuredBatchSize == 0) {
             configuredBatchSize = HibernateUtil.getConfiguredBatchSize(session, DEFAULT_BATCH_SIZE);
@@ -122,6 +164,10 @@ final class OperationalDataRecordManager {
      * Queries operational data records from the database using search criteria parameters. The number of returned
      * records is limited by the configured value maxRecordsInPayload plus overflow records with the same
      * monitorindDataTs timestamp as the last included record.
+     * The records are ordered by (monitoringDataTs, id) and one record more than the limit is fetched, so in the
+     * usual case a single query tells whether the records overflow. Only if the extra record has the same timestamp
+     * as the last included record, the rest of the records with that timestamp are fetched by continuing after the
+     * last included record.
      * @param session               database session
      * @param recordsFrom           records from timestamp seconds
      * @param recordsTo             records to timestamp seconds
@@ -130,7 +176,6 @@ final class OperationalDataRecordManager {
      * @param outputFields          list of the requested operational data field
      * @return operational data records.
      */
-    @SuppressWarnings("unchecked")
     private static OperationalDataRecords queryOperationalDataInTransaction(Session session, long recordsFrom,
             long recordsTo, ClientId clientFilter, ClientId serviceProviderFilter, Set<String> outputFields) {
 
@@ -138,33 +183,48 @@ final class OperationalDataRecordManager {
                 query = new OperationalDataRecordQuery(session, clientFilter, serviceProviderFilter, outputFields);
         query.between(recordsFrom, recordsTo);
         query.orderByAsc(MONITORING_DATA_TS);
-        query.setMaxRecords(maxRecordsInPayload);
-        OperationalDataRecords records = new OperationalDataRecords(query.list());
+        query.orderByAsc(OperationalDataRecordQuery.ID);
+        query.setMaxRecords((int) Math.min(Integer.MAX_VALUE, maxRecordsInPayload + 1L));
+        List<OperationalDataRecord> result = query.list();
+
+        if (result.size() <= maxRecordsInPayload) {
+            return new OperationalDataRecords(result);
+        }
 
         // Check overflow.
-        if (records.size() == maxRecordsInPayload) {
-            log.trace("Check possible records overflow");
+        log.trace("Check possible records overflow");
 
-            long lastMonitoringDataTs = records.getLastMonitoringDataTs();
-            final OperationalDataRecordQuery overflow =
-                    new OperationalDataRecordQuery(session, clientFilter, serviceProviderFilter, outputFields);
-            overflow.addOverflowCriteria(lastMonitoringDataTs);
-            OperationalDataRecords overflowRecords = new OperationalDataRecords(overflow.list());
+        OperationalDataRecord next = result.remove(result.size() - 1);
+        OperationalDataRecords records = new OperationalDataRecords(result);
+        OperationalDataRecord last = result.get(result.size() - 1);
+        long lastMonitoringDataTs = last.getMonitoringDataTs();
+        boolean overflow;
 
-            records.removeRecordsByMonitoringDataTs(lastMonitoringDataTs);
-            records.append(overflowRecords);
+        if (next.getMonitoringDataTs() == lastMonitoringDataTs) {
+            final OperationalDataRecordQuery overflowQuery =
+                    new OperationalDataRecordQuery(session, clientFilter, serviceProviderFilter, outputFields);
+            overflowQuery.addOverflowCriteria(lastMonitoringDataTs, last.getId());
+            overflowQuery.orderByAsc(OperationalDataRecordQuery.ID);
+            records.append(new OperationalDataRecords(overflowQuery.list()));
+
+            overflow = recordsOverflow(session, lastMonitoringDataTs, recordsTo, clientFilter,
+                    serviceProviderFilter);
+        } else {
+            // The next record is later than the last included one, but still
+            // inside the queried period.
+            overflow = true;
+        }
 
-            if (recordsOverflow(session, lastMonitoringDataTs, recordsTo, clientFilter, serviceProviderFilter)) {
-                log.debug("Records overflow, set nextRecordsFrom to {}", lastMonitoringDataTs + 1);
+        if (overflow) {
+            log.debug("Records overflow, set nextRecordsFrom to {}", lastMonitoringDataTs + 1);
 
-                records.setNextRecordsFrom(lastMonitoringDataTs + 1);
-            }
+            records.setNextRecordsFrom(lastMonitoringDataTs + 1);
         }
 
         return records;
     }
 
-    private static void removeMonitoringDataTsIfNotSpecified(OperationalDataRecords records, Set<String> outputFields) {
+    private static void removeInternalFields(OperationalDataRecords records, Set<String> outputFields) {
         if (!outputFields.isEmpty() && !outputFields.contains(MONITORING_DATA_TS)) {
             records.getRecords().forEach(i -> i.setMonitoringDataTs(null));
         }
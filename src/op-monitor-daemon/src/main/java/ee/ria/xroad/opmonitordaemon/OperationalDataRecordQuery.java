@@ -65,6 +65,8 @@ import static ee.ria.xroad.opmonitordaemon.OperationalDataOutputSpecFields.PUBLI
 @SuppressWarnings("checkstyle:magicnumber")
 final class OperationalDataRecordQuery {
 
+    static final String ID = "id";
+
     private final CriteriaBuilder cb;
     private final CriteriaQuery<Tuple> query;
     private final Root<OperationalDataRecord> from;
@@ -75,7 +77,7 @@ final class OperationalDataRecordQuery {
 
     private Predicate pred;
     private List<Selection<?>> projection = new ArrayList<>();
-    private javax.persistence.criteria.Order order = null;
+    private final List<javax.persistence.criteria.Order> orders = new ArrayList<>();
 
     OperationalDataRecordQuery(Session session, ClientId clientFilter, ClientId serviceProviderFilter,
             Set<String> outputFields) {
@@ -86,6 +88,9 @@ final class OperationalDataRecordQuery {
         pred = cb.conjunction();
 
         configureOutputFields(clientFilter != null, outputFields);
+        // The record ID is needed for continuing a query after a given record.
+        projection.add(from.get(ID).alias(ID));
+
         configureClientAndServiceProviderFilters(clientFilter, serviceProviderFilter);
     }
 
@@ -151,14 +156,19 @@ final class OperationalDataRecordQuery {
                                 member.getSubsystemCode()));
     }
 
-    void addOverflowCriteria(long monitoringDataTs) {
-        pred = cb.and(pred, cb.equal(from.get(MONITORING_DATA_TS), monitoringDataTs));
+    /**
+     * Restricts the query to the records that have the given timestamp and
+     * come after the given record in the (monitoringDataTs, id) order.
+     */
+    void addOverflowCriteria(long monitoringDataTs, long afterId) {
+        pred = cb.and(pred, cb.equal(from.get(MONITORING_DATA_TS), monitoringDataTs),
+                cb.greaterThan(from.get(ID), afterId));
     }
 
     List<OperationalDataRecord> list() {
         query.multiselect(projection).where(pred);
-        if (order != null) {
-            query.orderBy(order);
+        if (!orders.isEmpty()) {
+            query.orderBy(orders);
         }
         return transform(session.createQuery(query)
                 .setReadOnly(true)
@@ -171,7 +181,7 @@ final class OperationalDataRecordQuery {
     }
 
     void orderByAsc(String field) {
-        order = cb.asc(from.get(field));
+        orders.add(cb.asc(from.get(field)));
     }
 
     /**
@@ -0,0 +1,166 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import ee.ria.xroad.common.util.JsonUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Reads the records of a store operational data request payload
+ * incrementally, so that the payload never has to be kept in memory as a
+ * whole. The payload has the form {"records": [...]}, any other members of
+ * the top level object are skipped.
+ */
+class OperationalDataRecordReader implements Closeable {
+
+    private static final Gson GSON = JsonUtils.getSerializer();
+
+    private static final String RECORDS = "records";
+
+    private final JsonReader reader;
+
+    private boolean started;
+    private boolean finished;
+
+    OperationalDataRecordReader(InputStream in) {
+        this.reader = GSON.newJsonReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return true if the payload contains no data at all
+     * @throws IOException if reading the payload fails
+     */
+    boolean isEmpty() throws IOException {
+        if (started) {
+            return false;
+        }
+
+        try {
+            reader.peek();
+
+            return false;
+        } catch (EOFException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Reads up to maxRecords next records into the given list.
+     * @param chunk the list the records are added to
+     * @param maxRecords the maximum number of records to read
+     * @return the number of records read, 0 if all the records have been read
+     * @throws IllegalArgumentException if the payload is not valid
+     * @throws UncheckedIOException if reading the payload fails
+     */
+    int read(List<OperationalDataRecord> chunk, int maxRecords) {
+        try {
+            return readRecords(chunk, maxRecords);
+        } catch (EOFException | MalformedJsonException | IllegalStateException | JsonParseException e) {
+            throw new IllegalArgumentException("Received invalid request", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private int readRecords(List<OperationalDataRecord> chunk, int maxRecords) throws IOException {
+        if (!started) {
+            started = true;
+            finished = !seekRecords();
+        }
+
+        int count = 0;
+
+        while (!finished && count < maxRecords) {
+            if (!reader.hasNext()) {
+                reader.endArray();
+                skipRemainingMembers();
+
+                finished = true;
+                break;
+            }
+
+            OperationalDataRecord record = GSON.fromJson(reader, OperationalDataRecord.class);
+
+            if (record == null) {
+                throw new JsonParseException("Null record in payload");
+            }
+
+            chunk.add(record);
+            count++;
+        }
+
+        return count;
+    }
+
+    // Positions the reader at the first element of the records array.
+    // Returns false if the payload has no records.
+    private boolean seekRecords() throws IOException {
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            if (RECORDS.equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+
+                return true;
+            }
+
+            reader.skipValue();
+        }
+
+        reader.endObject();
+
+        return false;
+    }
+
+    private void skipRemainingMembers() throws IOException {
+        while (reader.hasNext()) {
+            reader.nextName();
+            reader.skipValue();
+        }
+
+        reader.endObject();
+    }
+}
@@ -25,15 +25,20 @@
  */
 package ee.ria.xroad.opmonitordaemon;
 
+import com.codahale.metrics.Clock;
 import com.codahale.metrics.Counter;
-import com.codahale.metrics.Reservoir;
-import com.codahale.metrics.SlidingTimeWindowReservoir;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * A counter metric that uses the sliding time window reservoir internally to
- * support periodic and configurable resetting.
+ * A counter metric that counts the increments made during a sliding window
+ * of time, to support periodic and configurable resetting.
+ * The window is divided into one second buckets that are kept in a ring.
+ * Incrementing the counter adds to the bucket of the current second, and
+ * the count is the sum of the buckets that are still inside the window, so
+ * neither operation depends on the number of increments in the window.
  * This counter does not support manually decrementing the count (the dec()
  * methods raise a runtime exception).
  * We extend Counter instead of implementing the Metric and Counting
@@ -42,7 +47,10 @@ import java.util.concurrent.TimeUnit;
  */
 class SlidingTimeWindowCounter extends Counter {
 
-    private final Reservoir reservoir;
+    private final Clock clock;
+    private final int windowSeconds;
+
+    private final AtomicReferenceArray<Bucket> buckets;
 
     /**
      * Creates a counter with the given window of time.
@@ -51,26 +59,50 @@ class SlidingTimeWindowCounter extends Counter {
      * @param windowUnit the unit of {@code window}
      */
     SlidingTimeWindowCounter(long window, TimeUnit windowUnit) {
-        reservoir = new SlidingTimeWindowReservoir(window, windowUnit);
+        this(window, windowUnit, Clock.defaultClock());
+    }
+
+    /**
+     * Creates a counter with the given window of time and clock.
+     *
+     * @param window     the window of time
+     * @param windowUnit the unit of {@code window}
+     * @param clock      the clock used for placing increments into buckets
+     */
+    SlidingTimeWindowCounter(long window, TimeUnit windowUnit, Clock clock) {
+        this.clock = clock;
+        this.windowSeconds = (int) Math.max(1, Math.min(Integer.MAX_VALUE, windowUnit.toSeconds(window)));
+        this.buckets = new AtomicReferenceArray<>(windowSeconds);
     }
 
     /**
-     * @return the snapshot size of the sliding time window reservoir.
+     * @return the number of increments made during the window of time.
      */
     @Override
     public long getCount() {
-        return reservoir.getSnapshot().size();
+        long second = currentSecond();
+        long count = 0;
+
+        for (int i = 0; i < windowSeconds; i++) {
+            Bucket bucket = buckets.get(i);
+
+            if (bucket != null && second - bucket.second < windowSeconds) {
+                count += bucket.count.sum();
+            }
+        }
+
+        return count;
     }
 
     @Override
     public void inc() {
-        reservoir.update(1L);
+        inc(1L);
     }
 
     @Override
     public void inc(long n) {
-        for (int i = 0; i < n; ++i) {
-            inc();
+        if (n > 0) {
+            currentBucket().count.add(n);
         }
     }
 
@@ -84,4 +116,37 @@ class SlidingTimeWindowCounter extends Counter {
         throw new RuntimeException("This counter can be incremented only");
     }
 
+    // Returns the bucket of the current second, replacing the bucket of an
+    // expired second that occupies the same slot of the ring.
+    private Bucket currentBucket() {
+        long second = currentSecond();
+        int index = (int) Math.floorMod(second, (long) windowSeconds);
+
+        while (true) {
+            Bucket bucket = buckets.get(index);
+
+            if (bucket != null && bucket.second >= second) {
+                return bucket;
+            }
+
+            Bucket newBucket = new Bucket(second);
+
+            if (buckets.compareAndSet(index, bucket, newBucket)) {
+                return newBucket;
+            }
+        }
+    }
+
+    private long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(clock.getTick());
+    }
+
+    private static final class Bucket {
+        private final long second;
+        private final LongAdder count = new LongAdder();
+
+        Bucket(long second) {
+            this.second = second;
+        }
+    }
 }
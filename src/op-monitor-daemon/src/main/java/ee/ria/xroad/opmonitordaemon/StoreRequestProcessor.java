@@ -25,38 +25,40 @@
  */
 package ee.ria.xroad.opmonitordaemon;
 
-import ee.ria.xroad.common.util.JsonUtils;
-
 import com.codahale.metrics.MetricRegistry;
-import com.google.gson.Gson;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.StringUtils;
 
 import javax.servlet.http.HttpServletRequest;
 
-import java.nio.charset.StandardCharsets;
-import java.util.List;
+import java.io.IOException;
+import java.io.InputStream;
 
 import static ee.ria.xroad.common.util.TimeUtils.getEpochSecond;
 
 /**
  * The processor class for store operational monitoring data (JSON) requests.
+ * The records are parsed from the request body and stored in chunks, so the
+ * memory needed does not depend on the number of records in the request.
+ * The health data of the stored chunks is summarized per service and applied
+ * to the metrics once the records have been committed.
  */
 @Slf4j
 class StoreRequestProcessor {
 
-    private static final Gson GSON = JsonUtils.getSerializer();
-
-    /** The servlet request. */
-    private HttpServletRequest servletRequest;
+    /** The body of the store request. */
+    private InputStream requestContent;
 
     /** The registry of health data. */
     private MetricRegistry healthMetricRegistry;
 
     StoreRequestProcessor(HttpServletRequest servletRequest,
+            MetricRegistry healthMetricRegistry) throws IOException {
+        this(servletRequest.getInputStream(), healthMetricRegistry);
+    }
+
+    StoreRequestProcessor(InputStream requestContent,
             MetricRegistry healthMetricRegistry) {
-        this.servletRequest = servletRequest;
+        this.requestContent = requestContent;
         this.healthMetricRegistry = healthMetricRegistry;
     }
 
@@ -66,39 +68,24 @@ class StoreRequestProcessor {
      * @throws Exception in case of any errors
      */
     void process() throws Exception {
-        String rawJson = IOUtils.toString(servletRequest.getInputStream(),
-                StandardCharsets.UTF_8);
-
-        log.trace("Incoming JSON: {}", rawJson);
-
-        List<OperationalDataRecord> records = prepareRawStoreData(rawJson);
+        try (OperationalDataRecordReader reader =
+                new OperationalDataRecordReader(requestContent)) {
+            // Send an error message right away if there is no data to store.
+            if (reader.isEmpty()) {
+                throw new Exception(
+                        "No data was found in the request to store data");
+            }
 
-        log.debug("Process {} record{}", records.size(),
-                records.size() == 1 ? "" : "s");
+            HealthDataMetrics.RecordsSummary healthData = new HealthDataMetrics.RecordsSummary();
 
-        OperationalDataRecordManager.storeRecords(records, getEpochSecond());
+            int count = OperationalDataRecordManager.storeRecords(reader,
+                    getEpochSecond(), healthData::add);
 
-        HealthDataMetrics.processRecords(healthMetricRegistry, records);
-    }
-
-    // Get usable operational data to be stored. If no such data is found,
-    // send an error message right away.
-    private static List<OperationalDataRecord> prepareRawStoreData(
-            String rawJsonData) throws Exception {
-        if (StringUtils.isBlank(rawJsonData)) {
-            throw new Exception(
-                    "No data was found in the request to store data");
-        }
+            log.debug("Processed {} record{}", count, count == 1 ? "" : "s");
 
-        OperationalDataRecords records;
-
-        try {
-            records = GSON.fromJson(rawJsonData, OperationalDataRecords.class);
-        } catch (Exception e) {
-            throw new Exception("Received invalid request", e);
+            // The health data is updated only after the records have been
+            // committed, so failed requests are not counted.
+            HealthDataMetrics.processSummary(healthMetricRegistry, healthData);
         }
-
-        return records.getRecords();
     }
-
 }
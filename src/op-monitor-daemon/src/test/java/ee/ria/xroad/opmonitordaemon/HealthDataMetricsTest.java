@@ -0,0 +1,243 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+
+import com.codahale.metrics.MetricRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.findCounter;
+import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.findGauge;
+import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.findHistogram;
+import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.getLastRequestTimestampGaugeName;
+import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.getRequestCounterName;
+import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.getRequestDurationName;
+import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.getServiceTypeName;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.GSON;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.formatFullOperationalDataAsJson;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests processing health data metrics from operational data records.
+ */
+@Slf4j
+public class HealthDataMetricsTest {
+
+    private static final int BATCH_SIZE = 100;
+
+    private static final ServiceId SERVICE_1 = ServiceId.create("XTEE-CI-XM", "GOV", "00000001", "System1",
+            "xroad/GetRandom");
+    private static final ServiceId SERVICE_2 = ServiceId.create("XTEE-CI-XM", "GOV", "00000001", "System2",
+            "xroad/GetRandom", "v2");
+
+    @Test
+    public void ignoresRecordsOfOtherRoles() {
+        MetricRegistry registry = new MetricRegistry();
+        OperationalDataRecord record = createRecord(SERVICE_1, true, 1L);
+        record.setSecurityServerType(OpMonitoringData.SecurityServerType.CLIENT.getTypeString());
+
+        List<OperationalDataRecord> records = new ArrayList<>();
+        records.add(record);
+
+        HealthDataMetrics.processRecords(registry, records);
+
+        assertEquals(0, registry.getMetrics().size());
+    }
+
+    @Test
+    public void registersMetricsWhenFirstUpdated() {
+        MetricRegistry registry = new MetricRegistry();
+        List<OperationalDataRecord> records = new ArrayList<>();
+        records.add(createRecord(SERVICE_1, false, 5L));
+        records.add(createRecord(SERVICE_1, false, 3L));
+
+        HealthDataMetrics.processRecords(registry, records);
+
+        assertEquals(2, findCounter(registry, getRequestCounterName(SERVICE_1, false)).getCount());
+        assertEquals(5L, findGauge(registry, getLastRequestTimestampGaugeName(SERVICE_1, false)).getValue());
+        assertEquals("REST", findGauge(registry, getServiceTypeName(SERVICE_1)).getValue());
+
+        // Metrics of successful requests are registered only after a
+        // successful request has been processed.
+        assertNull(findCounter(registry, getRequestCounterName(SERVICE_1, true)));
+        assertNull(findGauge(registry, getLastRequestTimestampGaugeName(SERVICE_1, true)));
+        assertNull(findHistogram(registry, getRequestDurationName(SERVICE_1)));
+
+        records.clear();
+        records.add(createRecord(SERVICE_1, true, 7L));
+
+        HealthDataMetrics.processRecords(registry, records);
+
+        assertEquals(1, findCounter(registry, getRequestCounterName(SERVICE_1, true)).getCount());
+        assertEquals(7L, findGauge(registry, getLastRequestTimestampGaugeName(SERVICE_1, true)).getValue());
+        assertEquals(1, findHistogram(registry, getRequestDurationName(SERVICE_1)).getCount());
+    }
+
+    @Test
+    public void sharesMetricsOfServicesWithSameName() {
+        MetricRegistry registry = new MetricRegistry();
+        ServiceId withoutSubsystem = ServiceId.create("XTEE-CI-XM", "GOV", "00000001", null, "xroad/GetRandom");
+        ServiceId emptySubsystem = ServiceId.create("XTEE-CI-XM", "GOV", "00000001", "", "xroad/GetRandom");
+
+        List<OperationalDataRecord> records = new ArrayList<>();
+        records.add(createRecord(withoutSubsystem, true, 1L));
+        records.add(createRecord(emptySubsystem, true, 2L));
+
+        HealthDataMetrics.processRecords(registry, records);
+
+        assertEquals(2, findCounter(registry, getRequestCounterName(withoutSubsystem, true)).getCount());
+        assertEquals("REST", findGauge(registry, getServiceTypeName(emptySubsystem)).getValue());
+    }
+
+    @Test
+    public void appliesSummaryOfChunks() {
+        MetricRegistry registry = new MetricRegistry();
+        HealthDataMetrics.RecordsSummary summary = new HealthDataMetrics.RecordsSummary();
+
+        summary.add(createBatch(5L));
+        summary.add(createBatch(3L));
+
+        // Nothing is updated before the summary is applied.
+        assertEquals(0, registry.getMetrics().size());
+
+        HealthDataMetrics.processSummary(registry, summary);
+
+        assertEquals(BATCH_SIZE / 2, findCounter(registry, getRequestCounterName(SERVICE_1, true)).getCount());
+        assertEquals(BATCH_SIZE / 2, findCounter(registry, getRequestCounterName(SERVICE_2, false)).getCount());
+        assertEquals(5L, findGauge(registry, getLastRequestTimestampGaugeName(SERVICE_1, true)).getValue());
+        assertEquals(BATCH_SIZE / 2, findHistogram(registry, getRequestDurationName(SERVICE_2)).getCount());
+    }
+
+    @Test
+    public void processesRecordsConcurrently() throws Exception {
+        final int threadCount = 8;
+        final int batchesPerThread = 200;
+
+        MetricRegistry registry = new MetricRegistry();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        try {
+            List<Future<?>> results = new ArrayList<>();
+
+            for (int i = 0; i < threadCount; i++) {
+                final long threadTimestamp = i;
+
+                results.add(executor.submit(() -> {
+                    for (int j = 0; j < batchesPerThread; j++) {
+                        HealthDataMetrics.processRecords(registry, createBatch(threadTimestamp));
+                    }
+                }));
+            }
+
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long recordsPerService = (long) threadCount * batchesPerThread * BATCH_SIZE / 2;
+
+        for (ServiceId service : new ServiceId[] {SERVICE_1, SERVICE_2}) {
+            long successful = findCounter(registry, getRequestCounterName(service, true)).getCount();
+            long unsuccessful = findCounter(registry, getRequestCounterName(service, false)).getCount();
+
+            assertEquals(recordsPerService, successful + unsuccessful);
+            assertEquals(successful, findHistogram(registry, getRequestDurationName(service)).getCount());
+            assertEquals(threadCount - 1L,
+                    findGauge(registry, getLastRequestTimestampGaugeName(service, true)).getValue());
+        }
+    }
+
+    @Test
+    public void processesRecordsAtRequiredRate() {
+        final int recordCount = 50_000;
+
+        MetricRegistry registry = new MetricRegistry();
+        List<OperationalDataRecord> batch = createBatch(1L);
+
+        // Warm up.
+        HealthDataMetrics.processRecords(registry, batch);
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < recordCount / BATCH_SIZE; i++) {
+            HealthDataMetrics.processRecords(registry, batch);
+        }
+
+        long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        log.info("Processed {} records in {} ms ({} records/s)", recordCount, elapsedMillis,
+                recordCount * 1000L / elapsedMillis);
+
+        long successful = findCounter(registry, getRequestCounterName(SERVICE_1, true)).getCount()
+                + findCounter(registry, getRequestCounterName(SERVICE_2, true)).getCount();
+
+        assertEquals((recordCount + BATCH_SIZE) / 2, successful);
+    }
+
+    // Creates a batch of records divided evenly between the two services and
+    // between successful and unsuccessful requests.
+    private static List<OperationalDataRecord> createBatch(long responseOutTs) {
+        List<OperationalDataRecord> records = new ArrayList<>(BATCH_SIZE);
+
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            records.add(createRecord(i % 2 == 0 ? SERVICE_1 : SERVICE_2, i % 4 < 2, responseOutTs));
+        }
+
+        return records;
+    }
+
+    private static OperationalDataRecord createRecord(ServiceId serviceId, boolean success, long responseOutTs) {
+        OperationalDataRecord record = GSON.fromJson(formatFullOperationalDataAsJson(), OperationalDataRecord.class);
+        record.setServiceXRoadInstance(serviceId.getXRoadInstance());
+        record.setServiceMemberClass(serviceId.getMemberClass());
+        record.setServiceMemberCode(serviceId.getMemberCode());
+        record.setServiceSubsystemCode(serviceId.getSubsystemCode());
+        record.setServiceCode(serviceId.getServiceCode());
+        record.setServiceVersion(serviceId.getServiceVersion());
+        record.setSecurityServerType(OpMonitoringData.SecurityServerType.PRODUCER.getTypeString());
+        record.setServiceType("REST");
+        record.setSucceeded(success);
+        record.setRequestInTs(0L);
+        record.setResponseOutTs(responseOutTs);
+        record.setRequestSize(999L);
+        record.setResponseSize(888L);
+
+        return record;
+    }
+}
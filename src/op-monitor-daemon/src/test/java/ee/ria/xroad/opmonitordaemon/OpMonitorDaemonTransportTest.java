@@ -0,0 +1,252 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import ee.ria.xroad.common.opmonitoring.OpMonitoringDaemonEndpoints;
+import ee.ria.xroad.common.opmonitoring.OpMonitoringDaemonFramedClient;
+import ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.GSON;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.formatFullOperationalDataPayload;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Stores operational data through the running daemon, both with HTTP requests and over the framed transport, and
+ * reports the throughput and the CPU time used per record. The client and the daemon run in the same process, so
+ * the CPU time includes both sides.
+ */
+@Slf4j
+public class OpMonitorDaemonTransportTest extends BaseTestUsingDB {
+
+    private static final String[] PROPERTIES = {
+        "xroad.op-monitor.host", "xroad.op-monitor.port", "xroad.op-monitor.framed-port",
+        "xroad.op-monitor.framed-transport-enabled", "xroad.op-monitor.scheme"};
+
+    private static final int RECORDS_PER_MESSAGE = 100;
+    private static final int CONCURRENT_MESSAGES = 8;
+    private static final int MESSAGES = Integer.getInteger("xroad.test.op-monitor.transport-messages", 200);
+
+    private static final int TIMEOUT_SECONDS = 60;
+
+    private static OpMonitorDaemon daemon;
+    private static byte[] message;
+
+    /**
+     * Starts the daemon with the framed transport enabled.
+     * @throws Exception if an error occurs
+     */
+    @BeforeClass
+    public static void startDaemon() throws Exception {
+        System.setProperty("xroad.op-monitor.host", "127.0.0.1");
+        System.setProperty("xroad.op-monitor.port", Integer.toString(freePort()));
+        System.setProperty("xroad.op-monitor.framed-port", Integer.toString(freePort()));
+        System.setProperty("xroad.op-monitor.framed-transport-enabled", "true");
+        System.setProperty("xroad.op-monitor.scheme", "http");
+
+        message = toBytes(formatFullOperationalDataPayload(RECORDS_PER_MESSAGE));
+
+        daemon = new OpMonitorDaemon();
+        daemon.start();
+    }
+
+    /**
+     * Stops the daemon.
+     * @throws Exception if an error occurs
+     */
+    @AfterClass
+    public static void stopDaemon() throws Exception {
+        try {
+            if (daemon != null) {
+                daemon.stop();
+                daemon.join();
+            }
+        } finally {
+            for (String property : PROPERTIES) {
+                System.clearProperty(property);
+            }
+        }
+    }
+
+    @Before
+    public void beforeTest() throws Exception {
+        doInTransaction(session -> session.createQuery("delete OperationalDataRecord").executeUpdate());
+    }
+
+    @Test
+    public void storeOverHttp() throws Exception {
+        // Warm up before measuring.
+        sendOverHttp();
+
+        measure("HTTP", this::sendOverHttp);
+    }
+
+    @Test
+    public void storeOverFramedTransport() throws Exception {
+        try (OpMonitoringDaemonFramedClient client =
+                new OpMonitoringDaemonFramedClient(null, CONCURRENT_MESSAGES, TIMEOUT_SECONDS * 1000)) {
+            client.send(message, 0, message.length).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+            measure("framed transport", () -> {
+                client.send(message, 0, message.length).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void framedTransportReportsErrors() throws Exception {
+        byte[] invalid = "{\"records\": [".getBytes(StandardCharsets.UTF_8);
+
+        try (OpMonitoringDaemonFramedClient client =
+                new OpMonitoringDaemonFramedClient(null, CONCURRENT_MESSAGES, TIMEOUT_SECONDS * 1000)) {
+            try {
+                client.send(invalid, 0, invalid.length).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+                fail("Storing an invalid request succeeded");
+            } catch (ExecutionException expected) {
+                assertTrue(expected.getCause().getMessage().contains("Received invalid request"));
+            }
+
+            // The connection stays usable after an error.
+            client.send(message, 0, message.length).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        assertEquals(RECORDS_PER_MESSAGE, countRecords());
+    }
+
+    private void measure(String transport, Callable<Void> send) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_MESSAGES);
+
+        try {
+            long before = countRecords();
+            long cpuStart = processCpuTime();
+            long start = System.nanoTime();
+
+            List<Future<Void>> results = new ArrayList<>();
+
+            for (int i = 0; i < MESSAGES; i++) {
+                results.add(executor.submit(send));
+            }
+
+            for (Future<Void> result : results) {
+                result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+
+            long elapsedNanos = System.nanoTime() - start;
+            long cpuNanos = processCpuTime() - cpuStart;
+            long records = (long) MESSAGES * RECORDS_PER_MESSAGE;
+
+            assertEquals(before + records, countRecords());
+
+            log.info("Stored {} records over {} in {} ms: {} records/s, {} us CPU per record", records, transport,
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos), records * 1_000_000_000L / Math.max(1, elapsedNanos),
+                    cpuNanos / 1_000 / records);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Void sendOverHttp() throws IOException {
+        URL url = new URL("http", System.getProperty("xroad.op-monitor.host"),
+                Integer.getInteger("xroad.op-monitor.port"), OpMonitoringDaemonEndpoints.STORE_DATA_PATH);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(message.length);
+
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(message);
+        }
+
+        try (Reader in = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+            StoreOpMonitoringDataResponse response = GSON.fromJson(in, StoreOpMonitoringDataResponse.class);
+
+            assertEquals(response.getErrorMessage(), StoreOpMonitoringDataResponse.STATUS_OK, response.getStatus());
+        }
+
+        return null;
+    }
+
+    private static long countRecords() throws Exception {
+        return doInTransaction(session -> session.createQuery(
+                "SELECT count(r) FROM OperationalDataRecord r", Long.class).getSingleResult());
+    }
+
+    private static long processCpuTime() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static byte[] toBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.PreparedStatement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataRecordManager.storeRecords;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.fillMinimalOperationalData;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests removing outdated operational data records.
+ */
+@Slf4j
+public class OperationalDataRecordCleanerTest extends BaseTestUsingDB {
+
+    private static final long EXPIRED_TS = 1474968000L;
+    private static final long CURRENT_TS = 1474969000L;
+    private static final Instant CLEAN_BEFORE = Instant.ofEpochSecond(1474968500L);
+
+    // Keep clear of the IDs that Hibernate generates for the stored records.
+    private static final long FIRST_ID = 1_000_000_000_000L;
+
+    @Before
+    public void beforeTest() throws Exception {
+        cleanAllRecords();
+    }
+
+    @After
+    public void afterTest() throws Exception {
+        cleanAllRecords();
+    }
+
+    @Test
+    public void removesExpiredRecordsInChunks() throws Exception {
+        storeMinimalRecords(2_500, EXPIRED_TS);
+        storeMinimalRecords(100, CURRENT_TS);
+
+        long removedBefore = OperationalDataRecordCleaner.getMetrics().counter(
+                OperationalDataRecordCleaner.REMOVED_RECORDS).getCount();
+
+        assertEquals(2_500, OperationalDataRecordCleaner.cleanRecords(CLEAN_BEFORE, 1_000, 0));
+
+        assertEquals(0, countRecords(EXPIRED_TS));
+        assertEquals(100, countRecords(CURRENT_TS));
+
+        assertEquals(removedBefore + 2_500, OperationalDataRecordCleaner.getMetrics().counter(
+                OperationalDataRecordCleaner.REMOVED_RECORDS).getCount());
+        assertEquals(2_500L, OperationalDataRecordCleaner.getMetrics().getGauges().get(
+                OperationalDataRecordCleaner.CURRENT_CLEANUP_REMOVED_RECORDS).getValue());
+
+        // Nothing is left to remove.
+        assertEquals(0, OperationalDataRecordCleaner.cleanRecords(CLEAN_BEFORE, 1_000, 0));
+        assertEquals(100, countRecords(CURRENT_TS));
+    }
+
+    @Test
+    public void removesExactMultipleOfBatchSize() throws Exception {
+        storeMinimalRecords(2_000, EXPIRED_TS);
+
+        assertEquals(2_000, OperationalDataRecordCleaner.cleanRecords(CLEAN_BEFORE, 1_000, 0));
+        assertEquals(0, countRecords(EXPIRED_TS));
+    }
+
+    @Test
+    public void storesRecordsDuringCleanup() throws Exception {
+        final int expiredCount = 200_000;
+
+        insertExpiredRecords(expiredCount);
+
+        AtomicBoolean cleaning = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<Long> latencies = new ArrayList<>();
+
+        try {
+            Future<?> inserter = executor.submit(() -> {
+                do {
+                    long start = System.nanoTime();
+
+                    storeRecords(Collections.singletonList(fillMinimalOperationalData()), CURRENT_TS);
+
+                    latencies.add(System.nanoTime() - start);
+                } while (cleaning.get());
+
+                return null;
+            });
+
+            long start = System.nanoTime();
+
+            try {
+                assertEquals(expiredCount, OperationalDataRecordCleaner.cleanRecords(CLEAN_BEFORE, 5_000, 10));
+            } finally {
+                cleaning.set(false);
+            }
+
+            log.info("Removed {} records in {} ms", expiredCount,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+            inserter.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, countRecords(EXPIRED_TS));
+        assertEquals(latencies.size(), countRecords(CURRENT_TS));
+
+        Collections.sort(latencies);
+
+        log.info("Stored {} records during cleanup, insert latency median {} ms, 99th percentile {} ms, max {} ms",
+                latencies.size(), toMillis(latencies.get(latencies.size() / 2)),
+                toMillis(latencies.get(latencies.size() * 99 / 100)), toMillis(latencies.get(latencies.size() - 1)));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static void storeMinimalRecords(int count, long monitoringDataTs) throws Exception {
+        List<OperationalDataRecord> records = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            records.add(fillMinimalOperationalData());
+        }
+
+        storeRecords(records, monitoringDataTs);
+    }
+
+    private static void insertExpiredRecords(int count) throws Exception {
+        doInTransaction(session -> {
+            session.doWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement("INSERT INTO operational_data"
+                        + " (id, monitoring_data_ts, security_server_internal_ip, security_server_type,"
+                        + " request_in_ts, response_out_ts, succeeded)"
+                        + " VALUES (?, ?, '192.168.3.250', 'Client', 14749689780000, 14749689790000, TRUE)")) {
+                    for (int i = 0; i < count; i++) {
+                        statement.setLong(1, FIRST_ID + i);
+                        statement.setLong(2, EXPIRED_TS);
+                        statement.addBatch();
+
+                        if ((i + 1) % 10_000 == 0) {
+                            statement.executeBatch();
+                        }
+                    }
+
+                    statement.executeBatch();
+                }
+            });
+
+            return null;
+        });
+    }
+
+    private static long countRecords(long monitoringDataTs) throws Exception {
+        return doInTransaction(session -> session.createQuery(
+                "SELECT count(r) FROM OperationalDataRecord r WHERE r.monitoringDataTs = :ts", Long.class)
+                .setParameter("ts", monitoringDataTs)
+                .getSingleResult());
+    }
+
+    private static void cleanAllRecords() throws Exception {
+        doInTransaction(session -> session.createQuery("delete OperationalDataRecord").executeUpdate());
+    }
+}
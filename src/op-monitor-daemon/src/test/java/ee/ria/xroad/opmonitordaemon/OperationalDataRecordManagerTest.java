@@ -36,10 +36,19 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataRecordManager.queryAllRecords;
@@ -47,12 +56,14 @@ import static ee.ria.xroad.opmonitordaemon.OperationalDataRecordManager.queryRec
 import static ee.ria.xroad.opmonitordaemon.OperationalDataRecordManager.storeRecords;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.GSON;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.formatFullOperationalDataAsJson;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.formatFullOperationalDataPayload;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.storeFullOperationalDataRecord;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.storeFullOperationalDataRecords;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Test cases related to the operations with the operational monitoring
@@ -105,6 +116,50 @@ public class OperationalDataRecordManagerTest extends BaseTestUsingDB {
         assertEquals(record, resultRecord);
     }
 
+    @Test
+    public void storeStreamedOperationalData() throws Exception {
+        final int count = 100_000;
+        AtomicInteger processed = new AtomicInteger();
+
+        System.gc();
+        long heapBefore = usedHeap();
+        resetPeakHeap();
+
+        long start = System.nanoTime();
+        int stored;
+
+        try (OperationalDataRecordReader reader =
+                new OperationalDataRecordReader(formatFullOperationalDataPayload(count))) {
+            stored = storeRecords(reader, 1474968979L, chunk -> processed.addAndGet(chunk.size()));
+        }
+
+        long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        log.info("Stored {} streamed records in {} ms ({} records/s), heap before {} MB, peak {} MB", stored,
+                elapsedMillis, stored * 1000L / elapsedMillis, heapBefore >> 20, peakHeap() >> 20);
+
+        assertEquals(count, stored);
+        assertEquals(count, processed.get());
+        assertEquals(count, countRecords());
+    }
+
+    @Test
+    public void invalidStreamedPayloadIsNotStored() throws Exception {
+        String payload = "{\"records\":[" + formatFullOperationalDataAsJson() + ","
+                + formatFullOperationalDataAsJson() + ",{\"requestInTs\":[]}]}";
+
+        try (OperationalDataRecordReader reader = new OperationalDataRecordReader(
+                new ByteArrayInputStream(payload.getBytes(StandardCharsets.UTF_8)))) {
+            storeRecords(reader, 1474968979L, chunk -> { });
+
+            fail("Invalid payload was accepted");
+        } catch (IllegalArgumentException expected) {
+            assertEquals("Received invalid request", expected.getMessage());
+        }
+
+        assertEquals(0, countRecords());
+    }
+
     @Test
     public void storeAndQueryDataFromPeriods() throws Exception {
         storeFullOperationalDataRecords(1, 1474968960L);
@@ -214,8 +269,9 @@ public class OperationalDataRecordManagerTest extends BaseTestUsingDB {
         assertNull(record.getSecurityServerInternalIp());
         assertEquals(OpMonitoringData.SecurityServerType.CLIENT,
                 record.getSecurityServerType());
+        // The record ID is used for paging only and is not serialized.
+        assertNull(GSON.toJsonTree(record).getAsJsonObject().get("id"));
         // Other fields are nulls, check some of them..
-        assertNull(record.getId());
         assertNull(record.getMonitoringDataTs());
         assertNull(record.getMessageId());
         assertNull(record.getMessageProtocolVersion());
@@ -430,4 +486,27 @@ public class OperationalDataRecordManagerTest extends BaseTestUsingDB {
         assertEquals(("2" + LONG_STRING).substring(0, 255),
                 updatedResultRecord.getMessageIssue());
     }
+
+    private static long countRecords() throws Exception {
+        return doInTransaction(session -> session.createQuery(
+                "SELECT count(r) FROM OperationalDataRecord r", Long.class).getSingleResult());
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static void resetPeakHeap() {
+        heapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+    }
+
+    private static long peakHeap() {
+        return heapPools().stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .collect(Collectors.toList());
+    }
 }
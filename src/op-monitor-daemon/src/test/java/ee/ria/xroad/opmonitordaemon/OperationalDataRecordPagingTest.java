@@ -0,0 +1,220 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.PreparedStatement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pages through a large operational data table and compares the results of
+ * OperationalDataRecordManager.queryRecords() with the results of the
+ * timestamp based paging done with separate overflow queries. The number of
+ * records can be raised to millions with the system property
+ * xroad.test.op-monitor.paging-records.
+ */
+@Slf4j
+public class OperationalDataRecordPagingTest extends BaseTestUsingDB {
+
+    private static final int RECORD_COUNT = Integer.getInteger("xroad.test.op-monitor.paging-records", 200_000);
+
+    // Several records share each timestamp. With the first payload limit the
+    // pages end inside a timestamp, with the second one at its end.
+    private static final int RECORDS_PER_SECOND = 40;
+    private static final int[] MAX_RECORDS_IN_PAYLOAD = {9_990, 10_000};
+
+    private static final long FIRST_TIMESTAMP = 1_500_000_000L;
+
+    // Keep clear of the IDs that Hibernate generates for the other tests.
+    private static final long FIRST_ID = 1_000_000_000_000L;
+
+    private static final int INSERT_BATCH_SIZE = 10_000;
+
+    @Before
+    public void beforeTest() throws Exception {
+        cleanRecords();
+        insertRecords();
+    }
+
+    @After
+    public void afterTest() throws Exception {
+        OperationalDataRecordManager.setMaxRecordsInPayload(
+                OpMonitoringSystemProperties.getOpMonitorMaxRecordsInPayload());
+
+        cleanRecords();
+    }
+
+    @Test
+    public void pagesThroughAllRecords() throws Exception {
+        for (int maxRecordsInPayload : MAX_RECORDS_IN_PAYLOAD) {
+            OperationalDataRecordManager.setMaxRecordsInPayload(maxRecordsInPayload);
+
+            pageThroughAllRecords(maxRecordsInPayload);
+        }
+    }
+
+    private static void pageThroughAllRecords(int maxRecordsInPayload) throws Exception {
+        long recordsTo = FIRST_TIMESTAMP + RECORD_COUNT / RECORDS_PER_SECOND;
+        Long recordsFrom = FIRST_TIMESTAMP;
+
+        Set<String> seen = new HashSet<>();
+        long queryNanos = 0;
+        long referenceNanos = 0;
+        int pages = 0;
+
+        while (recordsFrom != null) {
+            long start = System.nanoTime();
+            OperationalDataRecords records = OperationalDataRecordManager.queryRecords(recordsFrom, recordsTo);
+            queryNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Page expected = queryReferencePage(recordsFrom, recordsTo, maxRecordsInPayload);
+            referenceNanos += System.nanoTime() - start;
+
+            Set<String> messageIds = records.getRecords().stream()
+                    .map(OperationalDataRecord::getMessageId)
+                    .collect(Collectors.toSet());
+
+            assertEquals(expected.messageIds, messageIds);
+            assertEquals(expected.nextRecordsFrom, records.getNextRecordsFrom());
+
+            for (String messageId : messageIds) {
+                assertTrue("Record returned twice: " + messageId, seen.add(messageId));
+            }
+
+            recordsFrom = records.getNextRecordsFrom();
+            pages++;
+        }
+
+        assertEquals(RECORD_COUNT, seen.size());
+
+        log.info("Paged through {} records in {} pages of {}: {} ms, with separate overflow queries {} ms",
+                RECORD_COUNT, pages, maxRecordsInPayload, TimeUnit.NANOSECONDS.toMillis(queryNanos),
+                TimeUnit.NANOSECONDS.toMillis(referenceNanos));
+    }
+
+    private static final class Page {
+        private Set<String> messageIds;
+        private Long nextRecordsFrom;
+    }
+
+    // Timestamp based paging: the timestamp of the last record within the
+    // limit decides the page, the records with that timestamp are included
+    // and a separate query tells if any records are left.
+    private static Page queryReferencePage(long recordsFrom, long recordsTo, int maxRecordsInPayload)
+            throws Exception {
+        return doInTransaction(session -> {
+            Page page = new Page();
+
+            List<Long> timestamps = session.createQuery("SELECT r.monitoringDataTs FROM OperationalDataRecord r"
+                    + " WHERE r.monitoringDataTs BETWEEN :from AND :to ORDER BY r.monitoringDataTs", Long.class)
+                    .setParameter("from", recordsFrom)
+                    .setParameter("to", recordsTo)
+                    .setMaxResults(maxRecordsInPayload)
+                    .getResultList();
+
+            long lastTimestamp = timestamps.size() < maxRecordsInPayload
+                    ? recordsTo : timestamps.get(timestamps.size() - 1);
+
+            page.messageIds = new HashSet<>(queryMessageIds(session, recordsFrom, lastTimestamp));
+
+            if (lastTimestamp < recordsTo && !session.createQuery("SELECT r.id FROM OperationalDataRecord r"
+                    + " WHERE r.monitoringDataTs BETWEEN :from AND :to", Long.class)
+                    .setParameter("from", lastTimestamp + 1)
+                    .setParameter("to", recordsTo)
+                    .setMaxResults(1)
+                    .getResultList().isEmpty()) {
+                page.nextRecordsFrom = lastTimestamp + 1;
+            }
+
+            return page;
+        });
+    }
+
+    private static List<String> queryMessageIds(Session session, long recordsFrom, long recordsTo) {
+        return session.createQuery("SELECT r.messageId FROM OperationalDataRecord r"
+                + " WHERE r.monitoringDataTs BETWEEN :from AND :to", String.class)
+                .setParameter("from", recordsFrom)
+                .setParameter("to", recordsTo)
+                .getResultList();
+    }
+
+    private static void insertRecords() throws Exception {
+        long start = System.nanoTime();
+
+        doInTransaction(session -> {
+            session.doWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement("INSERT INTO operational_data"
+                        + " (id, monitoring_data_ts, security_server_internal_ip, security_server_type,"
+                        + " request_in_ts, response_out_ts, succeeded, message_id)"
+                        + " VALUES (?, ?, '192.168.3.250', 'Client', 14749689780000, 14749689790000, TRUE, ?)")) {
+                    for (int i = 0; i < RECORD_COUNT; i++) {
+                        // Insert the records of a timestamp in descending
+                        // ID order, so that the ID order differs from the
+                        // insertion order.
+                        int second = i / RECORDS_PER_SECOND;
+                        int id = (second + 1) * RECORDS_PER_SECOND - i % RECORDS_PER_SECOND;
+
+                        statement.setLong(1, FIRST_ID + id);
+                        statement.setLong(2, FIRST_TIMESTAMP + second);
+                        statement.setString(3, "message-" + i);
+                        statement.addBatch();
+
+                        if ((i + 1) % INSERT_BATCH_SIZE == 0) {
+                            statement.executeBatch();
+                        }
+                    }
+
+                    statement.executeBatch();
+                }
+            });
+
+            return null;
+        });
+
+        log.info("Inserted {} records in {} ms", RECORD_COUNT,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static void cleanRecords() throws Exception {
+        doInTransaction(session -> session.createQuery("delete OperationalDataRecord").executeUpdate());
+    }
+}
@@ -33,8 +33,13 @@ import ee.ria.xroad.common.util.JsonUtils;
 import com.google.gson.Gson;
 import org.hibernate.query.Query;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.List;
 
 import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
@@ -157,4 +162,39 @@ final class OperationalDataTestUtil {
 
         storeRecords(Collections.singletonList(record), monitoringDataTs);
     }
+
+    // Returns a store request payload of the given number of full records.
+    // The payload is generated while it is read, so that its size does not
+    // affect the memory usage of the test.
+    static InputStream formatFullOperationalDataPayload(int count) {
+        byte[] record = formatFullOperationalDataAsJson().getBytes(StandardCharsets.UTF_8);
+
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int part = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return part <= count + 1;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                int current = part++;
+
+                if (current == 0) {
+                    return bytes("{\"records\":[");
+                } else if (current == count + 1) {
+                    return bytes("]}");
+                } else if (current == 1) {
+                    return new ByteArrayInputStream(record);
+                }
+
+                return new SequenceInputStream(bytes(","), new ByteArrayInputStream(record));
+            }
+        });
+    }
+
+    private static InputStream bytes(String str) {
+        return new ByteArrayInputStream(str.getBytes(StandardCharsets.UTF_8));
+    }
 }
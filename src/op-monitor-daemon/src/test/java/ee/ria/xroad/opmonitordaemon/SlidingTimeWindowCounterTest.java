@@ -0,0 +1,145 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import com.codahale.metrics.Clock;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the sliding time window counter.
+ */
+public class SlidingTimeWindowCounterTest {
+
+    private static final class TestClock extends Clock {
+        private final AtomicLong tick = new AtomicLong();
+
+        @Override
+        public long getTick() {
+            return tick.get();
+        }
+
+        void advance(long duration, TimeUnit unit) {
+            tick.addAndGet(unit.toNanos(duration));
+        }
+    }
+
+    @Test
+    public void countsIncrementsInsideWindow() {
+        TestClock clock = new TestClock();
+        SlidingTimeWindowCounter counter = new SlidingTimeWindowCounter(10, TimeUnit.SECONDS, clock);
+
+        counter.inc();
+        counter.inc(4);
+        assertEquals(5, counter.getCount());
+
+        clock.advance(9, TimeUnit.SECONDS);
+        counter.inc(2);
+        assertEquals(7, counter.getCount());
+
+        // The first increments fall out of the window.
+        clock.advance(1, TimeUnit.SECONDS);
+        assertEquals(2, counter.getCount());
+
+        // The bucket of the first increments is reused.
+        counter.inc();
+        assertEquals(3, counter.getCount());
+
+        clock.advance(10, TimeUnit.SECONDS);
+        assertEquals(0, counter.getCount());
+    }
+
+    @Test
+    public void countsLargeIncrementsAtOnce() {
+        SlidingTimeWindowCounter counter = new SlidingTimeWindowCounter(10, TimeUnit.SECONDS, new TestClock());
+
+        counter.inc(Integer.MAX_VALUE);
+        counter.inc(0);
+
+        assertEquals(Integer.MAX_VALUE, counter.getCount());
+    }
+
+    @Test
+    public void handlesNegativeTicks() {
+        TestClock clock = new TestClock();
+        clock.advance(-12345, TimeUnit.SECONDS);
+        SlidingTimeWindowCounter counter = new SlidingTimeWindowCounter(60, TimeUnit.SECONDS, clock);
+
+        counter.inc();
+        clock.advance(30, TimeUnit.SECONDS);
+        counter.inc();
+
+        assertEquals(2, counter.getCount());
+    }
+
+    @Test
+    public void countsConcurrentIncrements() throws Exception {
+        final int threadCount = 8;
+        final int incrementsPerThread = 100_000;
+
+        TestClock clock = new TestClock();
+        SlidingTimeWindowCounter counter = new SlidingTimeWindowCounter(600, TimeUnit.SECONDS, clock);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                for (int j = 0; j < incrementsPerThread; j++) {
+                    counter.inc();
+
+                    if (j % 10_000 == 0) {
+                        clock.advance(1, TimeUnit.SECONDS);
+                    }
+                }
+            });
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals((long) threadCount * incrementsPerThread, counter.getCount());
+    }
+}
@@ -122,7 +122,7 @@ public class TokenCertificateConverter {
         }
         String ocspResponseStatus = null;
         try {
-            ocspResponseStatus = OcspUtils.getOcspResponseStatus(info.getOcspBytes());
+            ocspResponseStatus = OcspUtils.getOcspResponseStatus(info);
         } catch (OcspUtils.OcspStatusExtractionException e) {
             throw new RuntimeException("extracting OCSP status failed", e);
         }
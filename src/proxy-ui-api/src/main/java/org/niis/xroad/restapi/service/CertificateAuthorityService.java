@@ -233,7 +233,7 @@ public class CertificateAuthorityService {
         // properties from ocsp response
         String ocspResponseStatus = null;
         try {
-            ocspResponseStatus = OcspUtils.getOcspResponseStatus(base64EncodedOcspResponse);
+            ocspResponseStatus = OcspUtils.getOcspResponseStatus(base64EncodedOcspResponse, certificate);
         } catch (OcspUtils.OcspStatusExtractionException e) {
             throw new InconsistentCaDataException(e);
         }
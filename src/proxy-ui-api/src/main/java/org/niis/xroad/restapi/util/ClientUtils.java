@@ -51,7 +51,7 @@ public final class ClientUtils {
         for (CertificateInfo certificateInfo : certificateInfos) {
             String ocspResponseStatus = null;
             try {
-                ocspResponseStatus = OcspUtils.getOcspResponseStatus(certificateInfo.getOcspBytes());
+                ocspResponseStatus = OcspUtils.getOcspResponseStatus(certificateInfo);
             } catch (OcspUtils.OcspStatusExtractionException | RuntimeException e) {
                 log.error(ERROR_OCSP_EXTRACT_MSG + " for client: " + clientId.toString(), e);
                 return false;
@@ -26,18 +26,18 @@
 package org.niis.xroad.restapi.util;
 
 import ee.ria.xroad.common.util.CryptoUtils;
+import ee.ria.xroad.common.util.OcspResponseUtils;
 import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
 
 import org.apache.commons.lang3.StringUtils;
 import org.bouncycastle.asn1.x509.CRLReason;
-import org.bouncycastle.cert.ocsp.BasicOCSPResp;
 import org.bouncycastle.cert.ocsp.CertificateStatus;
-import org.bouncycastle.cert.ocsp.OCSPException;
 import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.bouncycastle.cert.ocsp.RevokedStatus;
 import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.cert.ocsp.UnknownStatus;
 
-import java.io.IOException;
+import java.security.cert.X509Certificate;
 
 /**
  * Util class for working with OCSP responses
@@ -48,14 +48,25 @@ public final class OcspUtils {
     }
 
     /**
-     * {@link OcspUtils#getOcspResponseStatus(byte[])}
+     * {@link OcspUtils#getOcspResponseStatus(byte[], X509Certificate)}
      * @param base64EncodedOcspResponse base 64 encoded ocsp response. If empty, returns null
+     * @param certificate the certificate whose status to return
      */
-    public static String getOcspResponseStatus(String base64EncodedOcspResponse) throws OcspStatusExtractionException {
+    public static String getOcspResponseStatus(String base64EncodedOcspResponse, X509Certificate certificate)
+            throws OcspStatusExtractionException {
         if (StringUtils.isEmpty(base64EncodedOcspResponse)) {
             return null;
         }
-        return getOcspResponseStatus(CryptoUtils.decodeBase64(base64EncodedOcspResponse));
+        return getOcspResponseStatus(CryptoUtils.decodeBase64(base64EncodedOcspResponse), certificate);
+    }
+
+    /**
+     * {@link OcspUtils#getOcspResponseStatus(byte[], X509Certificate)} for the OCSP response of the certificate
+     * @param certificateInfo the certificate and its OCSP response
+     */
+    public static String getOcspResponseStatus(CertificateInfo certificateInfo) throws OcspStatusExtractionException {
+        return getOcspResponseStatus(certificateInfo.getOcspBytes(),
+                CryptoUtils.readCertificate(certificateInfo.getCertificateBytes()));
     }
 
     /**
@@ -63,11 +74,13 @@ public final class OcspUtils {
      * e.g. CertificateInfo.OCSP_RESPONSE_GOOD.
      * Logic follows what sysparams_controller.rb and token_renderer.rb had.
      * @param ocspResponse
+     * @param certificate the certificate whose status to return
      * @throws OcspStatusExtractionException if OCSP status extraction failed for some reason
      * @return String representing the status
      */
-    public static String getOcspResponseStatus(byte[] ocspResponse) throws OcspStatusExtractionException {
-        CertificateStatus certificateStatus = getCertificateStatus(ocspResponse);
+    public static String getOcspResponseStatus(byte[] ocspResponse, X509Certificate certificate)
+            throws OcspStatusExtractionException {
+        CertificateStatus certificateStatus = getCertificateStatus(ocspResponse, certificate);
         if (certificateStatus == null) {
             return CertificateInfo.OCSP_RESPONSE_GOOD;
         }
@@ -85,16 +98,20 @@ public final class OcspUtils {
     /**
      * From ee.ria.xroad.signer.console.Utils#getOcspStatus
      * @param ocspBytes
-     * @return
+     * @param certificate
+     * @return the status of the certificate, or unknown if the response does not apply to the certificate
      */
-    private static CertificateStatus getCertificateStatus(byte[] ocspBytes) throws OcspStatusExtractionException {
+    private static CertificateStatus getCertificateStatus(byte[] ocspBytes, X509Certificate certificate)
+            throws OcspStatusExtractionException {
         try {
             OCSPResp response = new OCSPResp(ocspBytes);
-            BasicOCSPResp basicResponse = (BasicOCSPResp) response.getResponseObject();
-            SingleResp resp = basicResponse.getResponses()[0];
+            SingleResp resp = OcspResponseUtils.getSingleResp(response, certificate);
+            if (resp == null) {
+                return new UnknownStatus();
+            }
             CertificateStatus status = resp.getCertStatus();
             return status;
-        } catch (IOException | OCSPException e) {
+        } catch (Exception e) {
             throw new OcspStatusExtractionException(e);
         }
     }
@@ -451,9 +451,15 @@ public final class CertificateTestUtils {
         return responses;
     }
 
+    /**
+     * Finds the issuer from the given certificates or the known test CAs, so that the
+     * generated OCSP response matches the subject's issuer name
+     */
     private static X509Certificate getIssuerCert(X509Certificate subject,
             List<X509Certificate> certs) {
-        for (X509Certificate cert : certs) {
+        List<X509Certificate> candidates = new ArrayList<>(certs);
+        candidates.add(getMockTopCaCertificate());
+        for (X509Certificate cert : candidates) {
             if (cert.getSubjectX500Principal().equals(
                     subject.getIssuerX500Principal())) {
                 return cert;
@@ -0,0 +1,377 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.signature;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.signer.protocol.SignerClient;
+import ee.ria.xroad.signer.protocol.message.GetTokenBatchSigningEnabled;
+import ee.ria.xroad.signer.protocol.message.Sign;
+import ee.ria.xroad.signer.protocol.message.SignResponse;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.common.ErrorCodes.SIGNER_X;
+import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
+import static ee.ria.xroad.common.ErrorCodes.translateException;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
+import static ee.ria.xroad.common.util.CryptoUtils.getDigestAlgorithmId;
+
+/**
+ * Non-blocking batch signer. Signing requests are grouped by the signing certificate
+ * and the signature algorithm, and the callers receive a future of the signature data
+ * instead of waiting for the signature.
+ *
+ * A batch of pending requests is sent to the token when
+ * <ul>
+ *     <li>the token is idle, i.e. there are no batches in flight for the key,</li>
+ *     <li>the batch has reached the maximum size, or</li>
+ *     <li>the linger time has passed since the first request waiting for the batch.</li>
+ * </ul>
+ * If the token supports batch signing, more than one batch per key may be in flight at
+ * the same time. Otherwise the requests are signed one at a time, in order of arrival.
+ */
+@Slf4j
+public class AsyncBatchSigner {
+
+    private final TokenSigner tokenSigner;
+    private final int maxBatchSize;
+    private final long lingerMicros;
+    private final int maxInFlightBatches;
+    private final long timeoutMillis;
+
+    private final ConcurrentMap<String, KeyQueue> queues = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "async-batch-signer");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    /**
+     * Creates a batch signer that signs using the Signer and the system properties.
+     */
+    public AsyncBatchSigner() {
+        this(new SignerClientTokenSigner(), SystemProperties.getBatchSignerMaxBatchSize(),
+                SystemProperties.getBatchSignerLingerMicros(), SystemProperties.getBatchSignerMaxInFlightBatches(),
+                SystemProperties.getSignerClientTimeout());
+    }
+
+    /**
+     * Creates a batch signer.
+     * @param tokenSigner calculates the signatures
+     * @param maxBatchSize maximum number of requests in one batch
+     * @param lingerMicros time a partial batch waits for more requests while the token is busy
+     * @param maxInFlightBatches maximum number of batches per key in flight, if the token supports batch signing
+     * @param timeoutMillis time after which an unanswered signature calculation is failed
+     */
+    public AsyncBatchSigner(TokenSigner tokenSigner, int maxBatchSize, long lingerMicros, int maxInFlightBatches,
+            long timeoutMillis) {
+        this.tokenSigner = tokenSigner;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.lingerMicros = Math.max(0, lingerMicros);
+        this.maxInFlightBatches = Math.max(1, maxInFlightBatches);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Submits the given signing request for batch signing.
+     *
+     * @param keyId the signing key
+     * @param signatureAlgorithmId ID of the signature algorithm to use
+     * @param request the signing request
+     * @return future of the signature data
+     */
+    public CompletableFuture<SignatureData> sign(String keyId, String signatureAlgorithmId, SigningRequest request) {
+        CompletableFuture<SignatureData> result = new CompletableFuture<>();
+
+        try {
+            String name = calculateCertHexHash(request.getSigningCert()) + "/" + signatureAlgorithmId;
+
+            queues.computeIfAbsent(name, n -> new KeyQueue(keyId, signatureAlgorithmId))
+                    .submit(new PendingRequest(request, result));
+        } catch (Exception e) {
+            result.completeExceptionally(translateException(e));
+        }
+
+        return result;
+    }
+
+    /**
+     * Stops the scheduler used for the linger times and the timeouts.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Calculates the signatures of the batches.
+     */
+    public interface TokenSigner {
+
+        /**
+         * @param keyId the signing key
+         * @return true if the token of the key supports batch signing
+         * @throws Exception if an error occurs
+         */
+        boolean isBatchSigningEnabled(String keyId) throws Exception;
+
+        /**
+         * Calculates the signature without blocking the caller.
+         * @param keyId the signing key
+         * @param signatureAlgorithmId ID of the signature algorithm
+         * @param digest the digest to be signed
+         * @return future of the signature value
+         */
+        CompletableFuture<byte[]> sign(String keyId, String signatureAlgorithmId, byte[] digest);
+    }
+
+    /**
+     * Token signer that sends the signature calculations to the Signer.
+     */
+    public static class SignerClientTokenSigner implements TokenSigner {
+
+        @Override
+        public boolean isBatchSigningEnabled(String keyId) throws Exception {
+            return SignerClient.execute(new GetTokenBatchSigningEnabled(keyId));
+        }
+
+        @Override
+        public CompletableFuture<byte[]> sign(String keyId, String signatureAlgorithmId, byte[] digest) {
+            return SignerClient.<SignResponse>executeAsync(new Sign(keyId, signatureAlgorithmId, digest))
+                    .thenApply(SignResponse::getSignature);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class PendingRequest {
+        private final SigningRequest request;
+        private final CompletableFuture<SignatureData> result;
+    }
+
+    /**
+     * Pending requests and batches in flight of one signing key.
+     */
+    private final class KeyQueue {
+
+        private final String keyId;
+        private final String signatureAlgorithmId;
+
+        private final Deque<PendingRequest> pending = new ArrayDeque<>();
+
+        private volatile Boolean batchSigningEnabled;
+        private int inFlight;
+        private ScheduledFuture<?> lingerTask;
+
+        KeyQueue(String keyId, String signatureAlgorithmId) {
+            this.keyId = keyId;
+            this.signatureAlgorithmId = signatureAlgorithmId;
+        }
+
+        void submit(PendingRequest request) {
+            // Queried outside the lock, so that a slow Signer does not block
+            // the other callers of the key.
+            if (batchSigningEnabled == null) {
+                queryBatchSigningEnabled();
+            }
+
+            List<PendingRequest> batch;
+
+            synchronized (this) {
+                pending.add(request);
+                batch = cutBatch(false);
+            }
+
+            if (batch != null) {
+                dispatch(batch);
+            }
+        }
+
+        private void queryBatchSigningEnabled() {
+            try {
+                batchSigningEnabled = tokenSigner.isBatchSigningEnabled(keyId);
+            } catch (Exception e) {
+                // Left unset, so that the next request queries again
+                log.error("Failed to query if batch signing is enabled for token with key {}", keyId, e);
+            }
+        }
+
+        private boolean isBatchSigningEnabled() {
+            return Boolean.TRUE.equals(batchSigningEnabled);
+        }
+
+        private int getMaxBatchSize() {
+            return isBatchSigningEnabled() ? maxBatchSize : 1;
+        }
+
+        private int getMaxInFlight() {
+            return isBatchSigningEnabled() ? maxInFlightBatches : 1;
+        }
+
+        /**
+         * Takes the next batch from the pending requests if one should be sent to the token now.
+         * Otherwise schedules the linger task, if needed. Must be called while holding the lock.
+         */
+        private List<PendingRequest> cutBatch(boolean lingerExpired) {
+            if (pending.isEmpty() || inFlight >= getMaxInFlight()) {
+                return null;
+            }
+
+            if (inFlight > 0 && pending.size() < getMaxBatchSize() && !lingerExpired) {
+                scheduleLinger();
+
+                return null;
+            }
+
+            int size = Math.min(pending.size(), getMaxBatchSize());
+            List<PendingRequest> batch = new ArrayList<>(size);
+
+            for (int i = 0; i < size; i++) {
+                batch.add(pending.poll());
+            }
+
+            inFlight++;
+
+            if (!pending.isEmpty() && inFlight < getMaxInFlight()) {
+                scheduleLinger();
+            }
+
+            return batch;
+        }
+
+        private void scheduleLinger() {
+            if (lingerTask == null) {
+                lingerTask = scheduler.schedule(this::lingerExpired, lingerMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+
+        private void lingerExpired() {
+            List<PendingRequest> batch;
+
+            synchronized (this) {
+                lingerTask = null;
+                batch = cutBatch(true);
+            }
+
+            if (batch != null) {
+                dispatch(batch);
+            }
+        }
+
+        private void batchCompleted() {
+            List<PendingRequest> batch;
+
+            synchronized (this) {
+                inFlight--;
+                batch = cutBatch(false);
+            }
+
+            if (batch != null) {
+                dispatch(batch);
+            }
+        }
+
+        private void dispatch(List<PendingRequest> batch) {
+            log.trace("Signing batch of {} requests with key {}", batch.size(), keyId);
+
+            SignatureCtx ctx = new SignatureCtx(signatureAlgorithmId);
+            batch.forEach(r -> ctx.add(r.request));
+
+            CompletableFuture<byte[]> signature;
+
+            try {
+                byte[] digest = calculateDigest(getDigestAlgorithmId(signatureAlgorithmId), ctx.getDataToBeSigned());
+
+                signature = tokenSigner.sign(keyId, signatureAlgorithmId, digest);
+            } catch (Exception e) {
+                signature = new CompletableFuture<>();
+                signature.completeExceptionally(e);
+            }
+
+            ScheduledFuture<?> timeout = scheduler.schedule(() -> fail(batch,
+                    new CodedException(X_INTERNAL_ERROR, "Signature creation timed out")),
+                    timeoutMillis, TimeUnit.MILLISECONDS);
+
+            // A timed out batch stays in flight until the token answers, so that
+            // a token that is still busy with it is not given more batches.
+            signature.whenComplete((signatureValue, error) -> {
+                timeout.cancel(false);
+
+                try {
+                    if (error != null) {
+                        fail(batch, error);
+                    } else {
+                        complete(ctx, batch, signatureValue);
+                    }
+                } finally {
+                    batchCompleted();
+                }
+            });
+        }
+
+        private void complete(SignatureCtx ctx, List<PendingRequest> batch, byte[] signatureValue) {
+            try {
+                String signature = ctx.createSignatureXml(signatureValue);
+
+                // Each client gets corresponding hash chain -- client index in the
+                // batch determines the hash chain.
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).result.complete(ctx.createSignatureData(signature, i));
+                }
+            } catch (Exception e) {
+                fail(batch, e);
+            }
+        }
+
+        private void fail(List<PendingRequest> batch, Throwable error) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+
+            Throwable translated = cause instanceof CodedException
+                    ? ((CodedException) cause).withPrefix(SIGNER_X) : cause;
+
+            for (PendingRequest request : batch) {
+                request.result.completeExceptionally(translated);
+            }
+        }
+    }
+}
@@ -50,6 +50,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import static ee.ria.xroad.common.ErrorCodes.SIGNER_X;
@@ -81,6 +82,9 @@ public class BatchSigner extends UntypedAbstractActor {
     // Holds the actor instance, which sends and receives messages.
     private static ActorRef instance;
 
+    // Holds the non-blocking batch signer, created on first use.
+    private static volatile AsyncBatchSigner asyncInstance;
+
     /**
      * Initializes the batch signer with the given actor system.
      *
@@ -92,6 +96,28 @@ public class BatchSigner extends UntypedAbstractActor {
         }
     }
 
+    /**
+     * Submits the given signing request for batch signing without blocking the caller.
+     *
+     * @param keyId the signing key
+     * @param signatureAlgorithmId ID of the signature algorithm to use
+     * @param request the signing request
+     * @return future of the signature data
+     * @see AsyncBatchSigner
+     */
+    public static CompletableFuture<SignatureData> signAsync(String keyId, String signatureAlgorithmId,
+            SigningRequest request) {
+        if (asyncInstance == null) {
+            synchronized (BatchSigner.class) {
+                if (asyncInstance == null) {
+                    asyncInstance = new AsyncBatchSigner();
+                }
+            }
+        }
+
+        return asyncInstance.sign(keyId, signatureAlgorithmId, request);
+    }
+
     /**
      * Submits the given signing request for batch signing.
      *
@@ -26,7 +26,7 @@
 package ee.ria.xroad.common.signature;
 
 import ee.ria.xroad.common.CodedException;
-import ee.ria.xroad.common.hashchain.HashChainBuilder;
+import ee.ria.xroad.common.hashchain.ArrayHashChainBuilder;
 import ee.ria.xroad.common.util.CryptoUtils;
 import ee.ria.xroad.common.util.MessageFileNames;
 
@@ -135,7 +135,7 @@ class SignatureCtx {
     private void buildHashChain() throws Exception {
         log.trace("buildHashChain()");
 
-        HashChainBuilder hashChainBuilder = new HashChainBuilder(digestAlgorithmId);
+        ArrayHashChainBuilder hashChainBuilder = new ArrayHashChainBuilder(digestAlgorithmId, requests.size());
 
         for (SigningRequest request : requests) {
             hashChainBuilder.addInputHash(getHashChainInputs(request));
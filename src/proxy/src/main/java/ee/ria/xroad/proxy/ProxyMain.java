@@ -59,6 +59,8 @@ import akka.pattern.Patterns;
 import akka.util.Timeout;
 import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigValueFactory;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import scala.concurrent.Await;
 import scala.concurrent.duration.Duration;
@@ -112,6 +114,8 @@ public final class ProxyMain {
 
     private static final int STATS_LOG_REPEAT_INTERVAL = 60;
 
+    private static volatile ServerConfCacheStatus serverConfCacheStatus = ServerConfCacheStatus.NOT_READY;
+
     private ProxyMain() {
     }
 
@@ -124,6 +128,7 @@ public final class ProxyMain {
         try {
             startup();
             loadConfigurations();
+            warmUpServerConfCache();
             startServices();
         } catch (Exception ex) {
             log.error("Proxy failed to start", ex);
@@ -220,6 +225,28 @@ public final class ProxyMain {
         }
     }
 
+    private static void warmUpServerConfCache() {
+        log.trace("warmUpServerConfCache()");
+
+        if (SystemProperties.getServerConfCachePeriod() <= 0 || !SystemProperties.isServerConfCacheWarmUpEnabled()) {
+            log.info("Serverconf cache warm-up is disabled, loading configuration on demand");
+
+            serverConfCacheStatus = ServerConfCacheStatus.DISABLED;
+
+            return;
+        }
+
+        try {
+            ServerConf.warmUp();
+
+            serverConfCacheStatus = ServerConfCacheStatus.READY;
+        } catch (Exception e) {
+            log.error("Failed to warm up serverconf cache, loading configuration on demand", e);
+
+            serverConfCacheStatus = ServerConfCacheStatus.FAILED;
+        }
+    }
+
     private static AdminPort createAdminPort() throws Exception {
         AdminPort adminPort = new AdminPort(PortNumbers.ADMIN_PORT);
 
@@ -229,6 +256,8 @@ public final class ProxyMain {
 
         addMaintenanceHandler(adminPort);
 
+        addServerConfCacheStatusHandler(adminPort);
+
         return adminPort;
     }
 
@@ -254,6 +283,31 @@ public final class ProxyMain {
         });
     }
 
+    /**
+     * Reports whether the serverconf cache was loaded before the proxy started accepting requests.
+     * Responds with "ready" if the cache was loaded and "disabled" if the warm-up is turned off or there is no
+     * cache to load. Responds with 503 and "not ready" or "failed" if the warm-up has not been done yet or it
+     * failed and the configuration is loaded on demand.
+     */
+    private static void addServerConfCacheStatusHandler(AdminPort adminPort) {
+        adminPort.addHandler("/serverconfcachestatus", new AdminPort.SynchronousCallback() {
+            @Override
+            public void handle(HttpServletRequest request, HttpServletResponse response) {
+                ServerConfCacheStatus status = serverConfCacheStatus;
+
+                response.setStatus(status.isAvailable() ? HttpServletResponse.SC_OK
+                        : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                try {
+                    response.setCharacterEncoding("UTF8");
+                    response.getWriter().println(status.getDescription());
+                } catch (IOException e) {
+                    log.error("Unable to write to provided response, delegated request handling failed, response may"
+                            + " be malformed", e);
+                }
+            }
+        });
+    }
+
     /**
      * Diganostics for timestamping.
      * First check the connection to timestamp server. If OK, check the status of the previous timestamp request.
@@ -397,4 +451,17 @@ public final class ProxyMain {
     public static String readProxyVersion() {
         return Version.XROAD_VERSION;
     }
+
+    // State of the serverconf cache warm-up reported on the admin port.
+    @Getter
+    @RequiredArgsConstructor
+    private enum ServerConfCacheStatus {
+        NOT_READY("not ready", false),
+        READY("ready", true),
+        DISABLED("disabled", true),
+        FAILED("failed", false);
+
+        private final String description;
+        private final boolean available;
+    }
 }
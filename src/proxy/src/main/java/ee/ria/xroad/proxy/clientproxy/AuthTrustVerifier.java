@@ -30,8 +30,6 @@ import ee.ria.xroad.common.cert.CertChain;
 import ee.ria.xroad.common.cert.CertHelper;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.ServiceId;
-import ee.ria.xroad.common.util.CertUtils;
-import ee.ria.xroad.proxy.conf.KeyConf;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ArrayUtils;
@@ -43,14 +41,11 @@ import javax.net.ssl.SSLSession;
 
 import java.net.URI;
 import java.security.cert.X509Certificate;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
 import static ee.ria.xroad.common.ErrorCodes.X_SSL_AUTH_FAILED;
 import static ee.ria.xroad.common.ErrorCodes.translateException;
-import static ee.ria.xroad.common.util.CertHashBasedOcspResponderClient.getOcspResponsesFromServer;
 
 /**
  * This class is responsible for verifying the server proxy SSL certificate.
@@ -107,88 +102,21 @@ public final class AuthTrustVerifier {
                                     certs.length));
             chain = CertChain.create(serviceProvider.getXRoadInstance(),
                     certs[0], additionalCerts);
-            ocspResponses = getOcspResponses(
+            ocspResponses = PeerOcspResponseStore.INSTANCE.getOcspResponses(
                     chain.getAllCertsWithoutTrustedRoot(), address.getHost());
         } catch (CodedException e) {
             throw e.withPrefix(X_SSL_AUTH_FAILED);
         }
 
-        CertHelper.verifyAuthCert(chain, ocspResponses, serviceProvider);
-    }
-
-    /**
-     * Gets OCSP responses for each certificate in the chain. If the OCSP
-     * response is not locally available (cached), it will be retrieved
-     * from the internal OCSP responder that is located at the given address.
-     */
-    private static List<OCSPResp> getOcspResponses(
-            List<X509Certificate> chain, String address) throws Exception {
-        List<X509Certificate> certs = new ArrayList<>();
-        List<OCSPResp> responses = new ArrayList<>();
-
-        // Check for locally available OCSP responses
-        for (X509Certificate cert : chain) {
-            OCSPResp response = null;
-            try {
-                // Do we have a cached OCSP response for that cert?
-                log.trace("get ocsp response from key conf");
-                response = KeyConf.getOcspResponse(cert);
-                log.trace("ocsp response from key conf: {}", response);
-            } catch (CodedException e) {
-                // Log it and continue; only thrown if the response could
-                // not be loaded from a file -- not important to us here.
-                log.warn("Cached OCSP response could not be found", e);
-            }
-
-            if (response != null) {
-                responses.add(response);
-            } else {
-                // Did not find response locally, add the hash to be retrieved
-                // from server.
-                certs.add(cert);
-            }
-        }
-
-        // Retrieve OCSP responses for those certs whose responses
-        // are not locally available, from ServerProxy
-        if (!certs.isEmpty()) {
-            log.trace("number of certs that still need ocsp responses: {}", certs.size());
-            responses.addAll(getAndCacheOcspResponses(certs, address));
-        } else {
-            log.trace("all the certs have ocsp responses");
-        }
-
-        return responses;
-    }
-
-    /**
-     * Sends the GET request with all cert hashes which need OCSP responses.
-     */
-    private static List<OCSPResp> getAndCacheOcspResponses(
-            List<X509Certificate> hashes,
-            String address) throws Exception {
-        List<OCSPResp> receivedResponses;
         try {
-            log.trace("get ocsp responses from server {}", address);
-            receivedResponses = getOcspResponsesFromServer(address,
-                    CertUtils.getCertHashes(hashes));
+            CertHelper.verifyAuthCert(chain, ocspResponses, serviceProvider);
         } catch (Exception e) {
-            throw new CodedException(X_INTERNAL_ERROR, e);
-        }
-
-        // Did we get OCSP response for each cert hash?
-        if (receivedResponses.size() != hashes.size()) {
-            throw new CodedException(X_INTERNAL_ERROR,
-                    "Could not get all OCSP responses from server "
-                            + "(expected %s, but got %s)",
-                    hashes.size(), receivedResponses.size());
+            // Do not reuse responses that failed verification, fetch them
+            // again on the next connection
+            PeerOcspResponseStore.INSTANCE.invalidate(
+                    chain.getAllCertsWithoutTrustedRoot());
+            throw e;
         }
-
-        // Cache the responses locally
-        log.trace("got ocsp responses, setting them to key conf");
-        KeyConf.setOcspResponses(hashes, receivedResponses);
-
-        return receivedResponses;
     }
 
     private static X509Certificate[] getPeerCertificates(SSLSession session) {
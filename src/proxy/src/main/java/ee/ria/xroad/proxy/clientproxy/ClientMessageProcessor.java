@@ -86,6 +86,8 @@ import static ee.ria.xroad.common.ErrorCodes.X_MISSING_SIGNATURE;
 import static ee.ria.xroad.common.ErrorCodes.X_MISSING_SOAP;
 import static ee.ria.xroad.common.ErrorCodes.X_SERVICE_FAILED_X;
 import static ee.ria.xroad.common.ErrorCodes.translateException;
+import static ee.ria.xroad.common.SystemProperties.getClientResponseSpillThreshold;
+import static ee.ria.xroad.common.SystemProperties.isClientResponseSpillBufferEnabled;
 import static ee.ria.xroad.common.SystemProperties.isSslEnabled;
 import static ee.ria.xroad.common.util.AbstractHttpSender.CHUNKED_LENGTH;
 import static ee.ria.xroad.common.util.CryptoUtils.decodeBase64;
@@ -281,7 +283,14 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
     private void parseResponse(HttpSender httpSender) throws Exception {
         log.trace("parseResponse()");
 
-        response = new ProxyMessage(httpSender.getResponseHeaders().get(HEADER_ORIGINAL_CONTENT_TYPE));
+        String originalContentType = httpSender.getResponseHeaders().get(HEADER_ORIGINAL_CONTENT_TYPE);
+
+        // The signature is the last part of the response, so the response can only be forwarded after it has
+        // been read completely. With the spill buffer, the attachments are buffered in memory up to the spill
+        // threshold and only larger responses are cached in the file system.
+        response = isClientResponseSpillBufferEnabled()
+                ? new ProxyMessage(originalContentType, getClientResponseSpillThreshold())
+                : new ProxyMessage(originalContentType);
 
         ProxyMessageDecoder decoder = new ProxyMessageDecoder(response, httpSender.getResponseContentType(),
                 getHashAlgoId(httpSender));
@@ -381,8 +390,18 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
         servletResponse.setCharacterEncoding(MimeUtils.UTF8);
         servletResponse.setContentType(response.getSoapContentType());
 
-        try (InputStream is = response.getSoapContent()) {
-            IOUtils.copy(is, servletResponse.getOutputStream());
+        if (isClientResponseSpillBufferEnabled()) {
+            long contentLength = response.getSoapContentLength();
+
+            if (contentLength >= 0) {
+                servletResponse.setContentLengthLong(contentLength);
+            }
+
+            response.writeSoapContent(servletResponse.getOutputStream());
+        } else {
+            try (InputStream is = response.getSoapContent()) {
+                IOUtils.copy(is, servletResponse.getOutputStream());
+            }
         }
     }
 
@@ -473,11 +492,11 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
 
         @Override
         public void soap(SoapMessage message, Map<String, String> headers) throws Exception {
+            requestSoap = (SoapMessageImpl) message;
+
             if (log.isTraceEnabled()) {
-                log.trace("soap({})", message.getXml());
+                log.trace("soap({})", requestSoap.getLoggableXml());
             }
-
-            requestSoap = (SoapMessageImpl) message;
             requestServiceId = requestSoap.getService();
 
             updateOpMonitoringDataBySoapMessage(opMonitoringData, requestSoap);
@@ -78,6 +78,8 @@ import static ee.ria.xroad.common.ErrorCodes.X_IO_ERROR;
 import static ee.ria.xroad.common.ErrorCodes.X_MISSING_REST;
 import static ee.ria.xroad.common.ErrorCodes.X_MISSING_SIGNATURE;
 import static ee.ria.xroad.common.ErrorCodes.X_SERVICE_FAILED_X;
+import static ee.ria.xroad.common.SystemProperties.getClientResponseSpillThreshold;
+import static ee.ria.xroad.common.SystemProperties.isClientResponseSpillBufferEnabled;
 import static ee.ria.xroad.common.util.MimeUtils.HEADER_MESSAGE_TYPE;
 import static ee.ria.xroad.common.util.MimeUtils.HEADER_ORIGINAL_CONTENT_TYPE;
 import static ee.ria.xroad.common.util.MimeUtils.HEADER_REQUEST_ID;
@@ -199,7 +201,10 @@ class ClientRestMessageProcessor extends AbstractClientMessageProcessor {
     }
 
     private void parseResponse(HttpSender httpSender) throws Exception {
-        response = new ProxyMessage(httpSender.getResponseHeaders().get(HEADER_ORIGINAL_CONTENT_TYPE));
+        String originalContentType = httpSender.getResponseHeaders().get(HEADER_ORIGINAL_CONTENT_TYPE);
+        response = isClientResponseSpillBufferEnabled()
+                ? new ProxyMessage(originalContentType, getClientResponseSpillThreshold())
+                : new ProxyMessage(originalContentType);
         ProxyMessageDecoder decoder = new ProxyMessageDecoder(response, httpSender.getResponseContentType(),
                 getHashAlgoId(httpSender));
         try {
@@ -288,7 +293,7 @@ class ClientRestMessageProcessor extends AbstractClientMessageProcessor {
             servletResponse.addHeader(h.getName(), h.getValue());
         }
         if (response.hasRestBody()) {
-            IOUtils.copy(response.getRestBody(), servletResponse.getOutputStream());
+            IOUtils.copyLarge(response.getRestBody(), servletResponse.getOutputStream());
         }
     }
 
@@ -0,0 +1,331 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.clientproxy;
+
+import ee.ria.xroad.common.SystemProperties;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency scores and circuit breakers of server proxy addresses.
+ *
+ * The connect and TLS handshake times of each address are tracked as exponentially weighted moving averages and
+ * the addresses are tried fastest first. An address that fails {@link #FAILURE_THRESHOLD} times in a row is tried
+ * only as a last resort until its open time has passed; the open time doubles on each further failure. The averages
+ * can be saved to a file, so that the client proxy starts with warm scores after a restart.
+ */
+@Slf4j
+final class EndpointScores {
+
+    /**
+     * Weight of the latest measurement in the moving averages.
+     */
+    static final double SMOOTHING_FACTOR = 0.3;
+
+    /**
+     * Number of consecutive failures after which an address is tried only as a last resort.
+     */
+    static final int FAILURE_THRESHOLD = 3;
+
+    private static final int MAXIMUM_SIZE = 10000;
+    private static final int MAX_OPEN_TIME_DOUBLINGS = 4;
+    private static final long SAVE_INTERVAL_SECONDS = 60;
+
+    static final EndpointScores INSTANCE = create();
+
+    private final Cache<URI, Score> scores = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_SIZE)
+            .build();
+    private final long openMillis;
+
+    private volatile boolean changed;
+
+    /**
+     * @param openMillis time in milliseconds an address is tried only as a last resort after repeated failures
+     */
+    EndpointScores(long openMillis) {
+        this.openMillis = openMillis;
+    }
+
+    private static EndpointScores create() {
+        EndpointScores endpointScores = new EndpointScores(
+                TimeUnit.SECONDS.toMillis(SystemProperties.getClientProxyEndpointCircuitOpenTime()));
+        String file = SystemProperties.getClientProxyEndpointScoresFile();
+
+        if (!file.isEmpty()) {
+            Path path = Paths.get(file);
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "endpoint-scores-snapshot");
+                thread.setDaemon(true);
+
+                return thread;
+            });
+
+            endpointScores.load(path);
+            executor.scheduleWithFixedDelay(() -> endpointScores.saveIfChanged(path), SAVE_INTERVAL_SECONDS,
+                    SAVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> endpointScores.saveIfChanged(path)));
+        }
+
+        return endpointScores;
+    }
+
+    /**
+     * Records a successful connection to the address.
+     *
+     * @param address the address
+     * @param connectMillis time it took to establish the TCP connection
+     * @param handshakeMillis time it took to complete the TLS handshake
+     */
+    void recordSuccess(URI address, long connectMillis, long handshakeMillis) {
+        getScore(address).success(connectMillis, handshakeMillis);
+        changed = true;
+    }
+
+    /**
+     * Records a failed connection attempt to the address.
+     *
+     * @param address the address
+     */
+    void recordFailure(URI address) {
+        getScore(address).failure(System.currentTimeMillis(), openMillis);
+    }
+
+    /**
+     * @param address the address
+     * @return true if the address has failed repeatedly and its open time has not passed yet
+     */
+    boolean isOpen(URI address) {
+        Score score = scores.getIfPresent(address);
+
+        return score != null && score.rank(address, System.currentTimeMillis()).isOpen();
+    }
+
+    /**
+     * @param address the address
+     * @return the estimated connect and handshake time of the address in milliseconds, or NaN if not known
+     */
+    double getEstimate(URI address) {
+        Score score = scores.getIfPresent(address);
+
+        return score != null ? score.rank(address, System.currentTimeMillis()).getEstimate() : Double.NaN;
+    }
+
+    /**
+     * Orders the addresses in which they should be tried. Addresses with fewer consecutive failures come first,
+     * then addresses with lower estimated latency. Addresses that have not been measured yet are tried before the
+     * measured ones, so that they get measured too. Addresses with an open circuit come last.
+     *
+     * @param addresses the addresses
+     * @return the addresses in order
+     */
+    List<URI> order(URI[] addresses) {
+        long now = System.currentTimeMillis();
+        List<Rank> ranks = new ArrayList<>(addresses.length);
+
+        for (URI address : addresses) {
+            Score score = scores.getIfPresent(address);
+
+            ranks.add(score != null ? score.rank(address, now) : new Rank(address, false, 0, 0, Double.NaN));
+        }
+
+        ranks.sort(Comparator.comparing(Rank::isOpen)
+                .thenComparingLong(Rank::getOpenUntil)
+                .thenComparingInt(Rank::getFailures)
+                .thenComparingDouble(r -> Double.isNaN(r.getEstimate()) ? 0 : r.getEstimate()));
+
+        List<URI> ordered = new ArrayList<>(ranks.size());
+
+        for (Rank rank : ranks) {
+            ordered.add(rank.getAddress());
+        }
+
+        return ordered;
+    }
+
+    /**
+     * Saves the moving averages of the measured addresses to the file.
+     *
+     * @param file the file
+     * @throws IOException if the file cannot be written
+     */
+    void save(Path file) throws IOException {
+        Properties snapshot = new Properties();
+
+        for (Map.Entry<URI, Score> entry : scores.asMap().entrySet()) {
+            String value = entry.getValue().toSnapshotValue();
+
+            if (value != null) {
+                snapshot.setProperty(entry.getKey().toString(), value);
+            }
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        Path tmpFile = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+
+        try {
+            try (OutputStream out = Files.newOutputStream(tmpFile)) {
+                snapshot.store(out, "Server proxy address latency scores");
+            }
+
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * Loads the moving averages saved by {@link #save(Path)}. A missing file is ignored, invalid entries are
+     * skipped.
+     *
+     * @param file the file
+     */
+    void load(Path file) {
+        if (!Files.exists(file)) {
+            log.debug("Endpoint scores file {} does not exist", file);
+
+            return;
+        }
+
+        Properties snapshot = new Properties();
+
+        try (InputStream in = Files.newInputStream(file)) {
+            snapshot.load(in);
+        } catch (Exception e) {
+            log.warn("Could not load endpoint scores from {}", file, e);
+
+            return;
+        }
+
+        for (String key : snapshot.stringPropertyNames()) {
+            try {
+                String[] values = snapshot.getProperty(key).split(",");
+                double connect = Double.parseDouble(values[0]);
+                double handshake = Double.parseDouble(values[1]);
+
+                if (!(connect >= 0 && handshake >= 0)) {
+                    throw new IllegalArgumentException("Negative or unknown latency");
+                }
+
+                getScore(new URI(key)).restore(connect, handshake);
+            } catch (Exception e) {
+                log.warn("Skipping invalid endpoint score '{}'", key, e);
+            }
+        }
+
+        log.info("Loaded {} endpoint score(s) from {}", scores.size(), file);
+    }
+
+    private void saveIfChanged(Path file) {
+        if (!changed) {
+            return;
+        }
+
+        changed = false;
+
+        try {
+            save(file);
+        } catch (Exception e) {
+            changed = true;
+
+            log.warn("Could not save endpoint scores to {}", file, e);
+        }
+    }
+
+    private Score getScore(URI address) {
+        return scores.asMap().computeIfAbsent(address, a -> new Score());
+    }
+
+    @Value
+    private static class Rank {
+        URI address;
+        boolean open;
+        long openUntil;
+        int failures;
+        double estimate;
+    }
+
+    private static final class Score {
+        private double connectMillis = Double.NaN;
+        private double handshakeMillis = Double.NaN;
+        private int failures;
+        private long openUntil;
+
+        synchronized void success(long connect, long handshake) {
+            connectMillis = average(connectMillis, connect);
+            handshakeMillis = average(handshakeMillis, handshake);
+            failures = 0;
+            openUntil = 0;
+        }
+
+        synchronized void failure(long now, long openMillis) {
+            failures++;
+
+            if (failures >= FAILURE_THRESHOLD) {
+                openUntil = now + (openMillis << Math.min(failures - FAILURE_THRESHOLD, MAX_OPEN_TIME_DOUBLINGS));
+            }
+        }
+
+        synchronized void restore(double connect, double handshake) {
+            connectMillis = connect;
+            handshakeMillis = handshake;
+        }
+
+        synchronized Rank rank(URI address, long now) {
+            boolean open = now < openUntil;
+
+            return new Rank(address, open, open ? openUntil : 0, failures, connectMillis + handshakeMillis);
+        }
+
+        synchronized String toSnapshotValue() {
+            return Double.isNaN(connectMillis) ? null : connectMillis + "," + handshakeMillis;
+        }
+
+        private static double average(double current, long sample) {
+            return Double.isNaN(current) ? sample : current + SMOOTHING_FACTOR * (sample - current);
+        }
+    }
+}
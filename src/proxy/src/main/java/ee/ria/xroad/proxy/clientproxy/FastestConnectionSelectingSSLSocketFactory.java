@@ -40,6 +40,7 @@ import org.apache.http.protocol.HttpContext;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 
 import java.io.Closeable;
@@ -53,14 +54,15 @@ import java.util.concurrent.TimeUnit;
 
 import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
 import static ee.ria.xroad.common.ErrorCodes.X_NETWORK_ERROR;
-import static ee.ria.xroad.proxy.clientproxy.AuthTrustVerifier.verify;
 
 /**
  * This is a custom SSL socket factory that connects to the fastest target
  * address given a list of target addresses.
  *
  * The fastest target address is selected by initializing socket connection
- * to all provided addresses and choosing the first one to respond.
+ * to the provided addresses and choosing the first one to respond. The
+ * addresses are tried in the order of their {@link EndpointScores}, and
+ * connecting to the next address is started after a stagger delay.
  *
  * If an SSL session already exists to one of the provided addresses, then
  * that address is selected immediately without previous selection algorithm.
@@ -82,14 +84,34 @@ class FastestConnectionSelectingSSLSocketFactory
 
     public static final int CACHE_MAXIMUM_SIZE = 10000;
 
+    /**
+     * Verifies the server proxy of a connection after the TLS handshake.
+     */
+    @FunctionalInterface
+    interface ServerVerifier {
+        void verify(HttpContext context, SSLSession sslSession, URI selectedAddress);
+    }
+
     private final javax.net.ssl.SSLSocketFactory socketfactory;
 
     private final Cache<CacheKey, URI> selectedHosts;
     private final boolean cachingEnabled;
 
+    private final EndpointScores scores;
+    private final ServerVerifier verifier;
+    private final int staggerDelay;
+
     FastestConnectionSelectingSSLSocketFactory(SSLContext sslContext) {
+        this(sslContext, EndpointScores.INSTANCE, AuthTrustVerifier::verify);
+    }
+
+    FastestConnectionSelectingSSLSocketFactory(SSLContext sslContext, EndpointScores scores,
+            ServerVerifier verifier) {
         super(sslContext, null, SystemProperties.getXroadTLSCipherSuites(), (HostnameVerifier)null);
         this.socketfactory = sslContext.getSocketFactory();
+        this.scores = scores;
+        this.verifier = verifier;
+        this.staggerDelay = SystemProperties.getClientProxyConnectStaggerDelay();
         this.selectedHosts = CacheBuilder.newBuilder()
                 .expireAfterWrite(SystemProperties.getClientProxyFastestConnectingSslUriCachePeriod(), TimeUnit.SECONDS)
                 .maximumSize(CACHE_MAXIMUM_SIZE)
@@ -112,7 +134,7 @@ class FastestConnectionSelectingSSLSocketFactory
         // Read target addresses from the context.
         final URI[] addressesFromContext = getAddressesFromContext(context);
         final boolean useCache = cachingEnabled && (addressesFromContext.length > 1);
-        final FastestSocketSelector selector = new FastestSocketSelector();
+        final FastestSocketSelector selector = new FastestSocketSelector(scores, staggerDelay);
 
         CacheKey cacheKey = null;
         URI cachedURI = null;
@@ -127,6 +149,12 @@ class FastestConnectionSelectingSSLSocketFactory
             cacheKey = new CacheKey(addressesFromContext);
             cachedURI = selectedHosts.getIfPresent(cacheKey);
 
+            if (cachedURI != null && scores.isOpen(cachedURI)) {
+                log.trace("Cached URI {} has failed repeatedly, select again", cachedURI);
+                selectedHosts.asMap().remove(cacheKey, cachedURI);
+                cachedURI = null;
+            }
+
             if (cachedURI != null) {
                 log.trace("Use cached URI {}", cachedURI);
                 selector.add(cachedURI);
@@ -134,7 +162,7 @@ class FastestConnectionSelectingSSLSocketFactory
         }
 
         if (selector.isEmpty()) {
-            selector.addAll(addressesFromContext);
+            selector.addAll(scores.order(addressesFromContext));
         }
 
         Exception deferredException = null;
@@ -147,9 +175,10 @@ class FastestConnectionSelectingSSLSocketFactory
                 // see also FastestSocketSelector
                 selectedSocket = selector.select(connectTimeout);
                 sslSocket = wrapToSSLSocket(selectedSocket.getSocket(), connectTimeout);
-                prepareAndVerify(sslSocket, selectedSocket.getUri(), context);
+                long handshakeMillis = prepareAndVerify(sslSocket, selectedSocket.getUri(), context);
                 configureSocket(sslSocket);
                 log.trace("Connected to {}", selectedSocket.getUri());
+                scores.recordSuccess(selectedSocket.getUri(), selectedSocket.getConnectMillis(), handshakeMillis);
                 updateOpMonitoringData(context, selectedSocket);
 
                 if (useCache && cachedURI == null) {
@@ -162,13 +191,14 @@ class FastestConnectionSelectingSSLSocketFactory
                 closeQuietly(sslSocket);
                 if (selectedSocket != null) {
                     log.trace("Failed to connect to {}", selectedSocket.getUri(), e);
+                    scores.recordFailure(selectedSocket.getUri());
                     closeQuietly(selectedSocket.getSocket());
                 } else {
                     log.debug("Failed to connect", e);
                 }
                 if (cachedURI != null) {
                     selectedHosts.asMap().remove(cacheKey, cachedURI);
-                    selector.addAll(addressesFromContext);
+                    selector.addAll(scores.order(addressesFromContext));
                     selector.remove(cachedURI);
                     cachedURI = null;
                     connectTimeout = timeout;
@@ -238,10 +268,17 @@ class FastestConnectionSelectingSSLSocketFactory
         socket.setKeepAlive(true);
     }
 
-    private void prepareAndVerify(SSLSocket sslSocket, URI selectedAddress,
+    /**
+     * @return the time in milliseconds it took to complete the TLS handshake
+     */
+    private long prepareAndVerify(SSLSocket sslSocket, URI selectedAddress,
             HttpContext context) throws IOException {
         prepareSocket(sslSocket);
-        verify(context, sslSocket.getSession(), selectedAddress);
+        long started = System.nanoTime();
+        SSLSession session = sslSocket.getSession();
+        long handshakeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        verifier.verify(context, session, selectedAddress);
+        return handshakeMillis;
     }
 
     private SSLSocket wrapToSSLSocket(Socket socket, int connectTimeout) throws IOException {
@@ -39,19 +39,23 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static ee.ria.xroad.proxy.clientproxy.FastestConnectionSelectingSSLSocketFactory.closeQuietly;
 
 /**
  * Given a list of addresses, selects the first one to respond.
- * More specifically, we initiate a connection to all specified addresses and
- * wait for any connection events using Selector. We return the first address
- * from the selector or null, if no connections can be made.
+ * More specifically, we initiate connections to the specified addresses in the given order and wait for any
+ * connection events using Selector. Connecting to the next address is started when the previous connections have
+ * not completed within the stagger delay, or immediately when they have failed (in the style of "happy eyeballs",
+ * RFC 8305). We return the first address that connects.
  *
  * Note! During selection, the selector will remove addresses from the provided list if the address is
- * unresolvable or there is an error during connecting to the address.
+ * unresolvable or there is an error during connecting to the address. Failed addresses are recorded to the
+ * endpoint scores.
  */
 @Slf4j
 final class FastestSocketSelector {
@@ -60,18 +64,35 @@ final class FastestSocketSelector {
     static final class SocketInfo {
         private final URI uri;
         private final Socket socket;
+        private final long connectMillis;
     }
 
+    @Data
+    private static final class Attempt {
+        private final URI uri;
+        private final long started;
+    }
+
+    private final EndpointScores scores;
+    private final long staggerDelay;
+
     private List<URI> addresses = new ArrayList<>();
 
+    /**
+     * @param scores scores to record failed connection attempts to
+     * @param staggerDelay delay in milliseconds between starting connections, 0 to start all at once
+     */
+    FastestSocketSelector(EndpointScores scores, long staggerDelay) {
+        this.scores = scores;
+        this.staggerDelay = staggerDelay;
+    }
+
     void add(URI address) {
         addresses.add(address);
     }
 
-    void addAll(URI... address) {
-        for (URI u : address) {
-            addresses.add(u);
-        }
+    void addAll(Collection<URI> address) {
+        addresses.addAll(address);
     }
 
     boolean remove(URI address) {
@@ -100,10 +121,12 @@ final class FastestSocketSelector {
         try {
             socket = SocketFactory.getDefault().createSocket();
             final InetSocketAddress address = new InetSocketAddress(uri.getHost(), uri.getPort());
+            final long started = System.nanoTime();
             socket.connect(address, timeout);
-            return new SocketInfo(uri, socket);
+            return new SocketInfo(uri, socket, elapsedMillis(started));
         } catch (Exception e) {
             addresses.remove(uri);
+            scores.recordFailure(uri);
             log.error("Could not connect to '{}'", uri, e);
             closeQuietly(socket);
             throw e;
@@ -114,12 +137,12 @@ final class FastestSocketSelector {
         log.trace("select()");
         Selector selector = Selector.open();
         try {
-            initConnections(selector);
             SelectionKey key = selectFirstConnectedSocketChannel(selector, timeout);
             final SocketChannel channel = (SocketChannel)key.channel();
+            final Attempt attempt = (Attempt)key.attachment();
             key.cancel();
             channel.configureBlocking(true);
-            return new SocketInfo((URI)key.attachment(), channel.socket());
+            return new SocketInfo(attempt.getUri(), channel.socket(), elapsedMillis(attempt.getStarted()));
         } finally {
             try {
                 closeSelector(selector);
@@ -133,17 +156,45 @@ final class FastestSocketSelector {
             IOException {
         log.trace("selectFirstConnectedSocketChannel()");
 
-        while (!selector.keys().isEmpty()) {
-            if (selector.select(connectTimeout) == 0) { // Block until something happens
+        final Iterator<URI> pending = new ArrayList<>(addresses).iterator();
+        final long deadline = System.currentTimeMillis() + connectTimeout;
+        long nextStart = 0;
+
+        while (true) {
+            long now = System.currentTimeMillis();
+
+            // Start the next connection when the stagger delay has passed or nothing is in progress
+            while (pending.hasNext() && (now >= nextStart || !hasPendingConnections(selector))) {
+                SelectionKey connected = initConnection(selector, pending.next());
+                if (connected != null) {
+                    return connected;
+                }
+                nextStart = now + staggerDelay;
+                if (staggerDelay > 0 && hasPendingConnections(selector)) {
+                    break;
+                }
+            }
+
+            if ((!pending.hasNext() && !hasPendingConnections(selector)) || now >= deadline) {
                 break;
             }
+
+            long wait = pending.hasNext() ? Math.min(deadline, nextStart) - now : deadline - now;
+            if (selector.select(Math.max(1, wait)) == 0) {
+                continue;
+            }
+
             Iterator<SelectionKey> it = selector.selectedKeys().iterator();
             while (it.hasNext()) {
                 SelectionKey key = it.next();
+                it.remove();
                 if (isConnected(key)) {
                     return key;
                 }
-                it.remove();
+                if (!key.isValid()) {
+                    // connection failed, do not wait for the stagger delay before trying the next address
+                    nextStart = 0;
+                }
             }
         }
         throw new IOException("Unable to connect to any of the provided addresses.");
@@ -156,7 +207,9 @@ final class FastestSocketSelector {
                 return channel.finishConnect();
             } catch (Exception e) {
                 //connection failed, do not consider this address any more
-                addresses.remove(key.attachment());
+                URI uri = ((Attempt)key.attachment()).getUri();
+                addresses.remove(uri);
+                scores.recordFailure(uri);
                 key.cancel();
                 closeQuietly(channel);
                 log.trace("Error connecting socket channel: {}", e.getMessage());
@@ -165,36 +218,53 @@ final class FastestSocketSelector {
         return false;
     }
 
-    private void initConnections(Selector selector) {
-        log.trace("initConnections()");
+    /**
+     * Starts connecting to the target.
+     * @return the selection key if the connection was established immediately, null otherwise
+     */
+    private SelectionKey initConnection(Selector selector, URI target) {
+        log.trace("initConnection({})", target);
 
-        for (Iterator<URI> iterator = addresses.iterator(); iterator.hasNext();) {
-            final URI target = iterator.next();
-            final InetSocketAddress address = new InetSocketAddress(target.getHost(), target.getPort());
-            if (address.isUnresolved()) {
-                iterator.remove();
-                continue;
+        final InetSocketAddress address = new InetSocketAddress(target.getHost(), target.getPort());
+        if (address.isUnresolved()) {
+            addresses.remove(target);
+            scores.recordFailure(target);
+            return null;
+        }
+        SocketChannel channel = null;
+        SelectionKey key = null;
+        try {
+            channel = SocketChannel.open();
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            key = channel.register(selector, SelectionKey.OP_CONNECT, new Attempt(target, System.nanoTime()));
+            if (channel.connect(address)) {
+                // connected immediately
+                return key;
             }
-            SocketChannel channel = null;
-            SelectionKey key = null;
-            try {
-                channel = SocketChannel.open();
-                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
-                channel.configureBlocking(false);
-                key = channel.register(selector, SelectionKey.OP_CONNECT, target);
-                if (channel.connect(address)) {
-                    // connected immediately
-                    break;
-                }
-            } catch (Exception e) {
-                if (key != null) {
-                    key.cancel();
-                    iterator.remove();
-                }
-                closeQuietly(channel);
-                log.trace("Error connecting to '{}': {}", target, e);
+        } catch (Exception e) {
+            if (key != null) {
+                key.cancel();
+            }
+            addresses.remove(target);
+            scores.recordFailure(target);
+            closeQuietly(channel);
+            log.trace("Error connecting to '{}': {}", target, e);
+        }
+        return null;
+    }
+
+    private static boolean hasPendingConnections(Selector selector) {
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid()) {
+                return true;
             }
         }
+        return false;
+    }
+
+    private static long elapsedMillis(long startedNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
     }
 
     private static void closeSelector(Selector selector) throws IOException {
@@ -0,0 +1,411 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.clientproxy;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.globalconfextension.GlobalConfExtensions;
+import ee.ria.xroad.common.util.CertHashBasedOcspResponderClient;
+import ee.ria.xroad.common.util.CertUtils;
+import ee.ria.xroad.common.util.OcspResponseUtils;
+import ee.ria.xroad.proxy.conf.KeyConf;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
+
+/**
+ * Keeps the OCSP responses of the certificate chains of peer security servers, so that connecting to a server proxy
+ * does not wait for its OCSP responder. A response is used as is until half of its validity period has passed.
+ * After that it is still used while valid, but it is also refreshed in the background. Only responses that are
+ * missing or no longer valid are fetched on the connect path. The responses of recently contacted peers are
+ * refreshed periodically, the responses of peers that are not contacted are dropped after an idle time.
+ */
+@Slf4j
+final class PeerOcspResponseStore {
+
+    private static final int REFRESH_THREADS = 4;
+
+    private static final int MIN_REFRESH_INTERVAL_SECONDS = 30;
+
+    static final PeerOcspResponseStore INSTANCE = new PeerOcspResponseStore(
+            SystemProperties.getClientProxyPeerOcspIdleTime(),
+            SystemProperties.getClientProxyPeerOcspPrefetchInterval(),
+            TimeUnit.SECONDS.toMillis(MIN_REFRESH_INTERVAL_SECONDS),
+            CertHashBasedOcspResponderClient::getOcspResponsesFromServer);
+
+    /**
+     * Fetches OCSP responses from the OCSP responder of a peer security server.
+     */
+    @FunctionalInterface
+    interface OcspResponseFetcher {
+        List<OCSPResp> fetch(String address, String[] certHashes) throws Exception;
+    }
+
+    enum State {
+        FRESH, STALE, EXPIRED
+    }
+
+    private final Cache<String, Entry> entries;
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final long minRefreshIntervalMillis;
+    private final OcspResponseFetcher fetcher;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param idleTimeSeconds time after which the responses of a peer that is not contacted are dropped
+     * @param prefetchIntervalSeconds interval of refreshing the responses of recently contacted peers, 0 to disable
+     * @param minRefreshIntervalMillis minimum time between two background refreshes of one response
+     * @param fetcher fetches responses from the OCSP responder of a peer
+     */
+    PeerOcspResponseStore(int idleTimeSeconds, int prefetchIntervalSeconds, long minRefreshIntervalMillis,
+            OcspResponseFetcher fetcher) {
+        AtomicInteger threadCount = new AtomicInteger();
+
+        this.entries = CacheBuilder.newBuilder()
+                .expireAfterAccess(idleTimeSeconds, TimeUnit.SECONDS)
+                .build();
+        this.minRefreshIntervalMillis = minRefreshIntervalMillis;
+        this.fetcher = fetcher;
+        this.executor = Executors.newScheduledThreadPool(REFRESH_THREADS, r -> {
+            Thread thread = new Thread(r, "peer-ocsp-refresh-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        if (prefetchIntervalSeconds > 0) {
+            executor.scheduleWithFixedDelay(this::prefetch, prefetchIntervalSeconds, prefetchIntervalSeconds,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Gets OCSP responses for each certificate in the chain. Valid responses are taken from this store. Missing
+     * responses are taken from the key configuration if it has valid ones, or else retrieved from the OCSP responder
+     * of the peer security server at the given address.
+     *
+     * @param chain the certificates
+     * @param address address of the peer security server
+     * @return the OCSP responses
+     * @throws Exception if the responses cannot be retrieved
+     */
+    List<OCSPResp> getOcspResponses(List<X509Certificate> chain, String address) throws Exception {
+        Validity validity = Validity.current();
+        List<OCSPResp> responses = new ArrayList<>(chain.size());
+        List<X509Certificate> missing = new ArrayList<>();
+        List<X509Certificate> stale = new ArrayList<>();
+
+        for (X509Certificate cert : chain) {
+            Entry entry = entries.getIfPresent(calculateCertHexHash(cert));
+            State state = entry != null ? validity.getState(entry) : State.EXPIRED;
+
+            if (state == State.EXPIRED) {
+                missing.add(cert);
+            } else {
+                responses.add(entry.getResponse());
+
+                if (state == State.STALE) {
+                    stale.add(cert);
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            log.trace("number of certs that still need ocsp responses: {}", missing.size());
+            responses.addAll(load(missing, address, validity, stale));
+        }
+
+        if (!stale.isEmpty()) {
+            refresh(stale, address);
+        }
+
+        return responses;
+    }
+
+    /**
+     * Drops the responses of the certificates, e.g. after they failed verification.
+     *
+     * @param chain the certificates
+     * @throws Exception if the certificate hashes cannot be calculated
+     */
+    void invalidate(List<X509Certificate> chain) throws Exception {
+        for (X509Certificate cert : chain) {
+            entries.invalidate(calculateCertHexHash(cert));
+        }
+    }
+
+    /**
+     * Refreshes in the background the responses that are no longer fresh.
+     */
+    void prefetch() {
+        try {
+            Validity validity = Validity.current();
+            Map<String, List<X509Certificate>> certsByAddress = new HashMap<>();
+
+            for (Entry entry : entries.asMap().values()) {
+                if (validity.getState(entry) != State.FRESH) {
+                    certsByAddress.computeIfAbsent(entry.getAddress(), a -> new ArrayList<>()).add(entry.getCert());
+                }
+            }
+
+            certsByAddress.forEach(this::refresh);
+        } catch (Exception e) {
+            log.error("Error when prefetching peer OCSP responses", e);
+        }
+    }
+
+    /**
+     * Stops the background refreshes.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    State getState(X509Certificate cert) throws Exception {
+        Entry entry = entries.getIfPresent(calculateCertHexHash(cert));
+
+        return entry != null ? Validity.current().getState(entry) : State.EXPIRED;
+    }
+
+    private List<OCSPResp> load(List<X509Certificate> certs, String address, Validity validity,
+            List<X509Certificate> stale) throws Exception {
+        List<OCSPResp> responses = new ArrayList<>();
+        List<X509Certificate> fetched = new ArrayList<>();
+
+        for (X509Certificate cert : certs) {
+            OCSPResp response = null;
+
+            try {
+                response = KeyConf.getOcspResponse(cert);
+            } catch (CodedException e) {
+                // Log it and continue; only thrown if the response could
+                // not be loaded from a file -- not important to us here.
+                log.warn("Cached OCSP response could not be found", e);
+            }
+
+            Entry entry = response != null ? Entry.create(cert, address, response) : null;
+            State state = entry != null ? validity.getState(entry) : State.EXPIRED;
+
+            if (state == State.EXPIRED) {
+                fetched.add(cert);
+            } else {
+                store(entry);
+                responses.add(response);
+
+                if (state == State.STALE) {
+                    stale.add(cert);
+                }
+            }
+        }
+
+        if (!fetched.isEmpty()) {
+            responses.addAll(fetch(fetched, address));
+        }
+
+        return responses;
+    }
+
+    /**
+     * Retrieves the responses from the OCSP responder of the peer and caches them in the key configuration and in
+     * this store.
+     */
+    private List<OCSPResp> fetch(List<X509Certificate> certs, String address) throws Exception {
+        List<OCSPResp> receivedResponses;
+
+        try {
+            log.trace("get ocsp responses from server {}", address);
+            receivedResponses = fetcher.fetch(address, CertUtils.getCertHashes(certs));
+        } catch (Exception e) {
+            throw new CodedException(X_INTERNAL_ERROR, e);
+        }
+
+        // Did we get OCSP response for each cert hash?
+        if (receivedResponses.size() != certs.size()) {
+            throw new CodedException(X_INTERNAL_ERROR,
+                    "Could not get all OCSP responses from server (expected %s, but got %s)",
+                    certs.size(), receivedResponses.size());
+        }
+
+        log.trace("got ocsp responses, setting them to key conf");
+        KeyConf.setOcspResponses(certs, receivedResponses);
+
+        for (int i = 0; i < certs.size(); i++) {
+            Entry entry = Entry.create(certs.get(i), address, receivedResponses.get(i));
+
+            if (entry != null) {
+                store(entry);
+            }
+        }
+
+        return receivedResponses;
+    }
+
+    private void refresh(List<X509Certificate> certs, String address) {
+        long now = System.currentTimeMillis();
+        List<X509Certificate> refreshed = new ArrayList<>();
+        List<String> hashes = new ArrayList<>();
+
+        for (X509Certificate cert : certs) {
+            try {
+                String hash = calculateCertHexHash(cert);
+                Entry entry = entries.getIfPresent(hash);
+
+                if (entry != null && now - entry.refreshAttemptMillis < minRefreshIntervalMillis) {
+                    continue;
+                }
+
+                if (refreshing.add(hash)) {
+                    if (entry != null) {
+                        entry.refreshAttemptMillis = now;
+                    }
+
+                    refreshed.add(cert);
+                    hashes.add(hash);
+                }
+            } catch (Exception e) {
+                log.warn("Could not calculate certificate hash", e);
+            }
+        }
+
+        if (refreshed.isEmpty()) {
+            return;
+        }
+
+        log.debug("Refreshing {} OCSP response(s) from {}", refreshed.size(), address);
+
+        try {
+            executor.execute(() -> {
+                try {
+                    fetch(refreshed, address);
+                } catch (Exception e) {
+                    log.warn("Could not refresh OCSP responses from {}", address, e);
+                } finally {
+                    refreshing.removeAll(hashes);
+                }
+            });
+        } catch (Exception e) {
+            refreshing.removeAll(hashes);
+
+            log.warn("Could not schedule OCSP response refresh", e);
+        }
+    }
+
+    private void store(Entry entry) {
+        entries.asMap().merge(entry.getCertHash(), entry,
+                (current, received) -> received.getThisUpdate().after(current.getThisUpdate()) ? received : current);
+    }
+
+    /**
+     * Validity rules of OCSP responses in the current global configuration.
+     */
+    private static final class Validity {
+        private final long now = System.currentTimeMillis();
+        private final long freshnessMillis = TimeUnit.SECONDS.toMillis(GlobalConf.getOcspFreshnessSeconds(false));
+        private final boolean verifyNextUpdate = GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate();
+
+        static Validity current() {
+            return new Validity();
+        }
+
+        State getState(Entry entry) {
+            long thisUpdate = entry.getThisUpdate().getTime();
+            long expiresAt = thisUpdate + freshnessMillis;
+
+            if (verifyNextUpdate && entry.getNextUpdate() != null) {
+                expiresAt = Math.min(expiresAt, entry.getNextUpdate().getTime());
+            }
+
+            if (now >= expiresAt) {
+                return State.EXPIRED;
+            }
+
+            return now >= thisUpdate + (expiresAt - thisUpdate) / 2 ? State.STALE : State.FRESH;
+        }
+    }
+
+    @Getter
+    private static final class Entry {
+        private final X509Certificate cert;
+        private final String certHash;
+        private final String address;
+        private final OCSPResp response;
+        private final Date thisUpdate;
+        private final Date nextUpdate;
+
+        private volatile long refreshAttemptMillis;
+
+        private Entry(X509Certificate cert, String certHash, String address, OCSPResp response, Date thisUpdate,
+                Date nextUpdate) {
+            this.cert = cert;
+            this.certHash = certHash;
+            this.address = address;
+            this.response = response;
+            this.thisUpdate = thisUpdate;
+            this.nextUpdate = nextUpdate;
+        }
+
+        /**
+         * @return the entry, or null if the response has no single response for the certificate
+         */
+        static Entry create(X509Certificate cert, String address, OCSPResp response) {
+            try {
+                SingleResp singleResp = OcspResponseUtils.getSingleResp(response, cert);
+
+                if (singleResp == null) {
+                    return null;
+                }
+
+                return new Entry(cert, calculateCertHexHash(cert), address, response,
+                        singleResp.getThisUpdate(), singleResp.getNextUpdate());
+            } catch (Exception e) {
+                log.warn("Could not read validity of OCSP response", e);
+
+                return null;
+            }
+        }
+    }
+}
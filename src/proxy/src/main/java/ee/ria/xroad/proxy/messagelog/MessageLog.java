@@ -31,6 +31,7 @@ import ee.ria.xroad.common.message.RestResponse;
 import ee.ria.xroad.common.message.SoapMessageImpl;
 import ee.ria.xroad.common.messagelog.AbstractLogManager;
 import ee.ria.xroad.common.messagelog.FindByQueryId;
+import ee.ria.xroad.common.messagelog.LogRecord;
 import ee.ria.xroad.common.messagelog.MessageRecord;
 import ee.ria.xroad.common.messagelog.RestLogMessage;
 import ee.ria.xroad.common.messagelog.SoapLogMessage;
@@ -50,7 +51,6 @@ import scala.concurrent.Await;
 
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
-import java.util.logging.LogRecord;
 
 import static ee.ria.xroad.common.ErrorCodes.X_LOGGING_FAILED_X;
 import static ee.ria.xroad.common.ErrorCodes.X_TIMESTAMPING_FAILED_X;
@@ -148,7 +148,8 @@ public final class MessageLog {
     }
 
     /**
-     * Returns a log record for a given message Query Id, start and end time.
+     * Returns a log record for a given message Query Id, start and end time. If the log manager provides a
+     * direct lookup, the query is executed in the calling thread instead of the log manager actor.
      *
      * @param queryId   the message query id
      * @param startTime the start time
@@ -159,6 +160,13 @@ public final class MessageLog {
         try {
             assertInitialized();
             log.trace("findByQueryId({}, {}, {})", queryId, startTime, endTime);
+
+            AbstractLogManager.QueryIdLookup lookup = AbstractLogManager.getQueryIdLookup();
+
+            if (lookup != null) {
+                return lookup.findByQueryId(queryId, startTime, endTime);
+            }
+
             return (LogRecord) ask(new FindByQueryId(queryId, startTime, endTime));
         } catch (Exception e) {
             throw translateException(e);
@@ -34,6 +34,8 @@ import akka.actor.ActorSystem;
 import akka.actor.Props;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.function.Consumer;
+
 /**
  * Contains method for storing operational monitoring data.
  */
@@ -47,6 +49,8 @@ public final class OpMonitoring {
 
     private static ActorRef opMonitoringBuffer;
 
+    private static volatile Consumer<OpMonitoringData> directStore;
+
     private OpMonitoring() {
     }
 
@@ -72,12 +76,28 @@ public final class OpMonitoring {
         log.trace("store()");
 
         try {
-            tell(data);
+            Consumer<OpMonitoringData> store = directStore;
+
+            if (store != null) {
+                store.accept(data);
+            } else {
+                tell(data);
+            }
         } catch (Throwable t) {
             log.error("Storing operational monitoring data failed", t);
         }
     }
 
+    /**
+     * Sets the function that stores operational monitoring data directly in the calling thread instead
+     * of sending it to the buffer actor. Buffers that accept data from multiple threads register
+     * themselves here when started and unregister with null when stopped.
+     * @param store the store function or null
+     */
+    public static void setDirectStore(Consumer<OpMonitoringData> store) {
+        directStore = store;
+    }
+
     @SuppressWarnings("unchecked")
     private static Class<? extends AbstractOpMonitoringBuffer>
             getOpMonitoringManagerImpl() {
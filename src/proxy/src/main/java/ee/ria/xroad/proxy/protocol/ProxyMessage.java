@@ -40,11 +40,14 @@ import ee.ria.xroad.common.util.MultipartEncoder;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.bouncycastle.cert.ocsp.OCSPResp;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -66,6 +69,7 @@ public class ProxyMessage implements ProxyMessageConsumer {
 
     private final String originalContentType;
     private final String originalMimeBoundary;
+    private final int cacheMemoryLimit;
 
     private SoapMessageImpl soapMessage;
     private SignatureData signature;
@@ -86,8 +90,21 @@ public class ProxyMessage implements ProxyMessageConsumer {
      * @param originalContentType the original content type.
      */
     public ProxyMessage(String originalContentType) {
+        this(originalContentType, 0);
+    }
+
+    /**
+     * Constructs new proxy message with the original message content type.
+     * Attachments and REST bodies up to cacheMemoryLimit bytes are kept in
+     * memory, larger ones are spilled to the file system.
+     *
+     * @param originalContentType the original content type.
+     * @param cacheMemoryLimit maximum number of cached bytes kept in memory
+     */
+    public ProxyMessage(String originalContentType, int cacheMemoryLimit) {
         this.originalContentType = originalContentType;
         this.originalMimeBoundary = MimeUtils.getBoundary(originalContentType);
+        this.cacheMemoryLimit = cacheMemoryLimit;
     }
 
     /**
@@ -149,10 +166,7 @@ public class ProxyMessage implements ProxyMessageConsumer {
 
             return new ByteArrayInputStream(out.toByteArray());
         } else if (hasAttachments()) {
-            // Finish writing to the attachment cache.
-            encoder.close();
-
-            hasBeenConsumed = true;
+            finishAttachments();
 
             return attachmentCache.getCachedContents();
         } else {
@@ -160,6 +174,46 @@ public class ProxyMessage implements ProxyMessageConsumer {
         }
     }
 
+    /**
+     * @return length of the cached message content in bytes or -1 if the
+     * length is not known in advance.
+     * @throws Exception in case of any errors
+     */
+    public long getSoapContentLength() throws Exception {
+        if (isMimeEncodedSoap()) {
+            return -1;
+        } else if (hasAttachments()) {
+            finishAttachments();
+
+            return attachmentCache.getCachedContents().size();
+        } else {
+            return soapMessage.getBytes().length;
+        }
+    }
+
+    /**
+     * Writes the content of the cached message to the given output stream
+     * without first copying it into an intermediate buffer. The output
+     * stream is not closed.
+     *
+     * @param out the output stream
+     * @throws Exception in case of any errors
+     */
+    public void writeSoapContent(OutputStream out) throws Exception {
+        if (isMimeEncodedSoap()) {
+            MultipartEncoder mp = new MultipartEncoder(new CloseShieldOutputStream(out), originalMimeBoundary);
+            mp.startPart(getSoap().getContentType(), MimeUtils.toHeaders(soapPartHeaders));
+            mp.write(getSoap().getBytes());
+            mp.close();
+        } else if (hasAttachments()) {
+            finishAttachments();
+
+            IOUtils.copyLarge(attachmentCache.getCachedContents(), out);
+        } else {
+            out.write(soapMessage.getBytes());
+        }
+    }
+
     /**
      * Finalize SOAP message processing.
      */
@@ -216,7 +270,7 @@ public class ProxyMessage implements ProxyMessageConsumer {
     @Override
     public void restBody(InputStream content) throws Exception {
         assert (attachmentCache == null);
-        attachmentCache = new CachingStream();
+        attachmentCache = createCache();
         IOUtils.copyLarge(content, attachmentCache);
     }
 
@@ -226,7 +280,7 @@ public class ProxyMessage implements ProxyMessageConsumer {
         log.trace("Attachment: {}", contentType);
 
         if (!hasAttachments()) {
-            attachmentCache = new CachingStream();
+            attachmentCache = createCache();
             encoder = createEncoder();
 
             // Write the SOAP before attachments
@@ -247,10 +301,23 @@ public class ProxyMessage implements ProxyMessageConsumer {
         return encoder != null;
     }
 
+    protected CachingStream createCache() throws IOException {
+        return cacheMemoryLimit > 0 ? new CachingStream(cacheMemoryLimit) : new CachingStream();
+    }
+
     protected SoapMessageEncoder createEncoder() {
         return new MultipartSoapMessageEncoder(attachmentCache, originalMimeBoundary);
     }
 
+    // Finishes writing to the attachment cache.
+    private void finishAttachments() throws Exception {
+        if (!hasBeenConsumed) {
+            encoder.close();
+
+            hasBeenConsumed = true;
+        }
+    }
+
     // Returns true, if this the original message was a MIME-encoded SOAP
     // message without any attachments (special case).
     private boolean isMimeEncodedSoap() {
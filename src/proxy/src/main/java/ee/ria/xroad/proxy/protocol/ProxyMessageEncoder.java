@@ -238,7 +238,7 @@ public class ProxyMessageEncoder implements ProxyMessageConsumer {
     public void soap(SoapMessageImpl message,
             Map<String, String> additionalHeaders) throws Exception {
         if (log.isTraceEnabled()) {
-            log.trace("writeSoapMessage({})", message.getXml());
+            log.trace("writeSoapMessage({})", message.getLoggableXml());
         }
 
         byte[] data = message.getBytes();
@@ -25,20 +25,27 @@
  */
 package ee.ria.xroad.proxy.serverproxy;
 
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
 /**
- * Dynamic loader for rest service handlers
+ * Declares which services a {@link ServiceHandler} or {@link RestServiceHandler} can handle. Handlers without
+ * this annotation are consulted for every request.
  */
-public final class RestServiceHandlerLoader {
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface HandledServices {
 
-    private RestServiceHandlerLoader() { }
+    /**
+     * @return codes of the services the handler can handle, or an empty array if the handler must be
+     * consulted for every service
+     */
+    String[] serviceCodes() default {};
 
-    static RestServiceHandler load(String className) {
-        try {
-            Class<?> clazz = Class.forName(className);
-            return (RestServiceHandler) clazz.newInstance();
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to load rest service handler: "
-                    + className, e);
-        }
-    }
+    /**
+     * @return true if the handler keeps no per-request state, so that one instance can be shared by all requests
+     */
+    boolean threadSafe() default false;
 }
@@ -27,10 +27,9 @@ package ee.ria.xroad.proxy.serverproxy;
 
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.SystemProperties;
-import ee.ria.xroad.common.cert.CertChain;
-import ee.ria.xroad.common.cert.CertHelper;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.serverconf.ServerConf;
+import ee.ria.xroad.common.conf.serverconf.ServiceAccessDescriptor;
 import ee.ria.xroad.common.conf.serverconf.model.ClientType;
 import ee.ria.xroad.common.conf.serverconf.model.DescriptionType;
 import ee.ria.xroad.common.identifier.ClientId;
@@ -74,9 +73,7 @@ import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.cert.X509Certificate;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
 import java.util.Map;
 
 import static ee.ria.xroad.common.ErrorCodes.SERVER_SERVERPROXY_X;
@@ -92,7 +89,6 @@ import static ee.ria.xroad.common.ErrorCodes.X_SERVICE_DISABLED;
 import static ee.ria.xroad.common.ErrorCodes.X_SERVICE_FAILED_X;
 import static ee.ria.xroad.common.ErrorCodes.X_SERVICE_MALFORMED_URL;
 import static ee.ria.xroad.common.ErrorCodes.X_SERVICE_MISSING_URL;
-import static ee.ria.xroad.common.ErrorCodes.X_SSL_AUTH_FAILED;
 import static ee.ria.xroad.common.ErrorCodes.X_UNKNOWN_MEMBER;
 import static ee.ria.xroad.common.ErrorCodes.X_UNKNOWN_SERVICE;
 import static ee.ria.xroad.common.ErrorCodes.translateException;
@@ -105,16 +101,13 @@ import static ee.ria.xroad.common.util.MimeUtils.HEADER_ORIGINAL_CONTENT_TYPE;
 import static ee.ria.xroad.common.util.MimeUtils.HEADER_ORIGINAL_SOAP_ACTION;
 import static ee.ria.xroad.common.util.MimeUtils.HEADER_REQUEST_ID;
 import static ee.ria.xroad.common.util.TimeUtils.getEpochMillisecond;
+import static ee.ria.xroad.proxy.serverproxy.SslClientCertVerifier.SSL_SESSION_ID_ATTRIBUTE;
 
 @Slf4j
 class ServerMessageProcessor extends MessageProcessorBase {
 
-    private static final String SERVERPROXY_SERVICE_HANDLERS = SystemProperties.PREFIX + "proxy.serverServiceHandlers";
-
     private final X509Certificate[] clientSslCerts;
 
-    private final List<ServiceHandler> handlers = new ArrayList<>();
-
     private String originalSoapAction;
     private ProxyMessage requestMessage;
     private ServiceId requestServiceId;
@@ -138,8 +131,6 @@ class ServerMessageProcessor extends MessageProcessorBase {
         this.clientSslCerts = clientSslCerts;
         this.opMonitorHttpClient = opMonitorHttpClient;
         this.opMonitoringData = opMonitoringData;
-
-        loadServiceHandlers();
     }
 
     @Override
@@ -214,32 +205,8 @@ class ServerMessageProcessor extends MessageProcessorBase {
         opMonitoringData.setSucceeded(true);
     }
 
-    private void loadServiceHandlers() {
-        String serviceHandlerNames = System.getProperty(SERVERPROXY_SERVICE_HANDLERS);
-
-        if (!StringUtils.isBlank(serviceHandlerNames)) {
-            for (String serviceHandlerName : serviceHandlerNames.split(",")) {
-                handlers.add(ServiceHandlerLoader.load(serviceHandlerName));
-
-                log.debug("Loaded service handler: " + serviceHandlerName);
-            }
-        }
-
-        handlers.add(new DefaultServiceHandlerImpl()); // default handler
-    }
-
-    private ServiceHandler getServiceHandler(ProxyMessage request) {
-        for (ServiceHandler handler : handlers) {
-            if (handler.canHandle(requestServiceId, request)) {
-                return handler;
-            }
-        }
-
-        return null;
-    }
-
     private void handleRequest() throws Exception {
-        ServiceHandler handler = getServiceHandler(requestMessage);
+        ServiceHandler handler = ServiceHandlerRegistry.soap().getHandler(requestServiceId, requestMessage);
 
         if (handler == null) {
             handler = new DefaultServiceHandlerImpl();
@@ -341,27 +308,8 @@ class ServerMessageProcessor extends MessageProcessorBase {
     private void verifySslClientCert() throws Exception {
         log.trace("verifySslClientCert()");
 
-        if (requestMessage.getOcspResponses().isEmpty()) {
-            throw new CodedException(X_SSL_AUTH_FAILED,
-                    "Cannot verify TLS certificate, corresponding OCSP response is missing");
-        }
-
-        String instanceIdentifier = requestMessage.getSoap().getClient().getXRoadInstance();
-
-        X509Certificate trustAnchor = GlobalConf.getCaCert(instanceIdentifier,
-                clientSslCerts[clientSslCerts.length - 1]);
-
-        if (trustAnchor == null) {
-            throw new Exception("Unable to find trust anchor");
-        }
-
-        try {
-            CertChain chain = CertChain.create(instanceIdentifier, (X509Certificate[]) ArrayUtils.add(clientSslCerts,
-                    trustAnchor));
-            CertHelper.verifyAuthCert(chain, requestMessage.getOcspResponses(), requestMessage.getSoap().getClient());
-        } catch (Exception e) {
-            throw new CodedException(X_SSL_AUTH_FAILED, e);
-        }
+        SslClientCertVerifier.INSTANCE.verify((String) servletRequest.getAttribute(SSL_SESSION_ID_ATTRIBUTE),
+                clientSslCerts, requestMessage.getOcspResponses(), requestMessage.getSoap().getClient());
     }
 
     private void verifySecurityServer() throws Exception {
@@ -380,23 +328,25 @@ class ServerMessageProcessor extends MessageProcessorBase {
     private void verifyAccess() throws Exception {
         log.trace("verifyAccess()");
 
-        if (!ServerConf.serviceExists(requestServiceId)) {
+        ServiceAccessDescriptor service = ServerConf.getServiceAccessDescriptor(requestServiceId);
+
+        if (!service.isExists()) {
             throw new CodedException(X_UNKNOWN_SERVICE, "Unknown service: %s", requestServiceId);
         }
 
-        DescriptionType descriptionType = ServerConf.getDescriptionType(requestServiceId);
+        DescriptionType descriptionType = service.getDescriptionType();
         if (descriptionType != null && descriptionType != DescriptionType.WSDL) {
             throw new CodedException(X_INVALID_SERVICE_TYPE,
                     "Service is a REST service and cannot be called using SOAP interface");
         }
 
-        verifySecurityCategory(requestServiceId);
+        verifySecurityCategory(service.getRequiredCategories());
 
-        if (!ServerConf.isQueryAllowed(requestMessage.getSoap().getClient(), requestServiceId)) {
+        if (!service.isQueryAllowed(requestMessage.getSoap().getClient(), null, null)) {
             throw new CodedException(X_ACCESS_DENIED, "Request is not allowed: %s", requestServiceId);
         }
 
-        String disabledNotice = ServerConf.getDisabledNotice(requestServiceId);
+        String disabledNotice = service.getDisabledNotice();
 
         if (disabledNotice != null) {
             throw new CodedException(X_SERVICE_DISABLED, "Service %s is disabled: %s", requestServiceId,
@@ -404,9 +354,7 @@ class ServerMessageProcessor extends MessageProcessorBase {
         }
     }
 
-    private void verifySecurityCategory(ServiceId service) throws Exception {
-        Collection<SecurityCategoryId> required = ServerConf.getRequiredCategories(service);
-
+    private void verifySecurityCategory(Collection<SecurityCategoryId> required) throws Exception {
         if (required == null || required.isEmpty()) {
             // Service requires nothing, we are satisfied.
             return;
@@ -622,14 +570,15 @@ class ServerMessageProcessor extends MessageProcessorBase {
 
             log.trace("processRequest({})", requestServiceId);
 
-            String address = ServerConf.getServiceAddress(requestServiceId);
+            ServiceAccessDescriptor service = ServerConf.getServiceAccessDescriptor(requestServiceId);
+            String address = service.getAddress();
 
             if (address == null || address.isEmpty()) {
                 throw new CodedException(X_SERVICE_MISSING_URL, "Service address not specified for '%s'",
                         requestServiceId);
             }
 
-            int timeout = TimeUtils.secondsToMillis(ServerConf.getServiceTimeout(requestServiceId));
+            int timeout = TimeUtils.secondsToMillis(service.getTimeout());
 
             sender.setConnectionTimeout(timeout);
             sender.setSocketTimeout(timeout);
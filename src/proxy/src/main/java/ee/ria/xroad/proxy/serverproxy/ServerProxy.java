@@ -48,6 +48,9 @@ import org.eclipse.jetty.server.handler.RequestLogHandler;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.xml.XmlConfiguration;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -65,9 +68,6 @@ public class ServerProxy implements StartStop {
 
     private static final int IDLE_MONITOR_INTERVAL = 100;
 
-    // SSL session timeout in seconds
-    private static final int SSL_SESSION_TIMEOUT = 600;
-
     private static final int CONNECTOR_SO_LINGER_MILLIS = SystemProperties.getServerProxyConnectorSoLinger();
     private static final String CLIENT_PROXY_CONNECTOR_NAME = "ClientProxyConnector";
 
@@ -162,6 +162,8 @@ public class ServerProxy implements StartStop {
     private void createHandlers() {
         log.trace("createHandlers()");
 
+        ServiceHandlerRegistry.init();
+
         final Slf4jRequestLogWriter writer = new Slf4jRequestLogWriter();
         writer.setLoggerName(getClass().getPackage().getName() + ".RequestLog");
         final CustomRequestLog reqLog = new CustomRequestLog(writer, CustomRequestLog.EXTENDED_NCSA_FORMAT);
@@ -225,12 +227,28 @@ public class ServerProxy implements StartStop {
         cf.setIncludeProtocols(CryptoUtils.SSL_PROTOCOL);
         cf.setIncludeCipherSuites(SystemProperties.getXroadTLSCipherSuites());
         cf.setSessionCachingEnabled(true);
-        cf.setSslSessionTimeout(SSL_SESSION_TIMEOUT);
-        cf.setSslContext(SSLContextUtil.createXroadSSLContext());
+        cf.setSslSessionTimeout(SystemProperties.getServerProxySslSessionTimeout());
+        cf.setSslSessionCacheSize(SystemProperties.getServerProxySslSessionCacheSize());
+        cf.setSslContext(createSslContext());
 
         return SystemProperties.isAntiDosEnabled()
                 ? new AntiDosConnector(server, ACCEPTOR_COUNT, cf)
                 : new ServerConnector(server, ACCEPTOR_COUNT, -1, cf);
     }
 
+    /**
+     * Creates the TLS context of the connector. Peer security servers resume their TLS sessions, which lets the
+     * request processors reuse the client certificate verification result of the session, so the session cache
+     * of the context is sized and timed explicitly.
+     */
+    private static SSLContext createSslContext() throws Exception {
+        SSLContext ctx = SSLContextUtil.createXroadSSLContext();
+        SSLSessionContext sessionContext = ctx.getServerSessionContext();
+
+        sessionContext.setSessionTimeout(SystemProperties.getServerProxySslSessionTimeout());
+        sessionContext.setSessionCacheSize(SystemProperties.getServerProxySslSessionCacheSize());
+
+        return ctx;
+    }
+
 }
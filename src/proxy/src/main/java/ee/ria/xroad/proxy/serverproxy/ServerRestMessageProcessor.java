@@ -27,8 +27,6 @@ package ee.ria.xroad.proxy.serverproxy;
 
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.SystemProperties;
-import ee.ria.xroad.common.cert.CertChain;
-import ee.ria.xroad.common.cert.CertHelper;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.serverconf.ServerConf;
 import ee.ria.xroad.common.conf.serverconf.model.ClientType;
@@ -56,8 +54,6 @@ import ee.ria.xroad.proxy.util.MessageProcessorBase;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.input.TeeInputStream;
-import org.apache.commons.lang3.ArrayUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
@@ -84,9 +80,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import java.io.OutputStream;
 import java.security.cert.X509Certificate;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 import static ee.ria.xroad.common.ErrorCodes.SERVER_SERVERPROXY_X;
 import static ee.ria.xroad.common.ErrorCodes.X_ACCESS_DENIED;
@@ -98,7 +92,6 @@ import static ee.ria.xroad.common.ErrorCodes.X_MISSING_SIGNATURE;
 import static ee.ria.xroad.common.ErrorCodes.X_SERVICE_DISABLED;
 import static ee.ria.xroad.common.ErrorCodes.X_SERVICE_FAILED_X;
 import static ee.ria.xroad.common.ErrorCodes.X_SERVICE_MISSING_URL;
-import static ee.ria.xroad.common.ErrorCodes.X_SSL_AUTH_FAILED;
 import static ee.ria.xroad.common.ErrorCodes.X_UNKNOWN_MEMBER;
 import static ee.ria.xroad.common.ErrorCodes.X_UNKNOWN_SERVICE;
 import static ee.ria.xroad.common.ErrorCodes.translateWithPrefix;
@@ -106,17 +99,13 @@ import static ee.ria.xroad.common.util.MimeUtils.HEADER_HASH_ALGO_ID;
 import static ee.ria.xroad.common.util.MimeUtils.HEADER_ORIGINAL_CONTENT_TYPE;
 import static ee.ria.xroad.common.util.MimeUtils.HEADER_REQUEST_ID;
 import static ee.ria.xroad.common.util.TimeUtils.getEpochMillisecond;
+import static ee.ria.xroad.proxy.serverproxy.SslClientCertVerifier.SSL_SESSION_ID_ATTRIBUTE;
 
 @Slf4j
 class ServerRestMessageProcessor extends MessageProcessorBase {
 
-    private static final String SERVERPROXY_REST_SERVICE_HANDLERS = SystemProperties.PREFIX
-            + "proxy.serverRestServiceHandlers";
-
     private final X509Certificate[] clientSslCerts;
 
-    private final List<RestServiceHandler> handlers = new ArrayList<>();
-
     private ProxyMessage requestMessage;
     private ServiceId requestServiceId;
 
@@ -140,7 +129,6 @@ class ServerRestMessageProcessor extends MessageProcessorBase {
 
         this.clientSslCerts = clientSslCerts;
         this.opMonitoringData = opMonitoringData;
-        loadServiceHandlers();
     }
 
     @Override
@@ -214,27 +202,8 @@ class ServerRestMessageProcessor extends MessageProcessorBase {
         opMonitoringData.setRestResponseStatusCode(restResponse.getResponseCode());
     }
 
-    private void loadServiceHandlers() {
-        String serviceHandlerNames = System.getProperty(SERVERPROXY_REST_SERVICE_HANDLERS);
-        if (!StringUtils.isBlank(serviceHandlerNames)) {
-            for (String serviceHandlerName : serviceHandlerNames.split(",")) {
-                handlers.add(RestServiceHandlerLoader.load(serviceHandlerName));
-                log.trace("Loaded rest service handler: " + serviceHandlerName);
-            }
-        }
-    }
-
-    private RestServiceHandler getServiceHandler(ProxyMessage request) {
-        for (RestServiceHandler handler : handlers) {
-            if (handler.canHandle(requestServiceId, request)) {
-                return handler;
-            }
-        }
-        return null;
-    }
-
     private void handleRequest() throws Exception {
-        RestServiceHandler handler = getServiceHandler(requestMessage);
+        RestServiceHandler handler = ServiceHandlerRegistry.rest().getHandler(requestServiceId, requestMessage);
         if (handler == null) {
             handler = new DefaultRestServiceHandlerImpl();
         }
@@ -321,26 +290,8 @@ class ServerRestMessageProcessor extends MessageProcessorBase {
     }
 
     private void verifySslClientCert() throws Exception {
-        if (requestMessage.getOcspResponses().isEmpty()) {
-            throw new CodedException(X_SSL_AUTH_FAILED,
-                    "Cannot verify TLS certificate, corresponding OCSP response is missing");
-        }
-
-        String instanceIdentifier = requestMessage.getRest().getClientId().getXRoadInstance();
-        X509Certificate trustAnchor = GlobalConf.getCaCert(instanceIdentifier,
-                clientSslCerts[clientSslCerts.length - 1]);
-
-        if (trustAnchor == null) {
-            throw new Exception("Unable to find trust anchor");
-        }
-
-        try {
-            CertChain chain = CertChain.create(instanceIdentifier, (X509Certificate[]) ArrayUtils.add(clientSslCerts,
-                    trustAnchor));
-            CertHelper.verifyAuthCert(chain, requestMessage.getOcspResponses(), requestMessage.getRest().getClientId());
-        } catch (Exception e) {
-            throw new CodedException(X_SSL_AUTH_FAILED, e);
-        }
+        SslClientCertVerifier.INSTANCE.verify((String) servletRequest.getAttribute(SSL_SESSION_ID_ATTRIBUTE),
+                clientSslCerts, requestMessage.getOcspResponses(), requestMessage.getRest().getClientId());
     }
 
     private void verifyAccess() {
@@ -0,0 +1,240 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.serverproxy;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.proxy.protocol.ProxyMessage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the service handlers configured for the server proxy. The handler classes are resolved once and
+ * the handlers are ordered per service code, so that a request only instantiates and consults the handlers
+ * that can handle its service.
+ *
+ * @param <H> the handler type
+ */
+@Slf4j
+final class ServiceHandlerRegistry<H> {
+
+    static final String SERVERPROXY_SERVICE_HANDLERS = SystemProperties.PREFIX + "proxy.serverServiceHandlers";
+
+    static final String SERVERPROXY_REST_SERVICE_HANDLERS = SystemProperties.PREFIX
+            + "proxy.serverRestServiceHandlers";
+
+    /**
+     * Checks whether a handler can handle a request.
+     *
+     * @param <H> the handler type
+     */
+    @FunctionalInterface
+    interface HandlerPredicate<H> {
+        boolean canHandle(H handler, ServiceId requestServiceId, ProxyMessage requestMessage);
+    }
+
+    private static final class Holder {
+        private static final ServiceHandlerRegistry<ServiceHandler> SOAP = load(ServiceHandler.class,
+                "service handler", System.getProperty(SERVERPROXY_SERVICE_HANDLERS), ServiceHandler::canHandle);
+
+        private static final ServiceHandlerRegistry<RestServiceHandler> REST = load(RestServiceHandler.class,
+                "rest service handler", System.getProperty(SERVERPROXY_REST_SERVICE_HANDLERS),
+                RestServiceHandler::canHandle);
+    }
+
+    private final HandlerPredicate<H> predicate;
+    private final Map<String, List<Supplier<H>>> handlersByServiceCode;
+    private final List<Supplier<H>> handlersForAnyService;
+    private final int size;
+
+    private ServiceHandlerRegistry(HandlerPredicate<H> predicate, Map<String, List<Supplier<H>>> handlersByServiceCode,
+            List<Supplier<H>> handlersForAnyService, int size) {
+        this.predicate = predicate;
+        this.handlersByServiceCode = handlersByServiceCode;
+        this.handlersForAnyService = handlersForAnyService;
+        this.size = size;
+    }
+
+    /**
+     * Resolves the configured SOAP and REST service handlers. Called when the server proxy starts, so that
+     * misconfigured handlers fail the startup instead of the first request.
+     */
+    static void init() {
+        log.debug("Loaded {} service handler(s) and {} rest service handler(s)", soap().size(), rest().size());
+    }
+
+    /**
+     * @return the registry of SOAP service handlers
+     */
+    static ServiceHandlerRegistry<ServiceHandler> soap() {
+        return Holder.SOAP;
+    }
+
+    /**
+     * @return the registry of REST service handlers
+     */
+    static ServiceHandlerRegistry<RestServiceHandler> rest() {
+        return Holder.REST;
+    }
+
+    /**
+     * Creates a registry from a comma-separated list of handler class names. The handlers are consulted in the
+     * configured order.
+     *
+     * @param type the handler type
+     * @param name name of the handler type used in log and error messages
+     * @param classNames comma-separated handler class names, may be blank
+     * @param predicate checks whether a handler can handle a request
+     * @param <H> the handler type
+     * @return the registry
+     */
+    static <H> ServiceHandlerRegistry<H> load(Class<H> type, String name, String classNames,
+            HandlerPredicate<H> predicate) {
+        List<String[]> serviceCodes = new ArrayList<>();
+        List<Supplier<H>> handlers = new ArrayList<>();
+        Set<String> knownServiceCodes = new LinkedHashSet<>();
+
+        if (!StringUtils.isBlank(classNames)) {
+            for (String className : classNames.split(",")) {
+                Class<? extends H> handlerClass = resolve(type, name, className);
+                HandledServices handledServices = handlerClass.getAnnotation(HandledServices.class);
+                String[] codes = handledServices != null ? handledServices.serviceCodes() : new String[0];
+
+                handlers.add(createSupplier(handlerClass, name,
+                        handledServices != null && handledServices.threadSafe()));
+                serviceCodes.add(codes);
+                knownServiceCodes.addAll(Arrays.asList(codes));
+
+                log.debug("Loaded {}: {}, services: {}", name, className, Arrays.toString(codes));
+            }
+        }
+
+        Map<String, List<Supplier<H>>> handlersByServiceCode = new HashMap<>();
+
+        for (String serviceCode : knownServiceCodes) {
+            handlersByServiceCode.put(serviceCode, select(handlers, serviceCodes, serviceCode));
+        }
+
+        return new ServiceHandlerRegistry<>(predicate, handlersByServiceCode, select(handlers, serviceCodes, null),
+                handlers.size());
+    }
+
+    /**
+     * Returns the first handler that can handle the request.
+     *
+     * @param requestServiceId the requested service
+     * @param requestMessage the request message
+     * @return the handler, or null if none of the configured handlers can handle the request
+     */
+    H getHandler(ServiceId requestServiceId, ProxyMessage requestMessage) {
+        for (Supplier<H> supplier : getCandidates(requestServiceId.getServiceCode())) {
+            H handler = supplier.get();
+
+            if (predicate.canHandle(handler, requestServiceId, requestMessage)) {
+                return handler;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the number of configured handlers
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param serviceCode the requested service code
+     * @return the handlers that may handle the service, in the configured order
+     */
+    List<Supplier<H>> getCandidates(String serviceCode) {
+        return handlersByServiceCode.getOrDefault(serviceCode, handlersForAnyService);
+    }
+
+    private static <H> List<Supplier<H>> select(List<Supplier<H>> handlers, List<String[]> serviceCodes,
+            String serviceCode) {
+        List<Supplier<H>> selected = new ArrayList<>();
+
+        for (int i = 0; i < handlers.size(); i++) {
+            String[] codes = serviceCodes.get(i);
+
+            if (codes.length == 0 || Arrays.asList(codes).contains(serviceCode)) {
+                selected.add(handlers.get(i));
+            }
+        }
+
+        return Collections.unmodifiableList(selected);
+    }
+
+    private static <H> Class<? extends H> resolve(Class<H> type, String name, String className) {
+        try {
+            return Class.forName(className.trim()).asSubclass(type);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to load " + name + ": " + className, e);
+        }
+    }
+
+    private static <H> Supplier<H> createSupplier(Class<? extends H> handlerClass, String name,
+            boolean threadSafe) {
+        Constructor<? extends H> constructor;
+
+        try {
+            constructor = handlerClass.getDeclaredConstructor();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to load " + name + ": " + handlerClass.getName(), e);
+        }
+
+        Supplier<H> supplier = () -> {
+            try {
+                return constructor.newInstance();
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to create " + name + ": " + handlerClass.getName(), e);
+            }
+        };
+
+        if (threadSafe) {
+            H shared = supplier.get();
+
+            return () -> shared;
+        }
+
+        return supplier;
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.serverproxy;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.cert.CertChain;
+import ee.ria.xroad.common.cert.CertHelper;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.identifier.ClientId;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.ArrayUtils;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
+
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.common.ErrorCodes.X_SSL_AUTH_FAILED;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
+
+/**
+ * Verifies the TLS client certificate of a security server request. The peer security server reuses its TLS
+ * session for many requests, so the verification result is cached per TLS session and certificate. A cached result
+ * is used until the earliest OCSP nextUpdate, OCSP freshness limit or certificate expiry of the verified chain, and
+ * only while the global configuration still has the same trust anchor and associates the certificate with the
+ * client.
+ */
+@Slf4j
+final class SslClientCertVerifier {
+
+    /** Request attribute that holds the id of the TLS session of the request */
+    static final String SSL_SESSION_ID_ATTRIBUTE = "javax.servlet.request.ssl_session_id";
+
+    static final SslClientCertVerifier INSTANCE = new SslClientCertVerifier(
+            SystemProperties.getServerProxySslClientCertCacheSize(), CertHelper::verifyAuthCert);
+
+    /**
+     * Verifies an authentication certificate chain of a client against the given OCSP responses.
+     */
+    @FunctionalInterface
+    interface AuthCertVerification {
+        void verify(CertChain chain, List<OCSPResp> ocspResponses, ClientId client) throws Exception;
+    }
+
+    private final Cache<Key, VerifiedCertChain> verifiedCertChains;
+    private final AuthCertVerification authCertVerification;
+
+    SslClientCertVerifier(long cacheSize, AuthCertVerification authCertVerification) {
+        this.verifiedCertChains = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterAccess(SystemProperties.getServerProxySslSessionTimeout(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        this.authCertVerification = authCertVerification;
+    }
+
+    /**
+     * Verifies that the TLS client certificate chain is valid and belongs to the security server of the client.
+     *
+     * @param sslSessionId id of the TLS session the certificates were received in, or null if the result must not be
+     * cached
+     * @param clientSslCerts the TLS client certificate chain, end entity certificate first
+     * @param ocspResponses OCSP responses sent by the client security server
+     * @param client the client of the request
+     * @throws Exception if the certificate cannot be verified
+     */
+    void verify(String sslSessionId, X509Certificate[] clientSslCerts, List<OCSPResp> ocspResponses,
+            ClientId client) throws Exception {
+        if (ocspResponses.isEmpty()) {
+            throw new CodedException(X_SSL_AUTH_FAILED,
+                    "Cannot verify TLS certificate, corresponding OCSP response is missing");
+        }
+
+        String instanceIdentifier = client.getXRoadInstance();
+
+        X509Certificate trustAnchor = GlobalConf.getCaCert(instanceIdentifier,
+                clientSslCerts[clientSslCerts.length - 1]);
+
+        if (trustAnchor == null) {
+            throw new Exception("Unable to find trust anchor");
+        }
+
+        Key key = sslSessionId != null ? new Key(sslSessionId, calculateCertHexHash(clientSslCerts[0])) : null;
+
+        if (key != null && isVerified(key, trustAnchor, clientSslCerts[0], client)) {
+            log.trace("Using cached verification result of TLS session {}", sslSessionId);
+
+            return;
+        }
+
+        try {
+            CertChain chain = CertChain.create(instanceIdentifier, (X509Certificate[]) ArrayUtils.add(clientSslCerts,
+                    trustAnchor));
+            authCertVerification.verify(chain, ocspResponses, client);
+        } catch (Exception e) {
+            throw new CodedException(X_SSL_AUTH_FAILED, e);
+        }
+
+        if (key != null) {
+            VerifiedCertChain verified = VerifiedCertChain.create(trustAnchor, clientSslCerts, ocspResponses);
+
+            if (verified != null) {
+                verifiedCertChains.put(key, verified);
+            }
+        }
+    }
+
+    /**
+     * @return statistics of the verification result cache
+     */
+    CacheStats getCacheStats() {
+        return verifiedCertChains.stats();
+    }
+
+    private boolean isVerified(Key key, X509Certificate trustAnchor, X509Certificate cert, ClientId client)
+            throws Exception {
+        VerifiedCertChain verified = verifiedCertChains.getIfPresent(key);
+
+        if (verified == null) {
+            return false;
+        }
+
+        if (!verified.getTrustAnchor().equals(trustAnchor)
+                || verified.isExpired(new Date(), GlobalConf.getOcspFreshnessSeconds(false))) {
+            verifiedCertChains.invalidate(key);
+
+            return false;
+        }
+
+        // Different clients of the peer security server share the TLS session. If the certificate does not
+        // belong to this client, the full verification reports the error.
+        return GlobalConf.authCertMatchesMember(cert, client);
+    }
+
+    @Value
+    private static final class Key {
+        private final String sslSessionId;
+        private final String certHash;
+    }
+
+    @Value
+    private static final class VerifiedCertChain {
+        private final X509Certificate trustAnchor;
+        private final Date notAfter;
+        private final Date thisUpdate;
+        private final Date nextUpdate;
+
+        /**
+         * @return the verified chain, or null if the validity of the OCSP responses cannot be determined
+         */
+        static VerifiedCertChain create(X509Certificate trustAnchor, X509Certificate[] certs,
+                List<OCSPResp> ocspResponses) {
+            Date notAfter = trustAnchor.getNotAfter();
+
+            for (X509Certificate cert : certs) {
+                notAfter = min(notAfter, cert.getNotAfter());
+            }
+
+            Date thisUpdate = null;
+            Date nextUpdate = null;
+
+            try {
+                for (OCSPResp ocspResponse : ocspResponses) {
+                    for (SingleResp singleResp : ((BasicOCSPResp) ocspResponse.getResponseObject()).getResponses()) {
+                        thisUpdate = min(thisUpdate, singleResp.getThisUpdate());
+                        nextUpdate = min(nextUpdate, singleResp.getNextUpdate());
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("Cannot read validity of OCSP responses", e);
+
+                return null;
+            }
+
+            return thisUpdate != null ? new VerifiedCertChain(trustAnchor, notAfter, thisUpdate, nextUpdate) : null;
+        }
+
+        boolean isExpired(Date atDate, int ocspFreshnessSeconds) {
+            Date allowedThisUpdate = Date.from(atDate.toInstant().minusSeconds(ocspFreshnessSeconds));
+
+            return atDate.after(notAfter)
+                    || thisUpdate.before(allowedThisUpdate)
+                    || nextUpdate != null && nextUpdate.before(atDate);
+        }
+
+        private static Date min(Date a, Date b) {
+            if (a == null) {
+                return b;
+            }
+
+            return b != null && b.before(a) ? b : a;
+        }
+    }
+}
@@ -33,6 +33,9 @@ import ee.ria.xroad.common.util.CryptoUtils;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
 import static ee.ria.xroad.common.ErrorCodes.X_CANNOT_CREATE_SIGNATURE;
 import static ee.ria.xroad.common.ErrorCodes.translateWithPrefix;
 
@@ -76,7 +79,14 @@ public class SignerSigningKey implements SigningKey {
         }
 
         try {
+            if (SystemProperties.isBatchSignerAsyncEnabled()) {
+                return BatchSigner.signAsync(keyId, signAlgoId, request)
+                        .get(SystemProperties.getSignerClientTimeout(), TimeUnit.MILLISECONDS);
+            }
+
             return BatchSigner.sign(keyId, signAlgoId, request);
+        } catch (ExecutionException e) {
+            throw translateWithPrefix(X_CANNOT_CREATE_SIGNATURE, e.getCause());
         } catch (Exception e) {
             throw translateWithPrefix(X_CANNOT_CREATE_SIGNATURE, e);
         }
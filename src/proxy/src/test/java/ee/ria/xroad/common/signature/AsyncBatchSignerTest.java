@@ -0,0 +1,492 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.signature;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.OcspTestUtils;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.TestSecurityUtil;
+import ee.ria.xroad.common.util.CryptoUtils;
+import ee.ria.xroad.common.util.MessageFileNames;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ee.ria.xroad.common.ErrorCodes.SIGNER_X;
+import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the non-blocking batch signer against a token stub with configurable latency.
+ */
+@Slf4j
+public class AsyncBatchSignerTest {
+
+    private static final String KEY_ID = "consumer";
+    private static final String SIGNATURE_ALGORITHM_ID = CryptoUtils.SHA512WITHRSA_ID;
+
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final long LINGER_MICROS = 500;
+
+    private static X509Certificate signingCert;
+    private static OCSPResp ocsp;
+
+    private final List<AsyncBatchSigner> signers = new ArrayList<>();
+
+    static {
+        TestSecurityUtil.initSecurity();
+    }
+
+    /**
+     * Set up certificates.
+     * @throws Exception in case of any unexpected error
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        signingCert = TestCertUtil.getConsumer().certChain[0];
+
+        Date thisUpdate = Date.from(Instant.now().plus(1, ChronoUnit.DAYS));
+        ocsp = OcspTestUtils.createOCSPResponse(signingCert, TestCertUtil.getCaCert(),
+                TestCertUtil.getOcspSigner().certChain[0], TestCertUtil.getOcspSigner().key,
+                CertificateStatus.GOOD, thisUpdate, null);
+    }
+
+    /**
+     * Stops the batch signers created by the test.
+     */
+    @After
+    public void tearDown() {
+        signers.forEach(AsyncBatchSigner::shutdown);
+    }
+
+    /**
+     * Test to ensure a request to an idle token is signed right away without hash chain.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void singleRequestIsSignedWithoutHashChain() throws Exception {
+        StubToken token = new StubToken(true, 0);
+        AsyncBatchSigner signer = createSigner(token, 64, 2);
+
+        SignatureData data = signer.sign(KEY_ID, SIGNATURE_ALGORITHM_ID, createRequest(0))
+                .get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        assertNotNull(data.getSignatureXml());
+        assertNull(data.getHashChainResult());
+        assertNull(data.getHashChain());
+        assertEquals(1, token.calls.get());
+    }
+
+    /**
+     * Test to ensure requests arriving while the token is busy are signed in batches with hash chains.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void requestsArrivingWhileTokenIsBusyAreBatched() throws Exception {
+        StubToken token = new StubToken(true, 50);
+        AsyncBatchSigner signer = createSigner(token, 64, 1);
+
+        List<SignatureData> results = signAll(signer, 50);
+
+        assertTrue("Expected batching, token was called " + token.calls.get() + " times", token.calls.get() < 10);
+
+        Map<String, Integer> batchSizes = getBatchSizes(results);
+
+        for (SignatureData data : results) {
+            if (batchSizes.get(data.getSignatureXml()) > 1) {
+                assertNotNull(data.getHashChainResult());
+                assertNotNull(data.getHashChain());
+            }
+        }
+    }
+
+    /**
+     * Test to ensure the batches do not exceed the maximum batch size.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void batchSizeIsLimited() throws Exception {
+        StubToken token = new StubToken(true, 20);
+        AsyncBatchSigner signer = createSigner(token, 4, 2);
+
+        List<SignatureData> results = signAll(signer, 40);
+
+        for (int size : getBatchSizes(results).values()) {
+            assertTrue("Batch size " + size + " exceeds the maximum", size <= 4);
+        }
+
+        assertTrue(token.calls.get() >= 10);
+    }
+
+    /**
+     * Test to ensure several batches are in flight when the token supports batch signing.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void batchesArePipelined() throws Exception {
+        StubToken token = new StubToken(true, 20);
+        AsyncBatchSigner signer = createSigner(token, 4, 3);
+
+        signAll(signer, 60);
+
+        assertEquals(3, token.maxConcurrentCalls.get());
+    }
+
+    /**
+     * Test to ensure requests are signed one at a time when the token does not support batch signing.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void tokenWithoutBatchSigningSignsOneAtATime() throws Exception {
+        StubToken token = new StubToken(false, 2);
+        AsyncBatchSigner signer = createSigner(token, 64, 3);
+
+        List<SignatureData> results = signAll(signer, 20);
+
+        assertEquals(20, token.calls.get());
+        assertEquals(1, token.maxConcurrentCalls.get());
+
+        for (SignatureData data : results) {
+            assertNull(data.getHashChainResult());
+        }
+    }
+
+    /**
+     * Test to ensure a failed signature calculation fails all requests of the batch.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void failureFailsAllRequestsOfBatch() throws Exception {
+        StubToken token = new StubToken(true, 20);
+        token.failure = new CodedException(X_INTERNAL_ERROR, "Token failure");
+
+        AsyncBatchSigner signer = createSigner(token, 64, 1);
+
+        List<CompletableFuture<SignatureData>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            futures.add(signer.sign(KEY_ID, SIGNATURE_ALGORITHM_ID, createRequest(i)));
+        }
+
+        for (CompletableFuture<SignatureData> future : futures) {
+            assertSignerError(future, X_INTERNAL_ERROR);
+        }
+    }
+
+    /**
+     * Test to ensure the request fails if the token does not answer in time.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void unansweredSignatureCalculationTimesOut() throws Exception {
+        AsyncBatchSigner.TokenSigner token = new AsyncBatchSigner.TokenSigner() {
+            @Override
+            public boolean isBatchSigningEnabled(String keyId) {
+                return true;
+            }
+
+            @Override
+            public CompletableFuture<byte[]> sign(String keyId, String signatureAlgorithmId, byte[] digest) {
+                return new CompletableFuture<>();
+            }
+        };
+
+        AsyncBatchSigner signer = new AsyncBatchSigner(token, 64, LINGER_MICROS, 1, 100);
+        signers.add(signer);
+
+        assertSignerError(signer.sign(KEY_ID, SIGNATURE_ALGORITHM_ID, createRequest(0)), X_INTERNAL_ERROR);
+    }
+
+    /**
+     * Test to ensure a timed out batch stays in flight until the token answers.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void timedOutBatchStaysInFlightUntilTokenAnswers() throws Exception {
+        List<CompletableFuture<byte[]>> calls = Collections.synchronizedList(new ArrayList<>());
+
+        AsyncBatchSigner.TokenSigner token = new AsyncBatchSigner.TokenSigner() {
+            @Override
+            public boolean isBatchSigningEnabled(String keyId) {
+                return true;
+            }
+
+            @Override
+            public CompletableFuture<byte[]> sign(String keyId, String signatureAlgorithmId, byte[] digest) {
+                CompletableFuture<byte[]> result = new CompletableFuture<>();
+                calls.add(result);
+
+                return result;
+            }
+        };
+
+        AsyncBatchSigner signer = new AsyncBatchSigner(token, 64, LINGER_MICROS, 1, 100);
+        signers.add(signer);
+
+        assertSignerError(signer.sign(KEY_ID, SIGNATURE_ALGORITHM_ID, createRequest(0)), X_INTERNAL_ERROR);
+
+        CompletableFuture<SignatureData> second = signer.sign(KEY_ID, SIGNATURE_ALGORITHM_ID, createRequest(1));
+        Thread.sleep(50);
+
+        assertEquals(1, calls.size());
+
+        calls.get(0).complete(new byte[] {1});
+
+        assertEquals(2, calls.size());
+
+        calls.get(1).complete(new byte[] {2});
+
+        assertNotNull(second.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Test to ensure a failed batch signing query is retried by the next request.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void failedBatchSigningQueryIsRetried() throws Exception {
+        AtomicInteger queries = new AtomicInteger();
+        StubToken stub = new StubToken(true, 0);
+
+        AsyncBatchSigner.TokenSigner token = new AsyncBatchSigner.TokenSigner() {
+            @Override
+            public boolean isBatchSigningEnabled(String keyId) throws Exception {
+                if (queries.incrementAndGet() == 1) {
+                    throw new CodedException(X_INTERNAL_ERROR, "Signer not available");
+                }
+
+                return true;
+            }
+
+            @Override
+            public CompletableFuture<byte[]> sign(String keyId, String signatureAlgorithmId, byte[] digest) {
+                return stub.sign(keyId, signatureAlgorithmId, digest);
+            }
+        };
+
+        AsyncBatchSigner signer = new AsyncBatchSigner(token, 64, LINGER_MICROS, 1, TIMEOUT_MILLIS);
+        signers.add(signer);
+
+        signAll(signer, 1);
+        signAll(signer, 1);
+        signAll(signer, 1);
+
+        assertEquals(2, queries.get());
+    }
+
+    /**
+     * Compares the throughput of adaptive batching with one-at-a-time signing at various
+     * concurrency levels.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void throughputComparison() throws Exception {
+        final int tokenLatencyMillis = 5;
+        final int requestsPerClient = 8;
+
+        for (int concurrency : new int[] {1, 8, 32}) {
+            StubToken serialToken = new StubToken(false, tokenLatencyMillis);
+            double serial = measureThroughput(createSigner(serialToken, 64, 1), concurrency, requestsPerClient);
+
+            StubToken batchToken = new StubToken(true, tokenLatencyMillis);
+            double batched = measureThroughput(createSigner(batchToken, 64, 2), concurrency, requestsPerClient);
+
+            log.info("Concurrency {}: one-at-a-time {} req/s ({} token calls), batched {} req/s ({} token calls)",
+                    concurrency, (long) serial, serialToken.calls.get(), (long) batched, batchToken.calls.get());
+
+            assertTrue(batchToken.calls.get() <= serialToken.calls.get());
+
+            if (concurrency >= 8) {
+                assertTrue("Batching should outperform one-at-a-time signing", batched > serial);
+            }
+        }
+    }
+
+    private double measureThroughput(AsyncBatchSigner signer, int concurrency, int requestsPerClient)
+            throws Exception {
+        List<CompletableFuture<Void>> clients = new ArrayList<>();
+
+        long start = System.nanoTime();
+
+        for (int c = 0; c < concurrency; c++) {
+            final int client = c;
+
+            // each client sends its next request once the previous one has been signed
+            CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+
+            for (int i = 0; i < requestsPerClient; i++) {
+                final int index = client * requestsPerClient + i;
+
+                chain = chain.thenCompose(v -> signer.sign(KEY_ID, SIGNATURE_ALGORITHM_ID, createRequest(index)))
+                        .thenApply(data -> null);
+            }
+
+            clients.add(chain);
+        }
+
+        CompletableFuture.allOf(clients.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        return concurrency * requestsPerClient / seconds;
+    }
+
+    private AsyncBatchSigner createSigner(StubToken token, int maxBatchSize, int maxInFlightBatches) {
+        AsyncBatchSigner signer = new AsyncBatchSigner(token, maxBatchSize, LINGER_MICROS, maxInFlightBatches,
+                TIMEOUT_MILLIS);
+        signers.add(signer);
+
+        return signer;
+    }
+
+    private static List<SignatureData> signAll(AsyncBatchSigner signer, int count) throws Exception {
+        List<CompletableFuture<SignatureData>> futures = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            futures.add(signer.sign(KEY_ID, SIGNATURE_ALGORITHM_ID, createRequest(i)));
+        }
+
+        List<SignatureData> results = new ArrayList<>();
+
+        for (CompletableFuture<SignatureData> future : futures) {
+            results.add(future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+
+        return results;
+    }
+
+    private static Map<String, Integer> getBatchSizes(List<SignatureData> results) {
+        // the stub returns a distinct signature value for each call, so requests signed
+        // in the same batch share the signature XML
+        Map<String, Integer> batchSizes = new HashMap<>();
+
+        for (SignatureData data : results) {
+            batchSizes.merge(data.getSignatureXml(), 1, Integer::sum);
+        }
+
+        return batchSizes;
+    }
+
+    private static void assertSignerError(CompletableFuture<SignatureData> future, String errorCode)
+            throws Exception {
+        try {
+            future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            fail("Expected signing to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CodedException);
+            assertEquals(SIGNER_X + "." + errorCode, ((CodedException) e.getCause()).getFaultCode());
+        }
+    }
+
+    private static SigningRequest createRequest(int index) {
+        byte[] message = ("<message>" + index + "</message>").getBytes(StandardCharsets.UTF_8);
+
+        try {
+            MessagePart part = new MessagePart(MessageFileNames.MESSAGE, CryptoUtils.SHA512_ID,
+                    CryptoUtils.calculateDigest(CryptoUtils.SHA512_ID, message), message);
+
+            SigningRequest request = new SigningRequest(signingCert, Collections.singletonList(part));
+            request.getOcspResponses().add(ocsp);
+
+            return request;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Token stub that answers after the configured latency and records the number of calls.
+     */
+    private static final class StubToken implements AsyncBatchSigner.TokenSigner {
+
+        private static final ScheduledExecutorService EXECUTOR = Executors.newScheduledThreadPool(4);
+
+        private final boolean batchSigningEnabled;
+        private final long latencyMillis;
+
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger concurrentCalls = new AtomicInteger();
+        private final AtomicInteger maxConcurrentCalls = new AtomicInteger();
+
+        private volatile Exception failure;
+
+        StubToken(boolean batchSigningEnabled, long latencyMillis) {
+            this.batchSigningEnabled = batchSigningEnabled;
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public boolean isBatchSigningEnabled(String keyId) {
+            return batchSigningEnabled;
+        }
+
+        @Override
+        public CompletableFuture<byte[]> sign(String keyId, String signatureAlgorithmId, byte[] digest) {
+            int call = calls.incrementAndGet();
+            maxConcurrentCalls.accumulateAndGet(concurrentCalls.incrementAndGet(), Math::max);
+
+            CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+            EXECUTOR.schedule(() -> {
+                concurrentCalls.decrementAndGet();
+
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else {
+                    result.complete(ByteBuffer.allocate(Integer.BYTES).putInt(call).array());
+                }
+            }, latencyMillis, TimeUnit.MILLISECONDS);
+
+            return result;
+        }
+    }
+}
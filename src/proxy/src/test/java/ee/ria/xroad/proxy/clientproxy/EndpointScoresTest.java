@@ -0,0 +1,173 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.clientproxy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the latency scores and circuit breakers of server proxy addresses.
+ */
+public class EndpointScoresTest {
+
+    private static final long OPEN_MILLIS = 200;
+
+    private static final URI FIRST = URI.create("https://10.0.0.1:5500");
+    private static final URI SECOND = URI.create("https://10.0.0.2:5500");
+    private static final URI THIRD = URI.create("https://10.0.0.3:5500");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final EndpointScores scores = new EndpointScores(OPEN_MILLIS);
+
+    /**
+     * Test that the estimate is an exponentially weighted moving average of the measurements.
+     */
+    @Test
+    public void estimateIsMovingAverage() {
+        assertTrue(Double.isNaN(scores.getEstimate(FIRST)));
+
+        scores.recordSuccess(FIRST, 100, 100);
+        assertEquals(200, scores.getEstimate(FIRST), 0.001);
+
+        scores.recordSuccess(FIRST, 0, 0);
+        assertEquals(200 * (1 - EndpointScores.SMOOTHING_FACTOR), scores.getEstimate(FIRST), 0.001);
+    }
+
+    /**
+     * Test that unmeasured addresses come first, then the measured ones fastest first.
+     */
+    @Test
+    public void ordersByEstimate() {
+        scores.recordSuccess(FIRST, 100, 100);
+        scores.recordSuccess(SECOND, 10, 40);
+
+        assertEquals(Arrays.asList(THIRD, SECOND, FIRST), scores.order(new URI[] {FIRST, SECOND, THIRD}));
+    }
+
+    /**
+     * Test that addresses that failed recently come after the others regardless of their latency.
+     */
+    @Test
+    public void ordersFailedAfterOthers() {
+        scores.recordSuccess(FIRST, 1, 1);
+        scores.recordSuccess(SECOND, 100, 100);
+        scores.recordFailure(FIRST);
+
+        assertEquals(Arrays.asList(SECOND, FIRST), scores.order(new URI[] {FIRST, SECOND}));
+
+        scores.recordSuccess(FIRST, 1, 1);
+
+        assertEquals(Arrays.asList(FIRST, SECOND), scores.order(new URI[] {FIRST, SECOND}));
+    }
+
+    /**
+     * Test that the circuit opens after repeated failures, reopens for longer on further failures and closes
+     * after a success.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void opensCircuitAfterRepeatedFailures() throws Exception {
+        for (int i = 1; i < EndpointScores.FAILURE_THRESHOLD; i++) {
+            scores.recordFailure(FIRST);
+        }
+
+        assertFalse(scores.isOpen(FIRST));
+
+        scores.recordFailure(FIRST);
+
+        assertTrue(scores.isOpen(FIRST));
+        assertEquals(Arrays.asList(THIRD, FIRST), scores.order(new URI[] {FIRST, THIRD}));
+
+        Thread.sleep(OPEN_MILLIS + 50);
+        assertFalse(scores.isOpen(FIRST));
+
+        scores.recordFailure(FIRST);
+        Thread.sleep(OPEN_MILLIS + 50);
+        assertTrue(scores.isOpen(FIRST));
+
+        scores.recordSuccess(FIRST, 1, 1);
+        scores.recordSuccess(SECOND, 100, 100);
+        assertFalse(scores.isOpen(FIRST));
+        assertEquals(Arrays.asList(FIRST, SECOND), scores.order(new URI[] {FIRST, SECOND}));
+    }
+
+    /**
+     * Test that saved scores are restored.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void restoresSnapshot() throws Exception {
+        Path file = tmp.getRoot().toPath().resolve("scores.properties");
+
+        scores.recordSuccess(FIRST, 100, 100);
+        scores.recordSuccess(SECOND, 10, 40);
+        scores.recordFailure(THIRD);
+        scores.save(file);
+
+        EndpointScores restored = new EndpointScores(OPEN_MILLIS);
+        restored.load(file);
+
+        assertEquals(200, restored.getEstimate(FIRST), 0.001);
+        assertEquals(50, restored.getEstimate(SECOND), 0.001);
+        assertTrue(Double.isNaN(restored.getEstimate(THIRD)));
+        assertEquals(Arrays.asList(SECOND, FIRST), restored.order(new URI[] {FIRST, SECOND}));
+    }
+
+    /**
+     * Test that a missing snapshot and invalid entries are ignored.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void ignoresInvalidSnapshot() throws Exception {
+        Path file = tmp.getRoot().toPath().resolve("scores.properties");
+
+        scores.load(file);
+
+        Files.write(file, Arrays.asList(
+                "https\\://10.0.0.1\\:5500=10.0,20.0",
+                "https\\://10.0.0.2\\:5500=NaN,20.0",
+                "https\\://10.0.0.3\\:5500=garbage"), StandardCharsets.ISO_8859_1);
+
+        scores.load(file);
+
+        assertEquals(30, scores.getEstimate(FIRST), 0.001);
+        assertTrue(Double.isNaN(scores.getEstimate(SECOND)));
+        assertTrue(Double.isNaN(scores.getEstimate(THIRD)));
+    }
+}
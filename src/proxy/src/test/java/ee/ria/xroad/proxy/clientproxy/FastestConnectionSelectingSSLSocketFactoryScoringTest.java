@@ -0,0 +1,331 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.clientproxy;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.util.CryptoUtils;
+import ee.ria.xroad.proxy.clientproxy.FastestSocketSelector.SocketInfo;
+
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ee.ria.xroad.common.ErrorCodes.X_SSL_AUTH_FAILED;
+import static ee.ria.xroad.proxy.clientproxy.FastestConnectionSelectingSSLSocketFactory.ID_TARGETS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that FastestConnectionSelectingSSLSocketFactory scores server proxy addresses, using local TLS listeners
+ * with injected handshake delays and failures.
+ */
+public class FastestConnectionSelectingSSLSocketFactoryScoringTest {
+
+    private static final int TIMEOUT = 5000;
+    private static final long STAGGER_DELAY = 5000;
+    private static final long HANDSHAKE_DELAY = 200;
+    private static final long OPEN_MILLIS = 60000;
+    private static final char[] PASSWORD = "test".toCharArray();
+
+    private static SSLContext serverContext;
+    private static SSLContext clientContext;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<Closeable> closeables = new CopyOnWriteArrayList<>();
+
+    private EndpointScores scores;
+    private FastestConnectionSelectingSSLSocketFactory factory;
+    private String cachePeriod;
+
+    /**
+     * Creates the TLS contexts.
+     * @throws Exception in case of errors
+     */
+    @BeforeClass
+    public static void createContexts() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("producer", TestCertUtil.getProducer().key, PASSWORD,
+                TestCertUtil.getProducer().certChain);
+
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, PASSWORD);
+
+        serverContext = SSLContext.getInstance(CryptoUtils.SSL_PROTOCOL);
+        serverContext.init(keyManagerFactory.getKeyManagers(), null, new SecureRandom());
+
+        clientContext = SSLContext.getInstance(CryptoUtils.SSL_PROTOCOL);
+        clientContext.init(null, new TrustManager[] {
+                new FastestConnectionSelectingSSLSocketFactoryIntegrationTest.NoopTrustManager()}, new SecureRandom());
+    }
+
+    /**
+     * Creates the socket factory with URI caching disabled, so that every connection is scored.
+     */
+    @Before
+    public void setUp() {
+        cachePeriod = System.getProperty(SystemProperties.CLIENTPROXY_FASTEST_CONNECTING_SSL_URI_CACHE_PERIOD);
+        System.setProperty(SystemProperties.CLIENTPROXY_FASTEST_CONNECTING_SSL_URI_CACHE_PERIOD, "0");
+
+        scores = new EndpointScores(OPEN_MILLIS);
+        factory = new FastestConnectionSelectingSSLSocketFactory(clientContext, scores, (context, session, address) -> {
+            try {
+                session.getPeerCertificates();
+            } catch (SSLPeerUnverifiedException e) {
+                throw new CodedException(X_SSL_AUTH_FAILED, e);
+            }
+        });
+    }
+
+    /**
+     * Stops the listeners.
+     */
+    @After
+    public void tearDown() {
+        if (cachePeriod != null) {
+            System.setProperty(SystemProperties.CLIENTPROXY_FASTEST_CONNECTING_SSL_URI_CACHE_PERIOD, cachePeriod);
+        } else {
+            System.clearProperty(SystemProperties.CLIENTPROXY_FASTEST_CONNECTING_SSL_URI_CACHE_PERIOD);
+        }
+
+        closeables.forEach(FastestConnectionSelectingSSLSocketFactory::closeQuietly);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Test that after measuring both listeners, the one with the faster handshake is used.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void prefersFastestHandshake() throws Exception {
+        Listener slow = new Listener(HANDSHAKE_DELAY, false);
+        Listener fast = new Listener(0, false);
+        List<Integer> ports = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            ports.add(connect(slow.getUri(), fast.getUri()));
+        }
+
+        assertEquals(Arrays.asList(slow.getPort(), fast.getPort(), fast.getPort(), fast.getPort(), fast.getPort()),
+                ports);
+        assertTrue(scores.getEstimate(slow.getUri()) >= HANDSHAKE_DELAY);
+        assertTrue(scores.getEstimate(fast.getUri()) < scores.getEstimate(slow.getUri()));
+    }
+
+    /**
+     * Test that a listener that fails the handshake is skipped and its circuit opens after repeated failures.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void skipsFailingListener() throws Exception {
+        Listener failing = new Listener(0, true);
+        Listener good = new Listener(0, false);
+
+        assertEquals(good.getPort(), connect(failing.getUri(), good.getUri()));
+        assertEquals(1, failing.getAccepted());
+
+        for (int i = 1; i < EndpointScores.FAILURE_THRESHOLD; i++) {
+            try {
+                connect(failing.getUri());
+                fail("Should fail when the listener closes the connection");
+            } catch (CodedException e) {
+                assertEquals(X_SSL_AUTH_FAILED, e.getFaultCode());
+            }
+        }
+
+        assertTrue(scores.isOpen(failing.getUri()));
+
+        int accepted = failing.getAccepted();
+
+        assertEquals(good.getPort(), connect(failing.getUri(), good.getUri()));
+        assertEquals(accepted, failing.getAccepted());
+    }
+
+    /**
+     * Test that the next address is not connected before the stagger delay has passed.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void staggersConnections() throws Exception {
+        ServerSocket first = listen();
+        ServerSocket second = listen();
+        FastestSocketSelector selector = new FastestSocketSelector(scores, STAGGER_DELAY);
+
+        selector.addAll(Arrays.asList(uri(first.getLocalPort()), uri(second.getLocalPort())));
+
+        long started = System.currentTimeMillis();
+        SocketInfo selected = selector.select(TIMEOUT);
+        closeables.add(selected.getSocket());
+
+        assertTrue(System.currentTimeMillis() - started < STAGGER_DELAY);
+        assertEquals(first.getLocalPort(), selected.getSocket().getPort());
+        assertFalse(accepts(second));
+    }
+
+    /**
+     * Test that the next address is connected immediately when the previous one fails.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void connectsNextAfterFailure() throws Exception {
+        ServerSocket closed = listen();
+        ServerSocket open = listen();
+        URI closedUri = uri(closed.getLocalPort());
+        FastestSocketSelector selector = new FastestSocketSelector(scores, STAGGER_DELAY);
+
+        closed.close();
+        selector.addAll(Arrays.asList(closedUri, uri(open.getLocalPort())));
+
+        long started = System.currentTimeMillis();
+        SocketInfo selected = selector.select(TIMEOUT);
+        closeables.add(selected.getSocket());
+
+        assertTrue(System.currentTimeMillis() - started < STAGGER_DELAY);
+        assertEquals(open.getLocalPort(), selected.getSocket().getPort());
+        assertEquals(Arrays.asList(uri(open.getLocalPort()), closedUri),
+                scores.order(new URI[] {closedUri, uri(open.getLocalPort())}));
+    }
+
+    private int connect(URI... addresses) throws IOException {
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(ID_TARGETS, addresses);
+
+        Socket socket = factory.connectSocket(TIMEOUT, null, null, null, null, context);
+        closeables.add(socket);
+
+        return socket.getPort();
+    }
+
+    private ServerSocket listen() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0, 50, null);
+        closeables.add(serverSocket);
+
+        return serverSocket;
+    }
+
+    private static boolean accepts(ServerSocket serverSocket) throws IOException {
+        serverSocket.setSoTimeout(500);
+
+        try (Socket socket = serverSocket.accept()) {
+            return true;
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+    }
+
+    private static URI uri(int port) {
+        return URI.create("https://127.0.0.1:" + port);
+    }
+
+    /**
+     * TLS listener that delays the handshake or closes the connection instead of completing the handshake.
+     */
+    private final class Listener {
+        private final SSLServerSocket serverSocket;
+        private final long handshakeDelay;
+        private final boolean failing;
+        private final AtomicInteger accepted = new AtomicInteger();
+
+        Listener(long handshakeDelay, boolean failing) throws IOException {
+            this.handshakeDelay = handshakeDelay;
+            this.failing = failing;
+            this.serverSocket = (SSLServerSocket) serverContext.getServerSocketFactory().createServerSocket(0);
+
+            serverSocket.setEnabledProtocols(new String[] {CryptoUtils.SSL_PROTOCOL});
+            serverSocket.setEnabledCipherSuites(SystemProperties.getXroadTLSCipherSuites());
+            closeables.add(serverSocket);
+            executor.execute(this::acceptConnections);
+        }
+
+        URI getUri() {
+            return uri(getPort());
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        int getAccepted() {
+            return accepted.get();
+        }
+
+        private void acceptConnections() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    SSLSocket socket = (SSLSocket) serverSocket.accept();
+                    accepted.incrementAndGet();
+                    closeables.add(socket);
+                    executor.execute(() -> handle(socket));
+                } catch (Exception e) {
+                    // listener closed
+                }
+            }
+        }
+
+        private void handle(SSLSocket socket) {
+            try {
+                if (failing) {
+                    socket.close();
+                } else {
+                    Thread.sleep(handshakeDelay);
+                    socket.startHandshake();
+                }
+            } catch (Exception e) {
+                FastestConnectionSelectingSSLSocketFactory.closeQuietly(socket);
+            }
+        }
+    }
+}
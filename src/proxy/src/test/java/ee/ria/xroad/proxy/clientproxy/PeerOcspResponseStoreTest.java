@@ -0,0 +1,325 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.clientproxy;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.OcspTestUtils;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.proxy.conf.KeyConf;
+import ee.ria.xroad.proxy.testsuite.EmptyKeyConf;
+import ee.ria.xroad.proxy.testutil.TestGlobalConf;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the stale-while-revalidate behaviour of the peer OCSP response store.
+ */
+public class PeerOcspResponseStoreTest {
+
+    private static final String ADDRESS = "producer.example.com";
+    private static final long RESPONDER_DELAY_MILLIS = 1000;
+    private static final long VALIDITY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static KeyPair caKeys;
+    private static X509Certificate caCert;
+    private static X509Certificate cert;
+
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final AtomicReference<OCSPResp> responderResponse = new AtomicReference<>();
+
+    private volatile long responderDelayMillis;
+    private volatile OCSPResp keyConfResponse;
+
+    private PeerOcspResponseStore store;
+
+    /**
+     * Creates the CA and peer certificates.
+     * @throws Exception in case of errors
+     */
+    @BeforeClass
+    public static void createCertificates() throws Exception {
+        caKeys = generateKeyPair();
+        caCert = createCertificate("CN=ca", caKeys, "CN=ca", caKeys, true);
+        cert = createCertificate("CN=producer", generateKeyPair(), "CN=ca", caKeys, false);
+    }
+
+    /**
+     * Creates the store with a delayed OCSP responder stub.
+     * @throws Exception in case of errors
+     */
+    @Before
+    public void setUp() throws Exception {
+        GlobalConf.reload(new TestGlobalConf());
+        KeyConf.reload(new EmptyKeyConf() {
+            @Override
+            public OCSPResp getOcspResponse(X509Certificate certificate) {
+                return keyConfResponse;
+            }
+        });
+
+        responderResponse.set(createOcspResponse(new Date(), minutesFromNow(60)));
+        store = new PeerOcspResponseStore(3600, 0, 0, (address, certHashes) -> {
+            assertEquals(ADDRESS, address);
+            assertEquals(1, certHashes.length);
+
+            fetches.incrementAndGet();
+            Thread.sleep(responderDelayMillis);
+
+            return Collections.singletonList(responderResponse.get());
+        });
+    }
+
+    /**
+     * Stops the store.
+     */
+    @After
+    public void tearDown() {
+        store.shutdown();
+    }
+
+    /**
+     * Test that a missing response is fetched on the connect path and then reused.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void fetchesMissingResponseOnce() throws Exception {
+        OCSPResp response = responderResponse.get();
+
+        assertSame(response, getOcspResponse());
+        assertSame(response, getOcspResponse());
+        assertEquals(1, fetches.get());
+        assertEquals(PeerOcspResponseStore.State.FRESH, store.getState(cert));
+    }
+
+    /**
+     * Test that a valid response from the key configuration is used without contacting the peer.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void usesValidKeyConfResponse() throws Exception {
+        keyConfResponse = createOcspResponse(new Date(), minutesFromNow(60));
+
+        assertSame(keyConfResponse, getOcspResponse());
+        assertEquals(0, fetches.get());
+    }
+
+    /**
+     * Test that an expired response from the key configuration is not used.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void fetchesInsteadOfExpiredKeyConfResponse() throws Exception {
+        keyConfResponse = createOcspResponse(minutesFromNow(-120), minutesFromNow(60));
+
+        assertSame(responderResponse.get(), getOcspResponse());
+        assertEquals(1, fetches.get());
+    }
+
+    /**
+     * Test that a stale response is returned without waiting for the peer and is refreshed in the background.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void servesStaleResponseWhileRefreshing() throws Exception {
+        OCSPResp stale = createOcspResponse(minutesFromNow(-40), minutesFromNow(60));
+        OCSPResp fresh = responderResponse.get();
+
+        keyConfResponse = stale;
+        responderDelayMillis = RESPONDER_DELAY_MILLIS;
+
+        long start = System.currentTimeMillis();
+
+        assertSame(stale, getOcspResponse());
+        assertSame(stale, getOcspResponse());
+        assertTrue(System.currentTimeMillis() - start < RESPONDER_DELAY_MILLIS);
+
+        waitForFetches(1);
+        waitForState(PeerOcspResponseStore.State.FRESH);
+
+        assertSame(fresh, getOcspResponse());
+        assertEquals(1, fetches.get());
+    }
+
+    /**
+     * Test that a refresh that fails keeps the stale response in use.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void keepsStaleResponseWhenRefreshFails() throws Exception {
+        OCSPResp stale = createOcspResponse(minutesFromNow(-40), minutesFromNow(60));
+
+        keyConfResponse = stale;
+        store.shutdown();
+        store = new PeerOcspResponseStore(3600, 0, 0, (address, certHashes) -> {
+            fetches.incrementAndGet();
+
+            throw new IllegalStateException("responder down");
+        });
+
+        assertSame(stale, getOcspResponse());
+
+        waitForFetches(1);
+
+        assertSame(stale, getOcspResponse());
+        assertEquals(PeerOcspResponseStore.State.STALE, store.getState(cert));
+    }
+
+    /**
+     * Test that prefetching refreshes stale responses of recently contacted peers.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void prefetchRefreshesStaleResponses() throws Exception {
+        OCSPResp stale = createOcspResponse(minutesFromNow(-40), minutesFromNow(60));
+
+        responderResponse.set(stale);
+
+        assertSame(stale, getOcspResponse());
+        assertEquals(PeerOcspResponseStore.State.STALE, store.getState(cert));
+
+        OCSPResp fresh = createOcspResponse(new Date(), minutesFromNow(60));
+        responderResponse.set(fresh);
+
+        store.prefetch();
+        waitForFetches(2);
+        waitForState(PeerOcspResponseStore.State.FRESH);
+
+        assertSame(fresh, getOcspResponse());
+    }
+
+    /**
+     * Test that invalidated responses are fetched again.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void invalidateForcesFetch() throws Exception {
+        getOcspResponse();
+        store.invalidate(Collections.singletonList(cert));
+        getOcspResponse();
+
+        assertEquals(2, fetches.get());
+    }
+
+    /**
+     * Test that a failing fetch on the connect path is reported.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void reportsMissingResponses() throws Exception {
+        store.shutdown();
+        store = new PeerOcspResponseStore(3600, 0, 0, (address, certHashes) -> Collections.emptyList());
+
+        try {
+            getOcspResponse();
+            fail("Should fail when the peer returns no responses");
+        } catch (CodedException e) {
+            assertEquals(X_INTERNAL_ERROR, e.getFaultCode());
+        }
+    }
+
+    private OCSPResp getOcspResponse() throws Exception {
+        List<OCSPResp> responses = store.getOcspResponses(Collections.singletonList(cert), ADDRESS);
+
+        assertEquals(1, responses.size());
+
+        return responses.get(0);
+    }
+
+    private void waitForFetches(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+
+        while (fetches.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(count, fetches.get());
+    }
+
+    private void waitForState(PeerOcspResponseStore.State state) throws Exception {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+
+        while (store.getState(cert) != state && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(state, store.getState(cert));
+    }
+
+    private static OCSPResp createOcspResponse(Date thisUpdate, Date nextUpdate) throws Exception {
+        return OcspTestUtils.createOCSPResponse(cert, caCert, caCert, caKeys.getPrivate(),
+                CertificateStatus.GOOD, thisUpdate, nextUpdate);
+    }
+
+    private static Date minutesFromNow(int minutes) {
+        return new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(minutes));
+    }
+
+    private static KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+
+        return keyPairGenerator.generateKeyPair();
+    }
+
+    private static X509Certificate createCertificate(String subject, KeyPair subjectKeys, String issuer,
+            KeyPair issuerKeys, boolean ca) throws Exception {
+        long now = System.currentTimeMillis();
+
+        return new JcaX509CertificateConverter().getCertificate(new JcaX509v3CertificateBuilder(new X500Name(issuer),
+                BigInteger.valueOf(now), new Date(now - VALIDITY_MILLIS), new Date(now + VALIDITY_MILLIS),
+                new X500Name(subject), subjectKeys.getPublic())
+                .addExtension(Extension.basicConstraints, true, new BasicConstraints(ca))
+                .build(new JcaContentSignerBuilder("SHA256withRSA").build(issuerKeys.getPrivate())));
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.protocol;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.util.MimeTypes;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+
+import static ee.ria.xroad.common.message.SoapMessageTestUtil.createRequest;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for writing the cached proxy message content.
+ */
+public class ProxyMessageTest {
+
+    private static final int SPILL_THRESHOLD = 1024 * 1024;
+    private static final long LARGE_ATTACHMENT_SIZE = 200L * 1024 * 1024;
+    private static final long MAX_ALLOCATED_BYTES = 32L * 1024 * 1024;
+    private static final long MAX_HEAP_GROWTH = 64L * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private String originalTempFilesPath;
+
+    /**
+     * Point the temporary files to the test folder.
+     */
+    @Before
+    public void setUp() {
+        originalTempFilesPath = System.getProperty(SystemProperties.TEMP_FILES_PATH);
+        System.setProperty(SystemProperties.TEMP_FILES_PATH, tempFolder.getRoot().getAbsolutePath());
+    }
+
+    /**
+     * Restore the temporary files path.
+     */
+    @After
+    public void tearDown() {
+        if (originalTempFilesPath == null) {
+            System.clearProperty(SystemProperties.TEMP_FILES_PATH);
+        } else {
+            System.setProperty(SystemProperties.TEMP_FILES_PATH, originalTempFilesPath);
+        }
+    }
+
+    @Test
+    public void writesPlainSoap() throws Exception {
+        ProxyMessage message = new ProxyMessage(MimeTypes.TEXT_XML_UTF8, SPILL_THRESHOLD);
+        message.soap(createRequest("simple.query"), Collections.emptyMap());
+
+        assertContentEquals(message);
+        assertEquals(message.getSoap().getBytes().length, message.getSoapContentLength());
+    }
+
+    @Test
+    public void writesMimeEncodedSoap() throws Exception {
+        ProxyMessage message = new ProxyMessage(MimeTypes.MULTIPART_RELATED + "; boundary=test-boundary",
+                SPILL_THRESHOLD);
+        message.soap(createRequest("simple.query"), Collections.emptyMap());
+
+        assertContentEquals(message);
+        assertEquals(-1, message.getSoapContentLength());
+    }
+
+    @Test
+    public void writesSoapWithAttachments() throws Exception {
+        ProxyMessage message = new ProxyMessage(MimeTypes.MULTIPART_RELATED + "; boundary=test-boundary",
+                SPILL_THRESHOLD);
+        message.soap(createRequest("simple.query"), Collections.emptyMap());
+        message.attachment(MimeTypes.BINARY, new GeneratedInputStream(100_000), Collections.emptyMap());
+
+        long length = message.getSoapContentLength();
+
+        assertContentEquals(message);
+        assertEquals(length, toByteArray(message).length);
+        assertEquals(0, tempFolder.getRoot().list().length);
+
+        message.consume();
+    }
+
+    @Test
+    public void writesLargeAttachmentWithBoundedHeap() throws Exception {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Runtime runtime = Runtime.getRuntime();
+        long threadId = Thread.currentThread().getId();
+
+        System.gc();
+        long usedHeapBefore = runtime.totalMemory() - runtime.freeMemory();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+
+        ProxyMessage message = new ProxyMessage(MimeTypes.MULTIPART_RELATED + "; boundary=test-boundary",
+                SPILL_THRESHOLD);
+        message.soap(createRequest("simple.query"), Collections.emptyMap());
+        message.attachment(MimeTypes.BINARY, new GeneratedInputStream(LARGE_ATTACHMENT_SIZE),
+                Collections.emptyMap());
+
+        long length = message.getSoapContentLength();
+
+        CountingOutputStream out = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+        message.writeSoapContent(out);
+
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.gc();
+        long heapGrowth = runtime.totalMemory() - runtime.freeMemory() - usedHeapBefore;
+
+        assertEquals(length, out.getByteCount());
+        assertTrue(out.getByteCount() > LARGE_ATTACHMENT_SIZE);
+        assertTrue("Allocated " + allocated + " bytes", allocated < MAX_ALLOCATED_BYTES);
+        assertTrue("Heap grew by " + heapGrowth + " bytes", heapGrowth < MAX_HEAP_GROWTH);
+
+        message.consume();
+    }
+
+    private static void assertContentEquals(ProxyMessage message) throws Exception {
+        byte[] expected;
+
+        try (InputStream in = message.getSoapContent()) {
+            expected = IOUtils.toByteArray(in);
+        }
+
+        assertArrayEquals(expected, toByteArray(message));
+    }
+
+    private static byte[] toByteArray(ProxyMessage message) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeSoapContent(out);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Input stream that generates the given number of bytes without keeping them in memory.
+     */
+    private static final class GeneratedInputStream extends InputStream {
+        private long remaining;
+
+        GeneratedInputStream(long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            remaining--;
+
+            return (int) (remaining & 0x7F);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            int count = (int) Math.min(len, remaining);
+
+            for (int i = 0; i < count; i++) {
+                b[off + i] = (byte) ((remaining - i) & 0x7F);
+            }
+
+            remaining -= count;
+
+            return count;
+        }
+    }
+}
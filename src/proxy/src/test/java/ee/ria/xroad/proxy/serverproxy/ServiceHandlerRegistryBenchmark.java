@@ -0,0 +1,127 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.serverproxy;
+
+import ee.ria.xroad.common.identifier.ServiceId;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares loading the configured service handlers for every request, as the server proxy used to do, with
+ * looking the handler up from a {@link ServiceHandlerRegistry}. The GC profiler reports the allocation rate
+ * per operation.
+ *
+ * Run with: gradle :proxy:runServiceHandlerRegistryBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceHandlerRegistryBenchmark {
+
+    private static final String PREFIX = ServiceHandlerRegistryTest.class.getName() + "$";
+
+    private static final String HANDLERS = PREFIX + "FooHandler," + PREFIX + "FooBarHandler," + PREFIX
+            + "BarHandler," + PREFIX + "RejectingHandler";
+
+    @Param({"foo", "bar", "baz"})
+    private String serviceCode;
+
+    private ServiceId serviceId;
+    private ServiceHandlerRegistry<ServiceHandler> registry;
+
+    /**
+     * Creates the registry.
+     */
+    @Setup
+    public void setup() {
+        serviceId = ServiceId.create("EE", "BUSINESS", "producer", null, serviceCode);
+        registry = ServiceHandlerRegistry.load(ServiceHandler.class, "service handler", HANDLERS,
+                ServiceHandler::canHandle);
+    }
+
+    /**
+     * Loads all handlers and consults them in order.
+     * @return the handler
+     * @throws Exception in case of errors
+     */
+    @Benchmark
+    public ServiceHandler loadHandlers() throws Exception {
+        List<ServiceHandler> handlers = new ArrayList<>();
+
+        for (String handlerName : HANDLERS.split(",")) {
+            handlers.add((ServiceHandler) Class.forName(handlerName).newInstance());
+        }
+
+        for (ServiceHandler handler : handlers) {
+            if (handler.canHandle(serviceId, null)) {
+                return handler;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Looks the handler up from the registry.
+     * @return the handler
+     */
+    @Benchmark
+    public ServiceHandler registry() {
+        return registry.getHandler(serviceId, null);
+    }
+
+    /**
+     * Runs the benchmark.
+     * @param args command line arguments, not used
+     * @throws Exception in case of errors
+     */
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ServiceHandlerRegistryBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
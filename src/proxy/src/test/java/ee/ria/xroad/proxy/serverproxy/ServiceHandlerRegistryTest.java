@@ -0,0 +1,221 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.serverproxy;
+
+import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+import ee.ria.xroad.proxy.protocol.ProxyMessage;
+
+import org.apache.http.client.HttpClient;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ServiceHandlerRegistry}.
+ */
+public class ServiceHandlerRegistryTest {
+
+    private static final String PREFIX = ServiceHandlerRegistryTest.class.getName() + "$";
+
+    /**
+     * Handlers are consulted only for their own service codes, in the configured order.
+     */
+    @Test
+    public void dispatchesByServiceCode() {
+        ServiceHandlerRegistry<ServiceHandler> registry = load("FooHandler,FooBarHandler,AnyHandler");
+
+        assertEquals(3, registry.size());
+        assertEquals(3, registry.getCandidates("foo").size());
+        assertEquals(2, registry.getCandidates("bar").size());
+        assertEquals(1, registry.getCandidates("baz").size());
+
+        assertTrue(registry.getHandler(service("foo"), null) instanceof FooHandler);
+        assertTrue(registry.getHandler(service("bar"), null) instanceof FooBarHandler);
+        assertTrue(registry.getHandler(service("baz"), null) instanceof AnyHandler);
+    }
+
+    /**
+     * A handler without declared services is consulted for every service in its configured position.
+     */
+    @Test
+    public void handlerForAnyServiceKeepsItsPosition() {
+        ServiceHandlerRegistry<ServiceHandler> registry = load("AnyHandler,FooHandler");
+
+        assertTrue(registry.getHandler(service("foo"), null) instanceof AnyHandler);
+        assertTrue(registry.getHandler(service("baz"), null) instanceof AnyHandler);
+    }
+
+    /**
+     * Returns null if none of the handlers can handle the service.
+     */
+    @Test
+    public void noMatchingHandler() {
+        assertNull(load("FooHandler").getHandler(service("bar"), null));
+        assertNull(load("").getHandler(service("foo"), null));
+        assertNull(load(null).getHandler(service("foo"), null));
+        assertNull(load("RejectingHandler").getHandler(service("foo"), null));
+    }
+
+    /**
+     * Thread-safe handlers are shared, other handlers are created for each request.
+     */
+    @Test
+    public void sharesThreadSafeHandlers() {
+        ServiceHandlerRegistry<ServiceHandler> registry = load("FooHandler,BarHandler");
+
+        assertNotSame(registry.getHandler(service("foo"), null), registry.getHandler(service("foo"), null));
+        assertSame(registry.getHandler(service("bar"), null), registry.getHandler(service("bar"), null));
+    }
+
+    /**
+     * Unknown handler classes fail when the registry is loaded.
+     */
+    @Test(expected = RuntimeException.class)
+    public void unknownHandlerClass() {
+        ServiceHandlerRegistry.load(ServiceHandler.class, "service handler", "foo.bar.UnknownHandler",
+                ServiceHandler::canHandle);
+    }
+
+    /**
+     * Classes that are not service handlers fail when the registry is loaded.
+     */
+    @Test(expected = RuntimeException.class)
+    public void wrongHandlerType() {
+        ServiceHandlerRegistry.load(ServiceHandler.class, "service handler", String.class.getName(),
+                ServiceHandler::canHandle);
+    }
+
+    private static ServiceHandlerRegistry<ServiceHandler> load(String handlers) {
+        StringBuilder classNames = new StringBuilder();
+
+        if (handlers != null) {
+            for (String handler : handlers.split(",")) {
+                if (!handler.isEmpty()) {
+                    classNames.append(classNames.length() > 0 ? "," : "").append(PREFIX).append(handler);
+                }
+            }
+        }
+
+        return ServiceHandlerRegistry.load(ServiceHandler.class, "service handler",
+                handlers != null ? classNames.toString() : null, ServiceHandler::canHandle);
+    }
+
+    private static ServiceId service(String serviceCode) {
+        return ServiceId.create("EE", "BUSINESS", "producer", null, serviceCode);
+    }
+
+    /**
+     * Handler that accepts every request it is consulted for.
+     */
+    public static class TestHandler implements ServiceHandler {
+
+        @Override
+        public boolean shouldVerifyAccess() {
+            return false;
+        }
+
+        @Override
+        public boolean shouldVerifySignature() {
+            return false;
+        }
+
+        @Override
+        public boolean shouldLogSignature() {
+            return false;
+        }
+
+        @Override
+        public boolean canHandle(ServiceId requestServiceId, ProxyMessage requestMessage) {
+            return true;
+        }
+
+        @Override
+        public void startHandling(HttpServletRequest servletRequest, ProxyMessage requestMessage,
+                HttpClient opMonitorClient, OpMonitoringData opMonitoringData) {
+        }
+
+        @Override
+        public void finishHandling() {
+        }
+
+        @Override
+        public String getResponseContentType() {
+            return null;
+        }
+
+        @Override
+        public InputStream getResponseContent() {
+            return null;
+        }
+    }
+
+    /**
+     * Handles service foo.
+     */
+    @HandledServices(serviceCodes = "foo")
+    public static class FooHandler extends TestHandler {
+    }
+
+    /**
+     * Handles services foo and bar.
+     */
+    @HandledServices(serviceCodes = {"foo", "bar"})
+    public static class FooBarHandler extends TestHandler {
+    }
+
+    /**
+     * Handles service bar and is shared by all requests.
+     */
+    @HandledServices(serviceCodes = "bar", threadSafe = true)
+    public static class BarHandler extends TestHandler {
+    }
+
+    /**
+     * Handles all services.
+     */
+    public static class AnyHandler extends TestHandler {
+    }
+
+    /**
+     * Is consulted for all services but handles none.
+     */
+    public static class RejectingHandler extends TestHandler {
+
+        @Override
+        public boolean canHandle(ServiceId requestServiceId, ProxyMessage requestMessage) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.serverproxy;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.OcspTestUtils;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.util.CryptoUtils;
+import ee.ria.xroad.proxy.testutil.TestGlobalConf;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ee.ria.xroad.common.ErrorCodes.X_SSL_AUTH_FAILED;
+import static ee.ria.xroad.proxy.serverproxy.SslClientCertVerifier.SSL_SESSION_ID_ATTRIBUTE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link SslClientCertVerifier} with an in-process TLS server and client.
+ */
+public class SslClientCertVerifierTest {
+
+    private static final long VALIDITY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final String X509_CERTIFICATE_ATTRIBUTE = "javax.servlet.request.X509Certificate";
+    private static final char[] PASSWORD = "test".toCharArray();
+
+    private static final ClientId CLIENT = ClientId.create("EE", "BUSINESS", "consumer");
+
+    private static KeyPair caKeys;
+    private static X509Certificate caCert;
+    private static KeyPair clientKeys;
+    private static X509Certificate clientCert;
+    private static KeyPair serverKeys;
+    private static X509Certificate serverCert;
+
+    private final AtomicInteger verifications = new AtomicInteger();
+    private final Set<String> sslSessionIds = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean authCertMatchesMember = true;
+    private volatile X509Certificate trustAnchor;
+    private volatile List<OCSPResp> ocspResponses;
+
+    private SslClientCertVerifier verifier;
+    private Server server;
+    private int port;
+
+    /**
+     * Creates the CA, client and server certificates.
+     * @throws Exception in case of errors
+     */
+    @BeforeClass
+    public static void createCertificates() throws Exception {
+        caKeys = generateKeyPair();
+        caCert = createCertificate("CN=ca", caKeys, "CN=ca", caKeys, true);
+        clientKeys = generateKeyPair();
+        clientCert = createCertificate("CN=consumer", clientKeys, "CN=ca", caKeys, false);
+        serverKeys = generateKeyPair();
+        serverCert = createCertificate("CN=producer", serverKeys, "CN=ca", caKeys, false);
+    }
+
+    /**
+     * Starts the TLS server.
+     * @throws Exception in case of errors
+     */
+    @Before
+    public void setUp() throws Exception {
+        trustAnchor = caCert;
+        ocspResponses = Collections.singletonList(createOcspResponse(new Date(), hoursFromNow(1)));
+
+        GlobalConf.reload(new TestGlobalConf() {
+            @Override
+            public X509Certificate getCaCert(String instanceIdentifier, X509Certificate org) {
+                return trustAnchor;
+            }
+
+            @Override
+            public boolean authCertMatchesMember(X509Certificate cert, ClientId memberId) {
+                return authCertMatchesMember;
+            }
+        });
+
+        verifier = new SslClientCertVerifier(100, (chain, responses, client) -> verifications.incrementAndGet());
+
+        SslContextFactory.Server cf = new SslContextFactory.Server();
+        cf.setNeedClientAuth(true);
+        cf.setIncludeProtocols(CryptoUtils.SSL_PROTOCOL);
+        cf.setSessionCachingEnabled(true);
+        cf.setSslContext(createSslContext(serverCert, serverKeys.getPrivate()));
+
+        server = new Server();
+
+        ServerConnector connector = new ServerConnector(server, cf);
+        connector.setHost("127.0.0.1");
+        connector.setPort(0);
+
+        server.addConnector(connector);
+        server.setHandler(new VerifyingHandler());
+        server.start();
+
+        port = connector.getLocalPort();
+    }
+
+    /**
+     * Stops the TLS server.
+     * @throws Exception in case of errors
+     */
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    /**
+     * Requests over one TLS session verify the client certificate once, also when the client resumes the session
+     * on a new connection. A new TLS session verifies it again.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void verifiesOncePerTlsSession() throws Exception {
+        SSLContext clientContext = createSslContext(clientCert, clientKeys.getPrivate());
+
+        try (CloseableHttpClient client = createClient(clientContext)) {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(200, send(client));
+            }
+        }
+
+        assertEquals(1, sslSessionIds.size());
+        assertEquals(1, verifications.get());
+
+        try (CloseableHttpClient client = createClient(clientContext)) {
+            assertEquals(200, send(client));
+        }
+
+        assertEquals(1, sslSessionIds.size());
+        assertEquals(1, verifications.get());
+
+        try (CloseableHttpClient client = createClient(createSslContext(clientCert, clientKeys.getPrivate()))) {
+            assertEquals(200, send(client));
+            assertEquals(200, send(client));
+        }
+
+        assertEquals(2, sslSessionIds.size());
+        assertEquals(2, verifications.get());
+        assertEquals(4, verifier.getCacheStats().hitCount());
+    }
+
+    /**
+     * Without a TLS session id the client certificate is verified for every request.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void verifiesEveryRequestWithoutSessionId() throws Exception {
+        verify(null);
+        verify(null);
+
+        assertEquals(2, verifications.get());
+    }
+
+    /**
+     * A cached result is not used after the OCSP response is no longer fresh or its nextUpdate has passed.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void reverifiesWhenOcspResponseExpires() throws Exception {
+        ocspResponses = Collections.singletonList(createOcspResponse(hoursFromNow(-2), hoursFromNow(1)));
+
+        verify("stale");
+        verify("stale");
+
+        assertEquals(2, verifications.get());
+
+        ocspResponses = Collections.singletonList(createOcspResponse(new Date(), hoursFromNow(-1)));
+
+        verify("expired");
+        verify("expired");
+
+        assertEquals(4, verifications.get());
+    }
+
+    /**
+     * A cached result is not used after the global configuration changes the trust anchor or no longer associates
+     * the certificate with the client.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void reverifiesWhenGlobalConfChanges() throws Exception {
+        verify("session");
+        verify("session");
+
+        assertEquals(1, verifications.get());
+
+        trustAnchor = serverCert;
+
+        verify("session");
+
+        assertEquals(2, verifications.get());
+
+        authCertMatchesMember = false;
+
+        verify("session");
+
+        assertEquals(3, verifications.get());
+    }
+
+    /**
+     * Failed verifications are not cached.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void doesNotCacheFailedVerification() throws Exception {
+        verifier = new SslClientCertVerifier(100, (chain, responses, client) -> {
+            verifications.incrementAndGet();
+
+            throw new Exception("Invalid certificate");
+        });
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                verify("session");
+                fail("Verification should fail");
+            } catch (CodedException expected) {
+                assertEquals(X_SSL_AUTH_FAILED, expected.getFaultCode());
+            }
+        }
+
+        assertEquals(2, verifications.get());
+    }
+
+    /**
+     * Verification fails without OCSP responses, also if the session has a cached result.
+     * @throws Exception in case of errors
+     */
+    @Test
+    public void requiresOcspResponses() throws Exception {
+        verify("session");
+
+        ocspResponses = Collections.emptyList();
+
+        try {
+            verify("session");
+            fail("Verification should fail");
+        } catch (CodedException expected) {
+            assertEquals(X_SSL_AUTH_FAILED, expected.getFaultCode());
+        }
+    }
+
+    private void verify(String sslSessionId) throws Exception {
+        verifier.verify(sslSessionId, new X509Certificate[] {clientCert}, ocspResponses, CLIENT);
+    }
+
+    private int send(CloseableHttpClient client) throws Exception {
+        try (CloseableHttpResponse response = client.execute(new HttpGet("https://127.0.0.1:" + port + "/"))) {
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+
+    private static CloseableHttpClient createClient(SSLContext sslContext) {
+        return HttpClients.custom()
+                .setSSLContext(sslContext)
+                .setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE)
+                .build();
+    }
+
+    private static SSLContext createSslContext(X509Certificate cert, PrivateKey key) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("key", key, PASSWORD, new X509Certificate[] {cert, caCert});
+
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, PASSWORD);
+
+        SSLContext ctx = SSLContext.getInstance(CryptoUtils.SSL_PROTOCOL);
+        ctx.init(keyManagerFactory.getKeyManagers(), new TrustManager[] {new NoopTrustManager()},
+                new SecureRandom());
+
+        return ctx;
+    }
+
+    private static OCSPResp createOcspResponse(Date thisUpdate, Date nextUpdate) throws Exception {
+        return OcspTestUtils.createOCSPResponse(clientCert, caCert, caCert, caKeys.getPrivate(),
+                CertificateStatus.GOOD, thisUpdate, nextUpdate);
+    }
+
+    private static Date hoursFromNow(int hours) {
+        return new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(hours));
+    }
+
+    private static KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+
+        return keyPairGenerator.generateKeyPair();
+    }
+
+    private static X509Certificate createCertificate(String subject, KeyPair subjectKeys, String issuer,
+            KeyPair issuerKeys, boolean ca) throws Exception {
+        long now = System.currentTimeMillis();
+
+        return new JcaX509CertificateConverter().getCertificate(new JcaX509v3CertificateBuilder(new X500Name(issuer),
+                BigInteger.valueOf(now), new Date(now - VALIDITY_MILLIS), new Date(now + VALIDITY_MILLIS),
+                new X500Name(subject), subjectKeys.getPublic())
+                .addExtension(Extension.basicConstraints, true, new BasicConstraints(ca))
+                .build(new JcaContentSignerBuilder("SHA256withRSA").build(issuerKeys.getPrivate())));
+    }
+
+    private final class VerifyingHandler extends AbstractHandler {
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request,
+                HttpServletResponse response) {
+            baseRequest.setHandled(true);
+
+            String sslSessionId = (String) request.getAttribute(SSL_SESSION_ID_ATTRIBUTE);
+            X509Certificate[] certs = (X509Certificate[]) request.getAttribute(X509_CERTIFICATE_ATTRIBUTE);
+
+            try {
+                assertNotNull(sslSessionId);
+                assertNotNull(certs);
+
+                sslSessionIds.add(sslSessionId);
+                verifier.verify(sslSessionId, certs, ocspResponses, CLIENT);
+
+                response.setStatus(HttpServletResponse.SC_OK);
+            } catch (Throwable e) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+
+    private static final class NoopTrustManager implements X509TrustManager {
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            // trust all
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            // trust all
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
@@ -29,14 +29,18 @@ import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.conf.InternalSSLKey;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.serverconf.model.AccessRightType;
 import ee.ria.xroad.common.conf.serverconf.model.ClientType;
 import ee.ria.xroad.common.conf.serverconf.model.DescriptionType;
 import ee.ria.xroad.common.conf.serverconf.model.EndpointType;
+import ee.ria.xroad.common.conf.serverconf.model.LocalGroupType;
 import ee.ria.xroad.common.conf.serverconf.model.ServiceType;
 import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.LocalGroupId;
 import ee.ria.xroad.common.identifier.SecurityCategoryId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
 import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.identifier.XRoadId;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
@@ -45,13 +49,26 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ObjectUtils;
 import org.hibernate.Session;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static ee.ria.xroad.common.ErrorCodes.X_UNKNOWN_SERVICE;
+import static ee.ria.xroad.common.ErrorCodes.translateException;
+import static ee.ria.xroad.common.conf.serverconf.ServiceAcl.copyOf;
 
 /**
  * Caching implementation for ServerConf
@@ -68,6 +85,7 @@ public class CachingServerConfImpl extends ServerConfImpl {
     private final Cache<ServiceId, Optional<ServiceType>> serviceCache;
     private final Cache<AclCacheKey, List<EndpointType>> aclCache;
     private final Cache<ClientId, Optional<ClientType>> clientCache;
+    private final Cache<ServiceId, ServiceAccessDescriptor> serviceAccessCache;
     private final Cache<String, InternalSSLKey> internalKeyCache;
 
     /**
@@ -108,6 +126,12 @@ public class CachingServerConfImpl extends ServerConfImpl {
                 .recordStats()
                 .build();
 
+        serviceAccessCache = CacheBuilder.newBuilder()
+                .maximumSize(SystemProperties.getServerConfServiceCacheSize())
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+
     }
 
     @Override
@@ -218,6 +242,15 @@ public class CachingServerConfImpl extends ServerConfImpl {
         return getService(service).map(ServiceType::getRequiredSecurityCategory).orElse(Collections.emptyList());
     }
 
+    @Override
+    public ServiceAccessDescriptor getServiceAccessDescriptor(ServiceId service) {
+        try {
+            return serviceAccessCache.get(service, () -> tx(session -> getServiceAccessDescriptor(session, service)));
+        } catch (ExecutionException e) {
+            throw translateException(e.getCause());
+        }
+    }
+
     @Override
     protected List<EndpointType> getEndpoints(Session session, ClientId client, ServiceId service) {
         final AclCacheKey key = new AclCacheKey(client, service);
@@ -263,6 +296,156 @@ public class CachingServerConfImpl extends ServerConfImpl {
         }
     }
 
+    /**
+     * Loads all clients, services and access rights with a few set-based queries and fills the caches, so that
+     * the first requests after startup do not need to query the database. Clients and services are loaded in
+     * parallel. Access rights are preloaded for the clients that have been given access directly or through a
+     * local group; access through global groups is still resolved on demand.
+     */
+    @Override
+    public void warmUp() {
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<ClientSnapshot> clientsFuture = executor.submit(() -> tx(this::loadClients));
+            Future<List<ServiceType>> servicesFuture = executor.submit(() -> tx(this::loadServices));
+
+            ClientSnapshot clients = clientsFuture.get();
+            List<ServiceType> services = servicesFuture.get();
+
+            Map<ClientId, ClientType> owners = new HashMap<>();
+
+            for (ClientType client : clients.getClients()) {
+                ClientId clientId = copyOf(client.getIdentifier());
+
+                clientCache.put(clientId, Optional.of(client));
+                owners.put(clientId, client);
+            }
+
+            Map<ClientType, Map<String, List<AccessRightType>>> rightsByOwner =
+                    groupByOwner(clients.getAccessRights());
+            Map<ClientId, Map<String, List<ServiceId>>> serviceIds = new HashMap<>();
+
+            for (ServiceType service : services) {
+                ClientId owner = copyOf(service.getServiceDescription().getClient().getIdentifier());
+                ServiceId serviceId = ServiceId.create(owner, service.getServiceCode(), service.getServiceVersion());
+                List<AccessRightType> rights = rightsByOwner
+                        .getOrDefault(owners.get(owner), Collections.emptyMap())
+                        .getOrDefault(service.getServiceCode(), Collections.emptyList());
+
+                serviceCache.put(serviceId, Optional.of(service));
+                serviceAccessCache.put(serviceId, createServiceAccessDescriptor(serviceId, service,
+                        ServiceAcl.compile(owners.get(owner), rights)));
+                serviceIds.computeIfAbsent(owner, k -> new HashMap<>())
+                        .computeIfAbsent(service.getServiceCode(), k -> new ArrayList<>())
+                        .add(serviceId);
+            }
+
+            int aclEntries = warmUpAcl(rightsByOwner, serviceIds);
+
+            if (clients.getClients().size() > SystemProperties.getServerConfClientCacheSize()
+                    || services.size() > SystemProperties.getServerConfServiceCacheSize()) {
+                log.warn("ServerConf cache size is smaller than the configuration, not all entries stay cached");
+            }
+
+            log.info("ServerConf caches loaded in {} ms: {} clients, {} services, {} access right entries",
+                    System.currentTimeMillis() - start, clients.getClients().size(), services.size(), aclEntries);
+        } catch (ExecutionException e) {
+            throw translateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw translateException(e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private ClientSnapshot loadClients(Session session) {
+        List<ClientType> clients = session.createQuery("select distinct c from ClientType c"
+                + " join fetch c.identifier left join fetch c.localGroup", ClientType.class).list();
+
+        // initializes the members of the local groups fetched above
+        session.createQuery("select distinct g from LocalGroupType g"
+                + " left join fetch g.groupMember m left join fetch m.groupMemberId", LocalGroupType.class).list();
+
+        List<Object[]> accessRights = session.createQuery("select c, a from ClientType c join c.acl a"
+                + " join fetch a.endpoint join fetch a.subjectId", Object[].class).list();
+
+        return new ClientSnapshot(clients, accessRights);
+    }
+
+    private List<ServiceType> loadServices(Session session) {
+        return session.createQuery("select distinct s from ServiceType s"
+                + " join fetch s.serviceDescription d join fetch d.client c join fetch c.identifier"
+                + " left join fetch s.requiredSecurityCategory", ServiceType.class).list();
+    }
+
+    private static Map<ClientType, Map<String, List<AccessRightType>>> groupByOwner(List<Object[]> accessRights) {
+        Map<ClientType, Map<String, List<AccessRightType>>> rightsByOwner = new LinkedHashMap<>();
+
+        for (Object[] row : accessRights) {
+            AccessRightType right = (AccessRightType) row[1];
+
+            rightsByOwner.computeIfAbsent((ClientType) row[0], k -> new HashMap<>())
+                    .computeIfAbsent(right.getEndpoint().getServiceCode(), k -> new ArrayList<>())
+                    .add(right);
+        }
+
+        return rightsByOwner;
+    }
+
+    private int warmUpAcl(Map<ClientType, Map<String, List<AccessRightType>>> rightsByOwner,
+            Map<ClientId, Map<String, List<ServiceId>>> serviceIds) {
+        int entries = 0;
+
+        for (Map.Entry<ClientType, Map<String, List<AccessRightType>>> ownerRights : rightsByOwner.entrySet()) {
+            ClientType owner = ownerRights.getKey();
+            Map<String, List<ServiceId>> ownerServices =
+                    serviceIds.getOrDefault(copyOf(owner.getIdentifier()), Collections.emptyMap());
+
+            for (Map.Entry<String, List<AccessRightType>> codeRights : ownerRights.getValue().entrySet()) {
+                List<ServiceId> services = ownerServices.getOrDefault(codeRights.getKey(), Collections.emptyList());
+
+                for (ClientId client : getAclSubjects(owner, codeRights.getValue())) {
+                    List<EndpointType> endpoints = codeRights.getValue().stream()
+                            .filter(it -> subjectMatches(owner, it.getSubjectId(), client))
+                            .map(AccessRightType::getEndpoint)
+                            .collect(Collectors.toList());
+
+                    for (ServiceId service : services) {
+                        aclCache.put(new AclCacheKey(client, service), endpoints);
+                        entries++;
+                    }
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    private static Set<ClientId> getAclSubjects(ClientType owner, List<AccessRightType> rights) {
+        Set<ClientId> subjects = new HashSet<>();
+
+        for (AccessRightType right : rights) {
+            XRoadId subject = right.getSubjectId();
+
+            if (subject instanceof ClientId) {
+                subjects.add(copyOf((ClientId) subject));
+            } else if (subject instanceof LocalGroupId) {
+                String groupCode = ((LocalGroupId) subject).getGroupCode();
+
+                owner.getLocalGroup().stream()
+                        .filter(g -> Objects.equals(groupCode, g.getGroupCode()))
+                        .flatMap(g -> g.getGroupMember().stream())
+                        .forEach(m -> subjects.add(copyOf(m.getGroupMemberId())));
+            }
+        }
+
+        return subjects;
+    }
+
     @Override
     public void logStatistics() {
         if (log.isTraceEnabled()) {
@@ -272,9 +455,17 @@ public class CachingServerConfImpl extends ServerConfImpl {
                     serviceCache.stats().toString());
             log.trace("ServerConf.aclCache    : entries: {}, stats: {}", aclCache.size(),
                     aclCache.stats().toString());
+            log.trace("ServerConf.serviceAccessCache: entries: {}, stats: {}", serviceAccessCache.size(),
+                    serviceAccessCache.stats().toString());
         }
     }
 
+    @Value
+    private static class ClientSnapshot {
+        final List<ClientType> clients;
+        final List<Object[]> accessRights;
+    }
+
     @Value
     private static class AclCacheKey {
         final ClientId client;
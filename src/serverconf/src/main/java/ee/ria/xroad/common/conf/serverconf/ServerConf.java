@@ -307,4 +307,23 @@ public class ServerConf {
     public static void logStatistics() {
         getInstance().logStatistics();
     }
+
+    /**
+     * @param service the service identifier
+     * @return the configuration needed for verifying access to the service
+     */
+    public static ServiceAccessDescriptor getServiceAccessDescriptor(ServiceId service) {
+        log.trace("getServiceAccessDescriptor({})", service);
+
+        return getInstance().getServiceAccessDescriptor(service);
+    }
+
+    /**
+     * Loads the configuration into the caches before the first requests.
+     */
+    public static void warmUp() {
+        log.trace("warmUp()");
+
+        getInstance().warmUp();
+    }
 }
@@ -51,7 +51,6 @@ import ee.ria.xroad.common.identifier.SecurityServerId;
 import ee.ria.xroad.common.identifier.ServiceId;
 import ee.ria.xroad.common.identifier.XRoadId;
 import ee.ria.xroad.common.identifier.XRoadObjectType;
-import ee.ria.xroad.common.util.UriUtils;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ObjectUtils;
@@ -63,8 +62,8 @@ import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Join;
 import javax.persistence.criteria.Root;
 
-import java.net.URI;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
@@ -256,6 +255,11 @@ public class ServerConfImpl implements ServerConfProvider {
         return tx(session -> internalIsQueryAllowed(session, client, service, method, path));
     }
 
+    @Override
+    public ServiceAccessDescriptor getServiceAccessDescriptor(ServiceId service) {
+        return tx(session -> getServiceAccessDescriptor(session, service));
+    }
+
     @Override
     public List<SecurityCategoryId> getRequiredCategories(ServiceId service) {
         return tx(session -> {
@@ -316,6 +320,38 @@ public class ServerConfImpl implements ServerConfProvider {
         return serviceDescriptionDao.getServiceDescription(session, service);
     }
 
+    protected ServiceAccessDescriptor getServiceAccessDescriptor(Session session, ServiceId service) {
+        ServiceType serviceType = serviceDao.getServiceWithSecurityCategories(session, service);
+        ClientType owner = serviceType != null
+                ? serviceType.getServiceDescription().getClient() : getClient(session, service.getClientId());
+
+        ServiceAcl acl = owner != null
+                ? ServiceAcl.compile(owner, getAccessRights(session, owner, service.getServiceCode()))
+                : ServiceAcl.DENY_ALL;
+
+        return createServiceAccessDescriptor(service, serviceType, acl);
+    }
+
+    static ServiceAccessDescriptor createServiceAccessDescriptor(ServiceId service, ServiceType serviceType,
+            ServiceAcl acl) {
+        if (serviceType == null) {
+            return new ServiceAccessDescriptor(service, false, null, null, DEFAULT_SERVICE_TIMEOUT, null,
+                    Collections.emptyList(), acl);
+        }
+
+        ServiceDescriptionType serviceDescription = serviceType.getServiceDescription();
+        String disabledNotice = null;
+
+        if (serviceDescription.isDisabled()) {
+            disabledNotice = serviceDescription.getDisabledNotice() != null
+                    ? serviceDescription.getDisabledNotice() : String.format("Service '%s' is disabled", service);
+        }
+
+        return new ServiceAccessDescriptor(service, true, serviceDescription.getType(), serviceType.getUrl(),
+                serviceType.getTimeout(), disabledNotice, new ArrayList<>(serviceType.getRequiredSecurityCategory()),
+                acl);
+    }
+
     private boolean internalIsQueryAllowed(Session session, ClientId client, ServiceId service, String method,
             String path) {
 
@@ -328,12 +364,7 @@ public class ServerConfImpl implements ServerConfProvider {
 
     @SuppressWarnings("squid:S3776")
     private boolean checkAccessRights(Session session, ClientId client, ServiceId service, String method, String path) {
-        final String normalizedPath;
-        if (path == null) {
-            normalizedPath = null;
-        } else {
-            normalizedPath = UriUtils.uriPathPercentDecode(URI.create(path).normalize().getRawPath(), true);
-        }
+        final String normalizedPath = ServiceAcl.normalizePath(path);
         return getEndpoints(session, client, service).stream().anyMatch(ep -> ep.matches(method, normalizedPath));
     }
 
@@ -372,7 +403,23 @@ public class ServerConfImpl implements ServerConfProvider {
                 .collect(Collectors.toList());
     }
 
-    private boolean subjectMatches(ClientType serviceOwner, XRoadId aclSubject, ClientId client) {
+    private List<AccessRightType> getAccessRights(Session session, ClientType serviceOwner, String serviceCode) {
+        final CriteriaBuilder cb = session.getCriteriaBuilder();
+        final CriteriaQuery<AccessRightType> query = cb.createQuery(AccessRightType.class);
+        final Root<ClientType> root = query.from(ClientType.class);
+        final Join<ClientType, AccessRightType> acl = root.join("acl");
+        final Join<AccessRightType, EndpointType> endpoint = acl.join("endpoint");
+        acl.fetch("endpoint");
+        acl.fetch("subjectId");
+
+        query.select(acl).where(cb.and(
+                cb.equal(root, serviceOwner),
+                cb.equal(endpoint.get("serviceCode"), serviceCode)));
+
+        return session.createQuery(query).setReadOnly(true).list();
+    }
+
+    protected boolean subjectMatches(ClientType serviceOwner, XRoadId aclSubject, ClientId client) {
         if (aclSubject instanceof GlobalGroupId) {
             return GlobalConf.isSubjectInGlobalGroup(client, (GlobalGroupId)aclSubject);
         } else if (aclSubject instanceof LocalGroupId) {
@@ -180,10 +180,30 @@ public interface ServerConfProvider {
      */
     String getServiceDescriptionURL(ServiceId service);
 
+    /**
+     * Returns the configuration needed for verifying access to the service. The default implementation
+     * collects it from the individual lookup methods.
+     * @param service the service identifier
+     * @return the service access descriptor
+     */
+    default ServiceAccessDescriptor getServiceAccessDescriptor(ServiceId service) {
+        return new ServiceAccessDescriptor(service, serviceExists(service), getDescriptionType(service),
+                getServiceAddress(service), getServiceTimeout(service), getDisabledNotice(service),
+                getRequiredCategories(service),
+                (client, method, path) -> isQueryAllowed(client, service, method, path));
+    }
+
     /**
      * Log serverconf statistics
      */
     default void logStatistics() {
         //NOP
     }
+
+    /**
+     * Loads the configuration into the caches before the first requests, if the implementation caches it
+     */
+    default void warmUp() {
+        //NOP
+    }
 }
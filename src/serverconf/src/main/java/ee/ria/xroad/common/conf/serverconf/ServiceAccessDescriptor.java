@@ -0,0 +1,79 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.serverconf;
+
+import ee.ria.xroad.common.conf.serverconf.model.DescriptionType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.SecurityCategoryId;
+import ee.ria.xroad.common.identifier.ServiceId;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Value;
+
+import java.util.Collection;
+
+/**
+ * The configuration of a service needed for verifying access to it, loaded with a single lookup
+ */
+@Value
+public class ServiceAccessDescriptor {
+
+    private final ServiceId serviceId;
+    private final boolean exists;
+    private final DescriptionType descriptionType;
+    private final String address;
+    private final int timeout;
+    private final String disabledNotice;
+    private final Collection<SecurityCategoryId> requiredCategories;
+
+    @Getter(AccessLevel.NONE)
+    private final Acl acl;
+
+    /**
+     * @param client the client identifier
+     * @param method the HTTP method or null
+     * @param path the request path or null
+     * @return true, if the client is allowed to invoke the service
+     */
+    public boolean isQueryAllowed(ClientId client, String method, String path) {
+        return client != null && acl.isQueryAllowed(client, method, path);
+    }
+
+    /**
+     * Access rights of the service
+     */
+    @FunctionalInterface
+    public interface Acl {
+        /**
+         * @param client the client identifier, not null
+         * @param method the HTTP method or null
+         * @param path the request path or null
+         * @return true, if the client is allowed to invoke the service
+         */
+        boolean isQueryAllowed(ClientId client, String method, String path);
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.serverconf;
+
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.serverconf.model.AccessRightType;
+import ee.ria.xroad.common.conf.serverconf.model.ClientType;
+import ee.ria.xroad.common.conf.serverconf.model.EndpointType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.GlobalGroupId;
+import ee.ria.xroad.common.identifier.LocalGroupId;
+import ee.ria.xroad.common.identifier.XRoadId;
+import ee.ria.xroad.common.util.UriUtils;
+
+import lombok.Value;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Access rights of one service, compiled so that they can be checked without the database.
+ * Local groups are resolved when compiling, global groups when checking. The endpoints are
+ * indexed by the client, so that only the entries of global groups are checked one by one.
+ */
+final class ServiceAcl implements ServiceAccessDescriptor.Acl {
+
+    static final ServiceAcl DENY_ALL = new ServiceAcl(Collections.emptyMap(), Collections.emptyList());
+
+    private final Map<ClientId, List<EndpointType>> clientEndpoints;
+
+    private final List<GlobalGroupEntry> globalGroupEntries;
+
+    private ServiceAcl(Map<ClientId, List<EndpointType>> clientEndpoints,
+            List<GlobalGroupEntry> globalGroupEntries) {
+        this.clientEndpoints = clientEndpoints;
+        this.globalGroupEntries = globalGroupEntries;
+    }
+
+    /**
+     * @param owner the service owner, its local groups must be loaded or loadable
+     * @param accessRights the access rights of the service with subjects and endpoints loaded
+     * @return the compiled access rights
+     */
+    static ServiceAcl compile(ClientType owner, List<AccessRightType> accessRights) {
+        Map<ClientId, List<EndpointType>> clientEndpoints = new HashMap<>();
+        List<GlobalGroupEntry> globalGroupEntries = new ArrayList<>();
+
+        for (AccessRightType right : accessRights) {
+            XRoadId subject = right.getSubjectId();
+
+            if (subject instanceof GlobalGroupId) {
+                globalGroupEntries.add(new GlobalGroupEntry((GlobalGroupId) subject, right.getEndpoint()));
+            } else if (subject instanceof LocalGroupId) {
+                String groupCode = ((LocalGroupId) subject).getGroupCode();
+
+                owner.getLocalGroup().stream()
+                        .filter(g -> Objects.equals(groupCode, g.getGroupCode()))
+                        .flatMap(g -> g.getGroupMember().stream())
+                        .forEach(m -> addEndpoint(clientEndpoints, m.getGroupMemberId(), right.getEndpoint()));
+            } else if (subject instanceof ClientId) {
+                addEndpoint(clientEndpoints, (ClientId) subject, right.getEndpoint());
+            }
+            // other subject types never match a client
+        }
+
+        return new ServiceAcl(clientEndpoints, globalGroupEntries);
+    }
+
+    @Override
+    public boolean isQueryAllowed(ClientId client, String method, String path) {
+        String normalizedPath = normalizePath(path);
+
+        for (EndpointType endpoint : clientEndpoints.getOrDefault(client, Collections.emptyList())) {
+            if (endpoint.matches(method, normalizedPath)) {
+                return true;
+            }
+        }
+
+        for (GlobalGroupEntry entry : globalGroupEntries) {
+            if (entry.getEndpoint().matches(method, normalizedPath)
+                    && GlobalConf.isSubjectInGlobalGroup(client, entry.getGroup())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    static String normalizePath(String path) {
+        if (path == null) {
+            return null;
+        }
+
+        return UriUtils.uriPathPercentDecode(URI.create(path).normalize().getRawPath(), true);
+    }
+
+    private static void addEndpoint(Map<ClientId, List<EndpointType>> clientEndpoints, ClientId client,
+            EndpointType endpoint) {
+        clientEndpoints.computeIfAbsent(copyOf(client), c -> new ArrayList<>()).add(endpoint);
+    }
+
+    static ClientId copyOf(ClientId id) {
+        return ClientId.create(id.getXRoadInstance(), id.getMemberClass(), id.getMemberCode(), id.getSubsystemCode());
+    }
+
+    @Value
+    private static class GlobalGroupEntry {
+        private final GlobalGroupId group;
+        private final EndpointType endpoint;
+    }
+}
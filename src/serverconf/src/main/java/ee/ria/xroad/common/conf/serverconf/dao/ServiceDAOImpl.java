@@ -71,6 +71,17 @@ public class ServiceDAOImpl extends AbstractDAOImpl<ServiceType> {
         return serviceType;
     }
 
+    /**
+     * Returns the service object for the given service identifier with its service description, owner and
+     * required security categories fetched in a single query, or null if the service cannot be found.
+     * @param session the session
+     * @param id the service identifier
+     * @return the service object
+     */
+    public ServiceType getServiceWithSecurityCategories(Session session, ServiceId id) {
+        return find(session, id, " left join fetch s.requiredSecurityCategory");
+    }
+
     /**
      * Returns true, if service with the specified identifier exists.
      * @param session the session
@@ -134,12 +145,17 @@ public class ServiceDAOImpl extends AbstractDAOImpl<ServiceType> {
         return services;
     }
 
-    @SuppressWarnings("squid:S1192")
     private ServiceType find(Session session, ServiceId id) {
+        return find(session, id, "");
+    }
+
+    @SuppressWarnings("squid:S1192")
+    private ServiceType find(Session session, ServiceId id, String additionalFetch) {
         StringBuilder qb = new StringBuilder();
         qb.append("select s from ServiceType s");
         qb.append(" inner join fetch s.serviceDescription w");
         qb.append(" inner join fetch w.client c");
+        qb.append(additionalFetch);
 
         qb.append(" where s.serviceCode = :serviceCode");
         qb.append(" and s.serviceVersion "
@@ -0,0 +1,204 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.conf;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.conf.globalconf.EmptyGlobalConf;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.serverconf.CachingServerConfImpl;
+import ee.ria.xroad.common.conf.serverconf.IsAuthentication;
+import ee.ria.xroad.common.conf.serverconf.ServerConf;
+import ee.ria.xroad.common.conf.serverconf.dao.ServerConfDAOImpl;
+import ee.ria.xroad.common.conf.serverconf.model.ClientType;
+import ee.ria.xroad.common.conf.serverconf.model.DescriptionType;
+import ee.ria.xroad.common.conf.serverconf.model.EndpointType;
+import ee.ria.xroad.common.conf.serverconf.model.GroupMemberType;
+import ee.ria.xroad.common.conf.serverconf.model.LocalGroupType;
+import ee.ria.xroad.common.conf.serverconf.model.ServerConfType;
+import ee.ria.xroad.common.conf.serverconf.model.ServiceDescriptionType;
+import ee.ria.xroad.common.conf.serverconf.model.ServiceType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.LocalGroupId;
+import ee.ria.xroad.common.identifier.SecurityServerId;
+import ee.ria.xroad.common.identifier.ServiceId;
+
+import org.hibernate.stat.Statistics;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static ee.ria.xroad.common.conf.serverconf.ServerConfDatabaseCtx.doInTransaction;
+import static ee.ria.xroad.common.db.HibernateUtil.getSessionFactory;
+import static ee.ria.xroad.proxy.conf.TestUtil.SERVICE_URL;
+import static ee.ria.xroad.proxy.conf.TestUtil.SERVICE_VERSION;
+import static ee.ria.xroad.proxy.conf.TestUtil.client;
+import static ee.ria.xroad.proxy.conf.TestUtil.createAccessRight;
+import static ee.ria.xroad.proxy.conf.TestUtil.createTestClientId;
+import static ee.ria.xroad.proxy.conf.TestUtil.createTestServiceId;
+import static ee.ria.xroad.proxy.conf.TestUtil.prepareDB;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests loading the serverconf caches before the first requests.
+ */
+public class CachingServerConfWarmUpTest {
+
+    private static final String BULK_MEMBER = "bulk";
+    private static final String BULK_GROUP = "bulkGroup";
+
+    private static final int NUM_BULK_SERVICEDESCRIPTIONS = 100;
+    private static final int NUM_BULK_SERVICES = 100;
+    private static final int NUM_BULK_ACL_SERVICES = 10;
+
+    /**
+     * Creates test database with 10 000 additional services.
+     * @throws Exception if an error occurs
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        System.setProperty(SystemProperties.SERVER_CONF_SERVICE_CACHE_SIZE, "20000");
+
+        prepareDB();
+        addBulkServices();
+
+        GlobalConf.reload(new EmptyGlobalConf() {
+            @Override
+            public boolean isSecurityServerClient(ClientId client, SecurityServerId securityServer) {
+                return true;
+            }
+        });
+        ServerConf.reload(new CachingServerConfImpl());
+    }
+
+    /**
+     * Restores the service cache size.
+     */
+    @AfterClass
+    public static void tearDownAfterClass() {
+        System.clearProperty(SystemProperties.SERVER_CONF_SERVICE_CACHE_SIZE);
+    }
+
+    /**
+     * Tests that the first requests after the warm-up do not query the database.
+     */
+    @Test
+    public void firstRequestsDoNotQueryDatabase() {
+        ServerConf.warmUp();
+
+        Statistics statistics = getSessionFactory("serverconf").getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+
+        for (int i = 0; i < NUM_BULK_SERVICEDESCRIPTIONS * NUM_BULK_SERVICES; i++) {
+            assertTrue(ServerConf.serviceExists(bulkService(i)));
+            assertEquals(SERVICE_URL + i, ServerConf.getServiceAddress(bulkService(i)));
+        }
+
+        assertEquals(IsAuthentication.SSLAUTH, ServerConf.getIsAuthentication(createTestClientId(client(1))));
+        assertEquals(IsAuthentication.NOSSL, ServerConf.getIsAuthentication(createTestClientId(BULK_MEMBER)));
+
+        assertTrue(ServerConf.isQueryAllowed(createTestClientId(client(1)), bulkService(0)));
+        assertTrue(ServerConf.isQueryAllowed(createTestClientId(client(2)), bulkService(1)));
+
+        assertEquals(0, statistics.getPrepareStatementCount());
+
+        // access rights of clients that were not given access are still loaded on demand
+        assertFalse(ServerConf.isQueryAllowed(createTestClientId(client(3)), bulkService(0)));
+        assertTrue(statistics.getPrepareStatementCount() > 0);
+
+        statistics.setStatisticsEnabled(false);
+    }
+
+    private static ServiceId bulkService(int idx) {
+        return createTestServiceId(createTestClientId(BULK_MEMBER), BULK_MEMBER + "-" + idx, SERVICE_VERSION);
+    }
+
+    private static void addBulkServices() throws Exception {
+        doInTransaction(session -> {
+            ServerConfType conf = new ServerConfDAOImpl().getConf(session);
+
+            ClientType client = new ClientType();
+            client.setConf(conf);
+            client.setIdentifier(createTestClientId(BULK_MEMBER));
+            client.setClientStatus(ClientType.STATUS_REGISTERED);
+            client.setIsAuthentication(IsAuthentication.NOSSL.name());
+            conf.getClient().add(client);
+
+            for (int i = 0; i < NUM_BULK_SERVICEDESCRIPTIONS; i++) {
+                ServiceDescriptionType serviceDescription = new ServiceDescriptionType();
+                serviceDescription.setClient(client);
+                serviceDescription.setUrl(BULK_MEMBER + i);
+                serviceDescription.setType(DescriptionType.WSDL);
+
+                for (int j = 0; j < NUM_BULK_SERVICES; j++) {
+                    int idx = i * NUM_BULK_SERVICES + j;
+
+                    ServiceType service = new ServiceType();
+                    service.setServiceDescription(serviceDescription);
+                    service.setServiceCode(BULK_MEMBER + "-" + idx);
+                    service.setServiceVersion(SERVICE_VERSION);
+                    service.setUrl(SERVICE_URL + idx);
+
+                    serviceDescription.getService().add(service);
+                }
+
+                client.getServiceDescription().add(serviceDescription);
+            }
+
+            GroupMemberType groupMember = new GroupMemberType();
+            groupMember.setAdded(new Date());
+            groupMember.setGroupMemberId(createTestClientId(client(2)));
+
+            LocalGroupType localGroup = new LocalGroupType();
+            localGroup.setGroupCode(BULK_GROUP);
+            localGroup.setDescription(BULK_GROUP);
+            localGroup.setUpdated(new Date());
+            localGroup.getGroupMember().add(groupMember);
+            client.getLocalGroup().add(localGroup);
+
+            // even services are allowed for client 1 directly, odd services for the members of the local group
+            for (int idx = 0; idx < NUM_BULK_ACL_SERVICES; idx++) {
+                EndpointType endpoint = new EndpointType(BULK_MEMBER + "-" + idx, "*", "**", false);
+                session.persist(endpoint);
+                client.getEndpoint().add(endpoint);
+
+                if (idx % 2 == 0) {
+                    client.getAcl().add(createAccessRight(endpoint, createTestClientId(client(1))));
+                } else {
+                    client.getAcl().add(createAccessRight(endpoint, LocalGroupId.create(BULK_GROUP)));
+                }
+            }
+
+            session.save(client);
+
+            return null;
+        });
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.conf;
+
+import ee.ria.xroad.common.conf.globalconf.EmptyGlobalConf;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.serverconf.CachingServerConfImpl;
+import ee.ria.xroad.common.conf.serverconf.ServerConfImpl;
+import ee.ria.xroad.common.conf.serverconf.ServiceAccessDescriptor;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.ServiceId;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static ee.ria.xroad.proxy.conf.TestUtil.CLIENT_CODE;
+import static ee.ria.xroad.proxy.conf.TestUtil.NUM_CLIENTS;
+import static ee.ria.xroad.proxy.conf.TestUtil.NUM_SERVICEDESCRIPTIONS;
+import static ee.ria.xroad.proxy.conf.TestUtil.NUM_SERVICES;
+import static ee.ria.xroad.proxy.conf.TestUtil.SERVICE_VERSION;
+import static ee.ria.xroad.proxy.conf.TestUtil.SUBSYSTEM;
+import static ee.ria.xroad.proxy.conf.TestUtil.client;
+import static ee.ria.xroad.proxy.conf.TestUtil.createTestClientId;
+import static ee.ria.xroad.proxy.conf.TestUtil.createTestServiceId;
+import static ee.ria.xroad.proxy.conf.TestUtil.prepareDB;
+import static ee.ria.xroad.proxy.conf.TestUtil.service;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the service access descriptor is equivalent to the individual server conf lookups.
+ */
+public class ServiceAccessDescriptorTest {
+
+    private static final String[][] REQUESTS = {
+        {null, null},
+        {"GET", "/api/foo"},
+        {"POST", "/api/test/foo"},
+        {"POST", "/api/t%65st/foo"},
+        {"POST", "/api/test/../bar"},
+        {"DELETE", "/api/test"}
+    };
+
+    private final ServerConfImpl serverConf = new ServerConfImpl();
+
+    /**
+     * Creates test database.
+     * @throws Exception if an error occurs
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        prepareDB();
+
+        GlobalConf.reload(new EmptyGlobalConf());
+    }
+
+    /**
+     * Tests that the descriptor matches the individual lookups for every service.
+     */
+    @Test
+    public void descriptorMatchesIndividualLookups() {
+        for (ServiceId service : getServices()) {
+            assertEquivalent(service, serverConf.getServiceAccessDescriptor(service));
+        }
+    }
+
+    /**
+     * Tests that the descriptors filled by the cache warm-up match the individual lookups.
+     */
+    @Test
+    public void warmedUpDescriptorMatchesIndividualLookups() {
+        CachingServerConfImpl cachingServerConf = new CachingServerConfImpl();
+        cachingServerConf.warmUp();
+
+        for (ServiceId service : getServices()) {
+            assertEquivalent(service, cachingServerConf.getServiceAccessDescriptor(service));
+        }
+    }
+
+    /**
+     * Tests the descriptor of a service that does not exist.
+     */
+    @Test
+    public void unknownService() {
+        ServiceId service = createTestServiceId(createTestClientId(client(1)), "foo", SERVICE_VERSION);
+        ServiceAccessDescriptor descriptor = serverConf.getServiceAccessDescriptor(service);
+
+        assertFalse(descriptor.isExists());
+        assertTrue(descriptor.getRequiredCategories().isEmpty());
+        assertEquivalent(service, descriptor);
+    }
+
+    /**
+     * Tests that a client is allowed to invoke a service through a local group.
+     */
+    @Test
+    public void localGroupMemberIsAllowed() {
+        ServiceId service = createTestServiceId(createTestClientId(client(1)), service(1, 1), SERVICE_VERSION);
+        ClientId groupMember = ClientId.create("XX", "memberClass", "memberCode1");
+
+        assertTrue(serverConf.getServiceAccessDescriptor(service).isQueryAllowed(groupMember, null, null));
+        assertFalse(serverConf.getServiceAccessDescriptor(service).isQueryAllowed(null, null, null));
+    }
+
+    private void assertEquivalent(ServiceId service, ServiceAccessDescriptor descriptor) {
+        assertEquals(service.toString(), serverConf.serviceExists(service), descriptor.isExists());
+        assertEquals(service.toString(), serverConf.getDescriptionType(service), descriptor.getDescriptionType());
+        assertEquals(service.toString(), serverConf.getServiceAddress(service), descriptor.getAddress());
+        assertEquals(service.toString(), serverConf.getServiceTimeout(service), descriptor.getTimeout());
+        assertEquals(service.toString(), serverConf.getDisabledNotice(service), descriptor.getDisabledNotice());
+        assertEquals(service.toString(), new ArrayList<>(serverConf.getRequiredCategories(service)),
+                new ArrayList<>(descriptor.getRequiredCategories()));
+
+        for (ClientId client : getClients()) {
+            for (String[] request : REQUESTS) {
+                assertEquals(service + " " + client + " " + request[0] + " " + request[1],
+                        serverConf.isQueryAllowed(client, service, request[0], request[1]),
+                        descriptor.isQueryAllowed(client, request[0], request[1]));
+            }
+        }
+    }
+
+    private static List<ServiceId> getServices() {
+        List<ServiceId> services = new ArrayList<>();
+
+        for (int i = 1; i < NUM_CLIENTS; i++) {
+            ClientId provider = i == NUM_CLIENTS - 1
+                    ? createTestClientId(client(i), SUBSYSTEM) : createTestClientId(client(i));
+
+            for (int j = 0; j < NUM_SERVICEDESCRIPTIONS; j++) {
+                for (int k = 0; k < NUM_SERVICES; k++) {
+                    String version = k == NUM_SERVICES - 2 ? null : SERVICE_VERSION;
+                    services.add(createTestServiceId(provider, service(j, k), version));
+                }
+            }
+
+            services.add(createTestServiceId(provider, "rest", null));
+        }
+
+        return services;
+    }
+
+    private static List<ClientId> getClients() {
+        List<ClientId> clients = new ArrayList<>();
+
+        for (int i = 0; i < NUM_CLIENTS; i++) {
+            clients.add(createTestClientId(client(i)));
+            clients.add(ClientId.create("XX", "memberClass", "memberCode" + i));
+        }
+
+        clients.add(createTestClientId(client(NUM_CLIENTS - 1), SUBSYSTEM));
+        clients.add(createTestClientId(CLIENT_CODE + "X"));
+
+        return clients;
+    }
+}
@@ -26,6 +26,7 @@
 package ee.ria.xroad.signer.console;
 
 import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.util.OcspResponseUtils;
 import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
 import ee.ria.xroad.signer.protocol.dto.KeyInfo;
 import ee.ria.xroad.signer.protocol.dto.TokenInfo;
@@ -34,7 +35,6 @@ import lombok.SneakyThrows;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.bouncycastle.cert.ocsp.BasicOCSPResp;
 import org.bouncycastle.cert.ocsp.CertificateStatus;
 import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.bouncycastle.cert.ocsp.SingleResp;
@@ -44,6 +44,7 @@ import java.io.FileOutputStream;
 
 import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
 import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
+import static ee.ria.xroad.common.util.CryptoUtils.readCertificate;
 
 final class Utils {
 
@@ -107,7 +108,7 @@ final class Utils {
                 System.out.println(padding + "Status:        " + cert.getStatus());
                 System.out.println(padding + "Member:        " + cert.getMemberId());
                 System.out.println(padding + "Hash:          " + hash(cert));
-                System.out.println(padding + "OCSP:          " + getOcspStatus(cert.getOcspBytes()));
+                System.out.println(padding + "OCSP:          " + getOcspStatus(cert));
                 System.out.println(padding + "Saved to conf: " + cert.isSavedToConfiguration());
             });
 
@@ -171,14 +172,17 @@ final class Utils {
     }
 
     @SneakyThrows
-    static String getOcspStatus(byte[] ocspBytes) {
-        if (ocspBytes == null) {
+    static String getOcspStatus(CertificateInfo cert) {
+        if (cert.getOcspBytes() == null) {
+            return "<not available>";
+        }
+
+        OCSPResp response = new OCSPResp(cert.getOcspBytes());
+        SingleResp resp = OcspResponseUtils.getSingleResp(response, readCertificate(cert.getCertificateBytes()));
+        if (resp == null) {
             return "<not available>";
         }
 
-        OCSPResp response = new OCSPResp(ocspBytes);
-        BasicOCSPResp basicResponse = (BasicOCSPResp) response.getResponseObject();
-        SingleResp resp = basicResponse.getResponses()[0];
         CertificateStatus status = resp.getCertStatus();
 
         if (status == CertificateStatus.GOOD) {
@@ -36,6 +36,7 @@ import akka.actor.Identify;
 import akka.actor.Props;
 import akka.actor.Terminated;
 import akka.actor.UntypedAbstractActor;
+import akka.pattern.AskTimeoutException;
 import akka.pattern.Patterns;
 import akka.util.Timeout;
 import lombok.extern.slf4j.Slf4j;
@@ -44,6 +45,7 @@ import scala.concurrent.Await;
 import java.time.Duration;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -112,6 +114,36 @@ public final class SignerClient {
         }
     }
 
+    /**
+     * Sends a message without waiting for the response. The returned future is completed
+     * with the response, or exceptionally if the response is an exception or the request times out.
+     * @param <T>     the type of result
+     * @param message the message
+     * @return future of the response
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> CompletableFuture<T> executeAsync(Object message) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        Patterns.ask(requestProcessor(), message, Duration.ofMillis(TIMEOUT.duration().toMillis()))
+                .whenComplete((response, error) -> {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+
+                    if (cause instanceof AskTimeoutException) {
+                        result.completeExceptionally(
+                                new CodedException(X_INTERNAL_ERROR, cause, "Request to Signer timed out"));
+                    } else if (cause != null) {
+                        result.completeExceptionally(cause);
+                    } else if (response instanceof Throwable) {
+                        result.completeExceptionally((Throwable) response);
+                    } else {
+                        result.complete((T) response);
+                    }
+                });
+
+        return result;
+    }
+
     /**
      * Returns the object as the instance or throws exception, if the object
      * is throwable.
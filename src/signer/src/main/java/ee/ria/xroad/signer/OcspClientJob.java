@@ -26,11 +26,15 @@
 package ee.ria.xroad.signer;
 
 import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.conf.globalconfextension.OcspFetchInterval;
 import ee.ria.xroad.signer.certmanager.OcspClientWorker;
 
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import scala.concurrent.duration.FiniteDuration;
 
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import static ee.ria.xroad.signer.certmanager.OcspClientWorker.GLOBAL_CONF_INVALIDATED;
@@ -55,9 +59,16 @@ public class OcspClientJob extends OcspRetrievalJob {
     private static final int RECOVER_FROM_INVALID_GLOBALCONF_DELAY = 60;
     private static final int RETRY_DELAY = SystemProperties.getOcspResponseRetryDelay();
 
+    // the refresh is scheduled up to this percentage of the delay earlier so that the
+    // responders do not receive the requests of all security servers at the same time
+    private static final int REFRESH_JITTER_PERCENT = 10;
+
     //flag for indicating backoff retry state
     private boolean retryMode = false;
 
+    // earliest nextUpdate of the responses fetched in the last refresh cycle
+    private Date nextUpdate;
+
     OcspClientJob() {
         super(OCSP_CLIENT, OcspClientWorker.EXECUTE);
     }
@@ -73,13 +84,36 @@ public class OcspClientJob extends OcspRetrievalJob {
             log.info("Next OCSP refresh retry scheduled in {} seconds", RETRY_DELAY);
             return FiniteDuration.create(RETRY_DELAY, TimeUnit.SECONDS);
         } else {
-            log.info("Next OCSP refresh scheduled in {} seconds", OcspClientWorker.getNextOcspFetchIntervalSeconds());
-            return FiniteDuration.create(
-                    OcspClientWorker.getNextOcspFetchIntervalSeconds(),
-                    TimeUnit.SECONDS);
+            long delay = getNextRefreshDelaySeconds(OcspClientWorker.getNextOcspFetchIntervalSeconds(), nextUpdate,
+                    new Date());
+            log.info("Next OCSP refresh scheduled in {} seconds", delay);
+            return FiniteDuration.create(delay, TimeUnit.SECONDS);
         }
     }
 
+    /**
+     * Calculates the delay of the next refresh. The refresh is done before the earliest nextUpdate
+     * of the fetched responses if it comes sooner than the fetch interval. The delay is shortened
+     * by a random jitter but never below the minimum fetch interval.
+     * @param fetchIntervalSeconds the OCSP fetch interval
+     * @param nextUpdate the earliest nextUpdate of the fetched responses, may be null
+     * @param now the current time
+     * @return the delay in seconds
+     */
+    static long getNextRefreshDelaySeconds(int fetchIntervalSeconds, Date nextUpdate, Date now) {
+        long delay = fetchIntervalSeconds;
+
+        if (nextUpdate != null) {
+            delay = Math.min(delay, TimeUnit.MILLISECONDS.toSeconds(nextUpdate.getTime() - now.getTime()));
+        }
+
+        if (delay > 0) {
+            delay -= ThreadLocalRandom.current().nextLong(delay * REFRESH_JITTER_PERCENT / 100 + 1);
+        }
+
+        return Math.max(delay, OcspFetchInterval.OCSP_FETCH_INTERVAL_MIN);
+    }
+
     private FiniteDuration getNextDelayForInvalidGlobalConf() {
         return FiniteDuration.create(RECOVER_FROM_INVALID_GLOBALCONF_DELAY, TimeUnit.SECONDS);
     }
@@ -97,6 +131,15 @@ public class OcspClientJob extends OcspRetrievalJob {
             log.debug("received message OcspClientJob.SUCCESS");
             log.info("OCSP-response refresh cycle successfully completed, continuing with normal scheduling");
             retryMode = false;
+        } else if (incoming instanceof NextUpdate) {
+            log.debug("received message OcspClientJob.NextUpdate");
+            nextUpdate = ((NextUpdate) incoming).getNextUpdate();
+
+            if (!retryMode) {
+                // the responses may need to be refreshed before the fetch interval elapses
+                cancelNextSend();
+                scheduleNextSend(getNextDelay());
+            }
         } else if (FAILED.equals(incoming)) {
             log.debug("received message OcspClientJob.FAILED");
             if (!retryMode) {
@@ -122,10 +165,23 @@ public class OcspClientJob extends OcspRetrievalJob {
             scheduleNextSend(getNextDelayForInvalidGlobalConf());
             retryMode = false;
         } else {
+            if (OcspClientWorker.EXECUTE.equals(incoming)) {
+                // schedule by the fetch interval until the new responses have been fetched
+                nextUpdate = null;
+            }
             // received either EXECUTE (VariableIntervalPeriodicJob
             // executes, and schedules next EXECUTE) or something else
             // (which is dismissed in VariableIntervalPeriodicJob)
             super.onReceive(incoming);
         }
     }
+
+    /**
+     * Message sent by {@link OcspClientWorker} after a successful refresh cycle, carrying the
+     * earliest nextUpdate of the fetched responses.
+     */
+    @Value
+    public static class NextUpdate {
+        private final Date nextUpdate;
+    }
 }
@@ -51,6 +51,7 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -137,6 +138,30 @@ final class OcspClient {
         return response;
     }
 
+    /**
+     * Fetches the status of several certificates issued by the same CA using one OCSP request.
+     * The returned response contains a single response for each of the subject certificates.
+     */
+    static OCSPResp fetchResponse(String responderURI, List<X509Certificate> subjects, X509Certificate issuer,
+            PrivateKey signerKey, X509Certificate signer, String signAlgoId) throws Exception {
+        HttpURLConnection connection = createConnection(responderURI);
+
+        OCSPReq ocspRequest = createRequest(subjects, issuer, signerKey, signer, signAlgoId);
+
+        log.debug("Fetching status of {} certificates issued by '{}' from responder: {}", subjects.size(),
+                issuer.getSubjectX500Principal(), connection.getURL());
+
+        sendRequest(connection, ocspRequest);
+        verifyResponseCode(connection);
+
+        byte[] responseData = getResponseData(connection);
+        OCSPResp response = parseResponse(responseData);
+
+        verifyResponse(response);
+
+        return response;
+    }
+
     private static byte[] getResponseData(HttpURLConnection connection) throws IOException {
         byte[] responseData = IOUtils.toByteArray((InputStream) connection.getContent());
 
@@ -199,17 +224,24 @@ final class OcspClient {
 
     private static OCSPReq createRequest(X509Certificate subjectCert, X509Certificate issuerCert, PrivateKey signerKey,
             X509Certificate signerCert, String signAlgoId) throws Exception {
+        return createRequest(Collections.singletonList(subjectCert), issuerCert, signerKey, signerCert, signAlgoId);
+    }
+
+    private static OCSPReq createRequest(List<X509Certificate> subjectCerts, X509Certificate issuerCert,
+            PrivateKey signerKey, X509Certificate signerCert, String signAlgoId) throws Exception {
         OCSPReqBuilder requestBuilder = new OCSPReqBuilder();
 
-        CertificateID id = CryptoUtils.createCertId(subjectCert, issuerCert);
-        requestBuilder.addRequest(id);
+        for (X509Certificate subjectCert : subjectCerts) {
+            CertificateID id = CryptoUtils.createCertId(subjectCert, issuerCert);
+            requestBuilder.addRequest(id);
+        }
 
         if (signerKey != null && signerCert != null) {
             X509CertificateHolder signerCertHolder = new X509CertificateHolder(signerCert.getEncoded());
             ContentSigner contentSigner = CryptoUtils.createContentSigner(signAlgoId, signerKey);
 
-            log.trace("Creating signed OCSP request for certificate '{}' (signed by {})",
-                    subjectCert.getSubjectX500Principal(), signerCertHolder.getSubject());
+            log.trace("Creating signed OCSP request for {} certificate(s) issued by '{}' (signed by {})",
+                    subjectCerts.size(), issuerCert.getSubjectX500Principal(), signerCertHolder.getSubject());
 
             // needs to be set when generating signed requests
             requestBuilder.setRequestorName(signerCertHolder.getSubject());
@@ -217,7 +249,8 @@ final class OcspClient {
             return requestBuilder.build(contentSigner, new X509CertificateHolder[] {signerCertHolder});
         }
 
-        log.trace("Creating unsigned OCSP request for certificate '{}'", subjectCert.getSubjectX500Principal());
+        log.trace("Creating unsigned OCSP request for {} certificate(s) issued by '{}'", subjectCerts.size(),
+                issuerCert.getSubjectX500Principal());
 
         return requestBuilder.build();
     }
@@ -29,6 +29,7 @@ import ee.ria.xroad.common.CertificationServiceDiagnostics;
 import ee.ria.xroad.common.CertificationServiceStatus;
 import ee.ria.xroad.common.DiagnosticsErrorCodes;
 import ee.ria.xroad.common.OcspResponderStatus;
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.cert.CertChain;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.globalconfextension.GlobalConfExtensions;
@@ -46,9 +47,12 @@ import ee.ria.xroad.signer.util.SignerUtil;
 
 import akka.actor.ActorRef;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
 import org.bouncycastle.cert.ocsp.OCSPException;
 import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
 
 import java.io.IOException;
 import java.net.ConnectException;
@@ -57,6 +61,7 @@ import java.security.cert.X509Certificate;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -64,6 +69,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
 import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
@@ -77,7 +88,10 @@ import static java.util.Collections.emptyList;
  * This class is responsible for retrieving the OCSP responses from the OCSP
  * server and providing the responses to the message signer.
  *
- * The certificate status is queried from the server at a fixed interval.
+ * The certificate status is queried from the server at a fixed interval, or earlier if
+ * a received response declares an earlier nextUpdate. The queries are executed by a bounded
+ * pool of threads and, if enabled, statuses of certificates with the same issuer and
+ * responders are queried with one OCSP request.
  */
 @Slf4j
 @RequiredArgsConstructor
@@ -100,11 +114,23 @@ public class OcspClientWorker extends AbstractSignerActor {
 
     private CertificationServiceDiagnostics certServDiagnostics;
 
+    private ExecutorService queryExecutor;
+
     @Override
     public void preStart() throws Exception {
         super.preStart();
         changeChecker = new GlobalConfChangeChecker();
         certServDiagnostics = new CertificationServiceDiagnostics();
+        queryExecutor = Executors.newFixedThreadPool(Math.max(1, SystemProperties.getOcspMaxConcurrentRequests()));
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if (queryExecutor != null) {
+            queryExecutor.shutdownNow();
+        }
+
+        super.postStop();
     }
 
     @Override
@@ -211,30 +237,27 @@ public class OcspClientWorker extends AbstractSignerActor {
 
         log.info("Fetching OCSP responses for {} certificates", certs.size());
 
-        Boolean failed = false;
-        Map<String, OCSPResp> statuses = new HashMap<>();
+        OcspVerifierOptions verifierOptions = new OcspVerifierOptions(
+                GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate());
 
-        for (X509Certificate subject : certs) {
-            try {
-                OCSPResp status = queryCertStatus(subject, new OcspVerifierOptions(
-                        GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate()));
-                if (status != null) {
-                    String subjectHash = calculateCertHexHash(subject);
-                    statuses.put(subjectHash, status);
-                } else {
-                    failed = true;
-                }
-            } catch (Exception e) {
-                failed = true;
+        Map<String, OCSPResp> statuses = new ConcurrentHashMap<>();
 
-                log.error("Error when querying certificate '{}'", subject.getSerialNumber(), e);
-            }
-        }
+        List<Callable<Boolean>> tasks = SystemProperties.isOcspBatchRequestsEnabled()
+                ? createBatchedQueryTasks(certs, verifierOptions, statuses)
+                : createQueryTasks(certs, verifierOptions, statuses);
+
+        boolean failed = !executeQueryTasks(tasks);
 
         if (failed) {
             getSender().tell(FAILED, getSelf());
         } else {
             getSender().tell(SUCCESS, getSelf());
+
+            Date nextUpdate = getEarliestNextUpdate(statuses.values());
+
+            if (nextUpdate != null) {
+                getSender().tell(new OcspClientJob.NextUpdate(nextUpdate), getSelf());
+            }
         }
 
         try {
@@ -244,6 +267,120 @@ public class OcspClientWorker extends AbstractSignerActor {
         }
     }
 
+    private List<Callable<Boolean>> createQueryTasks(List<X509Certificate> certs,
+            OcspVerifierOptions verifierOptions, Map<String, OCSPResp> statuses) {
+        List<Callable<Boolean>> tasks = new ArrayList<>(certs.size());
+
+        for (X509Certificate subject : certs) {
+            tasks.add(() -> {
+                try {
+                    OCSPResp status = queryCertStatus(subject, verifierOptions);
+
+                    if (status == null) {
+                        return false;
+                    }
+
+                    statuses.put(calculateCertHexHash(subject), status);
+
+                    return true;
+                } catch (Exception e) {
+                    log.error("Error when querying certificate '{}'", subject.getSerialNumber(), e);
+
+                    return false;
+                }
+            });
+        }
+
+        return tasks;
+    }
+
+    private List<Callable<Boolean>> createBatchedQueryTasks(List<X509Certificate> certs,
+            OcspVerifierOptions verifierOptions, Map<String, OCSPResp> statuses) {
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        Map<BatchKey, List<X509Certificate>> batches = new HashMap<>();
+
+        for (X509Certificate subject : certs) {
+            try {
+                X509Certificate issuer = GlobalConf.getCaCert(GlobalConf.getInstanceIdentifier(), subject);
+                List<String> responderURIs = GlobalConf.getOcspResponderAddresses(subject);
+
+                batches.computeIfAbsent(new BatchKey(issuer, responderURIs), k -> new ArrayList<>()).add(subject);
+            } catch (Exception e) {
+                log.error("Error when querying certificate '{}'", subject.getSerialNumber(), e);
+
+                tasks.add(() -> false);
+            }
+        }
+
+        int maxBatchSize = Math.max(1, SystemProperties.getOcspMaxBatchSize());
+
+        for (Entry<BatchKey, List<X509Certificate>> batch : batches.entrySet()) {
+            List<X509Certificate> subjects = batch.getValue();
+
+            for (int i = 0; i < subjects.size(); i += maxBatchSize) {
+                List<X509Certificate> chunk = subjects.subList(i, Math.min(i + maxBatchSize, subjects.size()));
+
+                tasks.add(() -> {
+                    try {
+                        Map<String, OCSPResp> chunkStatuses = queryCertStatuses(chunk, batch.getKey().getIssuer(),
+                                batch.getKey().getResponderURIs(), verifierOptions);
+
+                        statuses.putAll(chunkStatuses);
+
+                        return chunkStatuses.size() == chunk.size();
+                    } catch (Exception e) {
+                        log.error("Error when querying status of {} certificates issued by '{}'", chunk.size(),
+                                batch.getKey().getIssuer().getSubjectX500Principal(), e);
+
+                        return false;
+                    }
+                });
+            }
+        }
+
+        return tasks;
+    }
+
+    private boolean executeQueryTasks(List<Callable<Boolean>> tasks) {
+        boolean success = true;
+
+        try {
+            for (Future<Boolean> result : queryExecutor.invokeAll(tasks)) {
+                success &= result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return false;
+        } catch (ExecutionException e) {
+            log.error("Error when querying certificate statuses", e.getCause());
+
+            return false;
+        }
+
+        return success;
+    }
+
+    private static Date getEarliestNextUpdate(Collection<OCSPResp> responses) {
+        Date earliest = null;
+
+        for (OCSPResp response : responses) {
+            try {
+                for (SingleResp singleResp : ((BasicOCSPResp) response.getResponseObject()).getResponses()) {
+                    Date nextUpdate = singleResp.getNextUpdate();
+
+                    if (nextUpdate != null && (earliest == null || nextUpdate.before(earliest))) {
+                        earliest = nextUpdate;
+                    }
+                }
+            } catch (OCSPException e) {
+                log.debug("Unable to read nextUpdate from OCSP response", e);
+            }
+        }
+
+        return earliest;
+    }
+
     List<X509Certificate> getCertsForOcsp() {
         Set<X509Certificate> certs = new HashSet<>();
 
@@ -294,6 +431,66 @@ public class OcspClientWorker extends AbstractSignerActor {
 
         List<String> responderURIs = GlobalConf.getOcspResponderAddresses(subject);
 
+        OCSPResp response = fetchResponse(responderURIs, issuer, responderURI ->
+                OcspClient.fetchResponse(responderURI, subject, issuer, signerKey, signer, signAlgoId));
+
+        try {
+            log.debug("Verifying response: {}", response);
+
+            OcspVerifier verifier = new OcspVerifier(GlobalConf.getOcspFreshnessSeconds(true), verifierOptions);
+            verifier.verifyValidity(response, subject, issuer);
+
+            log.debug("Received OCSP response for certificate '{}'", subject.getSubjectX500Principal());
+            log.debug("Verification successful");
+
+            return response;
+        } catch (Exception e) {
+            log.warn("Received OCSP response that failed verification", e);
+
+            return null;
+        }
+    }
+
+    /**
+     * Queries the status of several certificates of the same issuer with one OCSP request.
+     * @return the verified responses by certificate hash, certificates whose status could not be
+     * verified are left out
+     */
+    Map<String, OCSPResp> queryCertStatuses(List<X509Certificate> subjects, X509Certificate issuer,
+            List<String> responderURIs, OcspVerifierOptions verifierOptions) throws Exception {
+        PrivateKey signerKey = OcspClient.getOcspRequestKey(subjects.get(0));
+        X509Certificate signer = OcspClient.getOcspSignerCert();
+        String signAlgoId = OcspClient.getSignAlgorithmId();
+
+        OCSPResp response = fetchResponse(responderURIs, issuer, responderURI ->
+                OcspClient.fetchResponse(responderURI, subjects, issuer, signerKey, signer, signAlgoId));
+
+        Map<String, OCSPResp> statuses = new HashMap<>();
+
+        if (response == null) {
+            return statuses;
+        }
+
+        OcspVerifier verifier = new OcspVerifier(GlobalConf.getOcspFreshnessSeconds(true), verifierOptions);
+
+        for (X509Certificate subject : subjects) {
+            try {
+                verifier.verifyValidity(response, subject, issuer);
+
+                log.debug("Received OCSP response for certificate '{}'", subject.getSubjectX500Principal());
+
+                statuses.put(calculateCertHexHash(subject), response);
+            } catch (Exception e) {
+                log.warn("Received OCSP response for certificate '{}' that failed verification",
+                        subject.getSubjectX500Principal(), e);
+            }
+        }
+
+        return statuses;
+    }
+
+    private OCSPResp fetchResponse(List<String> responderURIs, X509Certificate issuer, ResponseFetcher fetcher)
+            throws Exception {
         log.debug("responder URIs: {}", responderURIs);
 
         if (responderURIs.isEmpty()) {
@@ -309,7 +506,7 @@ public class OcspClientWorker extends AbstractSignerActor {
 
             try {
                 log.debug("Fetching response from: {}", responderURI);
-                response = OcspClient.fetchResponse(responderURI, subject, issuer, signerKey, signer, signAlgoId);
+                response = fetcher.fetch(responderURI);
 
                 if (response != null) {
                     reportOcspDiagnostics(issuer, responderURI, DiagnosticsErrorCodes.RETURN_SUCCESS, prevUpdate,
@@ -332,24 +529,11 @@ public class OcspClientWorker extends AbstractSignerActor {
                         prevUpdate, nextUpdate);
             }
         }
-        try {
-            log.debug("Verifying response: {}", response);
 
-            OcspVerifier verifier = new OcspVerifier(GlobalConf.getOcspFreshnessSeconds(true), verifierOptions);
-            verifier.verifyValidity(response, subject, issuer);
-
-            log.debug("Received OCSP response for certificate '{}'", subject.getSubjectX500Principal());
-            log.debug("Verification successful");
-
-            return response;
-        } catch (Exception e) {
-            log.warn("Received OCSP response that failed verification", e);
-
-            return null;
-        }
+        return response;
     }
 
-    private void reportOcspDiagnostics(X509Certificate issuer, String responderURI, int statusCode,
+    private synchronized void reportOcspDiagnostics(X509Certificate issuer, String responderURI, int statusCode,
             OffsetDateTime prevUpdate, OffsetDateTime nextUpdate) {
 
         OcspResponderStatus responderStatus = new OcspResponderStatus(statusCode, responderURI, prevUpdate, nextUpdate);
@@ -489,6 +673,17 @@ public class OcspClientWorker extends AbstractSignerActor {
         }
     }
 
+    @FunctionalInterface
+    private interface ResponseFetcher {
+        OCSPResp fetch(String responderURI) throws Exception;
+    }
+
+    @Value
+    private static final class BatchKey {
+        private final X509Certificate issuer;
+        private final List<String> responderURIs;
+    }
+
     /**
      * @return the next ocsp freshness time in seconds
      */
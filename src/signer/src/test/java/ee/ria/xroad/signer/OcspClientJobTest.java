@@ -0,0 +1,98 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer;
+
+import ee.ria.xroad.common.conf.globalconfextension.OcspFetchInterval;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the OCSP refresh scheduling.
+ */
+public class OcspClientJobTest {
+
+    private static final int FETCH_INTERVAL = 1200;
+
+    /**
+     * Test.
+     */
+    @Test
+    public void delayIsJitteredFetchIntervalWithoutNextUpdate() {
+        Date now = new Date();
+
+        for (int i = 0; i < 100; i++) {
+            long delay = OcspClientJob.getNextRefreshDelaySeconds(FETCH_INTERVAL, null, now);
+
+            assertTrue(delay <= FETCH_INTERVAL);
+            assertTrue(delay >= FETCH_INTERVAL * 9 / 10);
+        }
+    }
+
+    /**
+     * Test.
+     */
+    @Test
+    public void delayFollowsEarlierNextUpdate() {
+        Date now = new Date();
+        Date nextUpdate = new Date(now.getTime() + TimeUnit.SECONDS.toMillis(600));
+
+        for (int i = 0; i < 100; i++) {
+            long delay = OcspClientJob.getNextRefreshDelaySeconds(FETCH_INTERVAL, nextUpdate, now);
+
+            assertTrue(delay <= 600);
+            assertTrue(delay >= 540);
+        }
+    }
+
+    /**
+     * Test.
+     */
+    @Test
+    public void laterNextUpdateIsIgnored() {
+        Date now = new Date();
+        Date nextUpdate = new Date(now.getTime() + TimeUnit.SECONDS.toMillis(FETCH_INTERVAL * 10));
+
+        assertTrue(OcspClientJob.getNextRefreshDelaySeconds(FETCH_INTERVAL, nextUpdate, now) <= FETCH_INTERVAL);
+    }
+
+    /**
+     * Test.
+     */
+    @Test
+    public void delayIsNeverBelowMinimumFetchInterval() {
+        Date now = new Date();
+        Date nextUpdate = new Date(now.getTime() - TimeUnit.SECONDS.toMillis(10));
+
+        assertEquals(OcspFetchInterval.OCSP_FETCH_INTERVAL_MIN,
+                OcspClientJob.getNextRefreshDelaySeconds(FETCH_INTERVAL, nextUpdate, now));
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.certmanager;
+
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.globalconf.GlobalConfProvider;
+import ee.ria.xroad.common.ocsp.OcspVerifier;
+import ee.ria.xroad.common.ocsp.OcspVerifierOptions;
+import ee.ria.xroad.common.util.CryptoUtils;
+
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.TestActorRef;
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.Req;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests querying the status of several certificates with one OCSP request.
+ */
+public class OcspClientBatchTest {
+
+    private static final int RESPONDER_PORT = 8092;
+
+    private static final String RESPONDER_URI = "http://127.0.0.1:" + RESPONDER_PORT;
+
+    private static final int OCSP_FRESHNESS_SECONDS = 3600;
+
+    private static final ActorSystem ACTOR_SYSTEM = ActorSystem.create();
+
+    private static final AtomicInteger REQUEST_COUNT = new AtomicInteger();
+    private static final AtomicInteger CERT_ID_COUNT = new AtomicInteger();
+    private static final Set<BigInteger> OMITTED_SERIALS = ConcurrentHashMap.newKeySet();
+
+    private static Server ocspResponder;
+
+    private TestActorRef<OcspClientWorker> testActor;
+    private OcspClientWorker ocspClient;
+
+    /**
+     * Test.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void statusesOfAllCertificatesAreFetchedWithOneRequest() throws Exception {
+        List<X509Certificate> subjects = getSubjects();
+
+        Map<String, OCSPResp> statuses = ocspClient.queryCertStatuses(subjects, TestCertUtil.getCaCert(),
+                Collections.singletonList(RESPONDER_URI), new OcspVerifierOptions(true));
+
+        assertEquals(1, REQUEST_COUNT.get());
+        assertEquals(subjects.size(), CERT_ID_COUNT.get());
+        assertEquals(subjects.size(), statuses.size());
+
+        OcspVerifier verifier = new OcspVerifier(GlobalConf.getOcspFreshnessSeconds(false),
+                new OcspVerifierOptions(true));
+
+        for (X509Certificate subject : subjects) {
+            OCSPResp response = statuses.get(calculateCertHexHash(subject));
+
+            verifier.verifyValidityAndStatus(response, subject, TestCertUtil.getCaCert());
+        }
+    }
+
+    /**
+     * Test.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void certificateMissingFromResponseIsLeftOut() throws Exception {
+        List<X509Certificate> subjects = getSubjects();
+        X509Certificate omitted = subjects.get(1);
+
+        OMITTED_SERIALS.add(omitted.getSerialNumber());
+
+        Map<String, OCSPResp> statuses = ocspClient.queryCertStatuses(subjects, TestCertUtil.getCaCert(),
+                Collections.singletonList(RESPONDER_URI), new OcspVerifierOptions(true));
+
+        assertEquals(1, REQUEST_COUNT.get());
+        assertEquals(subjects.size() - 1, statuses.size());
+        assertFalse(statuses.containsKey(calculateCertHexHash(omitted)));
+        assertTrue(statuses.containsKey(calculateCertHexHash(subjects.get(0))));
+    }
+
+    /**
+     * Test.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void failingResponderIsSkipped() throws Exception {
+        List<X509Certificate> subjects = getSubjects();
+
+        Map<String, OCSPResp> statuses = ocspClient.queryCertStatuses(subjects, TestCertUtil.getCaCert(),
+                Arrays.asList("http://127.0.0.1:1234", RESPONDER_URI), new OcspVerifierOptions(true));
+
+        assertEquals(1, REQUEST_COUNT.get());
+        assertEquals(subjects.size(), statuses.size());
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * BeforeClass
+     * @throws Exception if an error occurs
+     */
+    @BeforeClass
+    public static void doBeforeClass() throws Exception {
+        ocspResponder = new Server(RESPONDER_PORT);
+        ocspResponder.setHandler(new CountingOcspResponder());
+        ocspResponder.start();
+    }
+
+    /**
+     * Before
+     * @throws Exception if an error occurs
+     */
+    @Before
+    public void startup() throws Exception {
+        REQUEST_COUNT.set(0);
+        CERT_ID_COUNT.set(0);
+        OMITTED_SERIALS.clear();
+
+        GlobalConf.reload(getTestGlobalConf());
+
+        testActor = TestActorRef.create(ACTOR_SYSTEM, Props.create(OcspClientWorker.class));
+        ocspClient = testActor.underlyingActor();
+    }
+
+    /**
+     * After
+     * @throws Exception if an error occurs
+     */
+    @After
+    public void afterTest() throws Exception {
+        testActor.stop();
+    }
+
+    /**
+     * AfterClass
+     * @throws Exception if an error occurs
+     */
+    @AfterClass
+    public static void shutdown() throws Exception {
+        Await.ready(ACTOR_SYSTEM.terminate(), Duration.Inf());
+        if (ocspResponder != null) {
+            try {
+                ocspResponder.stop();
+            } finally {
+                ocspResponder = null;
+            }
+        }
+    }
+
+    private static List<X509Certificate> getSubjects() {
+        return Arrays.asList(TestCertUtil.getConsumer().certChain[0], TestCertUtil.getProducer().certChain[0],
+                TestCertUtil.getClient().certChain[0]);
+    }
+
+    private static GlobalConfProvider getTestGlobalConf() {
+        GlobalConfProvider testConf = mock(GlobalConfProvider.class);
+
+        when(testConf.getInstanceIdentifier()).thenReturn("TEST");
+
+        when(testConf.getOcspFreshnessSeconds(Mockito.anyBoolean())).thenReturn(OCSP_FRESHNESS_SECONDS);
+
+        when(testConf.getOcspResponderAddresses(Mockito.any(X509Certificate.class))).thenReturn(
+                Arrays.asList(RESPONDER_URI));
+
+        when(testConf.getOcspResponderCertificates()).thenReturn(
+                Arrays.asList(TestCertUtil.getOcspSigner().certChain[0]));
+
+        when(testConf.getCaCert(Mockito.any(String.class), Mockito.any(X509Certificate.class))).thenReturn(
+                TestCertUtil.getCaCert());
+
+        when(testConf.isOcspResponderCert(Mockito.any(X509Certificate.class),
+                Mockito.any(X509Certificate.class))).thenReturn(true);
+
+        return testConf;
+    }
+
+    /**
+     * OCSP responder that answers the status of every requested certificate as good and
+     * counts the received requests.
+     */
+    private static class CountingOcspResponder extends AbstractHandler {
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request,
+                HttpServletResponse response) throws IOException {
+            try {
+                REQUEST_COUNT.incrementAndGet();
+
+                OCSPReq ocspRequest = new OCSPReq(IOUtils.toByteArray(request.getInputStream()));
+                X509Certificate signer = TestCertUtil.getOcspSigner().certChain[0];
+
+                BasicOCSPRespBuilder builder = new BasicOCSPRespBuilder(
+                        new RespID(new X500Name(signer.getSubjectX500Principal().getName())));
+
+                Date thisUpdate = new Date();
+                Date nextUpdate = Date.from(Instant.now().plus(1, ChronoUnit.HOURS));
+
+                for (Req req : ocspRequest.getRequestList()) {
+                    CERT_ID_COUNT.incrementAndGet();
+
+                    if (!OMITTED_SERIALS.contains(req.getCertID().getSerialNumber())) {
+                        builder.addResponse(req.getCertID(), CertificateStatus.GOOD, thisUpdate, nextUpdate, null);
+                    }
+                }
+
+                OCSPResp ocspResponse = new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL,
+                        builder.build(CryptoUtils.createContentSigner(CryptoUtils.SHA256WITHRSA_ID,
+                                TestCertUtil.getOcspSigner().key), null, new Date()));
+
+                response.setContentType("application/ocsp-response");
+                response.getOutputStream().write(ocspResponse.getEncoded());
+            } catch (Exception e) {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+            } finally {
+                baseRequest.setHandled(true);
+            }
+        }
+    }
+}